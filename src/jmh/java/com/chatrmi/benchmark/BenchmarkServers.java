@@ -0,0 +1,66 @@
+package com.chatrmi.benchmark;
+
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.server.ChatServiceImpl;
+
+import java.rmi.RemoteException;
+
+/**
+ * Criação do servidor e da população usada nos benchmarks
+ * Por padrão o servidor é criado sem journal e sem armazenamento de estado,
+ * para que os resultados reflitam o caminho em memória, e sem a espera
+ * (linger) dos lotes de callbacks: os clientes dos benchmarks recebem lotes,
+ * e os 5 ms de espera dominariam a medida. As propriedades podem ser
+ * sobrescritas com -jvmArgsAppend (ex.: -Dchatrmi.delivery.lingerMs=5).
+ */
+final class BenchmarkServers {
+    
+    private BenchmarkServers() {
+    }
+    
+    static ChatServiceImpl newServer() throws RemoteException {
+        // Antes do primeiro uso do servidor, que inicializa o LogManager
+        setDefault("chatrmi.journal.enabled", "false");
+        setDefault("chatrmi.state.enabled", "false");
+        setDefault("chatrmi.delivery.lingerMs", "0");
+        setDefault("chatrmi.log.level", "WARN");
+        setDefault("chatrmi.log.console", "false");
+        setDefault("chatrmi.log.dir", "target/jmh-logs");
+        return new ChatServiceImpl();
+    }
+    
+    private static void setDefault(String property, String value) {
+        if (System.getProperty(property) == null) {
+            System.setProperty(property, value);
+        }
+    }
+    
+    static String user(int index) {
+        return "user" + index;
+    }
+    
+    /**
+     * Registra clientes user0 .. user(count-1) com callbacks em processo
+     */
+    static void registerClients(ChatService service, int count, Deliveries deliveries) throws RemoteException {
+        for (int i = 0; i < count; i++) {
+            service.registerClient(user(i), new StubClient(deliveries));
+        }
+    }
+    
+    /**
+     * Cria um grupo de user0 com os membros user0 .. user(size-1)
+     * Deve ser chamado antes de registrar os clientes, para que as atualizações
+     * de grupo da montagem não sejam entregues a todos.
+     * @return ID do grupo
+     */
+    static String createGroup(ChatService service, String name, int size) throws RemoteException {
+        String owner = user(0);
+        String groupId = service.createGroup(name, owner);
+        for (int i = 1; i < size; i++) {
+            service.inviteToGroup(groupId, owner, user(i));
+            service.processInvite(groupId, user(i), true);
+        }
+        return groupId;
+    }
+}
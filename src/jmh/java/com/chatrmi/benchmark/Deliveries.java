@@ -0,0 +1,52 @@
+package com.chatrmi.benchmark;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Contador de mensagens entregues aos {@link StubClient}
+ * Permite que o benchmark espere até que uma mensagem chegue a todos os
+ * destinatários, medindo o fan-out completo e não apenas o enfileiramento.
+ * Supõe uma única thread aguardando por vez.
+ */
+class Deliveries {
+    
+    private static final long AWAIT_TIMEOUT_MS = 30_000;
+    
+    private final AtomicLong delivered = new AtomicLong();
+    private volatile long target = Long.MAX_VALUE;
+    private volatile Thread waiter;
+    
+    void delivered(int count) {
+        if (delivered.addAndGet(count) >= target) {
+            Thread thread = waiter;
+            if (thread != null) {
+                LockSupport.unpark(thread);
+            }
+        }
+    }
+    
+    /**
+     * Define quantas entregas adicionais são esperadas (chamar antes de enviar)
+     * @param recipients Número de destinatários da próxima mensagem
+     */
+    void expect(int recipients) {
+        waiter = Thread.currentThread();
+        target = delivered.get() + recipients;
+    }
+    
+    /**
+     * Aguarda as entregas definidas em {@link #expect(int)}
+     */
+    void await() {
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(AWAIT_TIMEOUT_MS);
+        while (delivered.get() < target) {
+            if (System.nanoTime() > deadline) {
+                throw new IllegalStateException("Entregas não concluídas: " + delivered.get() + " de " + target
+                    + " (eventos descartados pela política de cliente lento?)");
+            }
+            LockSupport.parkNanos(this, TimeUnit.MILLISECONDS.toNanos(1));
+        }
+    }
+}
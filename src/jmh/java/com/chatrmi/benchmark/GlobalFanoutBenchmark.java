@@ -0,0 +1,66 @@
+package com.chatrmi.benchmark;
+
+import com.chatrmi.server.ChatServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out do chat global: sendMessage para 10, 1k e 10k clientes conectados
+ *
+ * sendMessage mede a chamada até a última entrega (todos os callbacks
+ * receberam a mensagem); sendMessageEnqueue mede apenas a chamada, que
+ * retorna depois de enfileirar o evento para cada cliente. Sem esperar as
+ * entregas as filas enchem e a política de cliente lento passa a atuar, como
+ * num servidor sobrecarregado.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class GlobalFanoutBenchmark {
+    
+    @Param({"10", "1000", "10000"})
+    public int clients;
+    
+    private ChatServiceImpl server;
+    private final Deliveries deliveries = new Deliveries();
+    
+    @Setup(Level.Trial)
+    public void setUp() throws RemoteException {
+        server = BenchmarkServers.newServer();
+        BenchmarkServers.registerClients(server, clients, deliveries);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.shutdown();
+    }
+    
+    @Benchmark
+    public void sendMessage() throws RemoteException {
+        deliveries.expect(clients);
+        server.sendMessage(BenchmarkServers.user(0), "mensagem de benchmark");
+        deliveries.await();
+    }
+    
+    @Benchmark
+    public void sendMessageEnqueue() throws RemoteException {
+        server.sendMessage(BenchmarkServers.user(0), "mensagem de benchmark");
+    }
+}
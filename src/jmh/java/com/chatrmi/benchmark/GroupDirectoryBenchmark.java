@@ -0,0 +1,94 @@
+package com.chatrmi.benchmark;
+
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.server.ChatServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Consultas ao diretório de grupos com diretórios grandes
+ * Cada um dos USERS usuários é dono de groups / USERS grupos e membro de
+ * MEMBERSHIPS grupos de outros donos. Nenhum cliente está conectado: só o custo
+ * das consultas é medido.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms2g", "-Xmx2g"})
+public class GroupDirectoryBenchmark {
+    
+    private static final int USERS = 1000;
+    private static final int MEMBERSHIPS = 20;
+    
+    @Param({"1000", "10000", "100000"})
+    public int groups;
+    
+    private ChatServiceImpl server;
+    private String[] groupIds;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws RemoteException {
+        server = BenchmarkServers.newServer();
+        groupIds = new String[groups];
+        for (int i = 0; i < groups; i++) {
+            groupIds[i] = server.createGroup("grupo-" + i, BenchmarkServers.user(i % USERS));
+        }
+        for (int u = 0; u < USERS; u++) {
+            String user = BenchmarkServers.user(u);
+            for (int m = 1; m <= MEMBERSHIPS; m++) {
+                // Grupo de outro dono (i % USERS != u)
+                int index = (u + m * 7919) % groups;
+                if (index % USERS == u) {
+                    continue;
+                }
+                String groupId = groupIds[index];
+                String owner = BenchmarkServers.user(index % USERS);
+                server.inviteToGroup(groupId, owner, user);
+                server.processInvite(groupId, user, true);
+            }
+        }
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.shutdown();
+    }
+    
+    @Benchmark
+    public ChatService.GroupInfo[] getAvailableGroups() throws RemoteException {
+        return server.getAvailableGroups();
+    }
+    
+    @Benchmark
+    public ChatService.GroupInfo[] getUserGroups() throws RemoteException {
+        return server.getUserGroups(BenchmarkServers.user(ThreadLocalRandom.current().nextInt(USERS)));
+    }
+    
+    @Benchmark
+    public ChatService.GroupPage getGroupsPageByPrefix() throws RemoteException {
+        String prefix = "grupo-" + ThreadLocalRandom.current().nextInt(10);
+        return server.getGroupsPage(prefix, ChatService.GroupSort.NAME, 0, 50);
+    }
+    
+    @Benchmark
+    public ChatService.GroupPage getGroupsPageByMembers() throws RemoteException {
+        return server.getGroupsPage("", ChatService.GroupSort.MEMBER_COUNT, 0, 50);
+    }
+}
@@ -0,0 +1,61 @@
+package com.chatrmi.benchmark;
+
+import com.chatrmi.server.ChatServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.RemoteException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fan-out de grupo: sendGroupMessage para grupos de tamanhos diferentes
+ * Há sempre 1000 clientes conectados além dos membros, para que a entrega
+ * aos membros seja medida num servidor que também atende não membros.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class GroupFanoutBenchmark {
+    
+    private static final int OTHER_CLIENTS = 1000;
+    
+    @Param({"2", "50", "500", "5000"})
+    public int groupSize;
+    
+    private ChatServiceImpl server;
+    private String groupId;
+    private final Deliveries deliveries = new Deliveries();
+    
+    @Setup(Level.Trial)
+    public void setUp() throws RemoteException {
+        server = BenchmarkServers.newServer();
+        groupId = BenchmarkServers.createGroup(server, "benchmark", groupSize);
+        BenchmarkServers.registerClients(server, groupSize + OTHER_CLIENTS, deliveries);
+    }
+    
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.shutdown();
+    }
+    
+    @Benchmark
+    public void sendGroupMessage() throws RemoteException {
+        deliveries.expect(groupSize);
+        server.sendGroupMessage(groupId, BenchmarkServers.user(0), "mensagem de benchmark");
+        deliveries.await();
+    }
+}
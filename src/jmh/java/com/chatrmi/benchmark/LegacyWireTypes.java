@@ -0,0 +1,86 @@
+package com.chatrmi.benchmark;
+
+import java.io.Serializable;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cópias de GroupInfo, FileInfo, GroupRequest e Group com a serialização
+ * padrão que tinham antes da codificação Externalizable, mesmos campos e tipos
+ * Servem de referência para o SerializationBenchmark.
+ */
+final class LegacyWireTypes {
+    
+    private LegacyWireTypes() {
+    }
+    
+    static final class GroupInfo implements Serializable {
+        private final String groupId;
+        private final String groupName;
+        private final String owner;
+        private final String[] members;
+        private final int memberCount;
+        
+        GroupInfo(String groupId, String groupName, String owner, String[] members) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.owner = owner;
+            this.members = members;
+            this.memberCount = members.length;
+        }
+    }
+    
+    static final class FileInfo implements Serializable {
+        private String filename;
+        private long fileSize;
+        
+        FileInfo(String filename, long fileSize) {
+            this.filename = filename;
+            this.fileSize = fileSize;
+        }
+    }
+    
+    static final class GroupRequest implements Serializable {
+        private String username;
+        private String groupId;
+        private String groupName;
+        private long timestamp;
+        
+        GroupRequest(String username, String groupId, String groupName) {
+            this.username = username;
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.timestamp = System.currentTimeMillis();
+        }
+    }
+    
+    static final class Group implements Serializable {
+        private String groupId;
+        private String groupName;
+        private String owner;
+        private Set<String> members;
+        private Map<String, GroupRequest> pendingRequests;
+        private AtomicLong version;
+        
+        Group(String groupId, String groupName, String owner) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.owner = owner;
+            this.members = ConcurrentHashMap.newKeySet();
+            this.members.add(owner);
+            this.pendingRequests = new ConcurrentHashMap<>();
+            this.version = new AtomicLong();
+        }
+        
+        void addMember(String username) {
+            members.add(username);
+            version.incrementAndGet();
+        }
+        
+        void addRequest(GroupRequest request) {
+            pendingRequests.put(request.username, request);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.chatrmi.benchmark;
+
+import com.chatrmi.interfaces.ChatClientCallback;
+import com.chatrmi.server.ChatServiceImpl;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Rajadas de registerClient, como na reconexão em massa após uma queda
+ *
+ * storm mede o tempo para STORM_THREADS threads registrarem {@code clients}
+ * clientes num servidor vazio (uma rajada por iteração).
+ * registerUnregister mede cada par registro/saída com 4 threads concorrentes
+ * sobre um servidor que já tem {@code clients} conectados.
+ */
+@State(Scope.Benchmark)
+@Fork(value = 1, jvmArgsAppend = {"-Xms1g", "-Xmx1g"})
+public class RegisterStormBenchmark {
+    
+    private static final int STORM_THREADS = 8;
+    
+    @Param({"1000", "10000"})
+    public int clients;
+    
+    private ChatServiceImpl server;
+    private ExecutorService stormThreads;
+    private final Deliveries deliveries = new Deliveries();
+    private final AtomicInteger nextChurnUser = new AtomicInteger();
+    
+    @Setup(Level.Trial)
+    public void startThreads() {
+        stormThreads = Executors.newFixedThreadPool(STORM_THREADS);
+    }
+    
+    @TearDown(Level.Trial)
+    public void stopThreads() {
+        stormThreads.shutdownNow();
+    }
+    
+    @Setup(Level.Iteration)
+    public void setUp() throws RemoteException {
+        server = BenchmarkServers.newServer();
+    }
+    
+    @TearDown(Level.Iteration)
+    public void tearDown() {
+        server.shutdown();
+    }
+    
+    @Benchmark
+    @BenchmarkMode(Mode.SingleShotTime)
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    @Warmup(iterations = 5)
+    @Measurement(iterations = 10)
+    public void storm() throws Exception {
+        List<Future<?>> tasks = new ArrayList<>(STORM_THREADS);
+        for (int t = 0; t < STORM_THREADS; t++) {
+            int first = t;
+            tasks.add(stormThreads.submit(() -> {
+                for (int i = first; i < clients; i += STORM_THREADS) {
+                    server.registerClient(BenchmarkServers.user(i), new StubClient(deliveries));
+                }
+                return null;
+            }));
+        }
+        for (Future<?> task : tasks) {
+            task.get();
+        }
+    }
+    
+    @State(Scope.Benchmark)
+    public static class Populated {
+        
+        private ChatServiceImpl server;
+        
+        @Setup(Level.Trial)
+        public void setUp(RegisterStormBenchmark benchmark) throws RemoteException {
+            server = BenchmarkServers.newServer();
+            BenchmarkServers.registerClients(server, benchmark.clients, benchmark.deliveries);
+        }
+        
+        @TearDown(Level.Trial)
+        public void tearDown() {
+            server.shutdown();
+        }
+    }
+    
+    @Benchmark
+    @Threads(4)
+    @BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+    @OutputTimeUnit(TimeUnit.MICROSECONDS)
+    @Warmup(iterations = 3, time = 2)
+    @Measurement(iterations = 5, time = 2)
+    @OperationsPerInvocation(2)
+    public void registerUnregister(Populated populated) throws RemoteException {
+        String username = "churn" + (nextChurnUser.getAndIncrement() % clients);
+        ChatClientCallback callback = new StubClient(deliveries);
+        populated.server.registerClient(username, callback);
+        populated.server.unregisterClient(username);
+    }
+}
@@ -0,0 +1,121 @@
+package com.chatrmi.benchmark;
+
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.model.Group;
+import com.chatrmi.model.GroupRequest;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ida e volta pela serialização Java de GroupInfo, FileInfo, GroupRequest e Group
+ * "compact" usa as classes do projeto (Externalizable); "default" usa cópias
+ * com a serialização padrão anterior ({@link LegacyWireTypes}). Cada operação
+ * abre um ObjectOutputStream novo, como o RMI faz a cada chamada, então os
+ * descritores de classe entram no custo. Os tamanhos são impressos no setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SerializationBenchmark {
+    
+    @Param({"compact", "default"})
+    public String format;
+    
+    @Param({"5", "50", "500"})
+    public int members;
+    
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream(64 * 1024);
+    private Object groupInfo;
+    private Object fileInfo;
+    private Object groupRequest;
+    private Object group;
+    
+    @Setup(Level.Trial)
+    public void setUp() throws IOException, ClassNotFoundException {
+        String[] names = new String[members];
+        for (int i = 0; i < members; i++) {
+            names[i] = BenchmarkServers.user(i);
+        }
+        String groupId = "8d5f1c2e-3b4a-4f7e-9c1d-2a6b7e8f9a0b";
+        if ("compact".equals(format)) {
+            groupInfo = new ChatService.GroupInfo(groupId, "grupo de benchmark", names[0], names);
+            fileInfo = new ChatService.FileInfo("relatorio-trimestral.pdf", 1_234_567);
+            groupRequest = new GroupRequest(names[members - 1], groupId, "grupo de benchmark");
+            Group g = new Group(groupId, "grupo de benchmark", names[0]);
+            for (String name : names) {
+                g.addMember(name);
+            }
+            g.addRequest(new GroupRequest("pendente-1", groupId, "grupo de benchmark"));
+            g.addRequest(new GroupRequest("pendente-2", groupId, "grupo de benchmark"));
+            group = g;
+        } else {
+            groupInfo = new LegacyWireTypes.GroupInfo(groupId, "grupo de benchmark", names[0], names);
+            fileInfo = new LegacyWireTypes.FileInfo("relatorio-trimestral.pdf", 1_234_567);
+            groupRequest = new LegacyWireTypes.GroupRequest(names[members - 1], groupId, "grupo de benchmark");
+            LegacyWireTypes.Group g = new LegacyWireTypes.Group(groupId, "grupo de benchmark", names[0]);
+            for (String name : names) {
+                g.addMember(name);
+            }
+            g.addRequest(new LegacyWireTypes.GroupRequest("pendente-1", groupId, "grupo de benchmark"));
+            g.addRequest(new LegacyWireTypes.GroupRequest("pendente-2", groupId, "grupo de benchmark"));
+            group = g;
+        }
+        System.out.printf("%nBytes (%s, %d membros): groupInfo=%d fileInfo=%d groupRequest=%d group=%d%n",
+            format, members, size(groupInfo), size(fileInfo), size(groupRequest), size(group));
+    }
+    
+    @Benchmark
+    public Object groupInfo() throws IOException, ClassNotFoundException {
+        return roundTrip(groupInfo);
+    }
+    
+    @Benchmark
+    public Object fileInfo() throws IOException, ClassNotFoundException {
+        return roundTrip(fileInfo);
+    }
+    
+    @Benchmark
+    public Object groupRequest() throws IOException, ClassNotFoundException {
+        return roundTrip(groupRequest);
+    }
+    
+    @Benchmark
+    public Object group() throws IOException, ClassNotFoundException {
+        return roundTrip(group);
+    }
+    
+    private int size(Object value) throws IOException, ClassNotFoundException {
+        roundTrip(value);
+        return buffer.size();
+    }
+    
+    private Object roundTrip(Object value) throws IOException, ClassNotFoundException {
+        buffer.reset();
+        try (ObjectOutputStream out = new ObjectOutputStream(buffer)) {
+            out.writeObject(value);
+        }
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(buffer.toByteArray()))) {
+            return in.readObject();
+        }
+    }
+}
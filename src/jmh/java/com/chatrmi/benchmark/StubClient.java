@@ -0,0 +1,88 @@
+package com.chatrmi.benchmark;
+
+import com.chatrmi.interfaces.BatchedClientCallback;
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.interfaces.EventBatch;
+
+/**
+ * Callback em processo usado nos benchmarks
+ * Não é exportado via RMI: o servidor chama os métodos diretamente, de modo que
+ * o benchmark mede apenas o servidor (filas, lotes e fan-out). Mensagens do chat
+ * global e de grupo são contadas em {@link Deliveries}; os demais eventos são ignorados.
+ */
+class StubClient implements BatchedClientCallback {
+    
+    private final Deliveries deliveries;
+    
+    StubClient(Deliveries deliveries) {
+        this.deliveries = deliveries;
+    }
+    
+    @Override
+    public void onEvents(EventBatch batch) {
+        int messages = 0;
+        for (ChatEvent event : batch.getEvents()) {
+            if (event instanceof ChatEvent.MessageReceived || event instanceof ChatEvent.GroupMessageReceived) {
+                messages++;
+            }
+        }
+        if (messages > 0) {
+            deliveries.delivered(messages);
+        }
+    }
+    
+    @Override
+    public void onMessageReceived(String username, String message) {
+        deliveries.delivered(1);
+    }
+    
+    @Override
+    public void onGroupMessageReceived(String groupId, String groupName, String username, String message) {
+        deliveries.delivered(1);
+    }
+    
+    @Override
+    public void onFileReceived(String username, String filename) {
+    }
+    
+    @Override
+    public void onUsersUpdated(String[] users) {
+    }
+    
+    @Override
+    public void onPresenceChanged(long fromVersion, long toVersion, String[] joined, String[] left) {
+    }
+    
+    @Override
+    public void onGroupCreated(ChatService.GroupInfo groupInfo) {
+    }
+    
+    @Override
+    public void onGroupInviteReceived(String groupId, String groupName, String inviterUsername) {
+    }
+    
+    @Override
+    public void onJoinRequestReceived(String groupId, String groupName, String requestingUsername) {
+    }
+    
+    @Override
+    public void onGroupUpdated(String groupName, ChatService.GroupInfo groupInfo) {
+    }
+    
+    @Override
+    public void onGroupJoinRequestProcessed(String groupId, String groupName, boolean approved) {
+    }
+    
+    @Override
+    public void onAddedToGroup(String groupId, String groupName) {
+    }
+    
+    @Override
+    public void onRemovedFromGroup(String groupId, String groupName) {
+    }
+    
+    @Override
+    public void onGroupFileReceived(String groupId, String groupName, String username, String filename) {
+    }
+}
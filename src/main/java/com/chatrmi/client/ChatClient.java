@@ -1,15 +1,25 @@
 package com.chatrmi.client;
 
-import com.chatrmi.interfaces.ChatClientCallback;
+import com.chatrmi.interfaces.BatchedClientCallback;
+import com.chatrmi.interfaces.ChatEvent;
 import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.interfaces.EventBatch;
+import com.chatrmi.net.SocketSettings;
+import com.chatrmi.net.TunedClientSocketFactory;
+import com.chatrmi.net.TunedServerSocketFactory;
+import com.chatrmi.nio.NioChatConnector;
 import com.chatrmi.udp.UDPFileClient;
 import com.chatrmi.udp.UDPFileDownloadClient;
 
 import java.io.File;
+import java.io.IOException;
 import java.net.InetAddress;
 import java.net.NetworkInterface;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
 import java.rmi.NotBoundException;
 import java.rmi.RemoteException;
+import java.rmi.UnmarshalException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
 import java.rmi.server.UnicastRemoteObject;
@@ -18,10 +28,21 @@ import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Cliente do chat RMI com implementação de callback
+ * O transporte é escolhido na conexão pela propriedade chatrmi.transport:
+ * rmi (padrão) exporta este objeto como callback; nio usa uma única conexão
+ * com o servidor NIO, pela qual chegam também os eventos.
+ *
+ * Failover: chatrmi.failover.servers lista outros servidores (host[:porta],
+ * separados por vírgula; a porta é a do registry no RMI e a do servidor NIO no
+ * NIO). Havendo outros servidores, uma thread verifica a conexão a cada
+ * chatrmi.failover.checkMs; se ela cair (falha de conexão ou resposta
+ * interrompida, não erro do serviço), o cliente se registra no próximo
+ * servidor que responder e recupera, em cada canal do histórico, os eventos
+ * publicados depois do último entregue.
  */
-public class ChatClient extends UnicastRemoteObject implements ChatClientCallback {
+public class ChatClient implements BatchedClientCallback {
     
-    private ChatService chatService;
+    private volatile ChatService chatService;
     private String username;
     private ChatClientGUI gui;
     private UDPFileClient udpFileClient;
@@ -29,6 +50,37 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
     private String serverHost;
     private static final int UDP_FILE_PORT = 9876;
     private static final int UDP_DOWNLOAD_PORT = 9877;
+    private static final SocketSettings SOCKET_SETTINGS = SocketSettings.fromSystemProperties();
+    private static final boolean NIO_TRANSPORT = "nio".equalsIgnoreCase(System.getProperty("chatrmi.transport", "rmi"));
+    private static final int NIO_PORT = Integer.getInteger("chatrmi.nio.port", 1100);
+    private static final int REGISTRY_PORT = Integer.getInteger("chatrmi.registry.port", 1099);
+    private static final String FAILOVER_SERVERS = System.getProperty("chatrmi.failover.servers", "");
+    private static final long FAILOVER_CHECK_MS = Long.getLong("chatrmi.failover.checkMs", 1000);     // 0 desativa
+    private static final long FAILOVER_TIMEOUT_MS = Long.getLong("chatrmi.failover.timeoutMs", 60000);
+    private static final long FAILOVER_RETRY_MS = 250;
+    
+    // Servidores (host:porta) na ordem de tentativa; o primeiro é o informado na criação
+    private final List<String> servers = new ArrayList<>();
+    private volatile int currentServer;
+    private volatile boolean connected;
+    private volatile Thread watchdog;
+    private volatile long lastFailoverMillis = -1;
+    
+    // Último evento entregue em cada canal do histórico: retomada sem perda nem repetição
+    private final Map<String, Long> cursors = new ConcurrentHashMap<>();
+    private final Object deliveryLock = new Object();
+    // Lotes recebidos enquanto a posição dos canais é fixada (null fora disso); protegido por deliveryLock
+    private List<EventBatch> pendingBatches;
+    
+    // Conexão do transporte NIO (null no transporte RMI)
+    private NioChatConnector nioConnector;
+    private boolean exported;
+    
+    // Versão de presença da lista de usuários exibida (-1 até receber a lista completa)
+    private long presenceVersion = -1;
+    
+    // Recebimento por busca, ativo quando o servidor não consegue chamar o callback
+    private volatile PullReceiver pullReceiver;
     
     // Histórico de mensagens
     private List<MessageHistory> globalChatHistory;
@@ -74,7 +126,6 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
     }
     
     public ChatClient(String username, String serverHost) throws RemoteException {
-        super();
         this.username = username;
         this.serverHost = serverHost != null ? serverHost : "localhost";
         
@@ -85,6 +136,15 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
         System.out.println("Cliente configurado com IP: " + clientIP);
         System.out.println("Conectando ao servidor: " + this.serverHost);
         
+        int defaultPort = NIO_TRANSPORT ? NIO_PORT : REGISTRY_PORT;
+        servers.add(this.serverHost + ":" + defaultPort);
+        for (String server : FAILOVER_SERVERS.split(",")) {
+            String entry = server.trim();
+            if (!entry.isEmpty()) {
+                servers.add(entry.indexOf(':') >= 0 ? entry : entry + ":" + defaultPort);
+            }
+        }
+        
         this.udpFileClient = new UDPFileClient(this.serverHost, UDP_FILE_PORT);
         this.udpFileDownloadClient = new UDPFileDownloadClient(this.serverHost, UDP_DOWNLOAD_PORT);
         
@@ -99,53 +159,49 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
             System.out.println("\n=== CONECTANDO AO SERVIDOR ===");
             System.out.println("IP do cliente (para callbacks): " + clientIP);
             System.out.println("IP do servidor: " + serverHost);
-            System.out.println("Tentando conectar ao servidor RMI em " + serverHost + ":1099...");
-            
-            // Configurar timeout para conexão
-            System.setProperty("sun.rmi.transport.tcp.responseTimeout", "10000");
-            System.setProperty("sun.rmi.transport.tcp.readTimeout", "10000");
-            
-            Registry registry = LocateRegistry.getRegistry(serverHost, 1099);
-            System.out.println("Registry localizado com sucesso!");
             
-            System.out.println("Procurando serviço 'ChatService'...");
-            chatService = (ChatService) registry.lookup("ChatService");
-            System.out.println("Serviço encontrado!");
-            
-            System.out.println("Registrando cliente '" + username + "' com callback...");
-            System.out.println("NOTA: O servidor precisa conseguir se conectar de volta a este cliente");
-            System.out.println("      usando o IP: " + clientIP);
-            System.out.println("      Certifique-se de que o firewall permite conexões de entrada TCP");
-            
-            chatService.registerClient(username, this);
+            boolean callbackWorks = attach(clientIP);
             System.out.println("Cliente registrado com sucesso!");
+            if (!callbackWorks) {
+                System.out.println("AVISO: O servidor não conseguiu chamar o callback deste cliente");
+                System.out.println("       Usando modo pull: os eventos serão buscados no servidor");
+                startPullMode(Collections.emptyMap());
+            } else {
+                // Posição atual dos canais; o que chegou antes já está nela
+                advanceCursor(ChatService.GLOBAL_CHANNEL,
+                    chatService.fetchSince(username, ChatService.GLOBAL_CHANNEL, -1, 0).getLastSeq());
+                for (ChatService.GroupInfo group : chatService.getUserGroups(username)) {
+                    String channel = ChatService.Channels.group(group.getGroupId());
+                    advanceCursor(channel, chatService.fetchSince(username, channel, -1, 0).getLastSeq());
+                }
+            }
+            releasePending(false);
             System.out.println("=== CONEXÃO ESTABELECIDA ===\n");
             
-            String[] users = chatService.getOnlineUsers();
-            if (gui != null) {
-                gui.updateUsersList(users);
-            }
+            resyncPresence();
+            connected = true;
+            startWatchdog();
             
             System.out.println("Conexão estabelecida com sucesso!");
             return true;
         } catch (java.rmi.ConnectException e) {
             System.err.println("\n[ERRO DE CONEXÃO]");
-            System.err.println("Não foi possível conectar ao servidor em " + serverHost + ":1099");
+            System.err.println("Não foi possível conectar ao servidor em " + currentHost() + ":" + currentPort());
             System.err.println("\nPossíveis causas:");
             System.err.println("1. O servidor não está rodando");
             System.err.println("2. O IP do servidor está incorreto");
-            System.err.println("3. Firewall bloqueando a conexão (porta 1099)");
+            System.err.println("3. Firewall bloqueando a conexão (porta " + currentPort() + ")");
             System.err.println("4. Os PCs não estão na mesma rede");
             System.err.println("\nDetalhes: " + e.getMessage());
             e.printStackTrace();
             return false;
         } catch (java.rmi.ConnectIOException e) {
             System.err.println("\n[ERRO DE CONEXÃO]");
-            System.err.println("Erro de I/O ao conectar ao servidor em " + serverHost + ":1099");
+            System.err.println("Erro de I/O ao conectar ao servidor em " + currentHost() + ":" + currentPort());
             System.err.println("\nPossíveis causas:");
             System.err.println("1. Firewall bloqueando a conexão");
             System.err.println("2. Rede não acessível");
-            System.err.println("3. Servidor não está escutando na porta 1099");
+            System.err.println("3. Servidor não está escutando na porta " + currentPort());
             System.err.println("\nDetalhes: " + e.getMessage());
             e.printStackTrace();
             return false;
@@ -162,15 +218,337 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
             System.err.println("\nDetalhes: " + e.getClass().getName());
             e.printStackTrace();
             return false;
+        } catch (IOException e) {
+            System.err.println("\n[ERRO DE CONEXÃO NIO]");
+            System.err.println("Não foi possível conectar ao servidor NIO em " + currentHost() + ":" + currentPort());
+            System.err.println("Verifique se o servidor está rodando com o transporte NIO ativo (chatrmi.nio.enabled)");
+            System.err.println("e se o firewall permite a porta " + currentPort());
+            System.err.println("\nDetalhes: " + e.getMessage());
+            e.printStackTrace();
+            return false;
         } catch (Exception e) {
             System.err.println("\n[ERRO INESPERADO]");
             System.err.println("Erro inesperado ao conectar: " + e.getMessage());
             e.printStackTrace();
             return false;
+        } finally {
+            if (!connected) {
+                discardPending();
+            }
+        }
+    }
+    
+    /**
+     * Conecta ao servidor atual da lista e registra o cliente
+     * Os lotes de eventos que chegarem a partir do registro ficam retidos até
+     * {@link #releasePending}.
+     * @return true se o servidor consegue chamar o callback deste cliente
+     */
+    private boolean attach(String clientIP) throws IOException, NotBoundException {
+        if (NIO_TRANSPORT) {
+            connectNio();
+        } else {
+            connectRmi(clientIP);
+        }
+        synchronized (deliveryLock) {
+            pendingBatches = new ArrayList<>();
+        }
+        return chatService.registerClient(username, this);
+    }
+    
+    private String currentHost() {
+        String server = servers.get(currentServer);
+        return server.substring(0, server.lastIndexOf(':'));
+    }
+    
+    private int currentPort() {
+        String server = servers.get(currentServer);
+        return Integer.parseInt(server.substring(server.lastIndexOf(':') + 1));
+    }
+    
+    /**
+     * Localiza o serviço no registry e exporta este objeto como callback
+     */
+    private void connectRmi(String clientIP) throws RemoteException, NotBoundException {
+        System.out.println("Tentando conectar ao servidor RMI em " + currentHost() + ":" + currentPort() + "...");
+        
+        // Configurar timeout para conexão
+        System.setProperty("sun.rmi.transport.tcp.responseTimeout", "10000");
+        System.setProperty("sun.rmi.transport.tcp.readTimeout", "10000");
+        
+        Registry registry = LocateRegistry.getRegistry(currentHost(), currentPort());
+        System.out.println("Registry localizado com sucesso!");
+        
+        System.out.println("Procurando serviço 'ChatService'...");
+        chatService = (ChatService) registry.lookup("ChatService");
+        System.out.println("Serviço encontrado!");
+        
+        if (!exported) {
+            // O servidor conecta de volta com as opções de socket deste cliente
+            UnicastRemoteObject.exportObject(this, 0,
+                new TunedClientSocketFactory(SOCKET_SETTINGS), new TunedServerSocketFactory(SOCKET_SETTINGS));
+            exported = true;
+        }
+        
+        System.out.println("Registrando cliente '" + username + "' com callback...");
+        System.out.println("NOTA: O servidor precisa conseguir se conectar de volta a este cliente");
+        System.out.println("      usando o IP: " + clientIP);
+        System.out.println("      Certifique-se de que o firewall permite conexões de entrada TCP");
+    }
+    
+    /**
+     * Abre a conexão NIO; nada é exportado e os eventos chegam pela mesma conexão
+     */
+    private void connectNio() throws IOException {
+        System.out.println("Tentando conectar ao servidor NIO em " + currentHost() + ":" + currentPort() + "...");
+        nioConnector = NioChatConnector.connect(currentHost(), currentPort(), SOCKET_SETTINGS);
+        chatService = nioConnector.getService();
+        System.out.println("Conexão NIO estabelecida (eventos pela mesma conexão, sem porta de escuta local)");
+        System.out.println("Registrando cliente '" + username + "'...");
+    }
+    
+    /**
+     * Passa a buscar os eventos no servidor em vez de recebê-los por callback
+     * @param positions Último evento entregue por canal do histórico (failover), ou vazio
+     */
+    private void startPullMode(Map<String, Long> positions) throws RemoteException {
+        PullReceiver receiver = new PullReceiver(chatService, username, this);
+        pullReceiver = receiver;
+        subscribeFrom(receiver, ChatService.GLOBAL_CHANNEL, positions);
+        receiver.subscribe(ChatService.PRESENCE_CHANNEL);
+        // O canal do usuário é criado neste registro: tudo o que há nele é novo
+        receiver.subscribe(ChatService.Channels.user(username), true);
+        for (ChatService.GroupInfo group : chatService.getUserGroups(username)) {
+            subscribeFrom(receiver, ChatService.Channels.group(group.getGroupId()), positions);
+        }
+        receiver.start();
+    }
+    
+    private static void subscribeFrom(PullReceiver receiver, String channel, Map<String, Long> positions) {
+        Long seq = positions.get(channel);
+        if (seq != null && seq >= 0) {
+            receiver.subscribeAt(channel, seq);
+        } else {
+            receiver.subscribe(channel);
+        }
+    }
+    
+    /**
+     * Verifica a conexão periodicamente e troca de servidor se ela cair
+     * Só com servidores de failover configurados: sem eles não há para onde ir.
+     */
+    private void startWatchdog() {
+        if (FAILOVER_CHECK_MS <= 0 || servers.size() < 2 || watchdog != null) {
+            return;
+        }
+        Thread thread = new Thread(() -> {
+            while (connected) {
+                try {
+                    Thread.sleep(FAILOVER_CHECK_MS);
+                } catch (InterruptedException e) {
+                    return;
+                }
+                try {
+                    if (connected) {
+                        chatService.fetchSince(username, ChatService.GLOBAL_CHANNEL, -1, 0);
+                    }
+                } catch (ConnectException | ConnectIOException | UnmarshalException e) {
+                    if (connected) {
+                        failover(e);
+                    }
+                } catch (RemoteException e) {
+                    // O servidor respondeu: erro do serviço, não queda da conexão
+                }
+            }
+        }, "chat-failover");
+        thread.setDaemon(true);
+        watchdog = thread;
+        thread.start();
+    }
+    
+    /**
+     * Troca de servidor depois de perder a conexão
+     * Tenta os servidores da lista a partir do seguinte ao atual até um aceitar
+     * o registro; então entrega os eventos publicados depois do último recebido
+     * em cada canal e, por fim, os que chegaram pelo callback durante a troca.
+     * @return true se reconectou
+     */
+    private boolean failover(RemoteException cause) {
+        long start = System.currentTimeMillis();
+        String lost = servers.get(currentServer);
+        System.err.println("[FAILOVER] Conexão com " + lost + " perdida (" + cause.getClass().getSimpleName()
+            + "); procurando servidor...");
+        
+        // Posições do modo pull continuam no próximo servidor, como as do callback
+        PullReceiver receiver = pullReceiver;
+        if (receiver != null) {
+            receiver.stop();
+            pullReceiver = null;
+            receiver.getPositions().forEach(this::advanceCursor);
+        }
+        String clientIP = System.getProperty("java.rmi.server.hostname");
+        long deadline = start + FAILOVER_TIMEOUT_MS;
+        while (connected && System.currentTimeMillis() < deadline) {
+            for (int i = 1; i <= servers.size() && connected; i++) {
+                currentServer = (currentServer + 1) % servers.size();
+                closeNio();
+                try {
+                    int recovered = 0;
+                    if (attach(clientIP)) {
+                        recovered = replayMissed();
+                        releasePending(true);
+                    } else {
+                        releasePending(false);
+                        startPullMode(new HashMap<>(cursors));
+                    }
+                    presenceVersion = -1;
+                    resyncPresence();
+                    udpFileClient = new UDPFileClient(currentHost(), UDP_FILE_PORT);
+                    udpFileDownloadClient = new UDPFileDownloadClient(currentHost(), UDP_DOWNLOAD_PORT);
+                    
+                    lastFailoverMillis = System.currentTimeMillis() - start;
+                    String notice = "Reconectado a " + servers.get(currentServer) + " em " + lastFailoverMillis
+                        + " ms (" + recovered + " eventos recuperados)";
+                    System.out.println("[FAILOVER] " + notice);
+                    if (gui != null) {
+                        gui.appendMessage("Sistema", notice);
+                    }
+                    return true;
+                } catch (IOException | NotBoundException e) {
+                    discardPending();
+                }
+            }
+            try {
+                Thread.sleep(FAILOVER_RETRY_MS);
+            } catch (InterruptedException e) {
+                break;
+            }
+        }
+        System.err.println("[FAILOVER] Nenhum servidor respondeu em " + (System.currentTimeMillis() - start) + " ms");
+        return false;
+    }
+    
+    /**
+     * Entrega, canal a canal, os eventos publicados depois do último recebido
+     * Os lotes do callback continuam retidos até o fim, para não passarem à frente.
+     * @return Quantidade de eventos recuperados
+     */
+    private int replayMissed() throws RemoteException {
+        Set<String> channels = new HashSet<>();
+        channels.add(ChatService.GLOBAL_CHANNEL);
+        for (ChatService.GroupInfo group : chatService.getUserGroups(username)) {
+            channels.add(ChatService.Channels.group(group.getGroupId()));
+        }
+        cursors.keySet().retainAll(channels);
+        
+        int recovered = 0;
+        synchronized (deliveryLock) {
+            for (Map.Entry<String, Long> entry : cursors.entrySet()) {
+                String channel = entry.getKey();
+                long cursor = entry.getValue();
+                while (true) {
+                    ChatService.EventChunk chunk = chatService.fetchSince(username, channel, cursor, 0);
+                    ChatEvent[] events = chunk.getEvents();
+                    if (chunk.getLastSeq() < cursor) {
+                        // O novo servidor não chegou a receber os últimos eventos entregues aqui
+                        cursor = chunk.getLastSeq();
+                        break;
+                    }
+                    if (events.length == 0) {
+                        break;
+                    }
+                    if (chunk.hasGap()) {
+                        System.err.println("[FAILOVER] Eventos perdidos no canal " + channel);
+                    }
+                    for (ChatEvent event : events) {
+                        event.dispatchTo(this);
+                    }
+                    recovered += events.length;
+                    cursor = chunk.getLastSeq();
+                }
+                entry.setValue(cursor);
+            }
+        }
+        return recovered;
+    }
+    
+    private void advanceCursor(String channel, long seq) {
+        if (ChatService.GLOBAL_CHANNEL.equals(channel) || channel.startsWith(ChatService.Channels.group(""))) {
+            cursors.merge(channel, seq, Math::max);
+        }
+    }
+    
+    /**
+     * Entrega os lotes retidos e volta a entregar os seguintes na chegada
+     * @param dedupe true para descartar eventos já entregues (após o failover)
+     */
+    private void releasePending(boolean dedupe) throws RemoteException {
+        synchronized (deliveryLock) {
+            List<EventBatch> batches = pendingBatches;
+            pendingBatches = null;
+            if (batches != null) {
+                for (EventBatch batch : batches) {
+                    deliver(batch, dedupe);
+                }
+            }
+        }
+    }
+    
+    private void discardPending() {
+        synchronized (deliveryLock) {
+            pendingBatches = null;
+        }
+    }
+    
+    private void deliver(EventBatch batch, boolean dedupe) throws RemoteException {
+        for (ChatEvent event : batch.getEvents()) {
+            String channel = event.getChannel();
+            long seq = event.getSeq();
+            if (channel != null && seq > 0) {
+                Long cursor = cursors.get(channel);
+                if (cursor != null && seq <= cursor) {
+                    if (dedupe) {
+                        continue;
+                    }
+                } else {
+                    cursors.put(channel, seq);
+                }
+            }
+            event.dispatchTo(this);
+        }
+    }
+    
+    /**
+     * @return Duração da última troca de servidor em ms, ou -1 se não houve
+     */
+    public long getLastFailoverMillis() {
+        return lastFailoverMillis;
+    }
+    
+    private void closeNio() {
+        NioChatConnector connector = nioConnector;
+        if (connector != null) {
+            connector.close();
+            nioConnector = null;
         }
     }
     
+    public boolean isPullMode() {
+        return pullReceiver != null;
+    }
+    
     public void disconnect() {
+        connected = false;
+        Thread thread = watchdog;
+        if (thread != null) {
+            thread.interrupt();
+            watchdog = null;
+        }
+        PullReceiver receiver = pullReceiver;
+        if (receiver != null) {
+            receiver.stop();
+            pullReceiver = null;
+        }
         try {
             if (chatService != null) {
                 chatService.unregisterClient(username);
@@ -178,6 +556,7 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
         } catch (RemoteException e) {
             System.err.println("Erro ao desconectar: " + e.getMessage());
         }
+        closeNio();
     }
     
     public void sendMessage(String message) {
@@ -197,6 +576,17 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
         }).start();
     }
     
+    @Override
+    public void onEvents(EventBatch batch) throws RemoteException {
+        synchronized (deliveryLock) {
+            if (pendingBatches != null) {
+                pendingBatches.add(batch);
+                return;
+            }
+            deliver(batch, true);
+        }
+    }
+    
     @Override
     public void onMessageReceived(String username, String message) throws RemoteException {
         if (gui != null) {
@@ -206,6 +596,10 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
     
     @Override
     public void onFileReceived(String username, String filename) throws RemoteException {
+        // No modo pull o canal global também traz os arquivos enviados por este cliente
+        if (username.equals(this.username)) {
+            return;
+        }
         if (gui != null) {
             gui.appendFile(username, filename);
         }
@@ -251,6 +645,37 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
         }
     }
     
+    @Override
+    public synchronized void onPresenceChanged(long fromVersion, long toVersion, String[] joined, String[] left) throws RemoteException {
+        if (presenceVersion < 0 || toVersion <= presenceVersion) {
+            // Ainda sem lista completa, ou variação já contida na lista atual
+            return;
+        }
+        if (fromVersion != presenceVersion) {
+            System.out.println("Lacuna na presença (local " + presenceVersion + ", recebido " + fromVersion + "), obtendo lista completa...");
+            resyncPresence();
+            return;
+        }
+        presenceVersion = toVersion;
+        if (gui != null) {
+            gui.updateUsersList(joined, left);
+        }
+    }
+    
+    /**
+     * Substitui a lista de usuários pela lista completa do servidor
+     */
+    private synchronized void resyncPresence() throws RemoteException {
+        if (chatService == null) {
+            return;
+        }
+        ChatService.PresenceSnapshot snapshot = chatService.getPresenceSnapshot();
+        presenceVersion = snapshot.getVersion();
+        if (gui != null) {
+            gui.updateUsersList(snapshot.getUsers());
+        }
+    }
+    
     @Override
     public void onGroupCreated(com.chatrmi.interfaces.ChatService.GroupInfo groupInfo) throws RemoteException {
         if (gui != null) {
@@ -295,6 +720,10 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
     
     @Override
     public void onAddedToGroup(String groupId, String groupName) throws RemoteException {
+        PullReceiver receiver = pullReceiver;
+        if (receiver != null) {
+            receiver.subscribe(ChatService.Channels.group(groupId));
+        }
         if (gui != null) {
             gui.onAddedToGroup(groupId, groupName);
         }
@@ -302,6 +731,11 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
     
     @Override
     public void onRemovedFromGroup(String groupId, String groupName) throws RemoteException {
+        PullReceiver receiver = pullReceiver;
+        if (receiver != null) {
+            receiver.unsubscribe(ChatService.Channels.group(groupId));
+        }
+        cursors.remove(ChatService.Channels.group(groupId));
         if (gui != null) {
             gui.onRemovedFromGroup(groupId, groupName);
         }
@@ -329,7 +763,13 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
     public String createGroup(String groupName) {
         try {
             if (chatService != null) {
-                return chatService.createGroup(groupName, username);
+                String groupId = chatService.createGroup(groupName, username);
+                PullReceiver receiver = pullReceiver;
+                if (receiver != null) {
+                    // Canal novo: tudo o que já houver nele foi publicado depois da criação
+                    receiver.subscribe(ChatService.Channels.group(groupId), true);
+                }
+                return groupId;
             }
         } catch (RemoteException e) {
             System.err.println("Erro ao criar grupo: " + e.getMessage());
@@ -337,15 +777,15 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
         return null;
     }
     
-    public ChatService.GroupInfo[] getAvailableGroups() {
+    public ChatService.GroupPage getGroupsPage(String namePrefix, ChatService.GroupSort sort, int offset, int limit) {
         try {
             if (chatService != null) {
-                return chatService.getAvailableGroups();
+                return chatService.getGroupsPage(namePrefix, sort, offset, limit);
             }
         } catch (RemoteException e) {
             System.err.println("Erro ao obter grupos: " + e.getMessage());
         }
-        return new ChatService.GroupInfo[0];
+        return new ChatService.GroupPage(new ChatService.GroupSummary[0], offset, false);
     }
     
     public ChatService.GroupInfo[] getUserGroups() {
@@ -469,6 +909,19 @@ public class ChatClient extends UnicastRemoteObject implements ChatClientCallbac
         }
     }
     
+    public void deleteGroup(String groupId) {
+        try {
+            if (chatService != null) {
+                chatService.deleteGroup(groupId, username);
+            }
+        } catch (RemoteException e) {
+            System.err.println("Erro ao excluir grupo: " + e.getMessage());
+            if (gui != null) {
+                gui.appendMessage("Sistema", "Erro ao excluir grupo: " + e.getMessage());
+            }
+        }
+    }
+    
     public void sendGroupFile(java.io.File file, String groupId) {
         new Thread(() -> {
             // Primeiro enviar o arquivo via UDP
@@ -185,6 +185,25 @@ public class ChatClientGUI extends JFrame {
         });
     }
 
+    /**
+     * Aplica uma variação da lista de usuários online
+     * @param joined Usuários que entraram
+     * @param left Usuários que saíram
+     */
+    public void updateUsersList(String[] joined, String[] left) {
+        SwingUtilities.invokeLater(() -> {
+            for (String user : left) {
+                usersListModel.removeElement(user);
+            }
+            for (String user : joined) {
+                if (!usersListModel.contains(user)) {
+                    usersListModel.addElement(user);
+                }
+            }
+            statusLabel.setText(usersListModel.size() + " usuário(s) online");
+        });
+    }
+
     private void disconnect() {
         client.disconnect();
     }
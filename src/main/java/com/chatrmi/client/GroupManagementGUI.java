@@ -4,10 +4,14 @@ import com.chatrmi.interfaces.ChatService;
 
 import javax.swing.*;
 import javax.swing.border.EmptyBorder;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -15,10 +19,21 @@ import java.util.Map;
  */
 public class GroupManagementGUI extends JFrame {
     
+    private static final int PAGE_SIZE = 50;
+    private static final int SEARCH_DELAY_MS = 300;
+    private static final int LOAD_MORE_THRESHOLD_PX = 100;
+    
     private ChatClient client;
     private JTabbedPane tabbedPane;
     private JList<String> availableGroupsList;
     private DefaultListModel<String> availableGroupsModel;
+    private List<ChatService.GroupSummary> availableGroups; // mesma ordem de availableGroupsModel
+    private JScrollPane availableScrollPane;
+    private JTextField searchField;
+    private JComboBox<String> sortComboBox;
+    private Timer searchTimer;
+    private int nextAvailableOffset;
+    private boolean hasMoreAvailable;
     private JList<String> myGroupsList;
     private DefaultListModel<String> myGroupsModel;
     private JList<String> invitesList;
@@ -32,6 +47,7 @@ public class GroupManagementGUI extends JFrame {
         this.groupInfoMap = new HashMap<>();
         this.groupNameToIdMap = new HashMap<>();
         this.openGroupChats = new HashMap<>();
+        this.availableGroups = new ArrayList<>();
         initializeGUI();
         refreshAll();
     }
@@ -64,10 +80,43 @@ public class GroupManagementGUI extends JFrame {
         JLabel label = new JLabel("Grupos Disponíveis:");
         label.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 14));
         
+        // Busca por prefixo do nome e ordenação
+        searchField = new JTextField(20);
+        sortComboBox = new JComboBox<>(new String[] {"Nome", "Membros"});
+        searchTimer = new Timer(SEARCH_DELAY_MS, e -> refreshAvailableGroups());
+        searchTimer.setRepeats(false);
+        searchField.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void insertUpdate(DocumentEvent e) { searchTimer.restart(); }
+            @Override
+            public void removeUpdate(DocumentEvent e) { searchTimer.restart(); }
+            @Override
+            public void changedUpdate(DocumentEvent e) { searchTimer.restart(); }
+        });
+        sortComboBox.addActionListener(e -> refreshAvailableGroups());
+        
+        JPanel searchPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
+        searchPanel.add(new JLabel("Buscar:"));
+        searchPanel.add(searchField);
+        searchPanel.add(new JLabel("Ordenar por:"));
+        searchPanel.add(sortComboBox);
+        
+        JPanel headerPanel = new JPanel(new BorderLayout());
+        headerPanel.add(label, BorderLayout.NORTH);
+        headerPanel.add(searchPanel, BorderLayout.SOUTH);
+        
         availableGroupsModel = new DefaultListModel<>();
         availableGroupsList = new JList<>(availableGroupsModel);
         availableGroupsList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
         JScrollPane scrollPane = new JScrollPane(availableGroupsList);
+        availableScrollPane = scrollPane;
+        
+        // Carrega a próxima página ao rolar até o fim da lista
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (!e.getValueIsAdjusting()) {
+                loadMoreAvailableGroupsIfNeeded();
+            }
+        });
         
         JPanel buttonPanel = new JPanel(new FlowLayout());
         JButton createButton = new JButton("Criar Grupo");
@@ -79,7 +128,7 @@ public class GroupManagementGUI extends JFrame {
         buttonPanel.add(createButton);
         buttonPanel.add(requestButton);
         
-        panel.add(label, BorderLayout.NORTH);
+        panel.add(headerPanel, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
         panel.add(buttonPanel, BorderLayout.SOUTH);
         
@@ -113,16 +162,19 @@ public class GroupManagementGUI extends JFrame {
         JButton inviteButton = new JButton("Convidar Usuário");
         JButton requestsButton = new JButton("Ver Solicitações");
         JButton leaveButton = new JButton("Sair");
+        JButton deleteButton = new JButton("Excluir Grupo");
         
         openChatButton.addActionListener(e -> openGroupChat());
         inviteButton.addActionListener(e -> inviteUser());
         requestsButton.addActionListener(e -> showRequests());
         leaveButton.addActionListener(e -> leaveGroup());
+        deleteButton.addActionListener(e -> deleteGroup());
         
         buttonPanel.add(openChatButton);
         buttonPanel.add(inviteButton);
         buttonPanel.add(requestsButton);
         buttonPanel.add(leaveButton);
+        buttonPanel.add(deleteButton);
         
         panel.add(label, BorderLayout.NORTH);
         panel.add(scrollPane, BorderLayout.CENTER);
@@ -190,8 +242,8 @@ public class GroupManagementGUI extends JFrame {
     }
     
     private void requestJoinGroup() {
-        String selected = availableGroupsList.getSelectedValue();
-        if (selected == null) {
+        int selectedIndex = availableGroupsList.getSelectedIndex();
+        if (selectedIndex < 0 || selectedIndex >= availableGroups.size()) {
             JOptionPane.showMessageDialog(
                 this,
                 "Selecione um grupo primeiro",
@@ -201,7 +253,7 @@ public class GroupManagementGUI extends JFrame {
             return;
         }
         
-        String groupId = groupNameToIdMap.get(selected);
+        String groupId = availableGroups.get(selectedIndex).getGroupId();
         if (groupId != null) {
             client.requestJoinGroup(groupId);
             JOptionPane.showMessageDialog(
@@ -464,6 +516,45 @@ public class GroupManagementGUI extends JFrame {
         }
     }
     
+    private void deleteGroup() {
+        String selected = myGroupsList.getSelectedValue();
+        if (selected == null) {
+            JOptionPane.showMessageDialog(
+                this,
+                "Selecione um grupo primeiro",
+                "Aviso",
+                JOptionPane.WARNING_MESSAGE
+            );
+            return;
+        }
+        
+        String groupId = groupNameToIdMap.get(selected);
+        if (groupId == null) return;
+        
+        ChatService.GroupInfo groupInfo = groupInfoMap.get(groupId);
+        if (groupInfo == null || !groupInfo.getOwner().equals(client.getUsername())) {
+            JOptionPane.showMessageDialog(
+                this,
+                "Apenas o dono pode excluir o grupo",
+                "Aviso",
+                JOptionPane.WARNING_MESSAGE
+            );
+            return;
+        }
+        
+        int confirm = JOptionPane.showConfirmDialog(
+            this,
+            "Deseja realmente excluir o grupo " + selected + "?",
+            "Confirmar Exclusão",
+            JOptionPane.YES_NO_OPTION
+        );
+        
+        if (confirm == JOptionPane.YES_OPTION) {
+            client.deleteGroup(groupId);
+            refreshAll();
+        }
+    }
+    
     private void processInvite(boolean accepted) {
         String selected = invitesList.getSelectedValue();
         if (selected == null) {
@@ -491,23 +582,53 @@ public class GroupManagementGUI extends JFrame {
     
     private void refreshAvailableGroups() {
         SwingUtilities.invokeLater(() -> {
+            searchTimer.stop();
             availableGroupsModel.clear();
-            groupInfoMap.clear();
-            groupNameToIdMap.clear();
-            
-            ChatService.GroupInfo[] groups = client.getAvailableGroups();
-            for (ChatService.GroupInfo group : groups) {
-                String displayName = group.getGroupName() + " (" + group.getMemberCount() + " membros)";
-                availableGroupsModel.addElement(displayName);
-                groupInfoMap.put(group.getGroupId(), group);
-                groupNameToIdMap.put(displayName, group.getGroupId());
-            }
+            availableGroups.clear();
+            nextAvailableOffset = 0;
+            hasMoreAvailable = true;
+            loadNextAvailablePage();
         });
     }
     
+    /**
+     * Busca a próxima página de grupos disponíveis e a acrescenta à lista
+     */
+    private void loadNextAvailablePage() {
+        if (!hasMoreAvailable) {
+            return;
+        }
+        ChatService.GroupSort sort = sortComboBox.getSelectedIndex() == 1
+            ? ChatService.GroupSort.MEMBER_COUNT
+            : ChatService.GroupSort.NAME;
+        ChatService.GroupPage page = client.getGroupsPage(searchField.getText(), sort, nextAvailableOffset, PAGE_SIZE);
+        for (ChatService.GroupSummary group : page.getGroups()) {
+            availableGroupsModel.addElement(group.getGroupName() + " (" + group.getMemberCount() + " membros)");
+            availableGroups.add(group);
+        }
+        nextAvailableOffset = page.getNextOffset();
+        hasMoreAvailable = page.hasMore();
+        
+        // Se a página não preencheu a área visível, não haverá rolagem para pedir a próxima
+        SwingUtilities.invokeLater(this::loadMoreAvailableGroupsIfNeeded);
+    }
+    
+    private void loadMoreAvailableGroupsIfNeeded() {
+        if (!hasMoreAvailable) {
+            return;
+        }
+        JScrollBar scrollBar = availableScrollPane.getVerticalScrollBar();
+        int remaining = scrollBar.getMaximum() - (scrollBar.getValue() + scrollBar.getVisibleAmount());
+        if (remaining <= LOAD_MORE_THRESHOLD_PX) {
+            loadNextAvailablePage();
+        }
+    }
+    
     private void refreshMyGroups() {
         SwingUtilities.invokeLater(() -> {
             myGroupsModel.clear();
+            groupInfoMap.clear();
+            groupNameToIdMap.clear();
             
             ChatService.GroupInfo[] groups = client.getUserGroups();
             for (ChatService.GroupInfo group : groups) {
@@ -0,0 +1,196 @@
+package com.chatrmi.client;
+
+import com.chatrmi.interfaces.ChatClientCallback;
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.interfaces.ChatService;
+
+import java.rmi.RemoteException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Recebimento de eventos em modo pull
+ * Usado quando o servidor não consegue chamar o callback do cliente (firewall/NAT).
+ * Uma única thread faz long-poll de todos os canais assinados com pollChannels
+ * e entrega os eventos ao callback local, na ordem em que foram publicados em
+ * cada canal.
+ *
+ * A entrada num grupo chega pelo canal do usuário com a posição do canal do
+ * grupo naquele momento; o grupo é assinado a partir dela antes da entrega,
+ * para que as mensagens publicadas entre a entrada e a assinatura não se percam.
+ * Um canal assinado por outra thread não está na busca em andamento: outra
+ * busca começa já com ele, e a anterior termina ao voltar. Os eventos de um
+ * canal só são entregues se ele ainda estiver na posição em que foi pedido,
+ * então as duas buscas nunca entregam o mesmo trecho.
+ */
+public class PullReceiver {
+    
+    private static final long POLL_WAIT_MS = 25000;
+    private static final long RETRY_DELAY_MS = 1000;
+    private static final long MAX_RETRY_DELAY_MS = 30000;
+    
+    private final ChatService chatService;
+    private final String username;
+    private final ChatClientCallback target;
+    private final Map<String, Long> positions = new ConcurrentHashMap<>(); // canal -> último evento entregue
+    private final AtomicInteger generation = new AtomicInteger(); // busca atual; as anteriores terminam ao voltar
+    private final Object deliveryLock = new Object();
+    private volatile boolean started;
+    private volatile boolean running = true;
+    
+    public PullReceiver(ChatService chatService, String username, ChatClientCallback target) {
+        this.chatService = chatService;
+        this.username = username;
+        this.target = target;
+    }
+    
+    /**
+     * Passa a buscar os eventos de um canal a partir de agora
+     * @param channel Nome do canal
+     */
+    public void subscribe(String channel) {
+        subscribe(channel, false);
+    }
+    
+    /**
+     * Passa a buscar os eventos de um canal
+     * @param channel Nome do canal
+     * @param fromStart true para receber também os eventos ainda guardados no canal
+     */
+    public void subscribe(String channel, boolean fromStart) {
+        if (!running || positions.containsKey(channel)) {
+            return;
+        }
+        long seq = -1;
+        if (fromStart) {
+            seq = 0;
+        } else {
+            // Fixa a posição atual antes de retornar, para não perder eventos
+            // publicados enquanto a busca ainda não inclui o canal
+            try {
+                seq = chatService.fetchSince(username, channel, -1, 0).getLastSeq();
+            } catch (RemoteException e) {
+                System.err.println("[MODO PULL] Erro ao assinar o canal " + channel + ": " + e.getMessage());
+            }
+        }
+        subscribeAt(channel, seq);
+    }
+    
+    /**
+     * Passa a buscar os eventos de um canal a partir de uma posição conhecida
+     * Usado ao trocar de servidor: continua de onde o receptor anterior parou.
+     * @param channel Nome do canal
+     * @param seq Último evento já entregue no canal
+     */
+    public void subscribeAt(String channel, long seq) {
+        if (running && positions.putIfAbsent(channel, seq) == null && started) {
+            poll();
+        }
+    }
+    
+    /**
+     * Começa a buscar os canais assinados até aqui (e os assinados depois)
+     */
+    public void start() {
+        if (running && !started) {
+            started = true;
+            poll();
+        }
+    }
+    
+    /**
+     * @return Último evento entregue em cada canal assinado
+     */
+    public Map<String, Long> getPositions() {
+        return new HashMap<>(positions);
+    }
+    
+    /**
+     * Deixa de buscar os eventos de um canal
+     * @param channel Nome do canal
+     */
+    public void unsubscribe(String channel) {
+        positions.remove(channel);
+    }
+    
+    /**
+     * Encerra as buscas; as posições continuam disponíveis em {@link #getPositions()}
+     */
+    public void stop() {
+        running = false;
+        generation.incrementAndGet();
+    }
+    
+    /**
+     * Começa uma busca nova com os canais atuais
+     */
+    private void poll() {
+        int current = generation.incrementAndGet();
+        Thread thread = new Thread(() -> run(current), "chat-pull-" + username);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    private void run(int current) {
+        long retryDelay = RETRY_DELAY_MS;
+        while (running && generation.get() == current) {
+            Map<String, Long> snapshot = getPositions();
+            String[] channels = snapshot.keySet().toArray(new String[0]);
+            long[] seqs = new long[channels.length];
+            for (int i = 0; i < channels.length; i++) {
+                seqs[i] = snapshot.get(channels[i]);
+            }
+            try {
+                deliver(channels, seqs, chatService.pollChannels(username, channels, seqs, POLL_WAIT_MS));
+                retryDelay = RETRY_DELAY_MS;
+            } catch (RemoteException e) {
+                if (!running || generation.get() != current) {
+                    break;
+                }
+                System.err.println("[MODO PULL] Erro ao buscar eventos: " + e.getMessage());
+                try {
+                    Thread.sleep(retryDelay);
+                } catch (InterruptedException ie) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+                retryDelay = Math.min(retryDelay * 2, MAX_RETRY_DELAY_MS);
+            }
+        }
+    }
+    
+    private void deliver(String[] channels, long[] seqs, ChatService.EventChunk[] chunks) throws RemoteException {
+        synchronized (deliveryLock) {
+            for (int i = 0; i < channels.length && running; i++) {
+                String channel = channels[i];
+                // Deixado durante a busca, ou o trecho já entregue por outra busca
+                Long position = positions.get(channel);
+                if (position == null || position != seqs[i]) {
+                    continue;
+                }
+                ChatService.EventChunk chunk = chunks[i];
+                if (chunk == null) {
+                    System.err.println("[MODO PULL] Sem acesso ao canal " + channel + "; deixando de buscá-lo");
+                    positions.remove(channel, position);
+                    continue;
+                }
+                if (chunk.hasGap()) {
+                    System.err.println("[MODO PULL] Eventos perdidos no canal " + channel);
+                }
+                for (ChatEvent event : chunk.getEvents()) {
+                    if (event instanceof ChatEvent.AddedToGroup) {
+                        ChatEvent.AddedToGroup added = (ChatEvent.AddedToGroup) event;
+                        if (added.getJoinSeq() >= 0) {
+                            // Entra na próxima rodada desta busca: não precisa de outra
+                            positions.putIfAbsent(ChatService.Channels.group(added.getGroupId()), added.getJoinSeq());
+                        }
+                    }
+                    event.dispatchTo(target);
+                }
+                positions.replace(channel, position, chunk.getLastSeq());
+            }
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package com.chatrmi.client;
+
+import com.chatrmi.interfaces.ChatService;
+
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * Cliente de administração: imprime as métricas do servidor (ChatService.getStats)
+ * Uso: ServerStatsClient [host] [intervaloSegundos]
+ * Sem intervalo imprime uma vez; com intervalo repete até ser interrompido.
+ */
+public class ServerStatsClient {
+    
+    public static void main(String[] args) throws Exception {
+        String serverHost = args.length > 0 ? args[0] : "localhost";
+        int intervalSeconds = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+        
+        Registry registry = LocateRegistry.getRegistry(serverHost, Integer.getInteger("chatrmi.registry.port", 1099));
+        ChatService chatService = (ChatService) registry.lookup("ChatService");
+        
+        do {
+            print(chatService.getStats());
+            if (intervalSeconds > 0) {
+                Thread.sleep(intervalSeconds * 1000L);
+            }
+        } while (intervalSeconds > 0);
+    }
+    
+    private static void print(ChatService.ServerStats stats) {
+        System.out.println("=== MÉTRICAS DO SERVIDOR - "
+            + new SimpleDateFormat("dd/MM/yyyy HH:mm:ss").format(new Date(stats.getTimestamp())) + " ===");
+        
+        System.out.println("\n-- Medidores --");
+        for (Map.Entry<String, Long> entry : stats.getGauges().entrySet()) {
+            System.out.printf("  %-36s %d%n", entry.getKey(), entry.getValue());
+        }
+        
+        System.out.println("\n-- Contadores --");
+        for (Map.Entry<String, Long> entry : stats.getCounters().entrySet()) {
+            if (entry.getValue() > 0) {
+                System.out.printf("  %-36s %d%n", entry.getKey(), entry.getValue());
+            }
+        }
+        
+        System.out.println("\n-- Histogramas --");
+        for (Map.Entry<String, ChatService.HistogramStats> entry : stats.getHistograms().entrySet()) {
+            if (entry.getValue().getCount() > 0) {
+                System.out.printf("  %-36s %s%n", entry.getKey(), entry.getValue());
+            }
+        }
+        System.out.println();
+    }
+}
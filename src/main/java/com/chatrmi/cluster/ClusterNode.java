@@ -0,0 +1,645 @@
+package com.chatrmi.cluster;
+
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.interfaces.WireFormat;
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Counter;
+import com.chatrmi.metrics.Histogram;
+import com.chatrmi.metrics.MetricsRegistry;
+import com.chatrmi.server.ChatServiceImpl;
+import com.chatrmi.server.GlobalEventRelay;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInput;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.DataOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Nó de um cluster de servidores de chat
+ * Cada nó atende os próprios clientes (RMI ou NIO) e repassa aos vizinhos,
+ * por uma malha TCP com lista fixa de peers, o que é global: mensagens do
+ * chat geral, avisos de arquivo e presença. O evento recebido de outro nó é
+ * entregue aos clientes locais pelo caminho normal do servidor (dispatcher,
+ * journal de eventos), de modo que o fan-out continua local: uma mensagem
+ * atravessa cada ligação entre nós uma vez, não uma vez por cliente.
+ *
+ * Cada evento leva (origem, encarnação, sequência); uma {@link DedupWindow}
+ * por origem descarta cópias, vindas de reenvio depois de reconexão ou de
+ * caminhos diferentes quando hops > 1 (malha parcial, em que os nós repassam
+ * adiante o que recebem). Com hops = 1 a malha tem de ser completa: cada nó
+ * lista todos os outros.
+ *
+ * A presença remota é a união dos usuários de cada origem. Os JOIN/LEAVE
+ * mantêm a lista em dia e o heartbeat periódico leva a lista completa da
+ * origem, o que corrige o que se perdeu numa queda de ligação; uma origem em
+ * silêncio por mais de peerTimeoutMs tem os usuários retirados.
+ *
+ * Os nós vivos (com heartbeat recente e sem GOODBYE) formam a lista de
+ * membros repassada ao {@link MembershipListener}, com o endereço do registry
+ * RMI que cada um anuncia no heartbeat; é ela que define o anel de grupos do
+ * {@link ShardRouter}. Eventos de grupo para usuários de outro nó vão só ao
+ * nó onde o usuário está conectado, um repasse por nó.
+ *
+ * Métricas: cluster.relay.sent/forwarded/received/duplicates/dropped e
+ * cluster.relay.micros, o tempo entre o envio na origem e a entrega aqui
+ * (relógio de parede dos dois nós; entre máquinas inclui a diferença entre
+ * os relógios).
+ */
+public class ClusterNode implements GlobalEventRelay {
+    
+    private static final Logger log = Logger.get(ClusterNode.class);
+    private static final int HELLO_MAGIC = 0x43484331;  // "CHC1"
+    private static final int MAX_FRAME_BYTES = 17 * 1024 * 1024;
+    private static final ObjectInputFilter EVENT_FILTER = WireFormat.allowOnly(WireFormat.EVENT_CLASSES);
+    
+    /**
+     * Parâmetros do nó
+     */
+    public static class Settings {
+        public int port = 0;                          // porta de cluster; 0 = servidor fora de cluster
+        public String nodeId;                         // padrão: <host>:<port>
+        public List<String> peers = new ArrayList<>(); // host:port dos outros nós (o próprio nó é ignorado)
+        public int hops = 1;                          // 1 = malha completa, sem repasse adiante
+        public int queueCapacity = 10_000;            // eventos pendentes por vizinho
+        public int reconnectMs = 500;
+        public int heartbeatMs = 1000;
+        public int peerTimeoutMs = 5000;
+        public String registryAddress;                // host:porta do registry RMI, anunciado aos outros nós
+        
+        public boolean isEnabled() {
+            return port > 0;
+        }
+        
+        /**
+         * Lê os parâmetros das propriedades de sistema chatrmi.cluster.*
+         * @return Parâmetros configurados
+         */
+        public static Settings fromSystemProperties() {
+            Settings settings = new Settings();
+            settings.port = Integer.getInteger("chatrmi.cluster.port", settings.port);
+            settings.nodeId = System.getProperty("chatrmi.cluster.nodeId", settings.nodeId);
+            String peers = System.getProperty("chatrmi.cluster.peers", "");
+            for (String peer : peers.split(",")) {
+                if (!peer.isBlank()) {
+                    settings.peers.add(peer.trim());
+                }
+            }
+            settings.hops = Integer.getInteger("chatrmi.cluster.hops", settings.hops);
+            settings.queueCapacity = Integer.getInteger("chatrmi.cluster.queueCapacity", settings.queueCapacity);
+            settings.reconnectMs = Integer.getInteger("chatrmi.cluster.reconnectMs", settings.reconnectMs);
+            settings.heartbeatMs = Integer.getInteger("chatrmi.cluster.heartbeatMs", settings.heartbeatMs);
+            settings.peerTimeoutMs = Integer.getInteger("chatrmi.cluster.peerTimeoutMs", settings.peerTimeoutMs);
+            return settings;
+        }
+    }
+    
+    /**
+     * Recebe a lista de nós vivos sempre que ela muda
+     */
+    public interface MembershipListener {
+        /**
+         * @param members nodeId -> endereço do registry RMI, sem este nó
+         */
+        void membersChanged(Map<String, String> members);
+    }
+    
+    /**
+     * O que se sabe de um nó de origem
+     */
+    private static final class Origin {
+        final DedupWindow window = new DedupWindow();
+        final Set<String> users = new HashSet<>();
+        long incarnation = Long.MIN_VALUE;
+        long lastSeenMillis;
+        boolean alive;
+        String registryAddress;
+    }
+    
+    private final ChatServiceImpl service;
+    private final Settings settings;
+    private final String nodeId;
+    private final long incarnation = System.currentTimeMillis();
+    private final AtomicLong sequence = new AtomicLong();
+    private final List<PeerLink> links = new ArrayList<>();
+    private final Set<Socket> inbound = ConcurrentHashMap.newKeySet();
+    private final Object membershipLock = new Object(); // avisos de membros em ordem
+    private volatile MembershipListener membershipListener;
+    
+    // Protegidos por origins
+    private final Map<String, Origin> origins = new HashMap<>();
+    private final Map<String, Integer> remoteUsers = new HashMap<>();  // usuário -> em quantas origens
+    
+    private final Counter sent;
+    private final Counter forwarded;
+    private final Counter received;
+    private final Counter duplicates;
+    private final Counter dropped;
+    private final Histogram relayMicros;
+    
+    private ServerSocket serverSocket;
+    private ScheduledExecutorService timer;
+    private volatile boolean running;
+    
+    /**
+     * @param service Servidor local: entrega os eventos remotos e fornece a lista de usuários locais
+     * @param settings Parâmetros do nó (port > 0)
+     * @param metrics Registro onde as métricas cluster.* são criadas
+     */
+    public ClusterNode(ChatServiceImpl service, Settings settings, MetricsRegistry metrics) {
+        this.service = service;
+        this.settings = settings;
+        this.nodeId = settings.nodeId != null ? settings.nodeId : localHostName() + ":" + settings.port;
+        this.sent = metrics.counter("cluster.relay.sent");
+        this.forwarded = metrics.counter("cluster.relay.forwarded");
+        this.received = metrics.counter("cluster.relay.received");
+        this.duplicates = metrics.counter("cluster.relay.duplicates");
+        this.dropped = metrics.counter("cluster.relay.dropped");
+        this.relayMicros = metrics.histogram("cluster.relay.micros");
+        for (String peer : settings.peers) {
+            links.add(new PeerLink(this, peer, settings.queueCapacity, dropped));
+        }
+        metrics.gauge("cluster.peers.connected", () -> links.stream().filter(PeerLink::isConnected).count());
+        metrics.gauge("cluster.peers.inbound", inbound::size);
+        metrics.gauge("cluster.remoteUsers", () -> {
+            synchronized (origins) {
+                return remoteUsers.size();
+            }
+        });
+    }
+    
+    private static String localHostName() {
+        try {
+            return InetAddress.getLocalHost().getHostName();
+        } catch (IOException e) {
+            return "localhost";
+        }
+    }
+    
+    public String getNodeId() {
+        return nodeId;
+    }
+    
+    Settings getSettings() {
+        return settings;
+    }
+    
+    public void setMembershipListener(MembershipListener listener) {
+        this.membershipListener = listener;
+    }
+    
+    /**
+     * @return Nós vivos: nodeId -> endereço do registry RMI, sem este nó
+     */
+    public Map<String, String> getMembers() {
+        Map<String, String> members = new HashMap<>();
+        synchronized (origins) {
+            origins.forEach((id, origin) -> {
+                if (origin.alive && origin.registryAddress != null) {
+                    members.put(id, origin.registryAddress);
+                }
+            });
+        }
+        return members;
+    }
+    
+    private void membersChanged() {
+        MembershipListener listener = membershipListener;
+        if (listener == null) {
+            return;
+        }
+        synchronized (membershipLock) {
+            Map<String, String> members = Collections.unmodifiableMap(getMembers());
+            log.info("Membros do cluster: {}", members.keySet());
+            listener.membersChanged(members);
+        }
+    }
+    
+    /**
+     * Abre a porta de cluster e começa a conectar nos vizinhos
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(settings.port));
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "cluster-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        for (PeerLink link : links) {
+            link.start();
+        }
+        timer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "cluster-timer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        timer.scheduleAtFixedRate(this::heartbeat, settings.heartbeatMs, settings.heartbeatMs, TimeUnit.MILLISECONDS);
+        timer.scheduleAtFixedRate(this::expireSilentOrigins, settings.heartbeatMs, settings.heartbeatMs, TimeUnit.MILLISECONDS);
+        log.info("Nó de cluster {} na porta {} ({} vizinhos, hops={})", nodeId, settings.port, links.size(), settings.hops);
+    }
+    
+    public void stop() {
+        if (timer != null) {
+            timer.shutdownNow();
+        }
+        // Avisa a saída para que os outros nós refaçam o anel já, sem esperar o timeout
+        publish(RelayMessage.Type.GOODBYE, null, null, null);
+        for (PeerLink link : links) {
+            link.awaitEmpty(2000);
+        }
+        running = false;
+        for (PeerLink link : links) {
+            link.stop();
+        }
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // Já fechado
+        }
+        for (Socket socket : inbound) {
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Já fechado
+            }
+        }
+    }
+    
+    // ========== EVENTOS LOCAIS -> VIZINHOS ==========
+    
+    @Override
+    public void messageSent(String username, String message) {
+        publish(RelayMessage.Type.MESSAGE, username, message, null);
+    }
+    
+    @Override
+    public void fileShared(String username, String filename) {
+        publish(RelayMessage.Type.FILE, username, filename, null);
+    }
+    
+    @Override
+    public void presenceChanged(String username, boolean online) {
+        publish(online ? RelayMessage.Type.JOIN : RelayMessage.Type.LEAVE, username, null, null);
+    }
+    
+    @Override
+    public void eventPublished(ChatEvent event) {
+        byte[] payload = serialize(event);
+        if (payload != null && running) {
+            RelayMessage message = new RelayMessage(nodeId, incarnation, sequence.incrementAndGet(),
+                nowMicros(), settings.hops, RelayMessage.Type.EVENT, null, null, null, payload);
+            for (PeerLink link : links) {
+                link.offer(message);
+            }
+            sent.increment();
+        }
+    }
+    
+    @Override
+    public void eventForUsers(String[] usernames, ChatEvent event) {
+        Map<String, List<String>> byNode = new HashMap<>();
+        synchronized (origins) {
+            for (String user : usernames) {
+                origins.forEach((id, origin) -> {
+                    if (origin.users.contains(user)) {
+                        byNode.computeIfAbsent(id, k -> new ArrayList<>()).add(user);
+                    }
+                });
+            }
+        }
+        if (byNode.isEmpty() || !running) {
+            return;
+        }
+        byte[] payload = serialize(event);
+        if (payload == null) {
+            return;
+        }
+        for (Map.Entry<String, List<String>> entry : byNode.entrySet()) {
+            PeerLink link = linkTo(entry.getKey());
+            if (link == null) {
+                // Sem ligação direta (malha parcial): o evento não chega lá
+                dropped.increment();
+                continue;
+            }
+            link.offer(new RelayMessage(nodeId, incarnation, sequence.incrementAndGet(), nowMicros(), 1,
+                RelayMessage.Type.USER_EVENT, null, null, entry.getValue().toArray(new String[0]), payload));
+            sent.increment();
+        }
+    }
+    
+    private PeerLink linkTo(String remoteId) {
+        for (PeerLink link : links) {
+            if (remoteId.equals(link.getRemoteId())) {
+                return link;
+            }
+        }
+        return null;
+    }
+    
+    private static byte[] serialize(ChatEvent event) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeObject(event);
+        } catch (IOException e) {
+            log.error("Evento não serializável para o cluster: {}", e.getMessage(), e);
+            return null;
+        }
+        return bytes.toByteArray();
+    }
+    
+    private static ChatEvent deserialize(byte[] payload) throws IOException {
+        try (ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(payload))) {
+            in.setObjectInputFilter(EVENT_FILTER);
+            return (ChatEvent) in.readObject();
+        } catch (ClassNotFoundException | ClassCastException e) {
+            throw new StreamCorruptedException("evento de cluster inválido: " + e.getMessage());
+        }
+    }
+    
+    private void heartbeat() {
+        try {
+            publish(RelayMessage.Type.HEARTBEAT, null, settings.registryAddress, service.getLocalUsers());
+        } catch (RuntimeException e) {
+            log.error("Falha no heartbeat do cluster: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Um vizinho acabou de conectar: manda já a lista de usuários em vez de esperar o próximo heartbeat
+     */
+    void linkUp() {
+        heartbeat();
+    }
+    
+    private void publish(RelayMessage.Type type, String user, String text, String[] users) {
+        if (!running) {
+            return;
+        }
+        RelayMessage message = new RelayMessage(nodeId, incarnation, sequence.incrementAndGet(),
+            nowMicros(), settings.hops, type, user, text, users);
+        for (PeerLink link : links) {
+            link.offer(message);
+        }
+        if (type != RelayMessage.Type.HEARTBEAT && type != RelayMessage.Type.GOODBYE) {
+            sent.increment();
+        }
+    }
+    
+    private static long nowMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+    
+    // ========== VIZINHOS -> CLIENTES LOCAIS ==========
+    
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread reader = new Thread(() -> readLoop(socket), "cluster-in-" + socket.getRemoteSocketAddress());
+                reader.setDaemon(true);
+                reader.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("Erro aceitando conexão de cluster: {}", e.getMessage());
+                }
+            }
+        }
+    }
+    
+    private void readLoop(Socket socket) {
+        String from = null;
+        inbound.add(socket);
+        try (Socket s = socket) {
+            s.setTcpNoDelay(true);
+            // Sem nada em 2 timeouts (nem heartbeat) a ligação está morta; o outro lado reconecta
+            s.setSoTimeout(settings.peerTimeoutMs * 2);
+            DataInputStream in = new DataInputStream(new BufferedInputStream(s.getInputStream(), 64 * 1024));
+            DataOutputStream out = new DataOutputStream(s.getOutputStream());
+            from = readHello(in);
+            writeHello(out, nodeId);
+            out.flush();
+            if (from.equals(nodeId)) {
+                return;
+            }
+            log.info("Nó {} conectou ({})", from, s.getRemoteSocketAddress());
+            while (running) {
+                int length = in.readInt();
+                if (length <= 0 || length > MAX_FRAME_BYTES) {
+                    throw new StreamCorruptedException("quadro de cluster inválido: " + length);
+                }
+                byte[] frame = new byte[length];
+                in.readFully(frame);
+                receive(RelayMessage.readFrom(new DataInputStream(new ByteArrayInputStream(frame))), from);
+            }
+        } catch (EOFException | SocketException e) {
+            if (running && from != null) {
+                log.info("Nó {} desconectou", from);
+            }
+        } catch (IOException e) {
+            if (running) {
+                log.warn("Ligação de entrada com {} encerrada: {}", from != null ? from : socket.getRemoteSocketAddress(), e.getMessage());
+            }
+        } finally {
+            inbound.remove(socket);
+        }
+    }
+    
+    /**
+     * Aplica um evento recebido do vizinho from e, se hops permitir, repassa aos demais
+     */
+    private void receive(RelayMessage message, String from) {
+        if (message.origin.equals(nodeId)) {
+            return;  // deu a volta na malha
+        }
+        boolean membershipChanged = false;
+        synchronized (origins) {
+            Origin origin = origins.computeIfAbsent(message.origin, id -> new Origin());
+            if (!origin.window.accept(message.incarnation, message.seq)) {
+                duplicates.increment();
+                return;
+            }
+            if (message.incarnation != origin.incarnation) {
+                // Origem nova ou reiniciada: os usuários da encarnação anterior caíram com ela
+                origin.incarnation = message.incarnation;
+                replaceUsers(origin, List.of());
+            }
+            origin.lastSeenMillis = System.currentTimeMillis();
+            switch (message.type) {
+                case JOIN:
+                    if (origin.users.add(message.user)) {
+                        addRemote(message.user);
+                    }
+                    break;
+                case LEAVE:
+                    if (origin.users.remove(message.user)) {
+                        removeRemote(message.user);
+                    }
+                    break;
+                case HEARTBEAT:
+                    replaceUsers(origin, Arrays.asList(message.users));
+                    if (!origin.alive || !Objects.equals(origin.registryAddress, message.text)) {
+                        origin.alive = true;
+                        origin.registryAddress = message.text;
+                        membershipChanged = true;
+                    }
+                    break;
+                case GOODBYE:
+                    replaceUsers(origin, List.of());
+                    membershipChanged = origin.alive;
+                    origin.alive = false;
+                    break;
+                default:
+                    break;
+            }
+        }
+        if (membershipChanged) {
+            membersChanged();
+        }
+        try {
+            deliver(message);
+        } catch (IOException | RuntimeException e) {
+            log.warn("Evento de cluster {} descartado: {}", message, e.getMessage());
+        }
+        if (message.hops > 1 && message.type != RelayMessage.Type.USER_EVENT) {
+            RelayMessage next = message.forwarded();
+            for (PeerLink link : links) {
+                String target = link.getRemoteId();
+                if (!message.origin.equals(target) && !from.equals(target)) {
+                    link.offer(next);
+                    forwarded.increment();
+                }
+            }
+        }
+    }
+    
+    /**
+     * Entrega aos clientes locais o conteúdo de um evento já aceito
+     */
+    private void deliver(RelayMessage message) throws IOException {
+        switch (message.type) {
+            case MESSAGE:
+                received.increment();
+                relayMicros.record(Math.max(0, nowMicros() - message.sentAtMicros));
+                service.deliverRemoteMessage(message.user, message.text);
+                break;
+            case FILE:
+                received.increment();
+                relayMicros.record(Math.max(0, nowMicros() - message.sentAtMicros));
+                service.deliverRemoteFile(message.user, message.text);
+                break;
+            case EVENT:
+                received.increment();
+                relayMicros.record(Math.max(0, nowMicros() - message.sentAtMicros));
+                service.deliverRemoteEvent(deserialize(message.payload));
+                break;
+            case USER_EVENT:
+                received.increment();
+                relayMicros.record(Math.max(0, nowMicros() - message.sentAtMicros));
+                service.deliverRemoteEvent(message.users, deserialize(message.payload));
+                break;
+            case JOIN:
+            case LEAVE:
+                received.increment();
+                break;
+            default:
+                break;
+        }
+    }
+    
+    private void expireSilentOrigins() {
+        long deadline = System.currentTimeMillis() - settings.peerTimeoutMs;
+        boolean membershipChanged = false;
+        synchronized (origins) {
+            for (Map.Entry<String, Origin> entry : origins.entrySet()) {
+                Origin origin = entry.getValue();
+                if ((origin.alive || !origin.users.isEmpty()) && origin.lastSeenMillis < deadline) {
+                    log.warn("Nó {} em silêncio há mais de {} ms; {} usuários removidos",
+                        entry.getKey(), settings.peerTimeoutMs, origin.users.size());
+                    replaceUsers(origin, List.of());
+                    membershipChanged |= origin.alive;
+                    origin.alive = false;
+                }
+            }
+        }
+        if (membershipChanged) {
+            membersChanged();
+        }
+    }
+    
+    private void replaceUsers(Origin origin, Collection<String> users) {
+        Set<String> next = new HashSet<>(users);
+        for (String user : origin.users) {
+            if (!next.contains(user)) {
+                removeRemote(user);
+            }
+        }
+        for (String user : next) {
+            if (!origin.users.contains(user)) {
+                addRemote(user);
+            }
+        }
+        origin.users.clear();
+        origin.users.addAll(next);
+    }
+    
+    private void addRemote(String user) {
+        if (remoteUsers.merge(user, 1, Integer::sum) == 1) {
+            service.remoteUserJoined(user);
+        }
+    }
+    
+    private void removeRemote(String user) {
+        Integer count = remoteUsers.computeIfPresent(user, (u, n) -> n > 1 ? n - 1 : null);
+        if (count == null) {
+            service.remoteUserLeft(user);
+        }
+    }
+    
+    // ========== HELLO ==========
+    
+    static void writeHello(DataOutput out, String nodeId) throws IOException {
+        out.writeInt(HELLO_MAGIC);
+        out.writeUTF(nodeId);
+    }
+    
+    static String readHello(DataInput in) throws IOException {
+        int magic = in.readInt();
+        if (magic != HELLO_MAGIC) {
+            throw new StreamCorruptedException("conexão de cluster sem HELLO válido: " + Integer.toHexString(magic));
+        }
+        return in.readUTF();
+    }
+}
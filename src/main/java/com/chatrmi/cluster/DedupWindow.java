@@ -0,0 +1,49 @@
+package com.chatrmi.cluster;
+
+/**
+ * Janela de sequências já vistas de um nó de origem
+ * Guarda a maior sequência recebida e um mapa de bits das 64 anteriores, como
+ * a janela anti-replay do IPsec: aceita cada sequência uma única vez, mesmo
+ * fora de ordem (caminhos diferentes na malha ou reenvio após reconexão), e
+ * recusa as antigas demais para caber na janela. Uma encarnação nova (o nó
+ * reiniciou e recomeçou a contagem) zera a janela; uma mais velha é recusada.
+ * Não é thread-safe: o {@link ClusterNode} sincroniza o acesso.
+ */
+final class DedupWindow {
+    
+    private static final int SIZE = 64;
+    
+    private long incarnation = Long.MIN_VALUE;
+    private long highest;   // maior sequência aceita (0 = nenhuma)
+    private long seen;      // bit i = sequência highest - i já aceita
+    
+    /**
+     * @return true na primeira vez que a sequência aparece
+     */
+    boolean accept(long incarnation, long seq) {
+        if (incarnation < this.incarnation) {
+            return false;
+        }
+        if (incarnation > this.incarnation) {
+            this.incarnation = incarnation;
+            highest = 0;
+            seen = 0;
+        }
+        if (seq > highest) {
+            long shift = seq - highest;
+            seen = shift >= SIZE ? 1 : (seen << shift) | 1;
+            highest = seq;
+            return true;
+        }
+        long offset = highest - seq;
+        if (offset >= SIZE) {
+            return false;
+        }
+        long bit = 1L << offset;
+        if ((seen & bit) != 0) {
+            return false;
+        }
+        seen |= bit;
+        return true;
+    }
+}
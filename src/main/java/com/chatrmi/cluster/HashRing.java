@@ -0,0 +1,67 @@
+package com.chatrmi.cluster;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Anel de hash consistente com nós virtuais
+ * Cada nó ocupa vnodes pontos do anel; uma chave pertence ao primeiro ponto a
+ * partir do seu hash. A entrada ou a saída de um nó só muda o dono das chaves
+ * dos pontos dele (cerca de 1/N), e os pontos virtuais espalham essa parte
+ * entre todos os outros nós em vez de jogá-la num vizinho só. Imutável: uma
+ * mudança de membros gera um anel novo.
+ */
+final class HashRing {
+    
+    private final NavigableMap<Long, String> points = new TreeMap<>();
+    private final Set<String> nodes;
+    
+    HashRing(Collection<String> nodes, int vnodes) {
+        this.nodes = Collections.unmodifiableSet(new TreeSet<>(nodes));
+        for (String node : this.nodes) {
+            for (int i = 0; i < vnodes; i++) {
+                // Colisão (rara) fica com o menor nodeId, igual em todos os nós
+                points.putIfAbsent(hash(node + '#' + i), node);
+            }
+        }
+    }
+    
+    /**
+     * @return Nó dono da chave, ou null com o anel vazio
+     */
+    String ownerOf(String key) {
+        if (points.isEmpty()) {
+            return null;
+        }
+        Map.Entry<Long, String> entry = points.ceilingEntry(hash(key));
+        return entry != null ? entry.getValue() : points.firstEntry().getValue();
+    }
+    
+    Set<String> getNodes() {
+        return nodes;
+    }
+    
+    /**
+     * FNV-1a de 64 bits seguido do finalizador do MurmurHash3: chaves parecidas
+     * ("GROUP_1", "GROUP_2") caem longe umas das outras no anel
+     */
+    static long hash(String key) {
+        long h = 0xcbf29ce484222325L;
+        for (byte b : key.getBytes(StandardCharsets.UTF_8)) {
+            h ^= b & 0xff;
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
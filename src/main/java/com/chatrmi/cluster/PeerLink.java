@@ -0,0 +1,239 @@
+package com.chatrmi.cluster;
+
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Counter;
+
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Ligação de saída para um nó vizinho
+ * Uma thread por vizinho: conecta, troca o HELLO e escreve os eventos da fila
+ * em lotes, com um flush por lote. A fila é limitada; cheia, descarta o
+ * evento mais antigo (chat atrasado demais não vale a memória) e conta em
+ * cluster.relay.dropped. Se a ligação cai, reconecta com espera crescente e
+ * devolve à fila o lote que estava sendo escrito: o destino descarta o que já
+ * tinha recebido pela sequência. O que já tinha saído em lotes anteriores e
+ * ficou no buffer do socket se perde; a presença se corrige no heartbeat
+ * seguinte.
+ */
+final class PeerLink implements Runnable {
+    
+    private static final Logger log = Logger.get(PeerLink.class);
+    private static final int CONNECT_TIMEOUT_MS = 2000;
+    private static final int MAX_BACKOFF_MS = 10_000;
+    private static final int MAX_BATCH = 256;
+    
+    private final ClusterNode node;
+    private final String address;
+    private final String host;
+    private final int port;
+    private final int capacity;
+    private final Counter dropped;
+    private final ArrayDeque<RelayMessage> queue = new ArrayDeque<>();
+    private final List<RelayMessage> batch = new ArrayList<>();
+    
+    private volatile String remoteId;
+    private volatile boolean connected;
+    private volatile boolean running = true;
+    private volatile Socket socket;
+    private Thread thread;
+    
+    /**
+     * @param address Endereço host:port da porta de cluster do vizinho
+     */
+    PeerLink(ClusterNode node, String address, int capacity, Counter dropped) {
+        int colon = address.lastIndexOf(':');
+        if (colon <= 0) {
+            throw new IllegalArgumentException("peer sem porta: " + address);
+        }
+        this.node = node;
+        this.address = address;
+        this.host = address.substring(0, colon);
+        this.port = Integer.parseInt(address.substring(colon + 1));
+        this.capacity = capacity;
+        this.dropped = dropped;
+    }
+    
+    void start() {
+        thread = new Thread(this, "cluster-out-" + address);
+        thread.setDaemon(true);
+        thread.start();
+    }
+    
+    void stop() {
+        running = false;
+        synchronized (this) {
+            notifyAll();
+        }
+        closeQuietly(socket);
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    /**
+     * Espera a fila e o lote em andamento esvaziarem (saída do cluster), até timeoutMs
+     */
+    void awaitEmpty(long timeoutMs) {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (connected && System.currentTimeMillis() < deadline) {
+            synchronized (this) {
+                if (queue.isEmpty() && batch.isEmpty()) {
+                    return;
+                }
+            }
+            try {
+                Thread.sleep(10);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+    
+    /**
+     * @return Id do vizinho, conhecido depois do primeiro HELLO (null antes)
+     */
+    String getRemoteId() {
+        return remoteId;
+    }
+    
+    boolean isConnected() {
+        return connected;
+    }
+    
+    /**
+     * Enfileira um evento; não bloqueia
+     */
+    synchronized void offer(RelayMessage message) {
+        if (!running) {
+            return;
+        }
+        if (queue.size() >= capacity) {
+            queue.pollFirst();
+            dropped.increment();
+        }
+        queue.addLast(message);
+        notifyAll();
+    }
+    
+    @Override
+    public void run() {
+        int backoff = node.getSettings().reconnectMs;
+        while (running) {
+            boolean wasConnected = false;
+            try (Socket s = new Socket()) {
+                socket = s;
+                s.setTcpNoDelay(true);
+                s.connect(new InetSocketAddress(host, port), CONNECT_TIMEOUT_MS);
+                DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream(), 64 * 1024));
+                ClusterNode.writeHello(out, node.getNodeId());
+                out.flush();
+                String id = ClusterNode.readHello(new DataInputStream(s.getInputStream()));
+                if (id.equals(node.getNodeId())) {
+                    log.info("Peer {} é este próprio nó; ignorado", address);
+                    running = false;
+                    break;
+                }
+                remoteId = id;
+                connected = wasConnected = true;
+                backoff = node.getSettings().reconnectMs;
+                log.info("Conectado ao nó {} ({})", id, address);
+                node.linkUp();
+                pump(out);
+            } catch (IOException e) {
+                requeueBatch();
+                if (!running) {
+                    break;
+                }
+                if (wasConnected) {
+                    log.warn("Ligação com o nó {} caiu: {}", address, e.getMessage());
+                } else {
+                    log.debug("Nó {} indisponível: {}", address, e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                break;
+            } finally {
+                connected = false;
+            }
+            try {
+                Thread.sleep(backoff);
+            } catch (InterruptedException e) {
+                break;
+            }
+            backoff = Math.min(backoff * 2, MAX_BACKOFF_MS);
+        }
+    }
+    
+    private void pump(DataOutputStream out) throws IOException, InterruptedException {
+        ByteArrayOutputStream frame = new ByteArrayOutputStream(1024);
+        DataOutputStream frameOut = new DataOutputStream(frame);
+        int idleMs = node.getSettings().heartbeatMs;
+        while (running) {
+            if (!takeBatch(idleMs)) {
+                continue;
+            }
+            for (RelayMessage message : batch) {
+                frame.reset();
+                message.writeTo(frameOut);
+                out.writeInt(frame.size());
+                frame.writeTo(out);
+            }
+            out.flush();
+            synchronized (this) {
+                batch.clear();
+            }
+        }
+    }
+    
+    /**
+     * Move até MAX_BATCH eventos da fila para o lote, esperando até waitMs se ela estiver vazia
+     */
+    private synchronized boolean takeBatch(long waitMs) throws InterruptedException {
+        if (queue.isEmpty() && running) {
+            wait(waitMs);
+        }
+        while (!queue.isEmpty() && batch.size() < MAX_BATCH) {
+            batch.add(queue.pollFirst());
+        }
+        return !batch.isEmpty();
+    }
+    
+    /**
+     * Devolve ao início da fila o lote que falhou, respeitando a capacidade
+     */
+    private synchronized void requeueBatch() {
+        for (int i = batch.size() - 1; i >= 0; i--) {
+            if (queue.size() >= capacity) {
+                dropped.add(i + 1);
+                break;
+            }
+            queue.addFirst(batch.get(i));
+        }
+        batch.clear();
+    }
+    
+    private static void closeQuietly(Socket s) {
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Já fechado
+            }
+        }
+    }
+    
+    @Override
+    public String toString() {
+        return address + (remoteId != null ? " (" + remoteId + ")" : "");
+    }
+}
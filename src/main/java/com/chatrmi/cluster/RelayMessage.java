@@ -0,0 +1,143 @@
+package com.chatrmi.cluster;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Evento repassado entre nós do cluster
+ * Identificado pelo nó de origem, pela encarnação desse nó (instante em que
+ * ele iniciou) e por uma sequência crescente atribuída na origem; é essa
+ * identidade que os nós usam para descartar cópias repetidas.
+ */
+final class RelayMessage {
+    
+    private static final int WIRE_VERSION = 2;
+    private static final int MAX_TEXT_BYTES = 16 * 1024 * 1024;
+    private static final String[] NO_USERS = new String[0];
+    private static final byte[] NO_PAYLOAD = new byte[0];
+    
+    enum Type {
+        MESSAGE,        // mensagem do chat global: user + text
+        FILE,           // arquivo recebido por UDP: user + text (nome do arquivo)
+        JOIN,           // usuário conectou na origem
+        LEAVE,          // usuário saiu da origem
+        HEARTBEAT,      // a origem continua viva: users = todos os usuários dela, text = endereço do registry
+        EVENT,          // ChatEvent serializado em payload, para todos os clientes
+        USER_EVENT,     // ChatEvent serializado em payload, para os users conectados no destino
+        GOODBYE         // a origem está saindo do cluster
+    }
+    
+    final String origin;
+    final long incarnation;
+    final long seq;
+    final long sentAtMicros;
+    final int hops;        // quantos repasses ainda são permitidos
+    final Type type;
+    final String user;
+    final String text;
+    final String[] users;
+    final byte[] payload;
+    
+    RelayMessage(String origin, long incarnation, long seq, long sentAtMicros, int hops,
+                 Type type, String user, String text, String[] users) {
+        this(origin, incarnation, seq, sentAtMicros, hops, type, user, text, users, null);
+    }
+    
+    RelayMessage(String origin, long incarnation, long seq, long sentAtMicros, int hops,
+                 Type type, String user, String text, String[] users, byte[] payload) {
+        this.origin = origin;
+        this.incarnation = incarnation;
+        this.seq = seq;
+        this.sentAtMicros = sentAtMicros;
+        this.hops = hops;
+        this.type = type;
+        this.user = user;
+        this.text = text;
+        this.users = users != null ? users : NO_USERS;
+        this.payload = payload != null ? payload : NO_PAYLOAD;
+    }
+    
+    /**
+     * @return Cópia para repassar adiante, com um salto a menos
+     */
+    RelayMessage forwarded() {
+        return new RelayMessage(origin, incarnation, seq, sentAtMicros, hops - 1, type, user, text, users, payload);
+    }
+    
+    void writeTo(DataOutput out) throws IOException {
+        out.writeByte(WIRE_VERSION);
+        out.writeByte(type.ordinal());
+        out.writeUTF(origin);
+        out.writeLong(incarnation);
+        out.writeLong(seq);
+        out.writeLong(sentAtMicros);
+        out.writeByte(hops);
+        out.writeBoolean(user != null);
+        if (user != null) {
+            out.writeUTF(user);
+        }
+        // Texto sem o limite de 64 KB do writeUTF
+        byte[] bytes = text != null ? text.getBytes(StandardCharsets.UTF_8) : null;
+        out.writeInt(bytes != null ? bytes.length : -1);
+        if (bytes != null) {
+            out.write(bytes);
+        }
+        out.writeInt(users.length);
+        for (String name : users) {
+            out.writeUTF(name);
+        }
+        out.writeInt(payload.length);
+        out.write(payload);
+    }
+    
+    static RelayMessage readFrom(DataInput in) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version != WIRE_VERSION) {
+            throw new StreamCorruptedException("versão de evento de cluster não suportada: " + version);
+        }
+        int typeIndex = in.readUnsignedByte();
+        if (typeIndex >= Type.values().length) {
+            throw new StreamCorruptedException("tipo de evento de cluster desconhecido: " + typeIndex);
+        }
+        Type type = Type.values()[typeIndex];
+        String origin = in.readUTF();
+        long incarnation = in.readLong();
+        long seq = in.readLong();
+        long sentAtMicros = in.readLong();
+        int hops = in.readUnsignedByte();
+        String user = in.readBoolean() ? in.readUTF() : null;
+        int length = in.readInt();
+        if (length > MAX_TEXT_BYTES) {
+            throw new StreamCorruptedException("texto longo demais: " + length);
+        }
+        String text = null;
+        if (length >= 0) {
+            byte[] bytes = new byte[length];
+            in.readFully(bytes);
+            text = new String(bytes, StandardCharsets.UTF_8);
+        }
+        int count = in.readInt();
+        if (count < 0 || count > 1 << 20) {
+            throw new StreamCorruptedException("lista de usuários inválida: " + count);
+        }
+        String[] users = new String[count];
+        for (int i = 0; i < count; i++) {
+            users[i] = in.readUTF();
+        }
+        int payloadLength = in.readInt();
+        if (payloadLength < 0 || payloadLength > MAX_TEXT_BYTES) {
+            throw new StreamCorruptedException("payload inválido: " + payloadLength);
+        }
+        byte[] payload = new byte[payloadLength];
+        in.readFully(payload);
+        return new RelayMessage(origin, incarnation, seq, sentAtMicros, hops, type, user, text, users, payload);
+    }
+    
+    @Override
+    public String toString() {
+        return type + " de " + origin + "#" + seq;
+    }
+}
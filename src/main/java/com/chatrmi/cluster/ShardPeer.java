@@ -0,0 +1,34 @@
+package com.chatrmi.cluster;
+
+import com.chatrmi.model.Group;
+
+import java.rmi.Remote;
+import java.rmi.RemoteException;
+
+/**
+ * Interface remota entre nós do cluster para os grupos distribuídos
+ * Registrada como {@link ShardRouter#BINDING} no registry de cada nó. Não é
+ * usada por clientes.
+ */
+public interface ShardPeer extends Remote {
+    
+    /**
+     * Executa neste nó um método de ChatService
+     * Métodos de grupo são roteados ao dono do grupo enquanto ttl > 0; com
+     * ttl = 0 (e para os demais métodos) executam aqui. fetchSince e
+     * pollChannels vêm de um usuário que o nó de origem já aceitou e só
+     * conferem o acesso aos canais.
+     * @param method Nome do método em ChatService
+     * @param args Argumentos
+     * @param ttl Repasses ainda permitidos
+     * @return Resultado do método
+     */
+    Object call(String method, Object[] args, int ttl) throws RemoteException;
+    
+    /**
+     * Recebe um grupo que passou a pertencer a este nó
+     * @param group Grupo com membros e solicitações pendentes
+     * @param invited Usuários com convite pendente para o grupo
+     */
+    void importGroup(Group group, String[] invited) throws RemoteException;
+}
@@ -0,0 +1,710 @@
+package com.chatrmi.cluster;
+
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Counter;
+import com.chatrmi.metrics.Histogram;
+import com.chatrmi.metrics.MetricsRegistry;
+import com.chatrmi.model.Group;
+import com.chatrmi.server.ChatServiceImpl;
+import com.chatrmi.server.EventLog;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.rmi.NotBoundException;
+import java.rmi.RemoteException;
+import java.rmi.ServerException;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Distribui os grupos entre os nós do cluster por um anel de hash consistente
+ * Cada groupId tem um nó dono, dado pelo {@link HashRing} dos membros vivos do
+ * {@link ClusterNode}; só o dono guarda o grupo (membros, solicitações,
+ * convites) e executa as alterações e o sendGroupMessage dele. O serviço
+ * exportado aos clientes é o {@link #facade()}: métodos com groupId são
+ * executados aqui se o grupo estiver aqui e repassados por RMI
+ * ({@link ShardPeer}) ao dono caso contrário; listagens juntam as respostas
+ * de todos os nós; o resto vai direto ao serviço local. O fan-out de um grupo
+ * sai do dono, e os membros conectados em outros nós recebem pelo
+ * {@link ClusterNode}, um repasse por nó. O histórico do canal de um grupo
+ * (fetchSince e pollChannels do modo pull, e a retomada após failover)
+ * também é lido no dono.
+ *
+ * Quando os membros mudam, cada nó entrega aos novos donos os grupos que
+ * deixaram de ser seus. O grupo fica parado da cópia à remoção (chamadas
+ * novas não entram e as em andamento terminam antes da cópia), para que
+ * nenhuma alteração se perca; a chamada remota é feita sem o lock do grupo.
+ * Durante a transferência as chamadas ao grupo esperam, até handoffWaitMs,
+ * em vez de falhar; um nó que sai do
+ * cluster de forma ordenada ({@link #leave()}) entrega todos os seus grupos
+ * antes. Os grupos de um nó que caiu ficam indisponíveis até ele voltar
+ * (a recuperação do estado em disco os traz de volta).
+ */
+public class ShardRouter implements ShardPeer, InvocationHandler {
+    
+    private static final Logger log = Logger.get(ShardRouter.class);
+    public static final String BINDING = "ChatShard";
+    private static final int MAX_TTL = 2;
+    private static final long PAUSE_MS = 20;
+    private static final ChatEvent[] NO_EVENTS = new ChatEvent[0];
+    
+    // Métodos cujo primeiro argumento é o groupId: executados no dono do grupo
+    private static final Set<String> ROUTED = Set.of(
+        "inviteToGroup", "requestJoinGroup", "processJoinRequest", "processInvite", "sendGroupMessage",
+        "getPendingRequests", "leaveGroup", "removeFromGroup", "deleteGroup", "notifyGroupFile", "getGroupInfo");
+    private static final Map<String, Method> METHODS = new HashMap<>();
+    
+    static {
+        for (Method method : ChatService.class.getMethods()) {
+            METHODS.put(method.getName(), method);
+        }
+    }
+    
+    /**
+     * Parâmetros da distribuição de grupos
+     */
+    public static class Settings {
+        public int virtualNodes = 64;          // pontos de cada nó no anel
+        public int handoffWaitMs = 2000;       // espera por um grupo em transferência
+        public int handoffWindowMs = 10000;    // depois de mudar o anel, grupo ausente pode estar a caminho
+        public int rebalanceIntervalMs = 5000; // nova tentativa das transferências que falharam
+        
+        /**
+         * Lê os parâmetros das propriedades de sistema chatrmi.shard.*
+         * @return Parâmetros configurados
+         */
+        public static Settings fromSystemProperties() {
+            Settings settings = new Settings();
+            settings.virtualNodes = Integer.getInteger("chatrmi.shard.virtualNodes", settings.virtualNodes);
+            settings.handoffWaitMs = Integer.getInteger("chatrmi.shard.handoffWaitMs", settings.handoffWaitMs);
+            settings.handoffWindowMs = Integer.getInteger("chatrmi.shard.handoffWindowMs", settings.handoffWindowMs);
+            settings.rebalanceIntervalMs = Integer.getInteger("chatrmi.shard.rebalanceIntervalMs", settings.rebalanceIntervalMs);
+            return settings;
+        }
+    }
+    
+    private final ChatServiceImpl local;
+    private final String nodeId;
+    private final Settings settings;
+    private final Map<String, ShardPeer> peers = new ConcurrentHashMap<>();
+    private final Set<String> moving = ConcurrentHashMap.newKeySet(); // grupos saindo deste nó
+    private final Set<String> unconfirmed = ConcurrentHashMap.newKeySet(); // enviados sem resposta, ainda parados
+    private final Map<String, Integer> active = new ConcurrentHashMap<>(); // groupId -> chamadas locais em andamento
+    private final ScheduledExecutorService rebalancer;
+    
+    private volatile Map<String, String> endpoints = Collections.emptyMap(); // nodeId -> host:porta do registry
+    private volatile HashRing ring;
+    private volatile long ringChangedAt;
+    private volatile boolean leaving;
+    
+    private final Counter forwarded;
+    private final Histogram forwardMicros;
+    private final Counter handoffs;
+    private final Counter handoffFailures;
+    private final Histogram handoffMicros;
+    private final Counter handoffWaits;
+    private final Histogram rebalanceMillis;
+    
+    /**
+     * @param local Serviço deste nó
+     * @param nodeId Id deste nó no cluster
+     * @param settings Parâmetros da distribuição
+     * @param metrics Registro onde as métricas shard.* são criadas
+     */
+    public ShardRouter(ChatServiceImpl local, String nodeId, Settings settings, MetricsRegistry metrics) {
+        this.local = local;
+        this.nodeId = nodeId;
+        this.settings = settings;
+        this.ring = new HashRing(Set.of(nodeId), settings.virtualNodes);
+        this.rebalancer = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "shard-rebalance");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.forwarded = metrics.counter("shard.forwarded");
+        this.forwardMicros = metrics.histogram("shard.forward.micros");
+        this.handoffs = metrics.counter("shard.handoffs");
+        this.handoffFailures = metrics.counter("shard.handoffFailures");
+        this.handoffMicros = metrics.histogram("shard.handoff.micros");
+        this.handoffWaits = metrics.counter("shard.handoffWaits");
+        this.rebalanceMillis = metrics.histogram("shard.rebalance.millis");
+        metrics.gauge("shard.ring.nodes", () -> ring.getNodes().size());
+        metrics.gauge("shard.groups.moving", moving::size);
+        rebalancer.scheduleWithFixedDelay(this::rebalance, settings.rebalanceIntervalMs,
+            settings.rebalanceIntervalMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * @return ChatService a exportar aos clientes no lugar do serviço local
+     */
+    public ChatService facade() {
+        return (ChatService) Proxy.newProxyInstance(ChatService.class.getClassLoader(),
+            new Class<?>[] {ChatService.class}, this);
+    }
+    
+    /**
+     * Chamado pelo {@link ClusterNode} quando os nós vivos mudam: refaz o anel e rebalanceia
+     */
+    public void membersChanged(Map<String, String> members) {
+        endpoints = members;
+        peers.clear(); // endereços podem ter mudado; os stubs são buscados de novo
+        rebuildRing();
+        rebalancer.execute(this::rebalance);
+    }
+    
+    private void rebuildRing() {
+        Set<String> nodes = new TreeSet<>(endpoints.keySet());
+        if (!leaving || nodes.isEmpty()) {
+            nodes.add(nodeId);
+        }
+        ring = new HashRing(nodes, settings.virtualNodes);
+        ringChangedAt = System.currentTimeMillis();
+    }
+    
+    /**
+     * Saída ordenada: entrega todos os grupos deste nó aos outros antes de parar
+     */
+    public void leave() {
+        leaving = true;
+        rebalancer.shutdownNow();
+        if (endpoints.isEmpty()) {
+            return;
+        }
+        rebuildRing();
+        log.info("Saindo do cluster: entregando {} grupo(s) a {}", local.getGroupDirectory().size(), endpoints.keySet());
+        rebalance();
+    }
+    
+    // ========== FACHADA ==========
+    
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        if (method.getDeclaringClass() == Object.class) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "ShardRouter[" + nodeId + "]";
+            }
+        }
+        Object[] a = args != null ? args : new Object[0];
+        switch (method.getName()) {
+            case "createGroup":
+                return createGroup((String) a[0], (String) a[1]);
+            case "getAvailableGroups":
+            case "getUserGroups":
+            case "getPendingInvites":
+                return gatherInfos(method, a);
+            case "getGroupsPage":
+                return gatherPage((String) a[0], (ChatService.GroupSort) a[1], (Integer) a[2], (Integer) a[3]);
+            case "fetchSince":
+                local.acceptFetch((String) a[0]);
+                return fetchChannel((String) a[0], (String) a[1], (Long) a[2], (Long) a[3], MAX_TTL);
+            case "pollChannels":
+                local.acceptFetch((String) a[0]);
+                return pollChannels((String) a[0], (String[]) a[1], (long[]) a[2], (Long) a[3], MAX_TTL);
+            default:
+                if (ROUTED.contains(method.getName())) {
+                    return route(method, a, MAX_TTL);
+                }
+                return invokeLocal(method, a);
+        }
+    }
+    
+    // ========== ShardPeer ==========
+    
+    @Override
+    public Object call(String method, Object[] args, int ttl) throws RemoteException {
+        Method target = METHODS.get(method);
+        if (target == null) {
+            throw new RemoteException("Método desconhecido: " + method);
+        }
+        Object[] a = args != null ? args : new Object[0];
+        try {
+            // Buscas: o nó do cliente já conferiu o registro; aqui só o acesso aos canais
+            switch (method) {
+                case "fetchSince":
+                    return fetchChannel((String) a[0], (String) a[1], (Long) a[2], (Long) a[3], ttl);
+                case "pollChannels":
+                    return pollChannels((String) a[0], (String[]) a[1], (long[]) a[2], (Long) a[3], ttl);
+                default:
+                    return ROUTED.contains(method) ? route(target, a, ttl) : invokeLocal(target, a);
+            }
+        } catch (RemoteException | RuntimeException | Error e) {
+            throw e;
+        } catch (Throwable e) {
+            throw new RemoteException("Falha em " + method, e);
+        }
+    }
+    
+    @Override
+    public void importGroup(Group group, String[] invited) throws RemoteException {
+        local.importGroup(group, invited);
+    }
+    
+    // ========== ROTEAMENTO ==========
+    
+    /**
+     * Executa um método de grupo onde o grupo está
+     * Aqui, se o grupo está aqui e não está saindo; senão no dono segundo o
+     * anel. Se o dono somos nós e o grupo ainda não chegou logo depois de uma
+     * mudança no anel, espera a transferência.
+     */
+    private Object route(Method method, Object[] args, int ttl) throws Throwable {
+        String groupId = (String) args[0];
+        long deadline = System.currentTimeMillis() + settings.handoffWaitMs;
+        boolean waited = false;
+        while (true) {
+            boolean expired = System.currentTimeMillis() >= deadline;
+            if (moving.contains(groupId)) {
+                if (expired) {
+                    throw new RemoteException("Grupo em transferência entre nós; tente novamente");
+                }
+                waited = pause(waited);
+                continue;
+            }
+            if (local.getGroupDirectory().get(groupId) != null) {
+                if (!enter(groupId)) {
+                    continue; // a transferência começou agora
+                }
+                try {
+                    return invokeLocal(method, args);
+                } catch (RemoteException e) {
+                    // O grupo foi transferido durante a chamada: tenta no novo dono
+                    if (expired || local.getGroupDirectory().get(groupId) != null) {
+                        throw e;
+                    }
+                    continue;
+                } finally {
+                    exit(groupId);
+                }
+            }
+            String owner = ring.ownerOf(groupId);
+            if (owner.equals(nodeId) || ttl <= 0) {
+                boolean inTransit = System.currentTimeMillis() - ringChangedAt < settings.handoffWindowMs;
+                if (inTransit && !expired) {
+                    waited = pause(waited);
+                    continue;
+                }
+                return invokeLocal(method, args); // grupo inexistente: o serviço local dá o erro
+            }
+            return forward(owner, method.getName(), args, ttl - 1);
+        }
+    }
+    
+    /**
+     * Busca os eventos de um canal; os de grupo, no nó onde o grupo está
+     * Só leitura: não entra no grupo como as alterações, então uma espera
+     * longa não segura a transferência (o canal é descartado junto com o
+     * grupo e a busca volta vazia).
+     */
+    private ChatService.EventChunk fetchChannel(String username, String channel, long seq, long maxWaitMs, int ttl)
+            throws RemoteException {
+        String groupPrefix = ChatService.Channels.group("");
+        if (channel == null || !channel.startsWith(groupPrefix)) {
+            return local.fetchChannel(username, channel, seq, maxWaitMs);
+        }
+        String groupId = channel.substring(groupPrefix.length());
+        long deadline = System.currentTimeMillis() + settings.handoffWaitMs;
+        boolean waited = false;
+        while (true) {
+            if (local.getGroupDirectory().get(groupId) != null) {
+                return local.fetchChannel(username, channel, seq, maxWaitMs);
+            }
+            String owner = ring.ownerOf(groupId);
+            if (!owner.equals(nodeId) && ttl > 0) {
+                return (ChatService.EventChunk) forward(owner, "fetchSince",
+                    new Object[] {username, channel, seq, maxWaitMs}, ttl - 1);
+            }
+            boolean inTransit = System.currentTimeMillis() - ringChangedAt < settings.handoffWindowMs;
+            if (!inTransit || System.currentTimeMillis() >= deadline) {
+                return local.fetchChannel(username, channel, seq, maxWaitMs); // o serviço local dá o erro
+            }
+            try {
+                waited = pause(waited);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Busca de eventos interrompida");
+            }
+        }
+    }
+    
+    /**
+     * Busca em vários canais; os de grupos que estão em outros nós, no dono de cada um
+     * Os donos respondem sem esperar. A espera fica neste nó, nos canais daqui
+     * e no do usuário, que o repasse de um evento de grupo acorda (ver
+     * {@link ChatServiceImpl#deliverRemoteEvent(String[], ChatEvent)}); então
+     * os donos são consultados de novo. Nenhum nó segura uma thread pela busca
+     * de um cliente conectado em outro.
+     */
+    private ChatService.EventChunk[] pollChannels(String username, String[] channels, long[] seqs, long maxWaitMs, int ttl)
+            throws RemoteException {
+        Map<String, List<Integer>> remote = new HashMap<>(); // nó -> posições dos canais de grupos de lá
+        List<Integer> here = new ArrayList<>();
+        String groupPrefix = ChatService.Channels.group("");
+        for (int i = 0; i < channels.length; i++) {
+            String owner = nodeId;
+            String channel = channels[i];
+            if (ttl > 0 && channel != null && channel.startsWith(groupPrefix)
+                    && local.getGroupDirectory().get(channel.substring(groupPrefix.length())) == null) {
+                owner = ring.ownerOf(channel.substring(groupPrefix.length()));
+            }
+            if (owner.equals(nodeId)) {
+                here.add(i);
+            } else {
+                remote.computeIfAbsent(owner, k -> new ArrayList<>()).add(i);
+            }
+        }
+        if (remote.isEmpty() || channels.length != seqs.length) {
+            return local.readChannels(username, channels, seqs, maxWaitMs);
+        }
+        
+        String[] localChannels = select(channels, here);
+        long[] localSeqs = select(seqs, here);
+        String[] watched = Arrays.copyOf(localChannels, localChannels.length + 1);
+        watched[localChannels.length] = ChatService.Channels.user(username);
+        long deadline = System.currentTimeMillis() + Math.max(0, Math.min(maxWaitMs, ChatServiceImpl.MAX_PULL_WAIT_MS));
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            // Registrado antes das consultas: um evento que chegar depois delas acorda a espera
+            try (EventLog.Waiter waiter = remaining > 0 ? local.watchChannels(watched) : null) {
+                ChatService.EventChunk[] result = new ChatService.EventChunk[channels.length];
+                for (Map.Entry<String, List<Integer>> entry : remote.entrySet()) {
+                    List<Integer> positions = entry.getValue();
+                    try {
+                        ChatService.EventChunk[] chunks = (ChatService.EventChunk[]) forward(entry.getKey(), "pollChannels",
+                            new Object[] {username, select(channels, positions), select(seqs, positions), 0L}, ttl - 1);
+                        for (int j = 0; j < chunks.length; j++) {
+                            result[positions.get(j)] = chunks[j];
+                        }
+                    } catch (RemoteException e) {
+                        // Os grupos do nó ficam sem eventos nesta rodada, como se estivessem mudando de nó
+                        log.debug("Busca de {} nos grupos do nó {} falhou: {}", username, entry.getKey(), e.getMessage());
+                        for (int i : positions) {
+                            result[i] = new ChatService.EventChunk(NO_EVENTS, seqs[i], false);
+                        }
+                    }
+                }
+                ChatService.EventChunk[] chunks = local.readChannels(username, localChannels, localSeqs, 0);
+                for (int j = 0; j < chunks.length; j++) {
+                    result[here.get(j)] = chunks[j];
+                }
+                if (waiter == null || EventLog.hasNews(seqs, result)) {
+                    return result;
+                }
+                waiter.await(remaining);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Busca de eventos interrompida");
+            }
+        }
+    }
+    
+    private static String[] select(String[] values, List<Integer> positions) {
+        String[] selected = new String[positions.size()];
+        for (int j = 0; j < selected.length; j++) {
+            selected[j] = values[positions.get(j)];
+        }
+        return selected;
+    }
+    
+    private static long[] select(long[] values, List<Integer> positions) {
+        long[] selected = new long[positions.size()];
+        for (int j = 0; j < selected.length; j++) {
+            selected[j] = values[positions.get(j)];
+        }
+        return selected;
+    }
+    
+    /**
+     * Registra uma chamada local ao grupo, se ele não estiver saindo
+     * O registro vem antes da consulta a moving e a transferência marca moving
+     * antes de consultar as chamadas ativas: uma das duas sempre vê a outra.
+     */
+    private boolean enter(String groupId) {
+        active.merge(groupId, 1, Integer::sum);
+        if (moving.contains(groupId)) {
+            exit(groupId);
+            return false;
+        }
+        return true;
+    }
+    
+    private void exit(String groupId) {
+        active.computeIfPresent(groupId, (id, count) -> count > 1 ? count - 1 : null);
+    }
+    
+    private boolean pause(boolean waited) throws InterruptedException {
+        if (!waited) {
+            handoffWaits.increment();
+        }
+        Thread.sleep(PAUSE_MS);
+        return true;
+    }
+    
+    private Object forward(String node, String method, Object[] args, int ttl) throws RemoteException {
+        long start = System.nanoTime();
+        try {
+            return peer(node).call(method, args, ttl);
+        } catch (ServerException e) {
+            // Exceção lançada pelo serviço no outro nó: chega ao cliente como se fosse daqui
+            if (e.getCause() instanceof RemoteException) {
+                throw (RemoteException) e.getCause();
+            }
+            throw e;
+        } catch (RemoteException e) {
+            peers.remove(node);
+            throw new RemoteException("Nó " + node + ", dono do grupo, indisponível", e);
+        } finally {
+            forwarded.increment();
+            forwardMicros.recordMicrosSince(start);
+        }
+    }
+    
+    private Object invokeLocal(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(local, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+    
+    private ShardPeer peer(String node) throws RemoteException {
+        ShardPeer peer = peers.get(node);
+        if (peer != null) {
+            return peer;
+        }
+        String address = endpoints.get(node);
+        if (address == null) {
+            throw new RemoteException("Nó " + node + " fora do cluster");
+        }
+        int colon = address.lastIndexOf(':');
+        Registry registry = LocateRegistry.getRegistry(address.substring(0, colon), Integer.parseInt(address.substring(colon + 1)));
+        try {
+            peer = (ShardPeer) registry.lookup(BINDING);
+        } catch (NotBoundException e) {
+            throw new RemoteException("Nó " + node + " sem " + BINDING + " no registry " + address, e);
+        }
+        peers.put(node, peer);
+        return peer;
+    }
+    
+    // ========== GRUPOS NOVOS E CONSULTAS ==========
+    
+    /**
+     * Cria o grupo aqui e, se o dono pelo anel for outro nó, entrega-o em seguida
+     */
+    private String createGroup(String groupName, String ownerUsername) throws RemoteException {
+        String groupId = local.createGroup(groupName, ownerUsername);
+        String owner = ring.ownerOf(groupId);
+        if (!owner.equals(nodeId)) {
+            // Se falhar, o grupo continua aqui (e atendido daqui) até o próximo rebalanceamento
+            handoff(groupId, owner);
+        }
+        return groupId;
+    }
+    
+    /**
+     * Junta os GroupInfo de todos os nós; um grupo em transferência aparece uma vez
+     */
+    private ChatService.GroupInfo[] gatherInfos(Method method, Object[] args) throws Throwable {
+        Map<String, ChatService.GroupInfo> merged = new LinkedHashMap<>();
+        for (ChatService.GroupInfo info : (ChatService.GroupInfo[]) invokeLocal(method, args)) {
+            merged.put(info.getGroupId(), info);
+        }
+        for (String node : endpoints.keySet()) {
+            try {
+                for (ChatService.GroupInfo info : (ChatService.GroupInfo[]) forward(node, method.getName(), args, 0)) {
+                    merged.putIfAbsent(info.getGroupId(), info);
+                }
+            } catch (RemoteException e) {
+                log.warn("Nó {} não respondeu a {}: {}", node, method.getName(), e.getMessage());
+            }
+        }
+        return merged.values().toArray(new ChatService.GroupInfo[0]);
+    }
+    
+    /**
+     * Página do diretório sobre todos os nós
+     * Cada nó devolve seus grupos já ordenados, até offset + limit + 1 deles
+     * (em páginas de MAX_PAGE_SIZE); a junção é reordenada com a mesma ordem do
+     * {@link com.chatrmi.server.GroupDirectory} e cortada na página pedida.
+     */
+    private ChatService.GroupPage gatherPage(String namePrefix, ChatService.GroupSort sort, int offset, int limit) throws RemoteException {
+        int start = Math.max(0, offset);
+        int size = Math.max(1, Math.min(limit, ChatService.MAX_PAGE_SIZE));
+        int needed = start + size + 1;
+        Map<String, ChatService.GroupSummary> merged = new HashMap<>();
+        List<String> nodes = new ArrayList<>();
+        nodes.add(nodeId);
+        nodes.addAll(endpoints.keySet());
+        for (String node : nodes) {
+            try {
+                int fetched = 0;
+                ChatService.GroupPage page;
+                do {
+                    page = node.equals(nodeId)
+                        ? local.getGroupsPage(namePrefix, sort, fetched, ChatService.MAX_PAGE_SIZE)
+                        : (ChatService.GroupPage) forward(node, "getGroupsPage",
+                            new Object[] {namePrefix, sort, fetched, ChatService.MAX_PAGE_SIZE}, 0);
+                    for (ChatService.GroupSummary summary : page.getGroups()) {
+                        merged.putIfAbsent(summary.getGroupId(), summary);
+                    }
+                    fetched = page.getNextOffset();
+                } while (page.hasMore() && fetched < needed);
+            } catch (RemoteException e) {
+                log.warn("Nó {} não respondeu a getGroupsPage: {}", node, e.getMessage());
+            }
+        }
+        Comparator<ChatService.GroupSummary> byName = Comparator.comparing(ShardRouter::nameKey);
+        List<ChatService.GroupSummary> all = new ArrayList<>(merged.values());
+        all.sort(sort == ChatService.GroupSort.MEMBER_COUNT
+            ? Comparator.comparingInt((ChatService.GroupSummary s) -> -s.getMemberCount()).thenComparing(byName)
+            : byName);
+        boolean hasMore = all.size() > start + size;
+        List<ChatService.GroupSummary> slice = start >= all.size()
+            ? Collections.emptyList()
+            : all.subList(start, Math.min(all.size(), start + size));
+        return new ChatService.GroupPage(slice.toArray(new ChatService.GroupSummary[0]), start, hasMore);
+    }
+    
+    private static String nameKey(ChatService.GroupSummary summary) {
+        return summary.getGroupName().toLowerCase(Locale.ROOT) + '\u0000' + summary.getGroupId();
+    }
+    
+    // ========== REBALANCEAMENTO ==========
+    
+    /**
+     * Entrega aos donos atuais os grupos daqui que não são mais deste nó
+     */
+    private void rebalance() {
+        try {
+            HashRing current = ring;
+            long start = System.currentTimeMillis();
+            int moved = 0;
+            int failed = 0;
+            for (Group group : new ArrayList<>(local.getGroupDirectory().getAll())) {
+                String groupId = group.getGroupId();
+                String owner = current.ownerOf(groupId);
+                if (!owner.equals(nodeId)) {
+                    if (handoff(groupId, owner)) {
+                        moved++;
+                    } else {
+                        failed++;
+                    }
+                } else if (unconfirmed.remove(groupId)) {
+                    // Voltou a ser daqui: se o outro nó ficou com uma cópia, ele a devolve
+                    moving.remove(groupId);
+                    log.warn("Grupo {} voltou a ser deste nó antes da transferência ser confirmada", groupId);
+                }
+            }
+            if (moved > 0 || failed > 0) {
+                long millis = System.currentTimeMillis() - start;
+                rebalanceMillis.record(millis);
+                log.info("Rebalanceamento: {} grupo(s) transferido(s), {} falha(s), em {} ms (anel: {})",
+                    moved, failed, millis, current.getNodes());
+            }
+        } catch (RuntimeException e) {
+            log.error("Falha no rebalanceamento de grupos: {}", e.getMessage(), e);
+        }
+    }
+    
+    /**
+     * Copia o grupo para o nó target e o retira daqui
+     * Marca o grupo como saindo, espera as chamadas em andamento, copia com o
+     * lock e o solta antes da chamada remota. Se o envio falhar depois de
+     * começar, não há como saber se o destino ficou com o grupo: ele continua
+     * parado aqui (unconfirmed) e a próxima tentativa repete a importação, que
+     * é idempotente, antes de retirá-lo.
+     * @return true se o grupo mudou de nó
+     */
+    private boolean handoff(String groupId, String target) {
+        Group group = local.getGroupDirectory().get(groupId);
+        if (group == null) {
+            return false;
+        }
+        boolean retry = !moving.add(groupId);
+        if (retry && !unconfirmed.remove(groupId)) {
+            return false; // outra transferência do mesmo grupo em andamento
+        }
+        long start = System.nanoTime();
+        boolean sent = retry; // o destino pode já estar com o grupo
+        try {
+            if (!awaitIdle(groupId)) {
+                log.debug("Grupo {} ainda com chamadas em andamento; transferência adiada", groupId);
+                return false;
+            }
+            Group copy;
+            String[] invited;
+            synchronized (group) {
+                if (local.getGroupDirectory().get(groupId) != group) {
+                    sent = false;
+                    return false;
+                }
+                copy = group.copy();
+                invited = local.getInvitedUsers(groupId);
+            }
+            ShardPeer peer = peer(target);
+            sent = true;
+            peer.importGroup(copy, invited);
+            local.dropGroup(groupId, invited);
+            sent = false;
+            handoffs.increment();
+            handoffMicros.recordMicrosSince(start);
+            log.debug("Grupo {} transferido para {}", groupId, target);
+            return true;
+        } catch (RemoteException e) {
+            handoffFailures.increment();
+            peers.remove(target);
+            log.warn("Falha ao transferir o grupo {} para {}: {}", groupId, target, e.getMessage());
+            return false;
+        } finally {
+            if (sent) {
+                unconfirmed.add(groupId);
+            } else {
+                moving.remove(groupId);
+            }
+        }
+    }
+    
+    /**
+     * Espera terminarem as chamadas locais que entraram no grupo antes de ele ser marcado
+     * @return false se ainda houver alguma depois de handoffWaitMs
+     */
+    private boolean awaitIdle(String groupId) {
+        long deadline = System.currentTimeMillis() + settings.handoffWaitMs;
+        while (active.containsKey(groupId)) {
+            if (System.currentTimeMillis() >= deadline) {
+                return false;
+            }
+            try {
+                Thread.sleep(PAUSE_MS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+}
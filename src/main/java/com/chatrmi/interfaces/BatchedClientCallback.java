@@ -0,0 +1,19 @@
+package com.chatrmi.interfaces;
+
+import java.rmi.RemoteException;
+
+/**
+ * Callback de cliente que aceita eventos em lote
+ * O servidor agrupa os eventos pendentes de um cliente que implementa esta
+ * interface e os entrega em uma única chamada remota. Clientes que implementam
+ * apenas {@link ChatClientCallback} continuam recebendo uma chamada por evento.
+ */
+public interface BatchedClientCallback extends ChatClientCallback {
+    
+    /**
+     * Método chamado pelo servidor com um lote ordenado de eventos
+     * @param batch Eventos na ordem em que foram gerados
+     * @throws RemoteException
+     */
+    void onEvents(EventBatch batch) throws RemoteException;
+}
@@ -31,6 +31,19 @@ public interface ChatClientCallback extends Remote {
      */
     void onUsersUpdated(String[] users) throws RemoteException;
     
+    /**
+     * Método chamado pelo servidor com a variação da lista de usuários online
+     * A variação leva a lista da versão fromVersion para toVersion. Se a versão
+     * local do cliente não for fromVersion, houve perda de eventos e o cliente
+     * deve obter uma lista completa com ChatService.getPresenceSnapshot().
+     * @param fromVersion Versão de presença sobre a qual a variação se aplica
+     * @param toVersion Versão de presença após a variação
+     * @param joined Usuários que entraram
+     * @param left Usuários que saíram
+     * @throws RemoteException
+     */
+    void onPresenceChanged(long fromVersion, long toVersion, String[] joined, String[] left) throws RemoteException;
+    
     // ========== CALLBACKS DE GRUPOS ==========
     
     /**
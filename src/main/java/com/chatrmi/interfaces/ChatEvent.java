@@ -0,0 +1,593 @@
+package com.chatrmi.interfaces;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.io.Serializable;
+import java.rmi.RemoteException;
+import java.util.Arrays;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * Evento enviado pelo servidor a um cliente
+ * Cada tipo corresponde a um método de {@link ChatClientCallback} e sabe
+ * como se entregar individualmente a clientes que não suportam lotes.
+ * Os eventos que citam usuários têm codificação própria (ver {@link WireFormat}),
+ * para que os nomes virem IDs dentro de um {@link EventBatch} compacto.
+ */
+public abstract class ChatEvent implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    // Posição no histórico do servidor (EventLog); viaja só dentro do EventBatch
+    private transient String channel;
+    private transient long seq;
+    
+    /**
+     * Define a posição do evento no histórico de um canal
+     * Chamado pelo servidor ao publicar, antes da entrega, e pelo EventBatch na chegada.
+     * @param channel Canal (ChatService.GLOBAL_CHANNEL ou Channels.group)
+     * @param seq Sequência do evento no canal
+     */
+    public void setPosition(String channel, long seq) {
+        this.channel = channel;
+        this.seq = seq;
+    }
+    
+    /**
+     * @return Canal do histórico em que o evento foi publicado, ou null se não foi
+     */
+    public String getChannel() {
+        return channel;
+    }
+    
+    /**
+     * @return Sequência do evento no canal; 0 se não tem posição
+     */
+    public long getSeq() {
+        return seq;
+    }
+    
+    /**
+     * Entrega o evento chamando o método correspondente do callback
+     * @param callback Callback do cliente
+     * @throws RemoteException
+     */
+    public abstract void dispatchTo(ChatClientCallback callback) throws RemoteException;
+    
+    /**
+     * Descrição do evento usada em mensagens de log
+     * @return Descrição curta do evento
+     */
+    public abstract String getDescription();
+    
+    /**
+     * Nova mensagem do chat global
+     */
+    public static final class MessageReceived extends ChatEvent implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        private static final int WIRE_VERSION = 1;
+        private String username;
+        private String message;
+        
+        /**
+         * Usado apenas na desserialização
+         */
+        public MessageReceived() {
+        }
+        
+        public MessageReceived(String username, String message) {
+            this.username = username;
+            this.message = message;
+        }
+        
+        public String getUsername() { return username; }
+        public String getMessage() { return message; }
+        
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(WIRE_VERSION);
+            WireFormat.writeUser(out, username);
+            WireFormat.writeText(out, message);
+        }
+        
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            WireFormat.readVersion(in, MessageReceived.class, 1);
+            username = WireFormat.readUser(in);
+            message = WireFormat.readText(in);
+        }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onMessageReceived(username, message);
+        }
+        
+        @Override
+        public String getDescription() { return "mensagem"; }
+    }
+    
+    /**
+     * Novo arquivo compartilhado no chat global
+     */
+    public static final class FileReceived extends ChatEvent implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        private static final int WIRE_VERSION = 1;
+        private String username;
+        private String filename;
+        
+        /**
+         * Usado apenas na desserialização
+         */
+        public FileReceived() {
+        }
+        
+        public FileReceived(String username, String filename) {
+            this.username = username;
+            this.filename = filename;
+        }
+        
+        public String getUsername() { return username; }
+        public String getFilename() { return filename; }
+        
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(WIRE_VERSION);
+            WireFormat.writeUser(out, username);
+            WireFormat.writeText(out, filename);
+        }
+        
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            WireFormat.readVersion(in, FileReceived.class, 1);
+            username = WireFormat.readUser(in);
+            filename = WireFormat.readText(in);
+        }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onFileReceived(username, filename);
+        }
+        
+        @Override
+        public String getDescription() { return "notificação de arquivo"; }
+    }
+    
+    /**
+     * Variação da lista de usuários online entre duas versões de presença
+     */
+    public static final class PresenceChanged extends ChatEvent implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        private static final int WIRE_VERSION = 1;
+        private long fromVersion;
+        private long toVersion;
+        private String[] joined;
+        private String[] left;
+        
+        /**
+         * Usado apenas na desserialização
+         */
+        public PresenceChanged() {
+        }
+        
+        public PresenceChanged(long fromVersion, long toVersion, String[] joined, String[] left) {
+            this.fromVersion = fromVersion;
+            this.toVersion = toVersion;
+            this.joined = joined;
+            this.left = left;
+        }
+        
+        public long getFromVersion() { return fromVersion; }
+        public long getToVersion() { return toVersion; }
+        public String[] getJoined() { return joined; }
+        public String[] getLeft() { return left; }
+        
+        /**
+         * Combina esta variação com a seguinte em uma única variação
+         * Um usuário que entra e sai (ou sai e volta) no intervalo se anula.
+         * @param next Variação imediatamente posterior (next.fromVersion == toVersion)
+         * @return Variação de fromVersion até next.toVersion, ou null se as versões não são contíguas
+         */
+        public PresenceChanged merge(PresenceChanged next) {
+            if (next.fromVersion != toVersion) {
+                return null;
+            }
+            Set<String> mergedJoined = new LinkedHashSet<>(Arrays.asList(joined));
+            Set<String> mergedLeft = new LinkedHashSet<>(Arrays.asList(left));
+            for (String user : next.left) {
+                if (!mergedJoined.remove(user)) {
+                    mergedLeft.add(user);
+                }
+            }
+            for (String user : next.joined) {
+                if (!mergedLeft.remove(user)) {
+                    mergedJoined.add(user);
+                }
+            }
+            return new PresenceChanged(fromVersion, next.toVersion,
+                mergedJoined.toArray(new String[0]), mergedLeft.toArray(new String[0]));
+        }
+        
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(WIRE_VERSION);
+            out.writeLong(fromVersion);
+            out.writeLong(toVersion);
+            WireFormat.writeUsers(out, joined);
+            WireFormat.writeUsers(out, left);
+        }
+        
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            WireFormat.readVersion(in, PresenceChanged.class, 1);
+            fromVersion = in.readLong();
+            toVersion = in.readLong();
+            joined = WireFormat.readUsers(in);
+            left = WireFormat.readUsers(in);
+        }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onPresenceChanged(fromVersion, toVersion, joined, left);
+        }
+        
+        @Override
+        public String getDescription() { return "variação de presença"; }
+    }
+    
+    /**
+     * Novo grupo criado
+     */
+    public static final class GroupCreated extends ChatEvent {
+        private static final long serialVersionUID = 1L;
+        private final ChatService.GroupInfo groupInfo;
+        
+        public GroupCreated(ChatService.GroupInfo groupInfo) {
+            this.groupInfo = groupInfo;
+        }
+        
+        public ChatService.GroupInfo getGroupInfo() { return groupInfo; }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onGroupCreated(groupInfo);
+        }
+        
+        @Override
+        public String getDescription() { return "criação de grupo"; }
+    }
+    
+    /**
+     * Convite recebido para um grupo
+     */
+    public static final class GroupInviteReceived extends ChatEvent implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        private static final int WIRE_VERSION = 1;
+        private String groupId;
+        private String groupName;
+        private String inviterUsername;
+        
+        /**
+         * Usado apenas na desserialização
+         */
+        public GroupInviteReceived() {
+        }
+        
+        public GroupInviteReceived(String groupId, String groupName, String inviterUsername) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.inviterUsername = inviterUsername;
+        }
+        
+        public String getGroupId() { return groupId; }
+        public String getGroupName() { return groupName; }
+        public String getInviterUsername() { return inviterUsername; }
+        
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(WIRE_VERSION);
+            WireFormat.writeString(out, groupId);
+            WireFormat.writeString(out, groupName);
+            WireFormat.writeUser(out, inviterUsername);
+        }
+        
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            WireFormat.readVersion(in, GroupInviteReceived.class, 1);
+            groupId = WireFormat.readString(in);
+            groupName = WireFormat.readString(in);
+            inviterUsername = WireFormat.readUser(in);
+        }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onGroupInviteReceived(groupId, groupName, inviterUsername);
+        }
+        
+        @Override
+        public String getDescription() { return "convite"; }
+    }
+    
+    /**
+     * Solicitação de entrada recebida (para o dono do grupo)
+     */
+    public static final class JoinRequestReceived extends ChatEvent implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        private static final int WIRE_VERSION = 1;
+        private String groupId;
+        private String groupName;
+        private String requestingUsername;
+        
+        /**
+         * Usado apenas na desserialização
+         */
+        public JoinRequestReceived() {
+        }
+        
+        public JoinRequestReceived(String groupId, String groupName, String requestingUsername) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.requestingUsername = requestingUsername;
+        }
+        
+        public String getGroupId() { return groupId; }
+        public String getGroupName() { return groupName; }
+        public String getRequestingUsername() { return requestingUsername; }
+        
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(WIRE_VERSION);
+            WireFormat.writeString(out, groupId);
+            WireFormat.writeString(out, groupName);
+            WireFormat.writeUser(out, requestingUsername);
+        }
+        
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            WireFormat.readVersion(in, JoinRequestReceived.class, 1);
+            groupId = WireFormat.readString(in);
+            groupName = WireFormat.readString(in);
+            requestingUsername = WireFormat.readUser(in);
+        }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onJoinRequestReceived(groupId, groupName, requestingUsername);
+        }
+        
+        @Override
+        public String getDescription() { return "solicitação de entrada"; }
+    }
+    
+    /**
+     * Grupo atualizado (membro adicionado/removido)
+     */
+    public static final class GroupUpdated extends ChatEvent {
+        private static final long serialVersionUID = 1L;
+        private final String groupName;
+        private final ChatService.GroupInfo groupInfo;
+        
+        public GroupUpdated(String groupName, ChatService.GroupInfo groupInfo) {
+            this.groupName = groupName;
+            this.groupInfo = groupInfo;
+        }
+        
+        public String getGroupName() { return groupName; }
+        public ChatService.GroupInfo getGroupInfo() { return groupInfo; }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onGroupUpdated(groupName, groupInfo);
+        }
+        
+        @Override
+        public String getDescription() { return "atualização de grupo"; }
+    }
+    
+    /**
+     * Nova mensagem de grupo
+     */
+    public static final class GroupMessageReceived extends ChatEvent implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        private static final int WIRE_VERSION = 1;
+        private String groupId;
+        private String groupName;
+        private String username;
+        private String message;
+        
+        /**
+         * Usado apenas na desserialização
+         */
+        public GroupMessageReceived() {
+        }
+        
+        public GroupMessageReceived(String groupId, String groupName, String username, String message) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.username = username;
+            this.message = message;
+        }
+        
+        public String getGroupId() { return groupId; }
+        public String getGroupName() { return groupName; }
+        public String getUsername() { return username; }
+        public String getMessage() { return message; }
+        
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(WIRE_VERSION);
+            WireFormat.writeString(out, groupId);
+            WireFormat.writeString(out, groupName);
+            WireFormat.writeUser(out, username);
+            WireFormat.writeText(out, message);
+        }
+        
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            WireFormat.readVersion(in, GroupMessageReceived.class, 1);
+            groupId = WireFormat.readString(in);
+            groupName = WireFormat.readString(in);
+            username = WireFormat.readUser(in);
+            message = WireFormat.readText(in);
+        }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onGroupMessageReceived(groupId, groupName, username, message);
+        }
+        
+        @Override
+        public String getDescription() { return "mensagem de grupo"; }
+    }
+    
+    /**
+     * Solicitação de entrada processada (aprovada/reprovada)
+     */
+    public static final class GroupJoinRequestProcessed extends ChatEvent {
+        private static final long serialVersionUID = 1L;
+        private final String groupId;
+        private final String groupName;
+        private final boolean approved;
+        
+        public GroupJoinRequestProcessed(String groupId, String groupName, boolean approved) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.approved = approved;
+        }
+        
+        public String getGroupId() { return groupId; }
+        public String getGroupName() { return groupName; }
+        public boolean isApproved() { return approved; }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onGroupJoinRequestProcessed(groupId, groupName, approved);
+        }
+        
+        @Override
+        public String getDescription() { return approved ? "aprovação" : "reprovação"; }
+    }
+    
+    /**
+     * Cliente adicionado a um grupo
+     */
+    public static final class AddedToGroup extends ChatEvent {
+        private static final long serialVersionUID = 1L;
+        private final String groupId;
+        private final String groupName;
+        private final long joinSeq;
+        
+        public AddedToGroup(String groupId, String groupName) {
+            this(groupId, groupName, -1);
+        }
+        
+        /**
+         * @param joinSeq Último evento do canal do grupo antes da entrada; -1 se desconhecido
+         */
+        public AddedToGroup(String groupId, String groupName, long joinSeq) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.joinSeq = joinSeq;
+        }
+        
+        public String getGroupId() { return groupId; }
+        public String getGroupName() { return groupName; }
+        
+        /**
+         * Posição a partir da qual o novo membro busca o canal do grupo em modo pull
+         * @return Último evento do canal antes da entrada, ou -1 se desconhecido
+         */
+        public long getJoinSeq() { return joinSeq; }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onAddedToGroup(groupId, groupName);
+        }
+        
+        @Override
+        public String getDescription() { return "entrada no grupo"; }
+    }
+    
+    /**
+     * Cliente removido de um grupo
+     */
+    public static final class RemovedFromGroup extends ChatEvent {
+        private static final long serialVersionUID = 1L;
+        private final String groupId;
+        private final String groupName;
+        
+        public RemovedFromGroup(String groupId, String groupName) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+        }
+        
+        public String getGroupId() { return groupId; }
+        public String getGroupName() { return groupName; }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onRemovedFromGroup(groupId, groupName);
+        }
+        
+        @Override
+        public String getDescription() { return "remoção do grupo"; }
+    }
+    
+    /**
+     * Novo arquivo compartilhado em um grupo
+     */
+    public static final class GroupFileReceived extends ChatEvent implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        private static final int WIRE_VERSION = 1;
+        private String groupId;
+        private String groupName;
+        private String username;
+        private String filename;
+        
+        /**
+         * Usado apenas na desserialização
+         */
+        public GroupFileReceived() {
+        }
+        
+        public GroupFileReceived(String groupId, String groupName, String username, String filename) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.username = username;
+            this.filename = filename;
+        }
+        
+        public String getGroupId() { return groupId; }
+        public String getGroupName() { return groupName; }
+        public String getUsername() { return username; }
+        public String getFilename() { return filename; }
+        
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(WIRE_VERSION);
+            WireFormat.writeString(out, groupId);
+            WireFormat.writeString(out, groupName);
+            WireFormat.writeUser(out, username);
+            WireFormat.writeText(out, filename);
+        }
+        
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            WireFormat.readVersion(in, GroupFileReceived.class, 1);
+            groupId = WireFormat.readString(in);
+            groupName = WireFormat.readString(in);
+            username = WireFormat.readUser(in);
+            filename = WireFormat.readText(in);
+        }
+        
+        @Override
+        public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+            callback.onGroupFileReceived(groupId, groupName, username, filename);
+        }
+        
+        @Override
+        public String getDescription() { return "arquivo de grupo"; }
+    }
+}
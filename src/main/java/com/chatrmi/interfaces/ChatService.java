@@ -1,7 +1,13 @@
 package com.chatrmi.interfaces;
 
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.rmi.Remote;
 import java.rmi.RemoteException;
+import java.util.Collections;
+import java.util.Map;
 
 /**
  * Interface remota para o serviço de chat
@@ -18,11 +24,14 @@ public interface ChatService extends Remote {
     
     /**
      * Registra um cliente para receber callbacks
+     * Se o servidor não conseguir chamar o callback (firewall/NAT), o cliente é
+     * registrado em modo pull e deve buscar seus eventos com fetchSince.
      * @param username Nome do usuário
      * @param callback Interface de callback do cliente
+     * @return true se os callbacks funcionam; false se o cliente ficou em modo pull
      * @throws RemoteException
      */
-    void registerClient(String username, ChatClientCallback callback) throws RemoteException;
+    boolean registerClient(String username, ChatClientCallback callback) throws RemoteException;
     
     /**
      * Remove o registro de um cliente
@@ -38,6 +47,118 @@ public interface ChatService extends Remote {
      */
     String[] getOnlineUsers() throws RemoteException;
     
+    /**
+     * Retorna a lista completa de usuários online com sua versão de presença
+     * Usado na conexão e quando o cliente detecta uma lacuna nas variações
+     * recebidas por onPresenceChanged.
+     * @return Lista de usuários e versão correspondente
+     * @throws RemoteException
+     */
+    PresenceSnapshot getPresenceSnapshot() throws RemoteException;
+    
+    /**
+     * Classe para a lista completa de usuários online em uma versão de presença
+     */
+    class PresenceSnapshot implements java.io.Serializable {
+        private long version;
+        private String[] users;
+        
+        public PresenceSnapshot(long version, String[] users) {
+            this.version = version;
+            this.users = users;
+        }
+        
+        public long getVersion() { return version; }
+        public String[] getUsers() { return users; }
+    }
+    
+    /**
+     * Busca os eventos de um canal posteriores a uma sequência (modo pull)
+     * Aguarda até maxWaitMs se ainda não houver eventos novos (long-poll).
+     * @param username Nome do usuário que está buscando
+     * @param channel Canal: GLOBAL_CHANNEL, PRESENCE_CHANNEL, Channels.group(id) ou Channels.user(username)
+     * @param seq Última sequência recebida no canal; negativa para começar a partir de agora
+     * @param maxWaitMs Tempo máximo de espera
+     * @return Eventos novos e a sequência a usar na próxima busca
+     * @throws RemoteException se o canal não for acessível ao usuário
+     */
+    EventChunk fetchSince(String username, String channel, long seq, long maxWaitMs) throws RemoteException;
+    
+    /**
+     * Busca os eventos de vários canais numa só chamada (modo pull)
+     * Aguarda até maxWaitMs que algum dos canais tenha eventos novos.
+     * @param username Nome do usuário que está buscando
+     * @param channels Canais, como em fetchSince
+     * @param seqs Última sequência recebida em cada canal (mesma posição de channels); negativa como em fetchSince
+     * @param maxWaitMs Tempo máximo de espera
+     * @return Eventos de cada canal, na ordem de channels; null nos canais a que o usuário não tem acesso
+     * @throws RemoteException se o usuário não estiver registrado ou um canal for inválido
+     */
+    EventChunk[] pollChannels(String username, String[] channels, long[] seqs, long maxWaitMs) throws RemoteException;
+    
+    /**
+     * Canal do chat global
+     */
+    String GLOBAL_CHANNEL = "global";
+    
+    /**
+     * Canal das variações de presença
+     */
+    String PRESENCE_CHANNEL = "presence";
+    
+    /**
+     * Nomes dos canais de grupo e de usuário
+     * Fora da interface remota: o RMI recusa interfaces com métodos estáticos.
+     */
+    final class Channels {
+        
+        private Channels() {
+        }
+        
+        /**
+         * @param groupId ID do grupo
+         * @return Canal das mensagens, arquivos e atualizações do grupo
+         */
+        public static String group(String groupId) {
+            return "group:" + groupId;
+        }
+        
+        /**
+         * @param username Nome do usuário
+         * @return Canal dos eventos dirigidos ao usuário (convites, solicitações, etc.)
+         */
+        public static String user(String username) {
+            return "user:" + username;
+        }
+    }
+    
+    /**
+     * Classe para os eventos devolvidos por fetchSince
+     */
+    class EventChunk implements java.io.Serializable {
+        private final ChatEvent[] events;
+        private final long lastSeq;
+        private final boolean gap;
+        
+        public EventChunk(ChatEvent[] events, long lastSeq, boolean gap) {
+            this.events = events;
+            this.lastSeq = lastSeq;
+            this.gap = gap;
+        }
+        
+        public ChatEvent[] getEvents() { return events; }
+        
+        /**
+         * @return Sequência a informar na próxima busca
+         */
+        public long getLastSeq() { return lastSeq; }
+        
+        /**
+         * @return true se eventos foram perdidos por saírem do buffer antes da busca
+         */
+        public boolean hasGap() { return gap; }
+    }
+    
     /**
      * Retorna a lista de arquivos disponíveis
      * @return Array com os nomes dos arquivos
@@ -55,11 +176,20 @@ public interface ChatService extends Remote {
     
     /**
      * Classe para informações de arquivo
+     * Codificação própria (ver {@link WireFormat}): versão, nome e tamanho.
      */
-    class FileInfo implements java.io.Serializable {
+    class FileInfo implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        private static final int WIRE_VERSION = 1;
         private String filename;
         private long fileSize;
         
+        /**
+         * Usado apenas na desserialização
+         */
+        public FileInfo() {
+        }
+        
         public FileInfo(String filename, long fileSize) {
             this.filename = filename;
             this.fileSize = fileSize;
@@ -67,6 +197,20 @@ public interface ChatService extends Remote {
         
         public String getFilename() { return filename; }
         public long getFileSize() { return fileSize; }
+        
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(WIRE_VERSION);
+            WireFormat.writeString(out, filename);
+            out.writeLong(fileSize);
+        }
+        
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            WireFormat.readVersion(in, FileInfo.class, 1);
+            filename = WireFormat.readString(in);
+            fileSize = in.readLong();
+        }
     }
     
     // ========== MÉTODOS DE GRUPOS ==========
@@ -82,11 +226,83 @@ public interface ChatService extends Remote {
     
     /**
      * Retorna lista de todos os grupos disponíveis
+     * Inclui os membros de cada grupo; para listagens use getGroupsPage
      * @return Array com informações dos grupos
      * @throws RemoteException
      */
     GroupInfo[] getAvailableGroups() throws RemoteException;
     
+    /**
+     * Retorna uma página do diretório de grupos, sem a lista de membros
+     * @param namePrefix Prefixo do nome (sem diferenciar maiúsculas), ou null/vazio para todos
+     * @param sort Ordenação dos resultados
+     * @param offset Posição do primeiro grupo da página
+     * @param limit Quantidade máxima de grupos (limitada a MAX_PAGE_SIZE)
+     * @return Página de resumos de grupos
+     * @throws RemoteException
+     */
+    GroupPage getGroupsPage(String namePrefix, GroupSort sort, int offset, int limit) throws RemoteException;
+    
+    /**
+     * Tamanho máximo de página aceito por getGroupsPage
+     */
+    int MAX_PAGE_SIZE = 200;
+    
+    /**
+     * Ordenação das páginas do diretório de grupos
+     */
+    enum GroupSort {
+        NAME,          // nome em ordem alfabética
+        MEMBER_COUNT   // mais membros primeiro, empates por nome
+    }
+    
+    /**
+     * Classe para o resumo de um grupo no diretório
+     * Imutável: o servidor reutiliza a mesma instância enquanto o grupo não muda
+     */
+    class GroupSummary implements java.io.Serializable {
+        private final String groupId;
+        private final String groupName;
+        private final String owner;
+        private final int memberCount;
+        
+        public GroupSummary(String groupId, String groupName, String owner, int memberCount) {
+            this.groupId = groupId;
+            this.groupName = groupName;
+            this.owner = owner;
+            this.memberCount = memberCount;
+        }
+        
+        public String getGroupId() { return groupId; }
+        public String getGroupName() { return groupName; }
+        public String getOwner() { return owner; }
+        public int getMemberCount() { return memberCount; }
+    }
+    
+    /**
+     * Classe para uma página do diretório de grupos
+     */
+    class GroupPage implements java.io.Serializable {
+        private final GroupSummary[] groups;
+        private final int offset;
+        private final boolean hasMore;
+        
+        public GroupPage(GroupSummary[] groups, int offset, boolean hasMore) {
+            this.groups = groups;
+            this.offset = offset;
+            this.hasMore = hasMore;
+        }
+        
+        public GroupSummary[] getGroups() { return groups; }
+        public int getOffset() { return offset; }
+        public boolean hasMore() { return hasMore; }
+        
+        /**
+         * @return Offset da próxima página
+         */
+        public int getNextOffset() { return offset + groups.length; }
+    }
+    
     /**
      * Retorna grupos de um usuário específico
      * @param username Nome do usuário
@@ -174,6 +390,15 @@ public interface ChatService extends Remote {
      */
     void removeFromGroup(String groupId, String ownerUsername, String memberUsername) throws RemoteException;
     
+    /**
+     * Exclui um grupo (apenas dono pode fazer isso)
+     * Os demais membros são notificados como removidos do grupo
+     * @param groupId ID do grupo
+     * @param ownerUsername Nome do dono do grupo
+     * @throws RemoteException
+     */
+    void deleteGroup(String groupId, String ownerUsername) throws RemoteException;
+    
     /**
      * Notifica o envio de um arquivo para um grupo
      * @param groupId ID do grupo
@@ -211,16 +436,100 @@ public interface ChatService extends Remote {
      */
     boolean login(String username, String password) throws RemoteException;
     
+    // ========== ADMINISTRAÇÃO ==========
+    
+    /**
+     * Obtém as métricas atuais do servidor (as mesmas publicadas via JMX)
+     * @return Contadores, medidores e histogramas no instante da chamada
+     * @throws RemoteException
+     */
+    ServerStats getStats() throws RemoteException;
+    
+    /**
+     * Métricas do servidor num instante
+     * Os nomes trazem a unidade no sufixo (ex.: rpc.sendMessage.micros, udp.upload.bytes).
+     */
+    class ServerStats implements java.io.Serializable {
+        private final long timestamp;
+        private final Map<String, Long> counters;
+        private final Map<String, Long> gauges;
+        private final Map<String, HistogramStats> histograms;
+        
+        public ServerStats(long timestamp, Map<String, Long> counters, Map<String, Long> gauges,
+                           Map<String, HistogramStats> histograms) {
+            this.timestamp = timestamp;
+            this.counters = counters;
+            this.gauges = gauges;
+            this.histograms = histograms;
+        }
+        
+        public long getTimestamp() { return timestamp; }
+        public Map<String, Long> getCounters() { return Collections.unmodifiableMap(counters); }
+        public Map<String, Long> getGauges() { return Collections.unmodifiableMap(gauges); }
+        public Map<String, HistogramStats> getHistograms() { return Collections.unmodifiableMap(histograms); }
+    }
+    
+    /**
+     * Resumo de um histograma: quantidade, extremos, média e percentis
+     */
+    class HistogramStats implements java.io.Serializable {
+        private final long count;
+        private final long min;
+        private final long max;
+        private final double mean;
+        private final long p50;
+        private final long p90;
+        private final long p99;
+        private final long p999;
+        
+        public HistogramStats(long count, long min, long max, double mean, long p50, long p90, long p99, long p999) {
+            this.count = count;
+            this.min = min;
+            this.max = max;
+            this.mean = mean;
+            this.p50 = p50;
+            this.p90 = p90;
+            this.p99 = p99;
+            this.p999 = p999;
+        }
+        
+        public long getCount() { return count; }
+        public long getMin() { return min; }
+        public long getMax() { return max; }
+        public double getMean() { return mean; }
+        public long getP50() { return p50; }
+        public long getP90() { return p90; }
+        public long getP99() { return p99; }
+        public long getP999() { return p999; }
+        
+        @Override
+        public String toString() {
+            return String.format("n=%d min=%d p50=%d p90=%d p99=%d p99.9=%d max=%d média=%.1f",
+                count, min, p50, p90, p99, p999, max, mean);
+        }
+    }
+    
     /**
      * Classe para informações de grupo
+     * Imutável: o servidor reutiliza a mesma instância enquanto o grupo não muda
+     * Codificação própria (ver {@link WireFormat}): versão, id, nome, dono e membros.
      */
-    class GroupInfo implements java.io.Serializable {
+    class GroupInfo implements Externalizable {
+        private static final long serialVersionUID = 1L;
+        private static final int WIRE_VERSION = 1;
+        // Não finais só por causa de readExternal; nada os altera depois
         private String groupId;
         private String groupName;
         private String owner;
         private String[] members;
         private int memberCount;
         
+        /**
+         * Usado apenas na desserialização
+         */
+        public GroupInfo() {
+        }
+        
         public GroupInfo(String groupId, String groupName, String owner, String[] members) {
             this.groupId = groupId;
             this.groupName = groupName;
@@ -232,8 +541,27 @@ public interface ChatService extends Remote {
         public String getGroupId() { return groupId; }
         public String getGroupName() { return groupName; }
         public String getOwner() { return owner; }
-        public String[] getMembers() { return members; }
+        public String[] getMembers() { return members.clone(); }
         public int getMemberCount() { return memberCount; }
+        
+        @Override
+        public void writeExternal(ObjectOutput out) throws IOException {
+            out.writeByte(WIRE_VERSION);
+            WireFormat.writeString(out, groupId);
+            WireFormat.writeString(out, groupName);
+            WireFormat.writeUser(out, owner);
+            WireFormat.writeUsers(out, members);
+        }
+        
+        @Override
+        public void readExternal(ObjectInput in) throws IOException {
+            WireFormat.readVersion(in, GroupInfo.class, 1);
+            groupId = WireFormat.readString(in);
+            groupName = WireFormat.readString(in);
+            owner = WireFormat.readUser(in);
+            members = WireFormat.readUsers(in);
+            memberCount = members.length;
+        }
     }
 }
 
@@ -0,0 +1,187 @@
+package com.chatrmi.interfaces;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Lote ordenado de eventos entregue em uma única chamada remota
+ * Um lote compacto leva, antes dos eventos, o trecho do dicionário de usuários
+ * que o destinatário ainda não recebeu; dentro dele os nomes de usuário dos
+ * eventos viajam como IDs e são traduzidos na chegada pelo
+ * {@link UserDictionaryCache}, sem mudança no código do cliente.
+ *
+ * Desde a versão 2 o lote termina com a posição (canal e sequência) de cada
+ * evento que tem uma no histórico do servidor, que o cliente usa para retomar
+ * de onde parou depois de trocar de servidor. Fica depois dos eventos para
+ * que leitores da versão 1 simplesmente a ignorem.
+ */
+public class EventBatch implements Externalizable {
+    
+    private static final long serialVersionUID = 1L;
+    private static final int WIRE_VERSION = 2;
+    
+    private List<ChatEvent> events;
+    // Só no servidor, para lotes compactos
+    private ToIntFunction<String> userIds;
+    private long epoch;
+    private int fromId;
+    private String[] newUsers;
+    
+    /**
+     * Usado apenas na desserialização
+     */
+    public EventBatch() {
+    }
+    
+    public EventBatch(List<ChatEvent> events) {
+        this.events = Collections.unmodifiableList(new ArrayList<>(events));
+    }
+    
+    /**
+     * Cria um lote compacto
+     * @param events Eventos do lote
+     * @param epoch Época do dicionário do servidor
+     * @param fromId Primeiro ID que o destinatário ainda não conhece
+     * @param newUsers Nomes dos IDs de fromId em diante
+     * @param userIds Nome -> ID; negativo para nomes que devem ir por extenso
+     */
+    public EventBatch(List<ChatEvent> events, long epoch, int fromId, String[] newUsers, ToIntFunction<String> userIds) {
+        this(events);
+        this.epoch = epoch;
+        this.fromId = fromId;
+        this.newUsers = newUsers;
+        this.userIds = userIds;
+    }
+    
+    public List<ChatEvent> getEvents() {
+        return events;
+    }
+    
+    public int size() {
+        return events.size();
+    }
+    
+    /**
+     * @return Quantidade de nomes do dicionário enviados neste lote
+     */
+    public int getNewUserCount() {
+        return newUsers != null ? newUsers.length : 0;
+    }
+    
+    /**
+     * Entrega os eventos do lote, em ordem, aos métodos individuais do callback
+     * @param callback Callback que recebe os eventos
+     * @throws RemoteException
+     */
+    public void dispatchTo(ChatClientCallback callback) throws RemoteException {
+        for (ChatEvent event : events) {
+            event.dispatchTo(callback);
+        }
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(WIRE_VERSION);
+        boolean compact = userIds != null;
+        out.writeBoolean(compact);
+        if (compact) {
+            out.writeLong(epoch);
+            WireFormat.writeVarInt(out, fromId);
+            WireFormat.writeVarInt(out, newUsers.length);
+            for (String username : newUsers) {
+                out.writeUTF(username);
+            }
+        }
+        WireFormat.writeVarInt(out, events.size());
+        ToIntFunction<String> previous = WireFormat.beginUserEncoding(userIds);
+        try {
+            for (ChatEvent event : events) {
+                out.writeObject(event);
+            }
+        } finally {
+            WireFormat.endUserEncoding(previous);
+        }
+        writePositions(out);
+    }
+    
+    /**
+     * Tabela dos canais citados e, por evento, índice na tabela (0 = sem posição) e sequência
+     */
+    private void writePositions(ObjectOutput out) throws IOException {
+        List<String> channels = new ArrayList<>(2);
+        for (ChatEvent event : events) {
+            if (event.getSeq() > 0 && !channels.contains(event.getChannel())) {
+                channels.add(event.getChannel());
+            }
+        }
+        WireFormat.writeVarInt(out, channels.size());
+        for (String channel : channels) {
+            out.writeUTF(channel);
+        }
+        if (channels.isEmpty()) {
+            return;
+        }
+        for (ChatEvent event : events) {
+            if (event.getSeq() > 0) {
+                WireFormat.writeVarInt(out, channels.indexOf(event.getChannel()) + 1);
+                WireFormat.writeVarLong(out, event.getSeq());
+            } else {
+                WireFormat.writeVarInt(out, 0);
+            }
+        }
+    }
+    
+    private static void readPositions(ObjectInput in, List<ChatEvent> events) throws IOException {
+        String[] channels = new String[WireFormat.readVarInt(in)];
+        for (int i = 0; i < channels.length; i++) {
+            channels[i] = in.readUTF();
+        }
+        if (channels.length == 0) {
+            return;
+        }
+        for (ChatEvent event : events) {
+            int index = WireFormat.readVarInt(in);
+            if (index > 0) {
+                event.setPosition(channels[index - 1], WireFormat.readVarLong(in));
+            }
+        }
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        int version = WireFormat.readVersion(in, EventBatch.class, 1);
+        IntFunction<String> names = null;
+        if (in.readBoolean()) {
+            UserDictionaryCache dictionary = UserDictionaryCache.forEpoch(in.readLong());
+            int from = WireFormat.readVarInt(in);
+            String[] delta = new String[WireFormat.readVarInt(in)];
+            for (int i = 0; i < delta.length; i++) {
+                delta[i] = in.readUTF();
+            }
+            dictionary.append(from, delta);
+            names = dictionary::nameOf;
+        }
+        int count = WireFormat.readVarInt(in);
+        List<ChatEvent> list = new ArrayList<>(Math.min(count, 1024));
+        IntFunction<String> previous = WireFormat.beginUserDecoding(names);
+        try {
+            for (int i = 0; i < count; i++) {
+                list.add((ChatEvent) in.readObject());
+            }
+        } finally {
+            WireFormat.endUserDecoding(previous);
+        }
+        if (version >= 2) {
+            readPositions(in, list);
+        }
+        events = Collections.unmodifiableList(list);
+    }
+}
@@ -0,0 +1,81 @@
+package com.chatrmi.interfaces;
+
+import java.io.InvalidObjectException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Cópia local, no cliente, do dicionário de usuários do servidor
+ * Preenchida pelos trechos que chegam nos {@link EventBatch} e usada para
+ * traduzir os IDs dos eventos de volta para nomes. Há uma cópia por época
+ * (uma por execução do servidor), compartilhada por todos os callbacks da JVM:
+ * como cada trecho começa no primeiro ID que aquele callback ainda não recebeu,
+ * a cópia continua contínua a partir de 0.
+ */
+public final class UserDictionaryCache {
+    
+    private static final Map<Long, UserDictionaryCache> byEpoch = new ConcurrentHashMap<>();
+    
+    private final long epoch;
+    private volatile String[] names = new String[64];
+    private volatile int size;
+    
+    private UserDictionaryCache(long epoch) {
+        this.epoch = epoch;
+    }
+    
+    /**
+     * Retorna a cópia do dicionário de uma execução do servidor
+     * @param epoch Época informada pelo servidor
+     * @return Cópia (criada vazia na primeira vez)
+     */
+    public static UserDictionaryCache forEpoch(long epoch) {
+        return byEpoch.computeIfAbsent(epoch, UserDictionaryCache::new);
+    }
+    
+    public long getEpoch() {
+        return epoch;
+    }
+    
+    /**
+     * @return Quantidade de IDs conhecidos (todos de 0 a size - 1)
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Traduz um ID
+     * @return Nome do usuário, ou null se o ID ainda não chegou
+     */
+    public String nameOf(int id) {
+        // size antes de names: quem vê o novo size vê também o array que o contém
+        int known = size;
+        return id >= 0 && id < known ? names[id] : null;
+    }
+    
+    /**
+     * Acrescenta um trecho do dicionário; IDs já conhecidos são ignorados
+     * @param fromId ID do primeiro nome do trecho
+     * @param delta Nomes de fromId em diante
+     * @throws InvalidObjectException se o trecho deixaria uma lacuna
+     */
+    public synchronized void append(int fromId, String[] delta) throws InvalidObjectException {
+        int known = size;
+        if (fromId > known) {
+            throw new InvalidObjectException("Trecho do dicionário começa em " + fromId + ", conhecidos: " + known);
+        }
+        int end = fromId + delta.length;
+        if (end <= known) {
+            return;
+        }
+        String[] current = names;
+        if (end > current.length) {
+            current = Arrays.copyOf(current, Math.max(end, current.length * 2));
+            names = current;
+        }
+        System.arraycopy(delta, known - fromId, current, known, end - known);
+        size = end;
+    }
+}
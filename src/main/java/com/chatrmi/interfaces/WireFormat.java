@@ -0,0 +1,288 @@
+package com.chatrmi.interfaces;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.InvalidClassException;
+import java.io.InvalidObjectException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
+import java.nio.charset.StandardCharsets;
+import java.util.function.IntFunction;
+import java.util.function.ToIntFunction;
+
+/**
+ * Funções comuns às codificações Externalizable dos tipos enviados por RMI
+ * Cada tipo começa com um byte de versão. Versões novas só acrescentam campos
+ * no fim: o ObjectInputStream descarta o que um leitor antigo não consumir
+ * (os dados externalizados vão em modo bloco), então um leitor aceita versões
+ * maiores que a sua e recusa apenas versões que não conhece por baixo.
+ *
+ * Nomes de usuário escritos com {@link #writeUser} viram IDs inteiros quando a
+ * thread que serializa tem um dicionário ativo ({@link #beginUserEncoding});
+ * quem lê precisa ativar o dicionário correspondente ({@link #beginUserDecoding}).
+ * Fora desse contexto os nomes vão por extenso.
+ */
+public final class WireFormat {
+    
+    // Códigos de writeUser com dicionário ativo: 0 = nulo, 1 = nome por extenso, n >= 2 = ID n - 2
+    private static final int USER_NULL = 0;
+    private static final int USER_LITERAL = 1;
+    private static final int USER_ID_BASE = 2;
+    
+    /**
+     * Classes de um ChatEvent serializado (com os campos de cada subclasse)
+     * Base para os filtros de quem desserializa eventos vindos da rede.
+     */
+    public static final String EVENT_CLASSES = "com.chatrmi.interfaces.ChatEvent;com.chatrmi.interfaces.ChatEvent$*;"
+        + "com.chatrmi.interfaces.ChatService$GroupInfo;java.lang.String";
+    
+    private static final int FILTER_MAX_DEPTH = 20;
+    private static final int FILTER_MAX_ARRAY = 1 << 20;
+    
+    private static final ThreadLocal<ToIntFunction<String>> userEncoder = new ThreadLocal<>();
+    private static final ThreadLocal<IntFunction<String>> userDecoder = new ThreadLocal<>();
+    
+    private WireFormat() {
+    }
+    
+    /**
+     * Lê e valida o byte de versão
+     * @param type Tipo sendo lido, usado na mensagem de erro
+     * @param minVersion Menor versão que este leitor entende
+     * @return Versão escrita por quem serializou
+     * @throws InvalidClassException se a versão for anterior a minVersion
+     */
+    public static int readVersion(ObjectInput in, Class<?> type, int minVersion) throws IOException {
+        int version = in.readUnsignedByte();
+        if (version < minVersion) {
+            throw new InvalidClassException(type.getName(), "versão de formato não suportada: " + version);
+        }
+        return version;
+    }
+    
+    /**
+     * Escreve uma string que pode ser nula (1 byte de marcação + UTF modificado)
+     */
+    public static void writeString(ObjectOutput out, String value) throws IOException {
+        if (value == null) {
+            out.writeBoolean(false);
+        } else {
+            out.writeBoolean(true);
+            out.writeUTF(value);
+        }
+    }
+    
+    public static String readString(ObjectInput in) throws IOException {
+        return in.readBoolean() ? in.readUTF() : null;
+    }
+    
+    /**
+     * Escreve um texto de qualquer tamanho (mensagens), que pode ser nulo
+     * Tamanho + 1 em inteiro variável (0 = nulo) seguido dos bytes UTF-8; ao
+     * contrário de writeUTF não há limite de 64 KB.
+     */
+    public static void writeText(ObjectOutput out, String value) throws IOException {
+        if (value == null) {
+            writeVarInt(out, 0);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        writeVarInt(out, bytes.length + 1);
+        out.write(bytes);
+    }
+    
+    public static String readText(ObjectInput in) throws IOException {
+        int length = readVarInt(in) - 1;
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Escreve um array de strings não nulas precedido do tamanho
+     */
+    public static void writeStrings(ObjectOutput out, String[] values) throws IOException {
+        out.writeInt(values.length);
+        for (String value : values) {
+            out.writeUTF(value);
+        }
+    }
+    
+    public static String[] readStrings(ObjectInput in) throws IOException {
+        int length = in.readInt();
+        if (length < 0) {
+            throw new IOException("Tamanho de array inválido: " + length);
+        }
+        String[] values = new String[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = in.readUTF();
+        }
+        return values;
+    }
+    
+    /**
+     * Escreve um inteiro não negativo em 1 a 5 bytes (7 bits por byte)
+     */
+    public static void writeVarInt(DataOutput out, int value) throws IOException {
+        while ((value & ~0x7F) != 0) {
+            out.writeByte((value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte(value);
+    }
+    
+    public static int readVarInt(DataInput in) throws IOException {
+        int value = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Inteiro variável com mais de 5 bytes");
+    }
+    
+    /**
+     * Escreve um long não negativo em 1 a 10 bytes (7 bits por byte)
+     */
+    public static void writeVarLong(DataOutput out, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            out.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        out.writeByte((int) value);
+    }
+    
+    public static long readVarLong(DataInput in) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            int b = in.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new InvalidObjectException("Long variável com mais de 10 bytes");
+    }
+    
+    /**
+     * Ativa a codificação de usuários por ID na thread atual
+     * @param ids Nome -> ID (negativo se o nome não está no dicionário), ou null para escrever nomes
+     * @return Codificação anterior, a ser passada para {@link #endUserEncoding}
+     */
+    public static ToIntFunction<String> beginUserEncoding(ToIntFunction<String> ids) {
+        ToIntFunction<String> previous = userEncoder.get();
+        userEncoder.set(ids);
+        return previous;
+    }
+    
+    public static void endUserEncoding(ToIntFunction<String> previous) {
+        if (previous == null) {
+            userEncoder.remove();
+        } else {
+            userEncoder.set(previous);
+        }
+    }
+    
+    /**
+     * Ativa a decodificação de usuários por ID na thread atual
+     * @param names ID -> nome (null se desconhecido), ou null para ler nomes
+     * @return Decodificação anterior, a ser passada para {@link #endUserDecoding}
+     */
+    public static IntFunction<String> beginUserDecoding(IntFunction<String> names) {
+        IntFunction<String> previous = userDecoder.get();
+        userDecoder.set(names);
+        return previous;
+    }
+    
+    public static void endUserDecoding(IntFunction<String> previous) {
+        if (previous == null) {
+            userDecoder.remove();
+        } else {
+            userDecoder.set(previous);
+        }
+    }
+    
+    /**
+     * Escreve um nome de usuário (pode ser nulo), como ID se houver dicionário ativo
+     */
+    public static void writeUser(ObjectOutput out, String username) throws IOException {
+        ToIntFunction<String> ids = userEncoder.get();
+        if (ids == null) {
+            writeString(out, username);
+        } else if (username == null) {
+            writeVarInt(out, USER_NULL);
+        } else {
+            int id = ids.applyAsInt(username);
+            if (id >= 0) {
+                writeVarInt(out, id + USER_ID_BASE);
+            } else {
+                writeVarInt(out, USER_LITERAL);
+                out.writeUTF(username);
+            }
+        }
+    }
+    
+    public static String readUser(ObjectInput in) throws IOException {
+        IntFunction<String> names = userDecoder.get();
+        if (names == null) {
+            return readString(in);
+        }
+        int code = readVarInt(in);
+        if (code == USER_NULL) {
+            return null;
+        }
+        if (code == USER_LITERAL) {
+            return in.readUTF();
+        }
+        String username = names.apply(code - USER_ID_BASE);
+        if (username == null) {
+            throw new InvalidObjectException("ID de usuário fora do dicionário: " + (code - USER_ID_BASE));
+        }
+        return username;
+    }
+    
+    /**
+     * Escreve um array de nomes de usuário não nulos
+     * Sem dicionário ativo o formato é o de {@link #writeStrings}.
+     */
+    public static void writeUsers(ObjectOutput out, String[] usernames) throws IOException {
+        if (userEncoder.get() == null) {
+            writeStrings(out, usernames);
+            return;
+        }
+        writeVarInt(out, usernames.length);
+        for (String username : usernames) {
+            writeUser(out, username);
+        }
+    }
+    
+    public static String[] readUsers(ObjectInput in) throws IOException {
+        if (userDecoder.get() == null) {
+            return readStrings(in);
+        }
+        int length = readVarInt(in);
+        String[] usernames = new String[length];
+        for (int i = 0; i < length; i++) {
+            usernames[i] = readUser(in);
+        }
+        return usernames;
+    }
+    
+    /**
+     * Filtro de desserialização que só aceita as classes listadas
+     * Limita também a profundidade do grafo e o tamanho dos arrays; não limita
+     * bytes nem referências, que num stream longo (replicação) só crescem.
+     * @param allowed Padrões de classe no formato de {@link ObjectInputFilter.Config#createFilter}, separados por ';'
+     */
+    public static ObjectInputFilter allowOnly(String allowed) {
+        return ObjectInputFilter.Config.createFilter("maxdepth=" + FILTER_MAX_DEPTH + ";maxarray=" + FILTER_MAX_ARRAY
+            + ";" + allowed + ";!*");
+    }
+}
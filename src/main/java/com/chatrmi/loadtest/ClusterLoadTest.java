@@ -0,0 +1,268 @@
+package com.chatrmi.loadtest;
+
+import com.chatrmi.interfaces.ChatService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Teste de carga de um cluster local, com entrada e saída de um nó durante a conversa
+ * Sobe nodes processos ChatServer nesta máquina (portas a partir de basePort,
+ * cada um em um diretório temporário próprio) e roda o {@link LoadTest} com os
+ * usuários divididos entre eles. Durante a conversa sobe mais um nó, para o
+ * qual parte dos grupos migra, e depois o encerra de forma ordenada, quando os
+ * grupos voltam. Ao final imprime o relatório do LoadTest, o tempo até cada
+ * anel convergir e as métricas shard.* e cluster.* dos nós.
+ *
+ * Uso: ClusterLoadTest, com os parâmetros em chatrmi.clustertest.* (ver
+ * {@link Settings}) e os da carga em chatrmi.loadtest.*, ex.:
+ *   java -Dchatrmi.clustertest.nodes=2 -Dchatrmi.loadtest.users=200 -Dchatrmi.loadtest.durationSeconds=40 com.chatrmi.loadtest.ClusterLoadTest
+ */
+public class ClusterLoadTest {
+    
+    private static final String HOST = "127.0.0.1";
+    
+    /**
+     * Parâmetros do cluster de teste
+     */
+    public static class Settings {
+        public int nodes = 2;                  // nós durante todo o teste (o extra é a mais)
+        public int basePort = 21000;           // nó i usa basePort + 10 * i até basePort + 10 * i + 5
+        public int joinAfterSeconds = 10;      // após o início da conversa
+        public int leaveAfterSeconds = 25;     // após o início da conversa
+        public int startTimeoutSeconds = 30;
+        public String serverOptions = "";      // opções extras da JVM dos nós, separadas por espaço
+        
+        /**
+         * Lê os parâmetros das propriedades de sistema chatrmi.clustertest.*
+         * @return Parâmetros configurados
+         */
+        public static Settings fromSystemProperties() {
+            Settings settings = new Settings();
+            String prefix = "chatrmi.clustertest.";
+            settings.nodes = Integer.getInteger(prefix + "nodes", settings.nodes);
+            settings.basePort = Integer.getInteger(prefix + "basePort", settings.basePort);
+            settings.joinAfterSeconds = Integer.getInteger(prefix + "joinAfterSeconds", settings.joinAfterSeconds);
+            settings.leaveAfterSeconds = Integer.getInteger(prefix + "leaveAfterSeconds", settings.leaveAfterSeconds);
+            settings.startTimeoutSeconds = Integer.getInteger(prefix + "startTimeoutSeconds", settings.startTimeoutSeconds);
+            settings.serverOptions = System.getProperty(prefix + "serverOptions", settings.serverOptions);
+            return settings;
+        }
+    }
+    
+    private final Settings settings;
+    private final File workDir;
+    private final List<Process> processes = new ArrayList<>();
+    
+    public ClusterLoadTest(Settings settings) throws IOException {
+        this.settings = settings;
+        this.workDir = Files.createTempDirectory("chatrmi-cluster-").toFile();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.rmi.server.hostname", HOST);
+        ClusterLoadTest test = new ClusterLoadTest(Settings.fromSystemProperties());
+        try {
+            test.run();
+        } finally {
+            test.stopAll();
+        }
+        System.exit(0);
+    }
+    
+    private int port(int node, int offset) {
+        return settings.basePort + 10 * node + offset;
+    }
+    
+    /**
+     * Sobe os nós, roda a carga e faz o nó extra entrar e sair no meio dela
+     */
+    public void run() throws Exception {
+        int extra = settings.nodes;
+        System.out.println("Cluster de teste em " + workDir.getAbsolutePath());
+        long start = System.currentTimeMillis();
+        for (int i = 0; i < settings.nodes; i++) {
+            processes.add(startNode(i, extra + 1));
+        }
+        for (int i = 0; i < settings.nodes; i++) {
+            awaitRing(i, settings.nodes);
+        }
+        System.out.printf("%d nós prontos, anel completo em %d ms%n", settings.nodes, System.currentTimeMillis() - start);
+        
+        LoadTest.Settings load = LoadTest.Settings.fromSystemProperties();
+        load.host = HOST;
+        load.registryPorts = new int[settings.nodes];
+        load.nioPorts = new int[settings.nodes];
+        for (int i = 0; i < settings.nodes; i++) {
+            load.registryPorts[i] = port(i, 0);
+            load.nioPorts[i] = port(i, 2);
+        }
+        load.udpUploadPort = port(0, 3);
+        load.udpDownloadPort = port(0, 4);
+        if (load.durationSeconds <= settings.leaveAfterSeconds) {
+            System.out.println("Aviso: durationSeconds <= leaveAfterSeconds; o nó extra sai depois da conversa");
+        }
+        LoadTest loadTest = new LoadTest(load);
+        Thread runner = new Thread(() -> {
+            try {
+                loadTest.run();
+            } catch (Exception e) {
+                System.err.println("Falha no teste de carga: " + e);
+                e.printStackTrace();
+            }
+        }, "cluster-loadtest");
+        runner.start();
+        
+        while (!loadTest.awaitChatStart(1000)) {
+            if (!runner.isAlive()) {
+                return;
+            }
+        }
+        long chatStart = System.currentTimeMillis();
+        
+        sleepUntil(chatStart + settings.joinAfterSeconds * 1000L);
+        System.out.println(">>> Nó " + extra + " entrando no cluster");
+        long joinStart = System.currentTimeMillis();
+        Process extraNode = startNode(extra, extra + 1);
+        processes.add(extraNode);
+        for (int i = 0; i <= extra; i++) {
+            awaitRing(i, extra + 1);
+        }
+        System.out.printf(">>> Nó %d no anel de todos os nós em %d ms (inclui a subida da JVM)%n",
+            extra, System.currentTimeMillis() - joinStart);
+        
+        sleepUntil(chatStart + settings.leaveAfterSeconds * 1000L);
+        System.out.println(">>> Nó " + extra + " saindo do cluster");
+        long leaveStart = System.currentTimeMillis();
+        printShardStats(extra, "nó " + extra + " antes de sair");
+        extraNode.destroy(); // SIGTERM: o gancho de encerramento entrega os grupos antes de sair
+        if (!extraNode.waitFor(30, TimeUnit.SECONDS)) {
+            extraNode.destroyForcibly();
+        }
+        for (int i = 0; i < settings.nodes; i++) {
+            awaitRing(i, settings.nodes);
+        }
+        System.out.printf(">>> Nó %d fora do anel de todos os nós em %d ms%n", extra, System.currentTimeMillis() - leaveStart);
+        
+        runner.join();
+        for (int i = 0; i < settings.nodes; i++) {
+            printShardStats(i, "nó " + i);
+        }
+    }
+    
+    private Process startNode(int node, int clusterSize) throws IOException {
+        File dir = new File(workDir, "node" + node);
+        dir.mkdirs();
+        StringBuilder peers = new StringBuilder();
+        for (int i = 0; i < clusterSize; i++) {
+            if (i != node) {
+                peers.append(peers.length() > 0 ? "," : "").append(HOST).append(':').append(port(i, 5));
+            }
+        }
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Djava.rmi.server.hostname=" + HOST);
+        command.add("-Dchatrmi.registry.port=" + port(node, 0));
+        command.add("-Dchatrmi.server.port=" + port(node, 1));
+        command.add("-Dchatrmi.nio.port=" + port(node, 2));
+        command.add("-Dchatrmi.udp.port=" + port(node, 3));
+        command.add("-Dchatrmi.udp.downloadPort=" + port(node, 4));
+        command.add("-Dchatrmi.cluster.port=" + port(node, 5));
+        command.add("-Dchatrmi.cluster.nodeId=n" + node);
+        command.add("-Dchatrmi.cluster.peers=" + peers);
+        Arrays.stream(settings.serverOptions.trim().split("\\s+"))
+            .filter(option -> !option.isEmpty())
+            .forEach(command::add);
+        command.add("com.chatrmi.server.ChatServer");
+        command.add(HOST);
+        return new ProcessBuilder(command)
+            .directory(dir)
+            .redirectErrorStream(true)
+            .redirectOutput(new File(dir, "server.out"))
+            .start();
+    }
+    
+    /**
+     * Espera o nó responder e enxergar exatamente expected nós no anel
+     */
+    private void awaitRing(int node, int expected) throws Exception {
+        long deadline = System.currentTimeMillis() + settings.startTimeoutSeconds * 1000L;
+        Exception last = null;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                Long nodes = stats(node).getGauges().get("shard.ring.nodes");
+                if (nodes != null && nodes == expected) {
+                    return;
+                }
+            } catch (Exception e) {
+                last = e; // ainda subindo
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("Nó " + node + " não chegou a " + expected + " nós no anel", last);
+    }
+    
+    private ChatService.ServerStats stats(int node) throws Exception {
+        ChatService service = (ChatService) LocateRegistry.getRegistry(HOST, port(node, 0)).lookup("ChatService");
+        return service.getStats();
+    }
+    
+    private void printShardStats(int node, String label) {
+        try {
+            ChatService.ServerStats stats = stats(node);
+            System.out.println("--- " + label);
+            printMatching(stats.getCounters(), "  %-28s %d%n");
+            printMatching(stats.getGauges(), "  %-28s %d%n");
+            stats.getHistograms().forEach((name, histogram) -> {
+                if (name.startsWith("shard.") || name.startsWith("cluster.")) {
+                    System.out.printf("  %-28s %s%n", name, histogram);
+                }
+            });
+        } catch (Exception e) {
+            System.out.println("--- " + label + ": sem métricas (" + e.getMessage() + ")");
+        }
+    }
+    
+    private static void printMatching(Map<String, Long> values, String format) {
+        values.forEach((name, value) -> {
+            if (name.startsWith("shard.") || name.startsWith("cluster.") || name.equals("groups.count")) {
+                System.out.printf(format, name, value);
+            }
+        });
+    }
+    
+    private static void sleepUntil(long instant) throws InterruptedException {
+        long wait = instant - System.currentTimeMillis();
+        if (wait > 0) {
+            Thread.sleep(wait);
+        }
+    }
+    
+    /**
+     * Encerra os nós que ainda estiverem rodando
+     */
+    public void stopAll() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,376 @@
+package com.chatrmi.loadtest;
+
+import com.chatrmi.client.ChatClient;
+import com.chatrmi.interfaces.ChatService;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.rmi.RemoteException;
+import java.rmi.registry.LocateRegistry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Teste de failover da replicação primário/reserva
+ * Sobe um primário e uma reserva nesta máquina (cada um em um diretório
+ * temporário próprio), conecta clients instâncias de {@link ChatClient} com a
+ * reserva na lista de failover e envia mensagens numeradas ao chat global em
+ * ritmo constante. Depois de killAfterSeconds o primário é derrubado sem aviso
+ * (SIGKILL); os clientes trocam de servidor sozinhos e o envio continua. Ao
+ * final imprime o atraso da replicação antes da queda, o tempo até a reserva
+ * assumir, o tempo de reconexão de cada cliente e quantas mensagens aceitas
+ * deixaram de chegar (ou chegaram repetidas).
+ *
+ * Uso: FailoverTest, com os parâmetros em chatrmi.failovertest.* (ver {@link Settings}), ex.:
+ *   java -Dchatrmi.failovertest.clients=20 -Dchatrmi.failovertest.rate=100 com.chatrmi.loadtest.FailoverTest
+ */
+public class FailoverTest {
+    
+    private static final String HOST = "127.0.0.1";
+    private static final String MARKER = "[ft ";
+    
+    /**
+     * Parâmetros do teste de failover
+     */
+    public static class Settings {
+        public int clients = 10;
+        public int rate = 50;                  // mensagens por segundo, somando todos os clientes
+        public int basePort = 22000;           // primário usa basePort até basePort + 5; reserva, basePort + 10 em diante
+        public int killAfterSeconds = 10;      // após o início do envio
+        public int durationSeconds = 25;       // duração do envio
+        public int failoverTimeoutMs = 1000;   // silêncio do primário até a reserva assumir
+        public int startTimeoutSeconds = 30;
+        public String serverOptions = "";      // opções extras da JVM dos servidores, separadas por espaço
+        
+        /**
+         * Lê os parâmetros das propriedades de sistema chatrmi.failovertest.*
+         * @return Parâmetros configurados
+         */
+        public static Settings fromSystemProperties() {
+            Settings settings = new Settings();
+            String prefix = "chatrmi.failovertest.";
+            settings.clients = Integer.getInteger(prefix + "clients", settings.clients);
+            settings.rate = Integer.getInteger(prefix + "rate", settings.rate);
+            settings.basePort = Integer.getInteger(prefix + "basePort", settings.basePort);
+            settings.killAfterSeconds = Integer.getInteger(prefix + "killAfterSeconds", settings.killAfterSeconds);
+            settings.durationSeconds = Integer.getInteger(prefix + "durationSeconds", settings.durationSeconds);
+            settings.failoverTimeoutMs = Integer.getInteger(prefix + "failoverTimeoutMs", settings.failoverTimeoutMs);
+            settings.startTimeoutSeconds = Integer.getInteger(prefix + "startTimeoutSeconds", settings.startTimeoutSeconds);
+            settings.serverOptions = System.getProperty(prefix + "serverOptions", settings.serverOptions);
+            return settings;
+        }
+    }
+    
+    /**
+     * Cliente que anota as mensagens numeradas recebidas
+     */
+    private static class CountingClient extends ChatClient {
+        private final Set<Integer> received = ConcurrentHashMap.newKeySet();
+        private final AtomicInteger duplicates = new AtomicInteger();
+        
+        CountingClient(String username) throws RemoteException {
+            super(username, HOST);
+        }
+        
+        @Override
+        public void onMessageReceived(String username, String message) throws RemoteException {
+            int start = message.indexOf(MARKER);
+            if (start < 0) {
+                return;
+            }
+            int end = message.indexOf(']', start);
+            int number = Integer.parseInt(message.substring(start + MARKER.length(), end));
+            if (!received.add(number)) {
+                duplicates.incrementAndGet();
+            }
+        }
+    }
+    
+    private final Settings settings;
+    private final File workDir;
+    private final List<Process> processes = new ArrayList<>();
+    private final Set<Integer> accepted = ConcurrentHashMap.newKeySet();
+    private final AtomicInteger failedSends = new AtomicInteger();
+    private final AtomicLong lastAcceptedBeforeKill = new AtomicLong();
+    private final AtomicLong firstAcceptedAfterKill = new AtomicLong();
+    private volatile long killedAt;
+    
+    public FailoverTest(Settings settings) throws IOException {
+        this.settings = settings;
+        this.workDir = Files.createTempDirectory("chatrmi-failover-").toFile();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        System.setProperty("java.rmi.server.hostname", HOST);
+        FailoverTest test = new FailoverTest(Settings.fromSystemProperties());
+        try {
+            test.run();
+        } finally {
+            test.stopAll();
+        }
+        System.exit(0);
+    }
+    
+    private int port(int node, int offset) {
+        return settings.basePort + 10 * node + offset;
+    }
+    
+    /**
+     * Sobe o par de servidores, conversa, derruba o primário e confere o que chegou
+     */
+    public void run() throws Exception {
+        System.out.println("Servidores de teste em " + workDir.getAbsolutePath());
+        Process primary = startServer(0, "primary", null);
+        processes.add(primary);
+        awaitService(0);
+        processes.add(startServer(1, "backup", HOST + ":" + port(0, 5)));
+        awaitBackup();
+        System.out.println("Primário pronto e reserva sincronizada");
+        
+        // Lidas pelo ChatClient ao carregar a classe
+        System.setProperty("chatrmi.registry.port", String.valueOf(port(0, 0)));
+        System.setProperty("chatrmi.failover.servers", HOST + ":" + port(1, 0));
+        if (System.getProperty("chatrmi.failover.checkMs") == null) {
+            System.setProperty("chatrmi.failover.checkMs", "200");
+        }
+        ChatService service = lookup(0);
+        List<CountingClient> clients = new ArrayList<>();
+        for (int i = 0; i < settings.clients; i++) {
+            String username = "ft" + i;
+            service.registerUser(username, "senha");
+            CountingClient client = new CountingClient(username);
+            if (!client.connect()) {
+                throw new IllegalStateException("Cliente " + username + " não conectou");
+            }
+            clients.add(client);
+        }
+        String groupId = clients.get(0).createGroup("failover");
+        System.out.println(settings.clients + " clientes conectados; grupo " + groupId + " criado");
+        
+        long start = System.currentTimeMillis();
+        long end = start + settings.durationSeconds * 1000L;
+        long killAt = start + settings.killAfterSeconds * 1000L;
+        long interval = Math.max(1, 1_000_000_000L / settings.rate);
+        int next = 0;
+        long nextSend = System.nanoTime();
+        Map<String, Long> before = null;
+        while (System.currentTimeMillis() < end) {
+            if (killedAt == 0 && System.currentTimeMillis() >= killAt) {
+                before = replicationStats(0);
+                System.out.println(">>> Derrubando o primário (SIGKILL)");
+                killedAt = System.currentTimeMillis();
+                primary.destroyForcibly();
+            }
+            CountingClient sender = clients.get(next % clients.size());
+            send(sender, next++);
+            nextSend += interval;
+            long wait = nextSend - System.nanoTime();
+            if (wait > 0) {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            }
+        }
+        // Tempo para as últimas entregas
+        Thread.sleep(2000);
+        report(clients, before, groupId);
+        for (CountingClient client : clients) {
+            client.disconnect();
+        }
+    }
+    
+    private void send(CountingClient client, int number) {
+        ChatService service = client.getChatService();
+        try {
+            service.sendMessage(client.getUsername(), MARKER + number + "] mensagem " + number);
+            accepted.add(number);
+            long now = System.currentTimeMillis();
+            if (killedAt == 0) {
+                lastAcceptedBeforeKill.set(now);
+            } else {
+                firstAcceptedAfterKill.compareAndSet(0, now);
+            }
+        } catch (RemoteException e) {
+            failedSends.incrementAndGet();
+        }
+    }
+    
+    private void report(List<CountingClient> clients, Map<String, Long> before, String groupId) throws Exception {
+        System.out.println("\n=== FAILOVER ===");
+        if (before != null) {
+            System.out.println("--- primário antes da queda");
+            before.forEach((name, value) -> System.out.printf("  %-30s %d%n", name, value));
+        }
+        ChatService.ServerStats backup = lookup(1).getStats();
+        System.out.println("--- reserva (agora primária)");
+        backup.getHistograms().forEach((name, histogram) -> {
+            if (name.startsWith("replication.")) {
+                System.out.printf("  %-30s %s%n", name, histogram);
+            }
+        });
+        Long applied = backup.getCounters().get("replication.applied");
+        System.out.printf("  %-30s %d%n", "replication.applied", applied != null ? applied : 0);
+        
+        long min = Long.MAX_VALUE;
+        long max = 0;
+        long total = 0;
+        int reconnected = 0;
+        for (CountingClient client : clients) {
+            long millis = client.getLastFailoverMillis();
+            if (millis >= 0) {
+                min = Math.min(min, millis);
+                max = Math.max(max, millis);
+                total += millis;
+                reconnected++;
+            }
+        }
+        System.out.printf("Clientes reconectados: %d de %d (min %d ms, média %d ms, máx %d ms)%n", reconnected,
+            clients.size(), reconnected > 0 ? min : 0, reconnected > 0 ? total / reconnected : 0, max);
+        if (firstAcceptedAfterKill.get() > 0) {
+            System.out.printf("Envio indisponível por %d ms (última mensagem aceita pelo primário até a primeira aceita depois)%n",
+                firstAcceptedAfterKill.get() - lastAcceptedBeforeKill.get());
+        }
+        
+        long lost = 0;
+        long duplicates = 0;
+        Set<Integer> lostNumbers = new TreeSet<>();
+        for (CountingClient client : clients) {
+            for (Integer number : accepted) {
+                if (!client.received.contains(number)) {
+                    lost++;
+                    lostNumbers.add(number);
+                }
+            }
+            duplicates += client.duplicates.get();
+        }
+        long expected = (long) accepted.size() * clients.size();
+        System.out.printf("Mensagens aceitas: %d, recusadas durante a troca: %d%n", accepted.size(), failedSends.get());
+        System.out.printf("Entregas: %d esperadas, %d perdidas (%.3f%%), %d repetidas%n", expected, lost,
+            expected > 0 ? 100.0 * lost / expected : 0, duplicates);
+        if (!lostNumbers.isEmpty()) {
+            System.out.println("Mensagens com entrega perdida: " + lostNumbers);
+        }
+        boolean groupKept = Arrays.stream(lookup(1).getUserGroups(clients.get(0).getUsername()))
+            .anyMatch(group -> group.getGroupId().equals(groupId));
+        System.out.println("Grupo criado antes da queda presente na reserva: " + (groupKept ? "sim" : "NÃO"));
+    }
+    
+    private Process startServer(int node, String role, String primaryAddress) throws IOException {
+        File dir = new File(workDir, role);
+        dir.mkdirs();
+        List<String> command = new ArrayList<>();
+        command.add(new File(System.getProperty("java.home"), "bin/java").getPath());
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add("-Djava.rmi.server.hostname=" + HOST);
+        command.add("-Dchatrmi.registry.port=" + port(node, 0));
+        command.add("-Dchatrmi.server.port=" + port(node, 1));
+        command.add("-Dchatrmi.nio.port=" + port(node, 2));
+        command.add("-Dchatrmi.udp.port=" + port(node, 3));
+        command.add("-Dchatrmi.udp.downloadPort=" + port(node, 4));
+        command.add("-Dchatrmi.replication.role=" + role);
+        command.add("-Dchatrmi.replication.port=" + port(node, 5));
+        command.add("-Dchatrmi.replication.failoverTimeoutMs=" + settings.failoverTimeoutMs);
+        if (primaryAddress != null) {
+            command.add("-Dchatrmi.replication.primary=" + primaryAddress);
+        }
+        Arrays.stream(settings.serverOptions.trim().split("\\s+"))
+            .filter(option -> !option.isEmpty())
+            .forEach(command::add);
+        command.add("com.chatrmi.server.ChatServer");
+        command.add(HOST);
+        return new ProcessBuilder(command)
+            .directory(dir)
+            .redirectErrorStream(true)
+            .redirectOutput(new File(dir, "server.out"))
+            .start();
+    }
+    
+    private ChatService lookup(int node) throws Exception {
+        return (ChatService) LocateRegistry.getRegistry(HOST, port(node, 0)).lookup("ChatService");
+    }
+    
+    private void awaitService(int node) throws Exception {
+        long deadline = System.currentTimeMillis() + settings.startTimeoutSeconds * 1000L;
+        Exception last = null;
+        while (System.currentTimeMillis() < deadline) {
+            try {
+                lookup(node).getStats();
+                return;
+            } catch (Exception e) {
+                last = e; // ainda subindo
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("Servidor " + node + " não respondeu", last);
+    }
+    
+    /**
+     * Espera o primário ver a reserva conectada (a cópia inicial de um servidor vazio é imediata)
+     */
+    private void awaitBackup() throws Exception {
+        long deadline = System.currentTimeMillis() + settings.startTimeoutSeconds * 1000L;
+        while (System.currentTimeMillis() < deadline) {
+            Long connected = lookup(0).getStats().getGauges().get("replication.backup.connected");
+            if (connected != null && connected == 1) {
+                Thread.sleep(500);
+                return;
+            }
+            Thread.sleep(100);
+        }
+        throw new IllegalStateException("Reserva não conectou ao primário");
+    }
+    
+    private Map<String, Long> replicationStats(int node) {
+        Map<String, Long> values = new TreeMap<>();
+        try {
+            ChatService.ServerStats stats = lookup(node).getStats();
+            stats.getCounters().forEach((name, value) -> {
+                if (name.startsWith("replication.")) {
+                    values.put(name, value);
+                }
+            });
+            stats.getGauges().forEach((name, value) -> {
+                if (name.startsWith("replication.")) {
+                    values.put(name, value);
+                }
+            });
+            stats.getHistograms().forEach((name, histogram) -> {
+                if (name.startsWith("replication.")) {
+                    values.put(name + ".p50", histogram.getP50());
+                    values.put(name + ".p99", histogram.getP99());
+                }
+            });
+        } catch (Exception e) {
+            System.out.println("Sem métricas do primário: " + e.getMessage());
+        }
+        return values;
+    }
+    
+    /**
+     * Encerra os servidores que ainda estiverem rodando
+     */
+    public void stopAll() {
+        for (Process process : processes) {
+            process.destroy();
+        }
+        for (Process process : processes) {
+            try {
+                if (!process.waitFor(30, TimeUnit.SECONDS)) {
+                    process.destroyForcibly();
+                }
+            } catch (InterruptedException e) {
+                process.destroyForcibly();
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package com.chatrmi.loadtest;
+
+import com.chatrmi.metrics.Counter;
+import com.chatrmi.metrics.Histogram;
+import com.chatrmi.metrics.MetricsRegistry;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Medições do teste de carga
+ * Latências em microssegundos (mensagens) ou milissegundos (arquivos), nos
+ * mesmos histogramas usados pelas métricas do servidor.
+ */
+class LoadStats {
+    
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    
+    final Counter connected = metrics.counter("users.connected");
+    final Counter connectFailures = metrics.counter("users.connectFailures");
+    final Counter callbackFailures = metrics.counter("users.callbackFailures");
+    
+    final Counter globalSent = metrics.counter("global.sent");
+    final Counter groupSent = metrics.counter("group.sent");
+    final Counter sendFailures = metrics.counter("send.failures");
+    final Counter expectedDeliveries = metrics.counter("deliveries.expected");
+    final Counter deliveries = metrics.counter("deliveries.received");
+    final Histogram globalLatency = metrics.histogram("global.latency.micros");
+    final Histogram groupLatency = metrics.histogram("group.latency.micros");
+    
+    final Counter uploads = metrics.counter("files.uploads");
+    final Counter uploadFailures = metrics.counter("files.uploadFailures");
+    final Histogram uploadLatency = metrics.histogram("files.upload.millis"); // envio até a primeira notificação
+    final Map<String, Long> pendingUploads = new ConcurrentHashMap<>(); // arquivo -> instante do envio
+    final Counter downloads = metrics.counter("files.downloads");
+    final Counter downloadFailures = metrics.counter("files.downloadFailures");
+    final Histogram downloadDuration = metrics.histogram("files.download.millis");
+    
+    /**
+     * @return Entregas esperadas que ainda não chegaram
+     */
+    long getMissingDeliveries() {
+        return Math.max(0, expectedDeliveries.getCount() - deliveries.getCount());
+    }
+    
+    /**
+     * Linha de progresso impressa durante o teste
+     */
+    String progressLine(long elapsedMillis) {
+        return String.format("[%4ds] enviadas=%d entregues=%d/%d p50=%.1fms p99=%.1fms uploads=%d downloads=%d falhas=%d",
+            elapsedMillis / 1000,
+            globalSent.getCount() + groupSent.getCount(),
+            deliveries.getCount(), expectedDeliveries.getCount(),
+            globalLatency.getP50() / 1000.0, globalLatency.getP99() / 1000.0,
+            uploads.getCount(), downloads.getCount(),
+            sendFailures.getCount() + uploadFailures.getCount() + downloadFailures.getCount());
+    }
+    
+    /**
+     * Imprime o relatório final
+     * @param chatMillis Duração da fase de conversa, para o cálculo da vazão
+     */
+    void printReport(long chatMillis) {
+        double seconds = Math.max(1, chatMillis) / 1000.0;
+        long sent = globalSent.getCount() + groupSent.getCount();
+        long expected = expectedDeliveries.getCount();
+        long missing = getMissingDeliveries();
+        
+        System.out.println();
+        System.out.println("========================================");
+        System.out.println("  RELATÓRIO DO TESTE DE CARGA");
+        System.out.println("========================================");
+        System.out.printf("Usuários conectados:      %d (falhas de conexão: %d, callback inacessível: %d)%n",
+            connected.getCount(), connectFailures.getCount(), callbackFailures.getCount());
+        System.out.printf("Duração da conversa:      %.1f s%n", seconds);
+        System.out.println();
+        System.out.printf("Mensagens enviadas:       %d (global: %d, grupo: %d, falhas: %d)%n",
+            sent, globalSent.getCount(), groupSent.getCount(), sendFailures.getCount());
+        System.out.printf("Vazão de envio:           %.1f msg/s%n", sent / seconds);
+        System.out.printf("Vazão de entrega:         %.1f entregas/s%n", deliveries.getCount() / seconds);
+        System.out.printf("Entregas:                 %d de %d (perdidas: %d = %.3f%%)%n",
+            deliveries.getCount(), expected, missing, expected > 0 ? 100.0 * missing / expected : 0.0);
+        System.out.println();
+        System.out.println("Latência ponta a ponta (envio -> callback), em ms:");
+        printLatency("  chat global", globalLatency, 1000.0);
+        printLatency("  grupos", groupLatency, 1000.0);
+        System.out.println();
+        System.out.printf("Uploads UDP:              %d (falhas: %d)%n", uploads.getCount(), uploadFailures.getCount());
+        printLatency("  envio -> notificação (ms)", uploadLatency, 1.0);
+        System.out.printf("Downloads UDP:            %d (falhas: %d)%n", downloads.getCount(), downloadFailures.getCount());
+        printLatency("  duração (ms)", downloadDuration, 1.0);
+        System.out.println("========================================");
+    }
+    
+    private static void printLatency(String label, Histogram histogram, double divisor) {
+        if (histogram.getCount() == 0) {
+            System.out.printf("%-28s sem amostras%n", label);
+            return;
+        }
+        System.out.printf("%-28s n=%d p50=%.2f p90=%.2f p99=%.2f p99.9=%.2f max=%.2f%n",
+            label, histogram.getCount(),
+            histogram.getP50() / divisor, histogram.getP90() / divisor, histogram.getP99() / divisor,
+            histogram.getP999() / divisor, histogram.getMax() / divisor);
+    }
+}
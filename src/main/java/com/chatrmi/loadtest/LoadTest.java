@@ -0,0 +1,358 @@
+package com.chatrmi.loadtest;
+
+import com.chatrmi.interfaces.ChatService;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.rmi.registry.LocateRegistry;
+import java.rmi.registry.Registry;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Gerador de carga sem interface gráfica
+ * Simula N usuários numa única JVM contra um ChatServer real: cada usuário
+ * faz login, entra em grupos, conversa no chat global e nos grupos nas taxas
+ * configuradas e envia/baixa arquivos pelas portas UDP. Ao final imprime a
+ * latência ponta a ponta (envio -> callback), as entregas perdidas e a vazão.
+ * Com registryPorts (e nioPorts) os usuários se dividem em rodízio entre os
+ * nós de um cluster na mesma máquina; os grupos são criados pelo primeiro nó
+ * (e distribuídos pelo cluster) e os arquivos vão para ele.
+ *
+ * Uso: LoadTest [host], com os parâmetros em propriedades chatrmi.loadtest.*
+ * (ver {@link Settings}), ex.:
+ *   java -Dchatrmi.loadtest.users=1000 -Dchatrmi.loadtest.globalRate=0.05 com.chatrmi.loadtest.LoadTest 127.0.0.1
+ */
+public class LoadTest {
+    
+    /**
+     * Parâmetros do teste
+     */
+    public static class Settings {
+        public String host = "localhost";
+        public int registryPort = 1099;
+        public String transport = "rmi";       // rmi ou nio (uma conexão NIO por usuário)
+        public int nioPort = 1100;
+        public int[] registryPorts = {};       // nós do cluster; vazio = só registryPort
+        public int[] nioPorts = {};            // porta NIO de cada nó, na mesma ordem
+        public int udpUploadPort = 9876;
+        public int udpDownloadPort = 9877;
+        public int users = 200;
+        public String userPrefix = "lt";
+        public String password = "carga123";
+        public int groups = 20;
+        public int groupsPerUser = 2;
+        public double globalRate = 0.05;       // mensagens globais por usuário por segundo
+        public double groupRate = 0.2;         // mensagens de grupo por usuário por segundo
+        public int messageSize = 64;           // caracteres por mensagem
+        public double filesPerMinute = 6;      // uploads por minuto (todos os usuários)
+        public int fileSize = 64 * 1024;
+        public double downloadProbability = 0.01; // chance de cada usuário baixar um arquivo anunciado
+        public int durationSeconds = 60;
+        public int rampUpSeconds = 10;
+        public int drainSeconds = 10;
+        public int threads = 16;
+        public int reportIntervalSeconds = 5;
+        
+        /**
+         * Lê os parâmetros das propriedades de sistema chatrmi.loadtest.*
+         * @return Parâmetros configurados
+         */
+        public static Settings fromSystemProperties() {
+            Settings settings = new Settings();
+            String prefix = "chatrmi.loadtest.";
+            settings.registryPort = Integer.getInteger(prefix + "registryPort", settings.registryPort);
+            settings.transport = System.getProperty(prefix + "transport", settings.transport);
+            settings.nioPort = Integer.getInteger(prefix + "nioPort", settings.nioPort);
+            settings.registryPorts = intList(System.getProperty(prefix + "registryPorts", ""));
+            settings.nioPorts = intList(System.getProperty(prefix + "nioPorts", ""));
+            settings.udpUploadPort = Integer.getInteger(prefix + "udpUploadPort", settings.udpUploadPort);
+            settings.udpDownloadPort = Integer.getInteger(prefix + "udpDownloadPort", settings.udpDownloadPort);
+            settings.users = Integer.getInteger(prefix + "users", settings.users);
+            settings.userPrefix = System.getProperty(prefix + "userPrefix", settings.userPrefix);
+            settings.password = System.getProperty(prefix + "password", settings.password);
+            settings.groups = Integer.getInteger(prefix + "groups", settings.groups);
+            settings.groupsPerUser = Integer.getInteger(prefix + "groupsPerUser", settings.groupsPerUser);
+            settings.globalRate = doubleProperty(prefix + "globalRate", settings.globalRate);
+            settings.groupRate = doubleProperty(prefix + "groupRate", settings.groupRate);
+            settings.messageSize = Integer.getInteger(prefix + "messageSize", settings.messageSize);
+            settings.filesPerMinute = doubleProperty(prefix + "filesPerMinute", settings.filesPerMinute);
+            settings.fileSize = Integer.getInteger(prefix + "fileSize", settings.fileSize);
+            settings.downloadProbability = doubleProperty(prefix + "downloadProbability", settings.downloadProbability);
+            settings.durationSeconds = Integer.getInteger(prefix + "durationSeconds", settings.durationSeconds);
+            settings.rampUpSeconds = Integer.getInteger(prefix + "rampUpSeconds", settings.rampUpSeconds);
+            settings.drainSeconds = Integer.getInteger(prefix + "drainSeconds", settings.drainSeconds);
+            settings.threads = Integer.getInteger(prefix + "threads", settings.threads);
+            settings.reportIntervalSeconds = Integer.getInteger(prefix + "reportIntervalSeconds", settings.reportIntervalSeconds);
+            settings.groups = Math.min(settings.groups, settings.users);
+            settings.groupsPerUser = Math.min(settings.groupsPerUser, settings.groups);
+            return settings;
+        }
+        
+        private static int[] intList(String value) {
+            return Arrays.stream(value.split(","))
+                .map(String::trim)
+                .filter(s -> !s.isEmpty())
+                .mapToInt(Integer::parseInt)
+                .toArray();
+        }
+        
+        /**
+         * @return Porta do registry do nó node (ou a única, fora de cluster)
+         */
+        int registryPort(int node) {
+            return registryPorts.length > 0 ? registryPorts[node] : registryPort;
+        }
+        
+        /**
+         * @return Porta NIO do nó node
+         */
+        int nioPort(int node) {
+            return node < nioPorts.length ? nioPorts[node] : nioPort;
+        }
+        
+        int nodeCount() {
+            return Math.max(1, registryPorts.length);
+        }
+        
+        private static double doubleProperty(String property, double defaultValue) {
+            String value = System.getProperty(property);
+            return value != null ? Double.parseDouble(value.trim()) : defaultValue;
+        }
+    }
+    
+    private final Settings settings;
+    private final LoadStats stats = new LoadStats();
+    private final ScheduledExecutorService scheduler;
+    private final ExecutorService transfers;
+    private final List<SimulatedUser> users = new ArrayList<>();
+    private final List<SimulatedUser> online = new ArrayList<>();
+    private final List<String> groupIds = new ArrayList<>();
+    private final List<List<Integer>> groupsByUser = new ArrayList<>(); // por usuário: índices dos grupos
+    private int[] onlineMembers; // por grupo: membros conectados (destinatários de cada mensagem)
+    private final File uploadDir;
+    private volatile boolean chatting;
+    private final CountDownLatch chatStarted = new CountDownLatch(1);
+    private ChatService chatService;
+    
+    public LoadTest(Settings settings) {
+        this.settings = settings;
+        this.scheduler = Executors.newScheduledThreadPool(settings.threads, r -> {
+            Thread thread = new Thread(r, "loadtest-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.transfers = Executors.newFixedThreadPool(4, r -> {
+            Thread thread = new Thread(r, "loadtest-transfer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.uploadDir = new File(System.getProperty("java.io.tmpdir"), "chatrmi-loadtest");
+        this.uploadDir.mkdirs();
+    }
+    
+    public static void main(String[] args) throws Exception {
+        Settings settings = Settings.fromSystemProperties();
+        if (args.length > 0) {
+            settings.host = args[0];
+        }
+        if (System.getProperty("java.rmi.server.hostname") == null) {
+            // Endereço anunciado nos callbacks: loopback quando o servidor é local
+            boolean local = InetAddress.getByName(settings.host).isLoopbackAddress();
+            System.setProperty("java.rmi.server.hostname",
+                local ? "127.0.0.1" : InetAddress.getLocalHost().getHostAddress());
+        }
+        new LoadTest(settings).run();
+        System.exit(0);
+    }
+    
+    /**
+     * Executa as fases do teste: login, grupos, conexão gradual, conversa e drenagem
+     */
+    public void run() throws Exception {
+        System.out.printf("Teste de carga: %d usuários, %d grupos (%d por usuário), %.2f msg/s global e %.2f msg/s de grupo por usuário, %d s%n",
+            settings.users, settings.groups, settings.groupsPerUser, settings.globalRate, settings.groupRate,
+            settings.durationSeconds);
+        
+        ChatService[] nodes = new ChatService[settings.nodeCount()];
+        for (int n = 0; n < nodes.length; n++) {
+            Registry registry = LocateRegistry.getRegistry(settings.host, settings.registryPort(n));
+            nodes[n] = (ChatService) registry.lookup("ChatService");
+        }
+        chatService = nodes[0];
+        if (nodes.length > 1) {
+            System.out.println("Cluster: usuários divididos entre " + nodes.length + " nós");
+        }
+        
+        System.out.println("Autenticando usuários...");
+        for (int i = 0; i < settings.users; i++) {
+            int node = i % nodes.length;
+            users.add(new SimulatedUser(settings.userPrefix + i, nodes[node], settings.nioPort(node), settings, stats, transfers));
+        }
+        runAll(users.size(), 0, i -> users.get(i).login());
+        
+        // Grupos montados antes dos callbacks, para que a montagem não gere
+        // uma rajada de atualizações para todos os clientes
+        System.out.println("Criando grupos...");
+        createGroups();
+        
+        System.out.println("Conectando usuários (rampa de " + settings.rampUpSeconds + " s)...");
+        boolean[] connected = new boolean[users.size()];
+        runAll(users.size(), settings.rampUpSeconds, i -> {
+            SimulatedUser user = users.get(i);
+            if (user.connect()) {
+                connected[i] = true;
+                stats.connected.increment();
+            } else {
+                stats.callbackFailures.increment();
+                user.disconnect();
+            }
+        });
+        onlineMembers = new int[settings.groups];
+        for (int i = 0; i < users.size(); i++) {
+            if (connected[i]) {
+                online.add(users.get(i));
+                groupsByUser.get(i).forEach(g -> onlineMembers[g]++);
+            }
+        }
+        if (online.isEmpty()) {
+            System.err.println("Nenhum usuário conectado; verifique o servidor e java.rmi.server.hostname");
+            return;
+        }
+        
+        System.out.println("Conversando por " + settings.durationSeconds + " s...");
+        long start = System.currentTimeMillis();
+        chatting = true;
+        chatStarted.countDown();
+        scheduleChat(connected);
+        long deadline = start + settings.durationSeconds * 1000L;
+        while (System.currentTimeMillis() < deadline) {
+            Thread.sleep(Math.min(settings.reportIntervalSeconds * 1000L, Math.max(1, deadline - System.currentTimeMillis())));
+            System.out.println(stats.progressLine(System.currentTimeMillis() - start));
+        }
+        chatting = false;
+        long chatMillis = System.currentTimeMillis() - start;
+        scheduler.shutdown();
+        scheduler.awaitTermination(30, TimeUnit.SECONDS);
+        
+        System.out.println("Aguardando entregas pendentes (até " + settings.drainSeconds + " s)...");
+        long drainDeadline = System.currentTimeMillis() + settings.drainSeconds * 1000L;
+        while (stats.getMissingDeliveries() > 0 && System.currentTimeMillis() < drainDeadline) {
+            Thread.sleep(100);
+        }
+        transfers.shutdown();
+        transfers.awaitTermination(settings.drainSeconds, TimeUnit.SECONDS);
+        
+        stats.printReport(chatMillis);
+        
+        for (SimulatedUser user : online) {
+            user.disconnect();
+        }
+    }
+    
+    /**
+     * Espera o início da fase de conversa (para quem roda o teste em outra thread)
+     * @return true se a conversa começou dentro do prazo
+     */
+    public boolean awaitChatStart(long timeoutMs) throws InterruptedException {
+        return chatStarted.await(timeoutMs, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * O usuário g é dono do grupo g; o usuário i entra nos grupos (i + k) % groups
+     */
+    private void createGroups() throws Exception {
+        for (int i = 0; i < users.size(); i++) {
+            groupsByUser.add(new ArrayList<>());
+        }
+        for (int g = 0; g < settings.groups; g++) {
+            String owner = users.get(g).getUsername();
+            groupIds.add(chatService.createGroup(settings.userPrefix + "-grupo-" + g, owner));
+            groupsByUser.get(g).add(g);
+        }
+        for (int i = 0; i < users.size(); i++) {
+            for (int k = 0; k < settings.groupsPerUser; k++) {
+                int g = (i + k) % settings.groups;
+                if (g == i) {
+                    continue;
+                }
+                String username = users.get(i).getUsername();
+                chatService.inviteToGroup(groupIds.get(g), users.get(g).getUsername(), username);
+                chatService.processInvite(groupIds.get(g), username, true);
+                groupsByUser.get(i).add(g);
+            }
+        }
+    }
+    
+    private void scheduleChat(boolean[] connected) {
+        for (int i = 0; i < users.size(); i++) {
+            if (!connected[i]) {
+                continue;
+            }
+            SimulatedUser user = users.get(i);
+            if (settings.globalRate > 0) {
+                scheduleRepeating(settings.globalRate, () -> user.sendGlobalMessage(online.size()));
+            }
+            List<Integer> myGroups = groupsByUser.get(i);
+            if (settings.groupRate > 0 && !myGroups.isEmpty()) {
+                scheduleRepeating(settings.groupRate, () -> {
+                    int g = myGroups.get(ThreadLocalRandom.current().nextInt(myGroups.size()));
+                    user.sendGroupMessage(groupIds.get(g), onlineMembers[g]);
+                });
+            }
+        }
+        if (settings.filesPerMinute > 0) {
+            scheduleRepeating(settings.filesPerMinute / 60.0, () -> {
+                SimulatedUser user = online.get(ThreadLocalRandom.current().nextInt(online.size()));
+                transfers.execute(() -> user.uploadFile(uploadDir));
+            });
+        }
+    }
+    
+    /**
+     * Agenda uma ação com intervalos exponenciais (chegadas de Poisson) de taxa média rate
+     */
+    private void scheduleRepeating(double ratePerSecond, Runnable action) {
+        long delayMicros = (long) (-Math.log(1 - ThreadLocalRandom.current().nextDouble()) / ratePerSecond * 1_000_000);
+        scheduler.schedule(() -> {
+            if (!chatting) {
+                return;
+            }
+            action.run();
+            scheduleRepeating(ratePerSecond, action);
+        }, delayMicros, TimeUnit.MICROSECONDS);
+    }
+    
+    private interface UserTask {
+        void run(int index) throws Exception;
+    }
+    
+    /**
+     * Executa uma tarefa para cada usuário, espalhando os inícios ao longo de spreadSeconds
+     */
+    private void runAll(int count, int spreadSeconds, UserTask task) throws InterruptedException {
+        CountDownLatch done = new CountDownLatch(count);
+        for (int i = 0; i < count; i++) {
+            int index = i;
+            long delayMillis = count > 1 ? spreadSeconds * 1000L * i / count : 0;
+            scheduler.schedule(() -> {
+                try {
+                    task.run(index);
+                } catch (Exception e) {
+                    stats.connectFailures.increment();
+                    System.err.println("[" + users.get(index).getUsername() + "] " + e.getMessage());
+                } finally {
+                    done.countDown();
+                }
+            }, delayMillis, TimeUnit.MILLISECONDS);
+        }
+        done.await();
+    }
+}
@@ -0,0 +1,282 @@
+package com.chatrmi.loadtest;
+
+import com.chatrmi.interfaces.BatchedClientCallback;
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.interfaces.EventBatch;
+import com.chatrmi.net.SocketSettings;
+import com.chatrmi.net.TunedClientSocketFactory;
+import com.chatrmi.net.TunedServerSocketFactory;
+import com.chatrmi.nio.NioChatConnector;
+import com.chatrmi.udp.UDPFileClient;
+import com.chatrmi.udp.UDPFileDownloadClient;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.rmi.ConnectIOException;
+import java.rmi.RemoteException;
+import java.rmi.server.UnicastRemoteObject;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Usuário simulado do teste de carga
+ * Exporta um callback leve via RMI (sem interface gráfica), ou abre a própria
+ * conexão NIO se chatrmi.loadtest.transport=nio, e registra, para
+ * cada mensagem recebida que foi gerada pelo teste, a latência desde o envio.
+ * Todos os usuários rodam na mesma JVM, então o instante de envio (nanoTime)
+ * embutido na mensagem é comparável ao instante de recebimento.
+ */
+class SimulatedUser implements BatchedClientCallback {
+    
+    private static final String MARKER = "[lt ";
+    private static final Object UPLOAD_LOCK = new Object(); // o servidor UDP recebe um arquivo por vez
+    private static final SocketSettings SOCKET_SETTINGS = SocketSettings.fromSystemProperties();
+    
+    private final String username;
+    private volatile ChatService chatService;  // no transporte NIO, trocado pelo da conexão própria
+    private final int nioPort;                 // do nó em que o usuário está
+    private final LoadTest.Settings settings;
+    private final LoadStats stats;
+    private final ExecutorService transfers;
+    private final AtomicInteger nextFile = new AtomicInteger();
+    private volatile boolean exported;
+    private volatile NioChatConnector connector;
+    
+    SimulatedUser(String username, ChatService chatService, int nioPort, LoadTest.Settings settings, LoadStats stats,
+                  ExecutorService transfers) {
+        this.username = username;
+        this.chatService = chatService;
+        this.nioPort = nioPort;
+        this.settings = settings;
+        this.stats = stats;
+        this.transfers = transfers;
+    }
+    
+    String getUsername() {
+        return username;
+    }
+    
+    /**
+     * Cadastra (se preciso) e autentica o usuário
+     */
+    void login() throws RemoteException {
+        chatService.registerUser(username, settings.password);
+        if (!chatService.login(username, settings.password)) {
+            throw new RemoteException("Login recusado para " + username);
+        }
+    }
+    
+    /**
+     * Exporta o callback (ou abre a conexão NIO) e registra o cliente no servidor
+     * @return true se o servidor conseguiu chamar o callback
+     */
+    boolean connect() throws RemoteException {
+        if ("nio".equalsIgnoreCase(settings.transport)) {
+            try {
+                connector = NioChatConnector.connect(settings.host, nioPort, SOCKET_SETTINGS);
+            } catch (IOException e) {
+                throw new ConnectIOException("Falha na conexão NIO de " + username, e);
+            }
+            chatService = connector.getService();
+            return chatService.registerClient(username, this);
+        }
+        UnicastRemoteObject.exportObject(this, 0,
+            new TunedClientSocketFactory(SOCKET_SETTINGS), new TunedServerSocketFactory(SOCKET_SETTINGS));
+        exported = true;
+        return chatService.registerClient(username, this);
+    }
+    
+    void disconnect() {
+        try {
+            chatService.unregisterClient(username);
+        } catch (RemoteException e) {
+            // Servidor pode já ter descartado o cliente
+        }
+        if (exported) {
+            try {
+                UnicastRemoteObject.unexportObject(this, true);
+            } catch (RemoteException e) {
+                // Ignorar
+            }
+        }
+        NioChatConnector nio = connector;
+        if (nio != null) {
+            nio.close();
+        }
+    }
+    
+    /**
+     * Envia uma mensagem ao chat global
+     * @param recipients Clientes conectados que devem recebê-la
+     */
+    void sendGlobalMessage(int recipients) {
+        stats.expectedDeliveries.add(recipients);
+        try {
+            chatService.sendMessage(username, newMessage());
+            stats.globalSent.increment();
+        } catch (RemoteException e) {
+            stats.expectedDeliveries.add(-recipients);
+            stats.sendFailures.increment();
+        }
+    }
+    
+    /**
+     * Envia uma mensagem a um grupo
+     * @param recipients Membros do grupo (inclusive o remetente)
+     */
+    void sendGroupMessage(String groupId, int recipients) {
+        stats.expectedDeliveries.add(recipients);
+        try {
+            chatService.sendGroupMessage(groupId, username, newMessage());
+            stats.groupSent.increment();
+        } catch (RemoteException e) {
+            stats.expectedDeliveries.add(-recipients);
+            stats.sendFailures.increment();
+        }
+    }
+    
+    /**
+     * Envia um arquivo gerado pelo porta UDP de upload
+     * A latência é medida até a notificação do arquivo chegar ao primeiro
+     * outro usuário (o servidor não notifica o próprio remetente).
+     */
+    void uploadFile(File dir) {
+        String filename = "lt-" + username + "-" + nextFile.incrementAndGet() + ".bin";
+        File file = new File(dir, filename);
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                raf.setLength(settings.fileSize);
+            }
+            boolean sent;
+            synchronized (UPLOAD_LOCK) {
+                stats.pendingUploads.put(filename, System.nanoTime());
+                sent = new UDPFileClient(settings.host, settings.udpUploadPort).sendFile(file, username);
+            }
+            if (!sent) {
+                stats.pendingUploads.remove(filename);
+                stats.uploadFailures.increment();
+            }
+        } catch (IOException e) {
+            stats.pendingUploads.remove(filename);
+            stats.uploadFailures.increment();
+        } finally {
+            file.delete();
+        }
+    }
+    
+    private void downloadFile(String filename) {
+        long start = System.nanoTime();
+        File file = new UDPFileDownloadClient(settings.host, settings.udpDownloadPort).downloadFile(filename);
+        if (file != null) {
+            stats.downloads.increment();
+            stats.downloadDuration.record((System.nanoTime() - start) / 1_000_000);
+            file.delete();
+        } else {
+            stats.downloadFailures.increment();
+        }
+    }
+    
+    /**
+     * Texto da mensagem: marcador com o instante de envio, completado até messageSize
+     */
+    private String newMessage() {
+        StringBuilder text = new StringBuilder(Math.max(settings.messageSize, 32));
+        text.append(MARKER).append(System.nanoTime()).append("] ").append(username);
+        while (text.length() < settings.messageSize) {
+            text.append(' ').append('x');
+        }
+        return text.toString();
+    }
+    
+    private static long sentAt(String message) {
+        if (!message.startsWith(MARKER)) {
+            return -1;
+        }
+        int end = message.indexOf(']', MARKER.length());
+        if (end < 0) {
+            return -1;
+        }
+        try {
+            return Long.parseLong(message.substring(MARKER.length(), end));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+    
+    @Override
+    public void onEvents(EventBatch batch) throws RemoteException {
+        batch.dispatchTo(this);
+    }
+    
+    @Override
+    public void onMessageReceived(String username, String message) {
+        long sentAt = sentAt(message);
+        if (sentAt >= 0) {
+            stats.globalLatency.recordMicrosSince(sentAt);
+            stats.deliveries.increment();
+        }
+    }
+    
+    @Override
+    public void onGroupMessageReceived(String groupId, String groupName, String username, String message) {
+        long sentAt = sentAt(message);
+        if (sentAt >= 0) {
+            stats.groupLatency.recordMicrosSince(sentAt);
+            stats.deliveries.increment();
+        }
+    }
+    
+    @Override
+    public void onFileReceived(String username, String filename) {
+        Long start = stats.pendingUploads.remove(filename);
+        if (start != null) {
+            stats.uploads.increment();
+            stats.uploadLatency.record((System.nanoTime() - start) / 1_000_000);
+        }
+        if (filename.startsWith("lt-") && ThreadLocalRandom.current().nextDouble() < settings.downloadProbability) {
+            transfers.execute(() -> downloadFile(filename));
+        }
+    }
+    
+    @Override
+    public void onUsersUpdated(String[] users) {
+    }
+    
+    @Override
+    public void onPresenceChanged(long fromVersion, long toVersion, String[] joined, String[] left) {
+    }
+    
+    @Override
+    public void onGroupCreated(ChatService.GroupInfo groupInfo) {
+    }
+    
+    @Override
+    public void onGroupInviteReceived(String groupId, String groupName, String inviterUsername) {
+    }
+    
+    @Override
+    public void onJoinRequestReceived(String groupId, String groupName, String requestingUsername) {
+    }
+    
+    @Override
+    public void onGroupUpdated(String groupName, ChatService.GroupInfo groupInfo) {
+    }
+    
+    @Override
+    public void onGroupJoinRequestProcessed(String groupId, String groupName, boolean approved) {
+    }
+    
+    @Override
+    public void onAddedToGroup(String groupId, String groupName) {
+    }
+    
+    @Override
+    public void onRemovedFromGroup(String groupId, String groupName) {
+    }
+    
+    @Override
+    public void onGroupFileReceived(String groupId, String groupName, String username, String filename) {
+    }
+}
@@ -0,0 +1,35 @@
+package com.chatrmi.logging;
+
+/**
+ * Níveis de log, do mais detalhado ao mais grave
+ */
+public enum LogLevel {
+    DEBUG,
+    INFO,
+    WARN,
+    ERROR,
+    
+    /**
+     * Desativa todo o log (apenas como nível configurado)
+     */
+    OFF;
+    
+    /**
+     * Lê o nível de uma propriedade de sistema
+     * @param property Nome da propriedade
+     * @param defaultLevel Nível usado se a propriedade estiver ausente ou inválida
+     * @return Nível configurado
+     */
+    public static LogLevel fromSystemProperty(String property, LogLevel defaultLevel) {
+        String value = System.getProperty(property);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultLevel;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            System.err.println("[AVISO] Nível de log desconhecido: " + value + ". Usando " + defaultLevel);
+            return defaultLevel;
+        }
+    }
+}
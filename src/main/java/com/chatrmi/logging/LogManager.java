@@ -0,0 +1,242 @@
+package com.chatrmi.logging;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Configuração e thread de escrita do log
+ * Os eventos publicados pelos {@link Logger} passam por um {@link LogRing} e
+ * são formatados e gravados por uma única thread em segundo plano, no console
+ * e num arquivo com rotação. Configuração por propriedades de sistema:
+ * chatrmi.log.level (INFO), chatrmi.log.dir (logs; vazio desativa o arquivo),
+ * chatrmi.log.file (server.log), chatrmi.log.maxBytes (10 MB),
+ * chatrmi.log.maxFiles (5), chatrmi.log.console (true) e
+ * chatrmi.log.bufferSize (8192 eventos).
+ */
+public final class LogManager {
+    
+    private static final long MAX_IDLE_PARK_NANOS = 10_000_000L;
+    private static final DateTimeFormatter SECOND_FORMAT =
+        DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss").withZone(ZoneId.systemDefault());
+    
+    private static volatile LogLevel level = LogLevel.fromSystemProperty("chatrmi.log.level", LogLevel.INFO);
+    private static final LogRing RING = new LogRing(Integer.getInteger("chatrmi.log.bufferSize", 8192));
+    private static final boolean CONSOLE = Boolean.parseBoolean(System.getProperty("chatrmi.log.console", "true"));
+    private static final Writer WRITER = new Writer(openFileSink());
+    
+    static {
+        Thread thread = new Thread(WRITER, "async-logger");
+        thread.setDaemon(true);
+        WRITER.thread = thread;
+        thread.start();
+    }
+    
+    private LogManager() {
+    }
+    
+    public static LogLevel getLevel() {
+        return level;
+    }
+    
+    /**
+     * Altera o nível mínimo registrado, com efeito imediato em todos os loggers
+     */
+    public static void setLevel(LogLevel newLevel) {
+        level = newLevel;
+    }
+    
+    /**
+     * @return Quantidade de eventos descartados por buffer cheio
+     */
+    public static long getDroppedCount() {
+        return RING.getDroppedCount();
+    }
+    
+    /**
+     * Grava os eventos pendentes e encerra a thread de escrita
+     * Eventos publicados depois disso são gravados diretamente, na thread que os registra.
+     */
+    public static void shutdown() {
+        WRITER.stopping = true;
+        LockSupport.unpark(WRITER.thread);
+        try {
+            WRITER.thread.join(5000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    static void publish(Logger logger, LogLevel level, String pattern, int argCount,
+                        Object arg1, Object arg2, Object arg3, Object[] args) {
+        long timestamp = System.currentTimeMillis();
+        String threadName = Thread.currentThread().getName();
+        if (WRITER.stopping) {
+            LogRecord record = new LogRecord();
+            record.set(logger, level, timestamp, threadName, pattern, argCount, arg1, arg2, arg3, args);
+            WRITER.writeDirect(record);
+            return;
+        }
+        RING.offer(logger, level, timestamp, threadName, pattern, argCount, arg1, arg2, arg3, args);
+    }
+    
+    private static RollingFileSink openFileSink() {
+        String dir = System.getProperty("chatrmi.log.dir", "logs");
+        if (dir.trim().isEmpty()) {
+            return null;
+        }
+        try {
+            return new RollingFileSink(new File(dir), System.getProperty("chatrmi.log.file", "server.log"),
+                Long.getLong("chatrmi.log.maxBytes", 10L * 1024 * 1024), Integer.getInteger("chatrmi.log.maxFiles", 5));
+        } catch (IOException e) {
+            System.err.println("[AVISO] Log em arquivo desativado: " + e.getMessage());
+            return null;
+        }
+    }
+    
+    /**
+     * Thread de escrita: consome o buffer em ordem, formata e grava
+     */
+    private static final class Writer implements Runnable {
+        private final StringBuilder line = new StringBuilder(256);
+        private RollingFileSink file;
+        private Thread thread;
+        private volatile boolean stopping;
+        private long reportedDrops;
+        private long cachedSecond = Long.MIN_VALUE;
+        private String cachedSecondText;
+        
+        Writer(RollingFileSink file) {
+            this.file = file;
+        }
+        
+        @Override
+        public void run() {
+            long next = 0;
+            long parkNanos = 0;
+            while (true) {
+                LogRecord record = RING.peek(next);
+                // O lock (sem disputa enquanto a thread roda) protege o builder e o
+                // arquivo de writeDirect durante o encerramento
+                if (record != null) {
+                    synchronized (this) {
+                        write(record);
+                    }
+                    RING.release(next++);
+                    parkNanos = 0;
+                    continue;
+                }
+                synchronized (this) {
+                    reportDrops();
+                    flush();
+                }
+                if (stopping && RING.isDrained(next)) {
+                    break;
+                }
+                // Espera crescente: reage rápido a rajadas e quase não usa CPU parado
+                parkNanos = Math.min(MAX_IDLE_PARK_NANOS, Math.max(50_000L, parkNanos * 2));
+                LockSupport.parkNanos(this, parkNanos);
+            }
+            synchronized (this) {
+                closeFile();
+            }
+        }
+        
+        /**
+         * Grava um evento fora da thread de escrita (após o encerramento)
+         */
+        synchronized void writeDirect(LogRecord record) {
+            write(record);
+            flush();
+        }
+        
+        private void write(LogRecord record) {
+            line.setLength(0);
+            appendTimestamp(record.timestamp);
+            line.append(' ').append(record.level.name());
+            if (record.level.name().length() == 4) {
+                line.append(' ');
+            }
+            line.append(" [").append(record.threadName).append("] ")
+                .append(record.logger.getName()).append(" - ");
+            Throwable error = MessageFormatter.format(line, record);
+            line.append(System.lineSeparator());
+            if (error != null) {
+                StringWriter trace = new StringWriter();
+                error.printStackTrace(new PrintWriter(trace));
+                line.append(trace);
+            }
+            emit(record.level, line);
+        }
+        
+        private void appendTimestamp(long timestamp) {
+            long second = timestamp / 1000;
+            if (second != cachedSecond) {
+                cachedSecond = second;
+                cachedSecondText = SECOND_FORMAT.format(Instant.ofEpochSecond(second));
+            }
+            int millis = (int) (timestamp % 1000);
+            line.append(cachedSecondText).append('.');
+            if (millis < 100) {
+                line.append('0');
+            }
+            if (millis < 10) {
+                line.append('0');
+            }
+            line.append(millis);
+        }
+        
+        private void emit(LogLevel level, CharSequence text) {
+            if (CONSOLE) {
+                (level.compareTo(LogLevel.WARN) >= 0 ? System.err : System.out).print(text);
+            }
+            if (file != null) {
+                try {
+                    file.write(text);
+                } catch (IOException e) {
+                    System.err.println("[AVISO] Falha ao gravar o arquivo de log, gravação em arquivo desativada: " + e.getMessage());
+                    closeFile();
+                }
+            }
+        }
+        
+        private void reportDrops() {
+            long drops = RING.getDroppedCount();
+            if (drops > reportedDrops) {
+                line.setLength(0);
+                appendTimestamp(System.currentTimeMillis());
+                line.append(" WARN  [async-logger] LogManager - ").append(drops - reportedDrops)
+                    .append(" evento(s) de log descartados (buffer de ").append(RING.capacity())
+                    .append(" cheio)").append(System.lineSeparator());
+                emit(LogLevel.WARN, line);
+                reportedDrops = drops;
+            }
+        }
+        
+        private void flush() {
+            if (file != null) {
+                try {
+                    file.flush();
+                } catch (IOException e) {
+                    System.err.println("[AVISO] Falha ao gravar o arquivo de log: " + e.getMessage());
+                }
+            }
+        }
+        
+        private void closeFile() {
+            if (file != null) {
+                try {
+                    file.close();
+                } catch (IOException e) {
+                    // Nada a fazer: o log em arquivo já está sendo desativado
+                }
+                file = null;
+            }
+        }
+    }
+}
@@ -0,0 +1,53 @@
+package com.chatrmi.logging;
+
+/**
+ * Posição do buffer circular de log, reutilizada a cada volta
+ */
+final class LogRecord {
+    Logger logger;
+    LogLevel level;
+    long timestamp;
+    String threadName;
+    String pattern;
+    int argCount;
+    Object arg1;
+    Object arg2;
+    Object arg3;
+    Object[] args; // usado quando há mais de 3 parâmetros
+    
+    void set(Logger logger, LogLevel level, long timestamp, String threadName, String pattern,
+             int argCount, Object arg1, Object arg2, Object arg3, Object[] args) {
+        this.logger = logger;
+        this.level = level;
+        this.timestamp = timestamp;
+        this.threadName = threadName;
+        this.pattern = pattern;
+        this.argCount = argCount;
+        this.arg1 = arg1;
+        this.arg2 = arg2;
+        this.arg3 = arg3;
+        this.args = args;
+    }
+    
+    Object arg(int index) {
+        if (args != null) {
+            return args[index];
+        }
+        switch (index) {
+            case 0: return arg1;
+            case 1: return arg2;
+            default: return arg3;
+        }
+    }
+    
+    /**
+     * Solta as referências aos parâmetros, para não prendê-los na memória até a próxima volta
+     */
+    void clear() {
+        arg1 = null;
+        arg2 = null;
+        arg3 = null;
+        args = null;
+        pattern = null;
+    }
+}
@@ -0,0 +1,89 @@
+package com.chatrmi.logging;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Buffer circular sem locks com vários produtores e um consumidor
+ * Cada produtor reserva uma sequência com CAS, preenche a posição
+ * correspondente (pré-alocada) e a publica gravando a sequência em published.
+ * O consumidor (a thread de escrita) lê as sequências em ordem e libera as
+ * posições avançando consumed. Com o buffer cheio o evento é descartado e
+ * contado: a thread que registra o log nunca espera pelo disco ou console.
+ */
+final class LogRing {
+    
+    private final LogRecord[] records;
+    private final int mask;
+    private final AtomicLongArray published; // sequência publicada em cada posição
+    private final AtomicLong claimed = new AtomicLong(); // próxima sequência a reservar
+    private final AtomicLong dropped = new AtomicLong();
+    private volatile long consumed; // sequências menores já foram lidas
+    
+    LogRing(int capacity) {
+        int size = 16;
+        while (size < capacity) {
+            size <<= 1; // potência de 2: a posição é seq & mask
+        }
+        this.records = new LogRecord[size];
+        this.mask = size - 1;
+        this.published = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            records[i] = new LogRecord();
+            published.set(i, -1);
+        }
+    }
+    
+    /**
+     * Publica um evento
+     * @return false se o buffer estava cheio e o evento foi descartado
+     */
+    boolean offer(Logger logger, LogLevel level, long timestamp, String threadName, String pattern,
+                  int argCount, Object arg1, Object arg2, Object arg3, Object[] args) {
+        long seq;
+        do {
+            seq = claimed.get();
+            if (seq - consumed >= records.length) {
+                dropped.incrementAndGet();
+                return false;
+            }
+        } while (!claimed.compareAndSet(seq, seq + 1));
+        
+        int index = (int) (seq & mask);
+        records[index].set(logger, level, timestamp, threadName, pattern, argCount, arg1, arg2, arg3, args);
+        published.lazySet(index, seq); // escrita com release: o consumidor vê a posição preenchida
+        return true;
+    }
+    
+    /**
+     * @param seq Próxima sequência esperada pelo consumidor
+     * @return Evento publicado com essa sequência, ou null se ainda não houver
+     */
+    LogRecord peek(long seq) {
+        int index = (int) (seq & mask);
+        return published.get(index) == seq ? records[index] : null;
+    }
+    
+    /**
+     * Libera a posição da sequência lida para os produtores
+     */
+    void release(long seq) {
+        records[(int) (seq & mask)].clear();
+        consumed = seq + 1;
+    }
+    
+    /**
+     * @return true se nenhuma sequência foi reservada além de seq
+     */
+    boolean isDrained(long seq) {
+        return claimed.get() <= seq;
+    }
+    
+    long getDroppedCount() {
+        return dropped.get();
+    }
+    
+    int capacity() {
+        return records.length;
+    }
+}
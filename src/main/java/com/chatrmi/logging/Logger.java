@@ -0,0 +1,136 @@
+package com.chatrmi.logging;
+
+/**
+ * Ponto de entrada do log para uma classe
+ * As mensagens usam {} como marcador de parâmetro e são formatadas apenas na
+ * thread de escrita, e só se o nível estiver ativo: chamar log.info("[{}]: {}",
+ * user, message) numa thread RMI custa uma verificação de nível e a cópia das
+ * referências para o buffer circular. Os parâmetros devem ser imutáveis (ou não
+ * ser alterados depois), pois são lidos mais tarde. Um Throwable passado como
+ * último parâmetro, sem marcador correspondente, tem seu stack trace registrado.
+ *
+ * As variantes de 1 a 3 parâmetros evitam a alocação do array de varargs.
+ */
+public final class Logger {
+    
+    private final String name;
+    
+    Logger(String name) {
+        this.name = name;
+    }
+    
+    /**
+     * @param type Classe dona do log
+     * @return Logger identificado pelo nome simples da classe
+     */
+    public static Logger get(Class<?> type) {
+        return new Logger(type.getSimpleName());
+    }
+    
+    public String getName() {
+        return name;
+    }
+    
+    public boolean isEnabled(LogLevel level) {
+        return level.compareTo(LogManager.getLevel()) >= 0 && level != LogLevel.OFF;
+    }
+    
+    public boolean isDebugEnabled() {
+        return isEnabled(LogLevel.DEBUG);
+    }
+    
+    // ========== DEBUG ==========
+    
+    public void debug(String message) {
+        log(LogLevel.DEBUG, message, 0, null, null, null, null);
+    }
+    
+    public void debug(String pattern, Object arg) {
+        log(LogLevel.DEBUG, pattern, 1, arg, null, null, null);
+    }
+    
+    public void debug(String pattern, Object arg1, Object arg2) {
+        log(LogLevel.DEBUG, pattern, 2, arg1, arg2, null, null);
+    }
+    
+    public void debug(String pattern, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.DEBUG, pattern, 3, arg1, arg2, arg3, null);
+    }
+    
+    public void debug(String pattern, Object... args) {
+        log(LogLevel.DEBUG, pattern, args.length, null, null, null, args);
+    }
+    
+    // ========== INFO ==========
+    
+    public void info(String message) {
+        log(LogLevel.INFO, message, 0, null, null, null, null);
+    }
+    
+    public void info(String pattern, Object arg) {
+        log(LogLevel.INFO, pattern, 1, arg, null, null, null);
+    }
+    
+    public void info(String pattern, Object arg1, Object arg2) {
+        log(LogLevel.INFO, pattern, 2, arg1, arg2, null, null);
+    }
+    
+    public void info(String pattern, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.INFO, pattern, 3, arg1, arg2, arg3, null);
+    }
+    
+    public void info(String pattern, Object... args) {
+        log(LogLevel.INFO, pattern, args.length, null, null, null, args);
+    }
+    
+    // ========== WARN ==========
+    
+    public void warn(String message) {
+        log(LogLevel.WARN, message, 0, null, null, null, null);
+    }
+    
+    public void warn(String pattern, Object arg) {
+        log(LogLevel.WARN, pattern, 1, arg, null, null, null);
+    }
+    
+    public void warn(String pattern, Object arg1, Object arg2) {
+        log(LogLevel.WARN, pattern, 2, arg1, arg2, null, null);
+    }
+    
+    public void warn(String pattern, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.WARN, pattern, 3, arg1, arg2, arg3, null);
+    }
+    
+    public void warn(String pattern, Object... args) {
+        log(LogLevel.WARN, pattern, args.length, null, null, null, args);
+    }
+    
+    // ========== ERROR ==========
+    
+    public void error(String message) {
+        log(LogLevel.ERROR, message, 0, null, null, null, null);
+    }
+    
+    public void error(String pattern, Object arg) {
+        log(LogLevel.ERROR, pattern, 1, arg, null, null, null);
+    }
+    
+    public void error(String pattern, Object arg1, Object arg2) {
+        log(LogLevel.ERROR, pattern, 2, arg1, arg2, null, null);
+    }
+    
+    public void error(String pattern, Object arg1, Object arg2, Object arg3) {
+        log(LogLevel.ERROR, pattern, 3, arg1, arg2, arg3, null);
+    }
+    
+    public void error(String pattern, Object... args) {
+        log(LogLevel.ERROR, pattern, args.length, null, null, null, args);
+    }
+    
+    private void log(LogLevel level, String pattern, int argCount, Object arg1, Object arg2, Object arg3, Object[] args) {
+        if (!isEnabled(level)) {
+            return;
+        }
+        LogManager.publish(this, level, pattern, argCount, arg1, arg2, arg3, args);
+    }
+}
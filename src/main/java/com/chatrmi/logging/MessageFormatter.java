@@ -0,0 +1,52 @@
+package com.chatrmi.logging;
+
+import java.util.Arrays;
+
+/**
+ * Substitui os marcadores {} de uma mensagem pelos parâmetros
+ */
+final class MessageFormatter {
+    
+    private MessageFormatter() {
+    }
+    
+    /**
+     * Formata a mensagem do evento no fim do builder
+     * @return Throwable passado como último parâmetro sem marcador, ou null
+     */
+    static Throwable format(StringBuilder out, LogRecord record) {
+        String pattern = record.pattern;
+        if (pattern == null) {
+            out.append("null");
+            return null;
+        }
+        int next = 0;
+        int start = 0;
+        while (next < record.argCount) {
+            int marker = pattern.indexOf("{}", start);
+            if (marker < 0) {
+                break;
+            }
+            out.append(pattern, start, marker);
+            appendValue(out, record.arg(next++));
+            start = marker + 2;
+        }
+        out.append(pattern, start, pattern.length());
+        
+        if (next < record.argCount) {
+            Object last = record.arg(record.argCount - 1);
+            if (last instanceof Throwable) {
+                return (Throwable) last;
+            }
+        }
+        return null;
+    }
+    
+    private static void appendValue(StringBuilder out, Object value) {
+        if (value instanceof Object[]) {
+            out.append(Arrays.deepToString((Object[]) value));
+        } else {
+            out.append(value);
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package com.chatrmi.logging;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Arquivo de log com rotação por tamanho
+ * Ao passar de maxBytes, server.log vira server.log.1, server.log.1 vira
+ * server.log.2 e assim por diante, mantendo no máximo maxFiles arquivos antigos.
+ * Usado apenas pela thread de escrita.
+ */
+final class RollingFileSink {
+    
+    private final File dir;
+    private final String fileName;
+    private final long maxBytes;
+    private final int maxFiles;
+    private OutputStream out;
+    private long size;
+    
+    RollingFileSink(File dir, String fileName, long maxBytes, int maxFiles) throws IOException {
+        this.dir = dir;
+        this.fileName = fileName;
+        this.maxBytes = Math.max(1024, maxBytes);
+        this.maxFiles = Math.max(1, maxFiles);
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Não foi possível criar o diretório de log " + dir);
+        }
+        open();
+    }
+    
+    void write(CharSequence text) throws IOException {
+        byte[] bytes = text.toString().getBytes(StandardCharsets.UTF_8);
+        if (size > 0 && size + bytes.length > maxBytes) {
+            rotate();
+        }
+        out.write(bytes);
+        size += bytes.length;
+    }
+    
+    void flush() throws IOException {
+        out.flush();
+    }
+    
+    void close() throws IOException {
+        out.close();
+    }
+    
+    private void open() throws IOException {
+        File file = new File(dir, fileName);
+        out = new BufferedOutputStream(new FileOutputStream(file, true), 1 << 16);
+        size = file.length();
+    }
+    
+    private void rotate() throws IOException {
+        out.close();
+        new File(dir, fileName + "." + maxFiles).delete();
+        for (int i = maxFiles - 1; i >= 1; i--) {
+            File older = new File(dir, fileName + "." + i);
+            if (older.exists()) {
+                older.renameTo(new File(dir, fileName + "." + (i + 1)));
+            }
+        }
+        new File(dir, fileName).renameTo(new File(dir, fileName + ".1"));
+        open();
+    }
+}
@@ -0,0 +1,24 @@
+package com.chatrmi.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Contador monotônico, barato sob concorrência (LongAdder)
+ */
+public final class Counter implements CounterMXBean {
+    
+    private final LongAdder count = new LongAdder();
+    
+    public void increment() {
+        count.increment();
+    }
+    
+    public void add(long amount) {
+        count.add(amount);
+    }
+    
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+}
@@ -0,0 +1,8 @@
+package com.chatrmi.metrics;
+
+/**
+ * Contador exposto via JMX
+ */
+public interface CounterMXBean {
+    long getCount();
+}
@@ -0,0 +1,20 @@
+package com.chatrmi.metrics;
+
+import java.util.function.LongSupplier;
+
+/**
+ * Medidor lido sob demanda de uma fonte (ex.: quantidade de clientes conectados)
+ */
+public final class Gauge implements GaugeMXBean {
+    
+    private final LongSupplier source;
+    
+    Gauge(LongSupplier source) {
+        this.source = source;
+    }
+    
+    @Override
+    public long getValue() {
+        return source.getAsLong();
+    }
+}
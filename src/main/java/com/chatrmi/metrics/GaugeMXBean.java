@@ -0,0 +1,8 @@
+package com.chatrmi.metrics;
+
+/**
+ * Medidor exposto via JMX
+ */
+public interface GaugeMXBean {
+    long getValue();
+}
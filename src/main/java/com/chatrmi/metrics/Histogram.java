@@ -0,0 +1,165 @@
+package com.chatrmi.metrics;
+
+import com.chatrmi.interfaces.ChatService;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histograma de valores não negativos com buckets log-lineares (estilo HDR)
+ * Valores abaixo de 128 têm bucket próprio; acima disso cada potência de 2 é
+ * dividida em 64 buckets, o que limita o erro relativo dos percentis a menos
+ * de 1,6% com memória fixa (~30 KB) para toda a faixa de long. Gravar um valor
+ * custa um incremento atômico no bucket e dois no total, sem locks nem alocação.
+ */
+public final class Histogram implements HistogramMXBean {
+    
+    private static final int SUB_BUCKET_BITS = 7;
+    private static final int SUB_BUCKET_HALF = 1 << (SUB_BUCKET_BITS - 1); // 64
+    private static final int BUCKET_COUNT = (64 - SUB_BUCKET_BITS + 1) * SUB_BUCKET_HALF + SUB_BUCKET_HALF;
+    
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKET_COUNT);
+    private final LongAdder count = new LongAdder();
+    private final LongAdder sum = new LongAdder();
+    private final AtomicLong min = new AtomicLong(Long.MAX_VALUE);
+    private final AtomicLong max = new AtomicLong(Long.MIN_VALUE);
+    
+    /**
+     * Registra um valor (negativos contam como 0)
+     */
+    public void record(long value) {
+        long v = Math.max(0, value);
+        buckets.incrementAndGet(indexOf(v));
+        count.increment();
+        sum.add(v);
+        if (v < min.get()) {
+            min.accumulateAndGet(v, Math::min);
+        }
+        if (v > max.get()) {
+            max.accumulateAndGet(v, Math::max);
+        }
+    }
+    
+    /**
+     * Registra uma duração medida com System.nanoTime, em microssegundos
+     * @param startNanos Início da medição
+     */
+    public void recordMicrosSince(long startNanos) {
+        record((System.nanoTime() - startNanos) / 1000);
+    }
+    
+    static int indexOf(long value) {
+        if (value < 2 * SUB_BUCKET_HALF) {
+            return (int) value;
+        }
+        int shift = 63 - Long.numberOfLeadingZeros(value) - (SUB_BUCKET_BITS - 1);
+        return shift * SUB_BUCKET_HALF + (int) (value >>> shift);
+    }
+    
+    /**
+     * @return Maior valor que cai no mesmo bucket do índice
+     */
+    static long highestEquivalentValue(int index) {
+        if (index < 2 * SUB_BUCKET_HALF) {
+            return index;
+        }
+        int shift = index / SUB_BUCKET_HALF - 1;
+        long subBucket = index - shift * SUB_BUCKET_HALF;
+        return ((subBucket + 1) << shift) - 1;
+    }
+    
+    @Override
+    public long getCount() {
+        return count.sum();
+    }
+    
+    @Override
+    public long getMin() {
+        long value = min.get();
+        return value == Long.MAX_VALUE ? 0 : value;
+    }
+    
+    @Override
+    public long getMax() {
+        long value = max.get();
+        return value == Long.MIN_VALUE ? 0 : value;
+    }
+    
+    @Override
+    public double getMean() {
+        long n = count.sum();
+        return n == 0 ? 0 : (double) sum.sum() / n;
+    }
+    
+    @Override
+    public long getP50() {
+        return getPercentile(50);
+    }
+    
+    @Override
+    public long getP90() {
+        return getPercentile(90);
+    }
+    
+    @Override
+    public long getP99() {
+        return getPercentile(99);
+    }
+    
+    @Override
+    public long getP999() {
+        return getPercentile(99.9);
+    }
+    
+    /**
+     * @param percentile Percentil entre 0 e 100
+     * @return Valor do percentil (limite superior do bucket, nunca acima do máximo)
+     */
+    public long getPercentile(double percentile) {
+        long[] counts = copyBuckets();
+        return percentile(counts, total(counts), percentile);
+    }
+    
+    /**
+     * @return Resumo com todos os percentis calculados sobre a mesma cópia dos buckets
+     */
+    public ChatService.HistogramStats getStats() {
+        long[] counts = copyBuckets();
+        long total = total(counts);
+        return new ChatService.HistogramStats(total, getMin(), getMax(), getMean(),
+            percentile(counts, total, 50), percentile(counts, total, 90),
+            percentile(counts, total, 99), percentile(counts, total, 99.9));
+    }
+    
+    private long[] copyBuckets() {
+        long[] counts = new long[BUCKET_COUNT];
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] = buckets.get(i);
+        }
+        return counts;
+    }
+    
+    private static long total(long[] counts) {
+        long total = 0;
+        for (long c : counts) {
+            total += c;
+        }
+        return total;
+    }
+    
+    private long percentile(long[] counts, long total, double percentile) {
+        if (total == 0) {
+            return 0;
+        }
+        long rank = Math.max(1, (long) Math.ceil(total * Math.min(100, percentile) / 100));
+        long seen = 0;
+        for (int i = 0; i < counts.length; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                return Math.min(highestEquivalentValue(i), getMax());
+            }
+        }
+        return getMax();
+    }
+}
@@ -0,0 +1,15 @@
+package com.chatrmi.metrics;
+
+/**
+ * Histograma exposto via JMX (valores na unidade do nome da métrica)
+ */
+public interface HistogramMXBean {
+    long getCount();
+    long getMin();
+    long getMax();
+    double getMean();
+    long getP50();
+    long getP90();
+    long getP99();
+    long getP999();
+}
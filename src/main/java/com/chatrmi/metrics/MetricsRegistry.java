@@ -0,0 +1,100 @@
+package com.chatrmi.metrics;
+
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.logging.Logger;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongSupplier;
+
+/**
+ * Registro das métricas do servidor
+ * As métricas são criadas sob demanda pelo nome e podem ser guardadas em
+ * campos pelos componentes que as atualizam. Depois de registerMBeans, cada
+ * métrica (inclusive as criadas depois) é publicada via JMX como
+ * com.chatrmi:type=Counter|Gauge|Histogram,name=...
+ */
+public class MetricsRegistry {
+    
+    private static final Logger log = Logger.get(MetricsRegistry.class);
+    private static final String DOMAIN = "com.chatrmi";
+    
+    private final Map<String, Counter> counters = new ConcurrentHashMap<>();
+    private final Map<String, Gauge> gauges = new ConcurrentHashMap<>();
+    private final Map<String, Histogram> histograms = new ConcurrentHashMap<>();
+    private volatile MBeanServer mbeanServer;
+    
+    public Counter counter(String name) {
+        Counter existing = counters.get(name);
+        return existing != null ? existing : register(counters, name, new Counter(), "Counter");
+    }
+    
+    public Histogram histogram(String name) {
+        Histogram existing = histograms.get(name);
+        return existing != null ? existing : register(histograms, name, new Histogram(), "Histogram");
+    }
+    
+    /**
+     * Registra (ou substitui) um medidor
+     * @param name Nome da métrica
+     * @param source Fonte do valor, lida a cada consulta
+     */
+    public void gauge(String name, LongSupplier source) {
+        Gauge gauge = new Gauge(source);
+        gauges.put(name, gauge);
+        publish("Gauge", name, gauge);
+    }
+    
+    /**
+     * Publica as métricas existentes e as futuras num servidor JMX
+     * @param server Servidor de MBeans (normalmente o da plataforma)
+     */
+    public synchronized void registerMBeans(MBeanServer server) {
+        this.mbeanServer = server;
+        counters.forEach((name, counter) -> publish("Counter", name, counter));
+        gauges.forEach((name, gauge) -> publish("Gauge", name, gauge));
+        histograms.forEach((name, histogram) -> publish("Histogram", name, histogram));
+    }
+    
+    /**
+     * @return Valores atuais de todas as métricas, ordenados pelo nome
+     */
+    public ChatService.ServerStats getStats() {
+        Map<String, Long> counterValues = new TreeMap<>();
+        counters.forEach((name, counter) -> counterValues.put(name, counter.getCount()));
+        Map<String, Long> gaugeValues = new TreeMap<>();
+        gauges.forEach((name, gauge) -> gaugeValues.put(name, gauge.getValue()));
+        Map<String, ChatService.HistogramStats> histogramValues = new TreeMap<>();
+        histograms.forEach((name, histogram) -> histogramValues.put(name, histogram.getStats()));
+        return new ChatService.ServerStats(System.currentTimeMillis(), counterValues, gaugeValues, histogramValues);
+    }
+    
+    private <T> T register(Map<String, T> metrics, String name, T metric, String type) {
+        T existing = metrics.putIfAbsent(name, metric);
+        if (existing != null) {
+            return existing;
+        }
+        publish(type, name, metric);
+        return metric;
+    }
+    
+    private synchronized void publish(String type, String name, Object metric) {
+        MBeanServer server = mbeanServer;
+        if (server == null) {
+            return;
+        }
+        try {
+            ObjectName objectName = new ObjectName(DOMAIN + ":type=" + type + ",name=" + name);
+            if (server.isRegistered(objectName)) {
+                server.unregisterMBean(objectName);
+            }
+            server.registerMBean(metric, objectName);
+        } catch (JMException e) {
+            log.warn("Falha ao registrar a métrica {} via JMX: {}", name, e.getMessage());
+        }
+    }
+}
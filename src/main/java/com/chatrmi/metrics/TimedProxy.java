@@ -0,0 +1,74 @@
+package com.chatrmi.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Proxy que mede cada método de uma interface
+ * Para cada método m são mantidos o histograma prefixo.m.micros (latência de
+ * todas as chamadas) e o contador prefixo.m.errors (chamadas que lançaram
+ * exceção). Usado para instrumentar todos os métodos de ChatService sem
+ * repetir a medição em cada um deles.
+ */
+public final class TimedProxy implements InvocationHandler {
+    
+    private final Object target;
+    private final Map<Method, Histogram> latencies = new HashMap<>();
+    private final Map<Method, Counter> errors = new HashMap<>();
+    
+    private TimedProxy(Object target, Class<?> type, MetricsRegistry metrics, String prefix) {
+        this.target = target;
+        // Métricas criadas antecipadamente: o mapa só é lido depois da construção
+        for (Method method : type.getMethods()) {
+            latencies.put(method, metrics.histogram(prefix + "." + method.getName() + ".micros"));
+            errors.put(method, metrics.counter(prefix + "." + method.getName() + ".errors"));
+        }
+    }
+    
+    /**
+     * @param type Interface a instrumentar
+     * @param target Implementação real
+     * @param metrics Registro onde as métricas são criadas
+     * @param prefix Prefixo dos nomes das métricas (ex.: rpc)
+     * @return Proxy que implementa type e delega para target
+     */
+    public static <T> T wrap(Class<T> type, T target, MetricsRegistry metrics, String prefix) {
+        TimedProxy handler = new TimedProxy(target, type, metrics, prefix);
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] {type}, handler));
+    }
+    
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        Histogram latency = latencies.get(method);
+        if (latency == null) {
+            return invokeObjectMethod(proxy, method, args);
+        }
+        long start = System.nanoTime();
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            errors.get(method).increment();
+            throw e.getCause();
+        } finally {
+            latency.recordMicrosSince(start);
+        }
+    }
+    
+    /**
+     * equals, hashCode e toString: identidade do próprio proxy
+     */
+    private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+        switch (method.getName()) {
+            case "equals":
+                return proxy == args[0];
+            case "hashCode":
+                return System.identityHashCode(proxy);
+            default:
+                return "TimedProxy[" + target + "]";
+        }
+    }
+}
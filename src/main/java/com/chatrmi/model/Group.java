@@ -1,26 +1,70 @@
 package com.chatrmi.model;
 
-import java.io.Serializable;
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.interfaces.WireFormat;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * Classe que representa um grupo de chat
+ * Os membros são guardados como IDs do {@link UserDictionary} em um array
+ * ordenado (4 bytes por membro). Alterações acontecem com o lock do grupo e
+ * publicam um array novo; o publicado nunca muda, então {@link #isMember}
+ * faz a busca binária sem lock, mesmo enquanto uma alteração grava no WAL com
+ * o lock do grupo. As solicitações
+ * ficam em um mapa concorrente indexado por nome. A lista de nomes dos membros
+ * e o GroupInfo enviado aos clientes são publicados como um snapshot imutável,
+ * reconstruído apenas quando a versão do grupo muda.
+ * Codificação própria (ver {@link WireFormat}): versão de formato, id, nome,
+ * dono, versão do grupo, membros e solicitações pendentes.
  */
-public class Group implements Serializable {
+public class Group implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final int WIRE_VERSION = 1;
+    private static final int[] NO_MEMBERS = new int[0];
     private String groupId;
     private String groupName;
     private String owner;
-    private List<String> members;
-    private List<GroupRequest> pendingRequests;
+    private UserDictionary users;
+    private volatile int[] memberIds = NO_MEMBERS; // ordenado e imutável; trocado inteiro a cada alteração
+    private Map<String, GroupRequest> pendingRequests; // username -> solicitação
+    private AtomicLong version; // incrementada a cada alteração de membros
+    private transient volatile Snapshot snapshot;
+    
+    /**
+     * Usado apenas na desserialização
+     */
+    public Group() {
+    }
     
+    /**
+     * Cria um grupo com um dicionário de usuários próprio
+     */
     public Group(String groupId, String groupName, String owner) {
+        this(groupId, groupName, owner, new UserDictionary());
+    }
+    
+    /**
+     * @param users Dicionário de onde saem os IDs dos membros (o do servidor)
+     */
+    public Group(String groupId, String groupName, String owner, UserDictionary users) {
         this.groupId = groupId;
         this.groupName = groupName;
         this.owner = owner;
-        this.members = new ArrayList<>();
-        this.members.add(owner); // Dono é automaticamente membro
-        this.pendingRequests = new ArrayList<>();
+        this.users = users;
+        this.pendingRequests = new ConcurrentHashMap<>();
+        this.version = new AtomicLong();
+        insertMember(users.intern(owner)); // Dono é automaticamente membro
     }
     
     public String getGroupId() {
@@ -35,12 +79,66 @@ public class Group implements Serializable {
         return owner;
     }
     
+    /**
+     * Retorna os membros do grupo
+     * @return Lista imutável compartilhada entre leitores; não deve ser copiada para iterar
+     */
     public List<String> getMembers() {
-        return new ArrayList<>(members);
+        return currentSnapshot().members;
+    }
+    
+    /**
+     * Retorna o resumo do grupo usado nas páginas do diretório
+     * @return Instância imutável compartilhada entre todas as leituras da mesma versão
+     */
+    public ChatService.GroupSummary getSummary() {
+        return currentSnapshot().summary;
+    }
+    
+    /**
+     * Retorna as informações do grupo para envio aos clientes
+     * @return Instância imutável compartilhada entre todas as leituras da mesma versão
+     */
+    public ChatService.GroupInfo getInfo() {
+        return currentSnapshot().info;
+    }
+    
+    private Snapshot currentSnapshot() {
+        Snapshot cached = snapshot;
+        if (cached != null && cached.version == version.get()) {
+            return cached;
+        }
+        // Sem lock: a versão é lida antes dos membros e as alterações publicam os
+        // membros antes de incrementá-la, então o array é no mínimo dessa versão
+        long current = version.get();
+        int[] ids = memberIds;
+        // O array é compartilhado: nem a lista nem o GroupInfo o expõem para escrita
+        String[] memberArray = new String[ids.length];
+        for (int i = 0; i < memberArray.length; i++) {
+            memberArray[i] = users.nameOf(ids[i]);
+        }
+        cached = new Snapshot(current,
+            Collections.unmodifiableList(Arrays.asList(memberArray)),
+            new ChatService.GroupInfo(groupId, groupName, owner, memberArray),
+            new ChatService.GroupSummary(groupId, groupName, owner, memberArray.length));
+        snapshot = cached;
+        return cached;
+    }
+    
+    public int getMemberCount() {
+        return memberIds.length;
+    }
+    
+    /**
+     * Versão do grupo, incrementada a cada entrada ou saída de membro
+     * @return Versão atual
+     */
+    public long getVersion() {
+        return version.get();
     }
     
     public List<GroupRequest> getPendingRequests() {
-        return new ArrayList<>(pendingRequests);
+        return new ArrayList<>(pendingRequests.values());
     }
     
     public boolean isOwner(String username) {
@@ -48,34 +146,152 @@ public class Group implements Serializable {
     }
     
     public boolean isMember(String username) {
-        return members.contains(username);
+        int id = users.idOf(username);
+        return id >= 0 && Arrays.binarySearch(memberIds, id) >= 0;
     }
     
-    public void addMember(String username) {
-        if (!members.contains(username)) {
-            members.add(username);
+    /**
+     * Adiciona um membro
+     * @return true se o usuário ainda não era membro
+     */
+    public synchronized boolean addMember(String username) {
+        if (insertMember(users.intern(username))) {
+            version.incrementAndGet();
+            return true;
         }
+        return false;
     }
     
-    public void removeMember(String username) {
-        members.remove(username);
+    /**
+     * Remove um membro
+     * @return true se o usuário era membro
+     */
+    public synchronized boolean removeMember(String username) {
+        int id = users.idOf(username);
+        int[] current = memberIds;
+        int pos = id < 0 ? -1 : Arrays.binarySearch(current, id);
+        if (pos < 0) {
+            return false;
+        }
+        int[] updated = new int[current.length - 1];
+        System.arraycopy(current, 0, updated, 0, pos);
+        System.arraycopy(current, pos + 1, updated, pos, current.length - pos - 1);
+        memberIds = updated;
+        version.incrementAndGet();
+        return true;
+    }
+    
+    /**
+     * Chamar com o lock do grupo (ou antes de o grupo ser publicado)
+     */
+    private boolean insertMember(int id) {
+        int[] current = memberIds;
+        int pos = Arrays.binarySearch(current, id);
+        if (pos >= 0) {
+            return false;
+        }
+        int insertAt = -pos - 1;
+        int[] updated = new int[current.length + 1];
+        System.arraycopy(current, 0, updated, 0, insertAt);
+        updated[insertAt] = id;
+        System.arraycopy(current, insertAt, updated, insertAt + 1, current.length - insertAt);
+        memberIds = updated;
+        return true;
     }
     
     public void addRequest(GroupRequest request) {
-        // Verifica se já existe uma solicitação deste usuário
-        pendingRequests.removeIf(r -> r.getUsername().equals(request.getUsername()));
-        pendingRequests.add(request);
+        // Substitui uma solicitação anterior do mesmo usuário
+        pendingRequests.put(request.getUsername(), request);
     }
     
-    public void removeRequest(String username) {
-        pendingRequests.removeIf(r -> r.getUsername().equals(username));
+    /**
+     * Adiciona uma solicitação apenas se o usuário ainda não tiver uma pendente
+     * @return true se a solicitação foi adicionada
+     */
+    public boolean addRequestIfAbsent(GroupRequest request) {
+        return pendingRequests.putIfAbsent(request.getUsername(), request) == null;
+    }
+    
+    /**
+     * Remove a solicitação de um usuário
+     * @return Solicitação removida, ou null se não havia
+     */
+    public GroupRequest removeRequest(String username) {
+        return pendingRequests.remove(username);
     }
     
     public GroupRequest getRequest(String username) {
-        return pendingRequests.stream()
-            .filter(r -> r.getUsername().equals(username))
-            .findFirst()
-            .orElse(null);
+        return pendingRequests.get(username);
+    }
+    
+    /**
+     * Cópia independente do grupo, igual à desserializada (dicionário próprio)
+     * @return Grupo com os mesmos membros, solicitações e versão
+     */
+    public synchronized Group copy() {
+        Group copy = new Group(groupId, groupName, owner);
+        for (String member : getMembers()) {
+            copy.addMember(member);
+        }
+        copy.pendingRequests.putAll(pendingRequests);
+        copy.version.set(version.get());
+        return copy;
+    }
+    
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(WIRE_VERSION);
+        WireFormat.writeString(out, groupId);
+        WireFormat.writeString(out, groupName);
+        WireFormat.writeString(out, owner);
+        out.writeLong(version.get());
+        WireFormat.writeStrings(out, getMembers().toArray(new String[0]));
+        GroupRequest[] requests = pendingRequests.values().toArray(new GroupRequest[0]);
+        out.writeInt(requests.length);
+        for (GroupRequest request : requests) {
+            out.writeObject(request);
+        }
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException, ClassNotFoundException {
+        WireFormat.readVersion(in, Group.class, 1);
+        groupId = WireFormat.readString(in);
+        groupName = WireFormat.readString(in);
+        owner = WireFormat.readString(in);
+        version = new AtomicLong(in.readLong());
+        // Uma cópia desserializada é independente do servidor: usa dicionário próprio
+        users = new UserDictionary();
+        String[] names = WireFormat.readStrings(in);
+        int[] ids = new int[names.length];
+        for (int i = 0; i < names.length; i++) {
+            ids[i] = users.intern(names[i]);
+        }
+        Arrays.sort(ids);
+        memberIds = ids; // nomes distintos: IDs distintos
+        pendingRequests = new ConcurrentHashMap<>();
+        int requestCount = in.readInt();
+        for (int i = 0; i < requestCount; i++) {
+            // Como objetos, para cada solicitação manter sua própria versão de formato
+            GroupRequest request = (GroupRequest) in.readObject();
+            pendingRequests.put(request.getUsername(), request);
+        }
+    }
+    
+    /**
+     * Membros, GroupInfo e resumo imutáveis associados à versão em que foram construídos
+     */
+    private static class Snapshot {
+        private final long version;
+        private final List<String> members;
+        private final ChatService.GroupInfo info;
+        private final ChatService.GroupSummary summary;
+        
+        Snapshot(long version, List<String> members, ChatService.GroupInfo info, ChatService.GroupSummary summary) {
+            this.version = version;
+            this.members = members;
+            this.info = info;
+            this.summary = summary;
+        }
     }
 }
-
@@ -1,16 +1,30 @@
 package com.chatrmi.model;
 
-import java.io.Serializable;
+import com.chatrmi.interfaces.WireFormat;
+
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectOutput;
 
 /**
  * Classe que representa uma solicitação de entrada em grupo
+ * Codificação própria (ver {@link WireFormat}): versão, usuário, grupo e horário.
  */
-public class GroupRequest implements Serializable {
+public class GroupRequest implements Externalizable {
+    private static final long serialVersionUID = 1L;
+    private static final int WIRE_VERSION = 1;
     private String username;
     private String groupId;
     private String groupName;
     private long timestamp;
     
+    /**
+     * Usado apenas na desserialização
+     */
+    public GroupRequest() {
+    }
+    
     public GroupRequest(String username, String groupId, String groupName) {
         this.username = username;
         this.groupId = groupId;
@@ -33,5 +47,23 @@ public class GroupRequest implements Serializable {
     public long getTimestamp() {
         return timestamp;
     }
+    
+    @Override
+    public void writeExternal(ObjectOutput out) throws IOException {
+        out.writeByte(WIRE_VERSION);
+        WireFormat.writeString(out, username);
+        WireFormat.writeString(out, groupId);
+        WireFormat.writeString(out, groupName);
+        out.writeLong(timestamp);
+    }
+    
+    @Override
+    public void readExternal(ObjectInput in) throws IOException {
+        WireFormat.readVersion(in, GroupRequest.class, 1);
+        username = WireFormat.readString(in);
+        groupId = WireFormat.readString(in);
+        groupName = WireFormat.readString(in);
+        timestamp = in.readLong();
+    }
 }
 
@@ -0,0 +1,88 @@
+package com.chatrmi.model;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Dicionário de usuários do servidor: nome <-> ID inteiro
+ * Os IDs são atribuídos em sequência a partir de 0 e nunca removidos nem
+ * reutilizados, então o dicionário só cresce e os clientes o acompanham
+ * recebendo apenas os IDs novos. Os IDs valem durante a execução do processo;
+ * a época, sorteada na criação, identifica a execução para os clientes.
+ */
+public final class UserDictionary {
+    
+    private final long epoch = ThreadLocalRandom.current().nextLong();
+    private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+    private volatile String[] names = new String[64];
+    private volatile int size;
+    
+    public long getEpoch() {
+        return epoch;
+    }
+    
+    /**
+     * Retorna o ID do usuário, atribuindo um novo se ainda não houver
+     * @param username Nome do usuário
+     * @return ID do usuário
+     */
+    public int intern(String username) {
+        Integer id = ids.get(username);
+        if (id != null) {
+            return id;
+        }
+        synchronized (this) {
+            id = ids.get(username);
+            if (id != null) {
+                return id;
+            }
+            int next = size;
+            String[] current = names;
+            if (next == current.length) {
+                current = Arrays.copyOf(current, next * 2);
+                names = current;
+            }
+            current[next] = username;
+            size = next + 1;
+            ids.put(username, next);
+            return next;
+        }
+    }
+    
+    /**
+     * @return ID do usuário, ou -1 se ele não está no dicionário
+     */
+    public int idOf(String username) {
+        Integer id = ids.get(username);
+        return id != null ? id : -1;
+    }
+    
+    /**
+     * @return Nome do usuário, ou null se o ID não existe
+     */
+    public String nameOf(int id) {
+        // size antes de names: quem vê o novo size vê também o array que o contém
+        int known = size;
+        return id >= 0 && id < known ? names[id] : null;
+    }
+    
+    /**
+     * @return Quantidade de IDs atribuídos (todos de 0 a size - 1)
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Retorna os nomes de um intervalo de IDs, para sincronizar um cliente
+     * @param fromId Primeiro ID (inclusivo)
+     * @param toId Último ID (exclusivo), no máximo {@link #size()}
+     * @return Nomes na ordem dos IDs
+     */
+    public String[] namesBetween(int fromId, int toId) {
+        int known = size;
+        return Arrays.copyOfRange(names, fromId, Math.min(toId, known));
+    }
+}
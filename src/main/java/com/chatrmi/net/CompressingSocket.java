@@ -0,0 +1,263 @@
+package com.chatrmi.net;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * Socket que comprime o fluxo com deflate
+ * Cada flush do RMI (fim de uma chamada ou resposta) vira um quadro:
+ * 1 byte de tipo + 4 bytes de tamanho + dados. Quadros menores que o limite
+ * seguem crus; os demais passam pelo deflate com SYNC_FLUSH, mantendo o
+ * dicionário entre quadros da mesma conexão. Nenhum quadro passa de
+ * MAX_FRAME bytes de dados; quem lê recusa quadros que, descomprimidos,
+ * passem de MAX_WIRE_FRAME.
+ * Os bytes contados pelo {@link CountingSocket} são os que passam no fio.
+ */
+class CompressingSocket extends CountingSocket {
+    
+    private static final int RAW = 0;
+    private static final int DEFLATED = 1;
+    private static final int HEADER = 5;
+    private static final int MAX_FRAME = 64 * 1024;          // dados acumulados antes de forçar um quadro
+    private static final int MAX_WIRE_FRAME = 16 * 1024 * 1024;
+    
+    private final int minBytes;
+    private InputStream in;
+    private OutputStream out;
+    
+    CompressingSocket(int minBytes) {
+        this.minBytes = minBytes;
+    }
+    
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            in = new InflatingInputStream(super.getInputStream());
+        }
+        return in;
+    }
+    
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            out = new DeflatingOutputStream(super.getOutputStream());
+        }
+        return out;
+    }
+    
+    // Deflater e Inflater não são encerrados no close: outra thread pode estar
+    // no meio de uma chamada; a memória nativa é liberada pelo Cleaner da JDK.
+    
+    private class DeflatingOutputStream extends OutputStream {
+        
+        private final OutputStream out;
+        private final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        private byte[] buf = new byte[8192];                  // [cabeçalho reservado | dados pendentes]
+        private byte[] compressed = new byte[8192];
+        private int count = HEADER;
+        
+        DeflatingOutputStream(OutputStream out) {
+            this.out = out;
+        }
+        
+        @Override
+        public synchronized void write(int b) throws IOException {
+            ensureCapacity(1);
+            buf[count++] = (byte) b;
+            if (count - HEADER >= MAX_FRAME) {
+                writeFrame();
+            }
+        }
+        
+        @Override
+        public synchronized void write(byte[] b, int off, int len) throws IOException {
+            while (len > 0) {
+                int n = Math.min(len, MAX_FRAME - (count - HEADER));
+                ensureCapacity(n);
+                System.arraycopy(b, off, buf, count, n);
+                count += n;
+                off += n;
+                len -= n;
+                if (count - HEADER >= MAX_FRAME) {
+                    writeFrame();
+                }
+            }
+        }
+        
+        @Override
+        public synchronized void flush() throws IOException {
+            writeFrame();
+            out.flush();
+        }
+        
+        @Override
+        public synchronized void close() throws IOException {
+            flush();
+            out.close();
+        }
+        
+        private void ensureCapacity(int len) {
+            if (count + len > buf.length) {
+                buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + len));
+            }
+        }
+        
+        private void writeFrame() throws IOException {
+            int length = count - HEADER;
+            if (length == 0) {
+                return;
+            }
+            if (length < minBytes) {
+                header(buf, RAW, length);
+                out.write(buf, 0, count);
+                SocketStats.frameSkipped(length);
+            } else {
+                long start = System.nanoTime();
+                deflater.setInput(buf, HEADER, length);
+                int n = HEADER;
+                int k;
+                do {
+                    if (n == compressed.length) {
+                        compressed = Arrays.copyOf(compressed, compressed.length * 2);
+                    }
+                    k = deflater.deflate(compressed, n, compressed.length - n, Deflater.SYNC_FLUSH);
+                    n += k;
+                } while (n == compressed.length);
+                // Mesmo se não diminuiu, o quadro precisa ir: o dicionário já avançou
+                header(compressed, DEFLATED, n - HEADER);
+                SocketStats.frameCompressed(length, n - HEADER, System.nanoTime() - start);
+                out.write(compressed, 0, n);
+            }
+            count = HEADER;
+        }
+        
+        private void header(byte[] frame, int type, int length) {
+            frame[0] = (byte) type;
+            frame[1] = (byte) (length >>> 24);
+            frame[2] = (byte) (length >>> 16);
+            frame[3] = (byte) (length >>> 8);
+            frame[4] = (byte) length;
+        }
+    }
+    
+    private static class InflatingInputStream extends InputStream {
+        
+        private final DataInputStream in;
+        private final Inflater inflater = new Inflater();
+        private byte[] frame = new byte[8192];
+        private byte[] buf = new byte[8192];
+        private int pos;
+        private int limit;
+        
+        InflatingInputStream(InputStream in) {
+            // Bufferizado para o cabeçalho não custar uma leitura do socket por byte
+            this.in = new DataInputStream(new BufferedInputStream(in, 8192));
+        }
+        
+        @Override
+        public int read() throws IOException {
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            return buf[pos++] & 0xff;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) {
+                return 0;
+            }
+            if (pos == limit && !fill()) {
+                return -1;
+            }
+            int n = Math.min(len, limit - pos);
+            System.arraycopy(buf, pos, b, off, n);
+            pos += n;
+            return n;
+        }
+        
+        @Override
+        public int available() {
+            return limit - pos;
+        }
+        
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+        
+        /**
+         * Lê o próximo quadro
+         * @return false no fim do fluxo
+         */
+        private boolean fill() throws IOException {
+            do {
+                int type = in.read();
+                if (type < 0) {
+                    return false;
+                }
+                int length;
+                try {
+                    length = in.readInt();
+                } catch (EOFException e) {
+                    throw new IOException("Quadro comprimido truncado", e);
+                }
+                if (length < 0 || length > MAX_WIRE_FRAME) {
+                    throw new IOException("Tamanho de quadro inválido: " + length);
+                }
+                if (type == RAW) {
+                    if (buf.length < length) {
+                        buf = new byte[length];
+                    }
+                    in.readFully(buf, 0, length);
+                    limit = length;
+                } else if (type == DEFLATED) {
+                    if (frame.length < length) {
+                        frame = new byte[length];
+                    }
+                    in.readFully(frame, 0, length);
+                    limit = inflate(length);
+                } else {
+                    throw new IOException("Tipo de quadro desconhecido: " + type);
+                }
+                pos = 0;
+            } while (limit == 0);
+            return true;
+        }
+        
+        private int inflate(int length) throws IOException {
+            long start = System.nanoTime();
+            inflater.setInput(frame, 0, length);
+            int n = 0;
+            try {
+                // Buffer cheio: o Inflater pode ter saída pendente mesmo sem entrada.
+                // Cresce até um byte além do limite, para distinguir quadro no limite de excedente.
+                do {
+                    if (n == buf.length) {
+                        if (n > MAX_WIRE_FRAME) {
+                            throw new IOException("Quadro comprimido excede " + MAX_WIRE_FRAME + " bytes descomprimido");
+                        }
+                        buf = Arrays.copyOf(buf, Math.min(buf.length * 2, MAX_WIRE_FRAME + 1));
+                    }
+                    int k = inflater.inflate(buf, n, buf.length - n);
+                    if (k == 0 && !inflater.needsInput()) {
+                        throw new IOException("Fluxo comprimido inválido");
+                    }
+                    n += k;
+                } while (!inflater.needsInput() || n == buf.length);
+            } catch (DataFormatException e) {
+                throw new IOException("Fluxo comprimido inválido", e);
+            }
+            SocketStats.frameInflated(System.nanoTime() - start);
+            return n;
+        }
+    }
+}
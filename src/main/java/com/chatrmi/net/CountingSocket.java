@@ -0,0 +1,121 @@
+package com.chatrmi.net;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Socket que conta os bytes lidos e escritos
+ * Usado tanto do lado cliente (conectado pela fábrica) quanto do lado servidor
+ * (preenchido por ServerSocket.implAccept).
+ */
+class CountingSocket extends Socket {
+    
+    private final AtomicBoolean closed = new AtomicBoolean();
+    private volatile long bytesRead;
+    private volatile long bytesWritten;
+    private InputStream in;
+    private OutputStream out;
+    
+    /**
+     * Marca o socket como aberto, depois de conectado ou aceito
+     */
+    void opened() {
+        SocketStats.socketOpened();
+    }
+    
+    long getBytesRead() {
+        return bytesRead;
+    }
+    
+    long getBytesWritten() {
+        return bytesWritten;
+    }
+    
+    @Override
+    public synchronized InputStream getInputStream() throws IOException {
+        if (in == null) {
+            in = new CountingInputStream(super.getInputStream());
+        }
+        return in;
+    }
+    
+    @Override
+    public synchronized OutputStream getOutputStream() throws IOException {
+        if (out == null) {
+            out = new CountingOutputStream(super.getOutputStream());
+        }
+        return out;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        try {
+            super.close();
+        } finally {
+            if (isConnected() && closed.compareAndSet(false, true)) {
+                SocketStats.socketClosed();
+            }
+        }
+    }
+    
+    private class CountingInputStream extends FilterInputStream {
+        
+        CountingInputStream(InputStream in) {
+            super(in);
+        }
+        
+        @Override
+        public int read() throws IOException {
+            int b = super.read();
+            if (b >= 0) {
+                counted(1);
+            }
+            return b;
+        }
+        
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            int n = in.read(b, off, len);
+            if (n > 0) {
+                counted(n);
+            }
+            return n;
+        }
+        
+        private void counted(int n) {
+            // Só a thread que lê o socket escreve neste campo
+            bytesRead += n;
+            SocketStats.read(n);
+        }
+    }
+    
+    private class CountingOutputStream extends FilterOutputStream {
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            counted(1);
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            // FilterOutputStream escreveria byte a byte
+            out.write(b, off, len);
+            counted(len);
+        }
+        
+        private void counted(int n) {
+            bytesWritten += n;
+            SocketStats.written(n);
+        }
+    }
+}
@@ -0,0 +1,103 @@
+package com.chatrmi.net;
+
+import java.io.Serializable;
+import java.net.Socket;
+import java.net.SocketException;
+import java.util.Objects;
+
+/**
+ * Opções dos sockets TCP usados pelo RMI
+ * Serializável porque viaja dentro do stub junto com a
+ * {@link TunedClientSocketFactory}: quem conecta usa as opções escolhidas por
+ * quem exportou o objeto.
+ */
+public final class SocketSettings implements Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    public boolean tcpNoDelay = true;      // desliga o algoritmo de Nagle (mensagens pequenas saem na hora)
+    public boolean keepAlive = true;
+    public int sendBufferSize = 0;         // 0 = padrão do sistema operacional
+    public int receiveBufferSize = 0;      // 0 = padrão do sistema operacional
+    public int connectTimeoutMs = 5000;
+    public int readTimeoutMs = 0;          // 0 = sem limite (fetchSince faz long-poll)
+    public boolean compression = false;    // deflate no fluxo (os dois lados usam as opções de quem exportou)
+    public int compressionMinBytes = 512;  // chamadas menores seguem sem compressão
+    
+    /**
+     * Lê as opções das propriedades de sistema chatrmi.socket.*
+     * @return Opções configuradas
+     */
+    public static SocketSettings fromSystemProperties() {
+        SocketSettings settings = new SocketSettings();
+        settings.tcpNoDelay = Boolean.parseBoolean(System.getProperty("chatrmi.socket.tcpNoDelay", String.valueOf(settings.tcpNoDelay)));
+        settings.keepAlive = Boolean.parseBoolean(System.getProperty("chatrmi.socket.keepAlive", String.valueOf(settings.keepAlive)));
+        settings.sendBufferSize = Integer.getInteger("chatrmi.socket.sendBuffer", settings.sendBufferSize);
+        settings.receiveBufferSize = Integer.getInteger("chatrmi.socket.receiveBuffer", settings.receiveBufferSize);
+        settings.connectTimeoutMs = Integer.getInteger("chatrmi.socket.connectTimeoutMs", settings.connectTimeoutMs);
+        settings.readTimeoutMs = Integer.getInteger("chatrmi.socket.readTimeoutMs", settings.readTimeoutMs);
+        settings.compression = Boolean.parseBoolean(System.getProperty("chatrmi.socket.compression", String.valueOf(settings.compression)));
+        settings.compressionMinBytes = Integer.getInteger("chatrmi.socket.compressionMinBytes", settings.compressionMinBytes);
+        return settings;
+    }
+    
+    /**
+     * Cria o socket (ainda não conectado) que as fábricas usam
+     */
+    CountingSocket newSocket() {
+        return compression ? new CompressingSocket(compressionMinBytes) : new CountingSocket();
+    }
+    
+    /**
+     * Aplica as opções a um socket (antes de conectar, para os buffers valerem desde o handshake)
+     * Também usado pelo transporte NIO, nos sockets dos seus canais.
+     */
+    public void apply(Socket socket) throws SocketException {
+        socket.setTcpNoDelay(tcpNoDelay);
+        socket.setKeepAlive(keepAlive);
+        if (sendBufferSize > 0) {
+            socket.setSendBufferSize(sendBufferSize);
+        }
+        if (receiveBufferSize > 0) {
+            socket.setReceiveBufferSize(receiveBufferSize);
+        }
+        if (readTimeoutMs > 0) {
+            socket.setSoTimeout(readTimeoutMs);
+        }
+    }
+    
+    // equals/hashCode: o RMI reaproveita conexões entre stubs com fábricas iguais
+    
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof SocketSettings)) {
+            return false;
+        }
+        SocketSettings other = (SocketSettings) o;
+        return tcpNoDelay == other.tcpNoDelay
+            && keepAlive == other.keepAlive
+            && sendBufferSize == other.sendBufferSize
+            && receiveBufferSize == other.receiveBufferSize
+            && connectTimeoutMs == other.connectTimeoutMs
+            && readTimeoutMs == other.readTimeoutMs
+            && compression == other.compression
+            && compressionMinBytes == other.compressionMinBytes;
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(tcpNoDelay, keepAlive, sendBufferSize, receiveBufferSize, connectTimeoutMs, readTimeoutMs,
+            compression, compressionMinBytes);
+    }
+    
+    @Override
+    public String toString() {
+        return "tcpNoDelay=" + tcpNoDelay + ", keepAlive=" + keepAlive
+            + ", sendBuffer=" + sendBufferSize + ", receiveBuffer=" + receiveBufferSize
+            + ", connectTimeoutMs=" + connectTimeoutMs + ", readTimeoutMs=" + readTimeoutMs
+            + ", compression=" + (compression ? "deflate>=" + compressionMinBytes : "off");
+    }
+}
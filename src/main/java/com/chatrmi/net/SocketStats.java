@@ -0,0 +1,106 @@
+package com.chatrmi.net;
+
+import com.chatrmi.metrics.MetricsRegistry;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Totais dos sockets criados pelas fábricas desta JVM
+ * Cada {@link CountingSocket} conta os próprios bytes e soma aqui; os totais
+ * são publicados como medidores net.* pelo registro de métricas.
+ */
+public final class SocketStats {
+    
+    private static final LongAdder bytesIn = new LongAdder();
+    private static final LongAdder bytesOut = new LongAdder();
+    private static final LongAdder opened = new LongAdder();
+    private static final LongAdder connectFailures = new LongAdder();
+    private static final AtomicInteger open = new AtomicInteger();
+    private static final LongAdder compressedFrames = new LongAdder();
+    private static final LongAdder skippedFrames = new LongAdder();
+    private static final LongAdder bytesBeforeCompression = new LongAdder();
+    private static final LongAdder bytesAfterCompression = new LongAdder();
+    private static final LongAdder skippedBytes = new LongAdder();
+    private static final LongAdder deflateNanos = new LongAdder();
+    private static final LongAdder inflateNanos = new LongAdder();
+    
+    private SocketStats() {
+    }
+    
+    /**
+     * Publica os totais no registro de métricas
+     */
+    public static void registerGauges(MetricsRegistry metrics) {
+        metrics.gauge("net.bytesIn", SocketStats::getBytesIn);
+        metrics.gauge("net.bytesOut", SocketStats::getBytesOut);
+        metrics.gauge("net.sockets.opened", opened::sum);
+        metrics.gauge("net.sockets.open", open::get);
+        metrics.gauge("net.connectFailures", connectFailures::sum);
+        metrics.gauge("net.compress.frames", compressedFrames::sum);
+        metrics.gauge("net.compress.skippedFrames", skippedFrames::sum);
+        metrics.gauge("net.compress.skippedBytes", skippedBytes::sum);
+        metrics.gauge("net.compress.bytesBefore", bytesBeforeCompression::sum);
+        metrics.gauge("net.compress.bytesAfter", bytesAfterCompression::sum);
+        metrics.gauge("net.compress.ratioPct", SocketStats::getCompressionRatioPercent);
+        metrics.gauge("net.compress.deflateMicros", () -> deflateNanos.sum() / 1000);
+        metrics.gauge("net.compress.inflateMicros", () -> inflateNanos.sum() / 1000);
+    }
+    
+    public static long getBytesIn() {
+        return bytesIn.sum();
+    }
+    
+    public static long getBytesOut() {
+        return bytesOut.sum();
+    }
+    
+    public static int getOpenSockets() {
+        return open.get();
+    }
+    
+    /**
+     * Tamanho comprimido em relação ao original, em porcentagem (100 = sem ganho)
+     */
+    public static long getCompressionRatioPercent() {
+        long before = bytesBeforeCompression.sum();
+        return before == 0 ? 100 : bytesAfterCompression.sum() * 100 / before;
+    }
+    
+    static void read(long bytes) {
+        bytesIn.add(bytes);
+    }
+    
+    static void written(long bytes) {
+        bytesOut.add(bytes);
+    }
+    
+    static void socketOpened() {
+        opened.increment();
+        open.incrementAndGet();
+    }
+    
+    static void socketClosed() {
+        open.decrementAndGet();
+    }
+    
+    static void connectFailed() {
+        connectFailures.increment();
+    }
+    
+    static void frameCompressed(int before, int after, long nanos) {
+        compressedFrames.increment();
+        bytesBeforeCompression.add(before);
+        bytesAfterCompression.add(after);
+        deflateNanos.add(nanos);
+    }
+    
+    static void frameSkipped(int bytes) {
+        skippedFrames.increment();
+        skippedBytes.add(bytes);
+    }
+    
+    static void frameInflated(long nanos) {
+        inflateNanos.add(nanos);
+    }
+}
@@ -0,0 +1,50 @@
+package com.chatrmi.net;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.rmi.server.RMIClientSocketFactory;
+import java.util.Objects;
+
+/**
+ * Fábrica dos sockets que conectam a um objeto remoto exportado com ela
+ * Vai serializada no stub: é executada na JVM de quem faz a chamada, com as
+ * {@link SocketSettings} de quem exportou.
+ */
+public class TunedClientSocketFactory implements RMIClientSocketFactory, Serializable {
+    
+    private static final long serialVersionUID = 1L;
+    
+    private final SocketSettings settings;
+    
+    public TunedClientSocketFactory(SocketSettings settings) {
+        this.settings = settings;
+    }
+    
+    @Override
+    public Socket createSocket(String host, int port) throws IOException {
+        CountingSocket socket = settings.newSocket();
+        try {
+            settings.apply(socket);
+            socket.connect(new InetSocketAddress(host, port), settings.connectTimeoutMs);
+        } catch (IOException e) {
+            SocketStats.connectFailed();
+            socket.close();
+            throw e;
+        }
+        socket.opened();
+        return socket;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return o != null && o.getClass() == getClass()
+            && settings.equals(((TunedClientSocketFactory) o).settings);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), settings);
+    }
+}
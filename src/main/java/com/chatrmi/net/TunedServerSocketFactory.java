@@ -0,0 +1,64 @@
+package com.chatrmi.net;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.rmi.server.RMIServerSocketFactory;
+import java.util.Objects;
+
+/**
+ * Fábrica do socket de escuta de um objeto remoto
+ * As conexões aceitas recebem as mesmas {@link SocketSettings} e contam bytes.
+ */
+public class TunedServerSocketFactory implements RMIServerSocketFactory {
+    
+    private final SocketSettings settings;
+    
+    public TunedServerSocketFactory(SocketSettings settings) {
+        this.settings = settings;
+    }
+    
+    @Override
+    public ServerSocket createServerSocket(int port) throws IOException {
+        ServerSocket serverSocket = new TunedServerSocket();
+        if (settings.receiveBufferSize > 0) {
+            // Antes do bind, para valer como janela TCP das conexões aceitas
+            serverSocket.setReceiveBufferSize(settings.receiveBufferSize);
+        }
+        serverSocket.bind(new InetSocketAddress(port));
+        return serverSocket;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+        return o != null && o.getClass() == getClass()
+            && settings.equals(((TunedServerSocketFactory) o).settings);
+    }
+    
+    @Override
+    public int hashCode() {
+        return Objects.hash(getClass(), settings);
+    }
+    
+    private class TunedServerSocket extends ServerSocket {
+        
+        TunedServerSocket() throws IOException {
+            super();
+        }
+        
+        @Override
+        public Socket accept() throws IOException {
+            CountingSocket socket = settings.newSocket();
+            implAccept(socket);
+            try {
+                settings.apply(socket);
+            } catch (IOException e) {
+                socket.close();
+                throw e;
+            }
+            socket.opened();
+            return socket;
+        }
+    }
+}
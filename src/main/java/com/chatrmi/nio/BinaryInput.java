@@ -0,0 +1,288 @@
+package com.chatrmi.nio;
+
+import com.chatrmi.interfaces.WireFormat;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.ObjectInput;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.Array;
+import java.nio.ByteBuffer;
+
+/**
+ * Decodificador do corpo de um quadro do protocolo NIO (par de {@link BinaryOutput})
+ * O quadro já chegou inteiro, então ler além do fim é erro de protocolo.
+ *
+ * Valores em serialização padrão do Java (TAG_SERIAL) só são aceitos com um
+ * filtro de classes; sem filtro o quadro é recusado.
+ */
+final class BinaryInput implements ObjectInput {
+    
+    /**
+     * Valor lido no lugar de um callback; quem recebe troca pelo callback da conexão
+     */
+    static final Object CALLBACK = new Object();
+    
+    private static final int MAX_ARRAY = 1 << 20;
+    
+    private final ByteBuffer buffer;
+    private final ObjectInputFilter serialFilter;
+    
+    /**
+     * Decodificador que recusa valores em serialização padrão do Java
+     */
+    BinaryInput(ByteBuffer buffer) {
+        this(buffer, null);
+    }
+    
+    /**
+     * @param serialFilter Classes aceitas em valores TAG_SERIAL; null para recusá-los
+     */
+    BinaryInput(ByteBuffer buffer, ObjectInputFilter serialFilter) {
+        this.buffer = buffer;
+        this.serialFilter = serialFilter;
+    }
+    
+    // ========== OBJETOS ==========
+    
+    @Override
+    public Object readObject() throws ClassNotFoundException, IOException {
+        byte tag = readByte();
+        switch (tag) {
+            case BinaryOutput.TAG_NULL:
+                return null;
+            case BinaryOutput.TAG_STRING:
+                return WireFormat.readText(this);
+            case BinaryOutput.TAG_BOOLEAN:
+                return readBoolean();
+            case BinaryOutput.TAG_INT:
+                return readInt();
+            case BinaryOutput.TAG_LONG:
+                return readLong();
+            case BinaryOutput.TAG_STRINGS: {
+                String[] values = new String[readLength()];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = WireFormat.readText(this);
+                }
+                return values;
+            }
+            case BinaryOutput.TAG_LONGS: {
+                int length = readLength();
+                if (length > buffer.remaining() / Long.BYTES) {
+                    throw new StreamCorruptedException("tamanho inválido: " + length);
+                }
+                long[] values = new long[length];
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = readLong();
+                }
+                return values;
+            }
+            case BinaryOutput.TAG_CALLBACK:
+                return CALLBACK;
+            case BinaryOutput.TAG_EXTERNAL:
+                return readExternal(WireFormat.readVarInt(this));
+            case BinaryOutput.TAG_ENUM: {
+                Object[] constants = typeOf(WireFormat.readVarInt(this)).getEnumConstants();
+                int ordinal = WireFormat.readVarInt(this);
+                if (constants == null || ordinal < 0 || ordinal >= constants.length) {
+                    throw new StreamCorruptedException("constante de enum inválida: " + ordinal);
+                }
+                return constants[ordinal];
+            }
+            case BinaryOutput.TAG_ARRAY: {
+                Class<?> component = typeOf(WireFormat.readVarInt(this));
+                Object[] values = (Object[]) Array.newInstance(component, readLength());
+                for (int i = 0; i < values.length; i++) {
+                    values[i] = component.cast(readObject());
+                }
+                return values;
+            }
+            case BinaryOutput.TAG_SERIAL:
+                return readSerialized();
+            default:
+                throw new StreamCorruptedException("marca desconhecida: " + tag);
+        }
+    }
+    
+    private Class<?> typeOf(int code) throws StreamCorruptedException {
+        Class<?> type = NioTypes.typeOf(code);
+        if (type == null) {
+            throw new StreamCorruptedException("tipo desconhecido: " + code);
+        }
+        return type;
+    }
+    
+    private int readLength() throws IOException {
+        int length = WireFormat.readVarInt(this);
+        if (length < 0 || length > MAX_ARRAY) {
+            throw new StreamCorruptedException("tamanho inválido: " + length);
+        }
+        return length;
+    }
+    
+    private Object readExternal(int code) throws IOException, ClassNotFoundException {
+        Externalizable obj = NioTypes.newInstance(code);
+        if (obj == null) {
+            throw new StreamCorruptedException("tipo não externalizável: " + code);
+        }
+        int length = readInt();
+        if (length < 0 || length > buffer.remaining()) {
+            throw new StreamCorruptedException("tamanho inválido: " + length);
+        }
+        int end = buffer.position() + length;
+        obj.readExternal(this);
+        if (buffer.position() > end) {
+            throw new StreamCorruptedException(obj.getClass().getName() + " leu além do próprio tamanho");
+        }
+        // Campos acrescentados por uma versão mais nova ficam para trás
+        buffer.position(end);
+        return obj;
+    }
+    
+    private Object readSerialized() throws IOException, ClassNotFoundException {
+        if (serialFilter == null) {
+            throw new StreamCorruptedException("serialização Java não aceita neste quadro");
+        }
+        byte[] bytes = new byte[readLength()];
+        readFully(bytes);
+        try (ObjectInputStream ois = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            ois.setObjectInputFilter(serialFilter);
+            return ois.readObject();
+        }
+    }
+    
+    // ========== PRIMITIVOS ==========
+    
+    private void require(int n) throws EOFException {
+        if (buffer.remaining() < n) {
+            throw new EOFException("fim do quadro");
+        }
+    }
+    
+    @Override
+    public int read() {
+        return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+    }
+    
+    @Override
+    public int read(byte[] b) {
+        return read(b, 0, b.length);
+    }
+    
+    @Override
+    public int read(byte[] b, int off, int len) {
+        if (len == 0) {
+            return 0;
+        }
+        if (!buffer.hasRemaining()) {
+            return -1;
+        }
+        int n = Math.min(len, buffer.remaining());
+        buffer.get(b, off, n);
+        return n;
+    }
+    
+    @Override
+    public void readFully(byte[] b) throws IOException {
+        readFully(b, 0, b.length);
+    }
+    
+    @Override
+    public void readFully(byte[] b, int off, int len) throws IOException {
+        require(len);
+        buffer.get(b, off, len);
+    }
+    
+    @Override
+    public int skipBytes(int n) {
+        int skipped = Math.max(0, Math.min(n, buffer.remaining()));
+        buffer.position(buffer.position() + skipped);
+        return skipped;
+    }
+    
+    @Override
+    public long skip(long n) {
+        return skipBytes((int) Math.min(n, Integer.MAX_VALUE));
+    }
+    
+    @Override
+    public int available() {
+        return buffer.remaining();
+    }
+    
+    @Override
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+    
+    @Override
+    public byte readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+    
+    @Override
+    public int readUnsignedByte() throws IOException {
+        return readByte() & 0xff;
+    }
+    
+    @Override
+    public short readShort() throws IOException {
+        require(2);
+        return buffer.getShort();
+    }
+    
+    @Override
+    public int readUnsignedShort() throws IOException {
+        return readShort() & 0xffff;
+    }
+    
+    @Override
+    public char readChar() throws IOException {
+        require(2);
+        return buffer.getChar();
+    }
+    
+    @Override
+    public int readInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+    
+    @Override
+    public long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+    
+    @Override
+    public float readFloat() throws IOException {
+        require(4);
+        return buffer.getFloat();
+    }
+    
+    @Override
+    public double readDouble() throws IOException {
+        require(8);
+        return buffer.getDouble();
+    }
+    
+    @Override
+    public String readLine() {
+        throw new UnsupportedOperationException("readLine");
+    }
+    
+    @Override
+    public String readUTF() throws IOException {
+        return DataInputStream.readUTF(this);
+    }
+    
+    @Override
+    public void close() {
+    }
+}
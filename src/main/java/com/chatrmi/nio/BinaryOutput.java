@@ -0,0 +1,298 @@
+package com.chatrmi.nio;
+
+import com.chatrmi.interfaces.ChatClientCallback;
+import com.chatrmi.interfaces.WireFormat;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Externalizable;
+import java.io.IOException;
+import java.io.NotSerializableException;
+import java.io.ObjectOutput;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Codificador dos quadros do protocolo NIO
+ * Escreve num array que cresce conforme a necessidade e é reaproveitado entre
+ * quadros (uma instância por thread). Implementa ObjectOutput para que os
+ * writeExternal existentes escrevam direto no quadro; writeObject usa as
+ * marcas abaixo em vez do formato de serialização do Java.
+ */
+final class BinaryOutput implements ObjectOutput {
+    
+    static final byte TAG_NULL = 0;
+    static final byte TAG_STRING = 1;
+    static final byte TAG_BOOLEAN = 2;
+    static final byte TAG_INT = 3;
+    static final byte TAG_LONG = 4;
+    static final byte TAG_STRINGS = 5;
+    static final byte TAG_EXTERNAL = 6;   // [código][int tamanho][writeExternal]
+    static final byte TAG_ENUM = 7;       // [código][ordinal]
+    static final byte TAG_ARRAY = 8;      // [código do componente][tamanho][elementos]
+    static final byte TAG_SERIAL = 9;     // [tamanho][serialização padrão do Java]
+    static final byte TAG_CALLBACK = 10;  // o callback da própria conexão
+    static final byte TAG_LONGS = 11;     // [tamanho][longs]
+    
+    private static final int MAX_RETAINED = 256 * 1024;
+    
+    private byte[] buf = new byte[1024];
+    private int count;
+    
+    /**
+     * Começa um quadro: reserva o tamanho e escreve o tipo
+     */
+    void beginFrame(byte type) {
+        count = NioProtocol.HEADER_BYTES;
+        buf[count++] = type;
+    }
+    
+    /**
+     * Preenche o tamanho do quadro
+     * @return Bytes do quadro, cabeçalho incluído
+     */
+    int endFrame() {
+        putInt(0, count - NioProtocol.HEADER_BYTES);
+        return count;
+    }
+    
+    byte[] array() {
+        return buf;
+    }
+    
+    int size() {
+        return count;
+    }
+    
+    /**
+     * Copia para buffer o trecho [offset, offset + buffer.remaining()) do quadro, ou o que houver
+     * @return Quantidade de bytes copiados
+     */
+    int copyTo(int offset, ByteBuffer buffer) {
+        int n = Math.min(count - offset, buffer.remaining());
+        buffer.put(buf, offset, n);
+        return n;
+    }
+    
+    /**
+     * Descarta o array se um quadro grande o fez crescer demais
+     */
+    void trim() {
+        if (buf.length > MAX_RETAINED) {
+            buf = new byte[1024];
+        }
+        count = 0;
+    }
+    
+    private void ensure(int extra) {
+        if (count + extra > buf.length) {
+            buf = Arrays.copyOf(buf, Math.max(buf.length * 2, count + extra));
+        }
+    }
+    
+    private void putInt(int pos, int v) {
+        buf[pos] = (byte) (v >>> 24);
+        buf[pos + 1] = (byte) (v >>> 16);
+        buf[pos + 2] = (byte) (v >>> 8);
+        buf[pos + 3] = (byte) v;
+    }
+    
+    // ========== OBJETOS ==========
+    
+    @Override
+    public void writeObject(Object obj) throws IOException {
+        if (obj == null) {
+            write(TAG_NULL);
+        } else if (obj instanceof String) {
+            write(TAG_STRING);
+            WireFormat.writeText(this, (String) obj);
+        } else if (obj instanceof Boolean) {
+            write(TAG_BOOLEAN);
+            writeBoolean((Boolean) obj);
+        } else if (obj instanceof Integer) {
+            write(TAG_INT);
+            writeInt((Integer) obj);
+        } else if (obj instanceof Long) {
+            write(TAG_LONG);
+            writeLong((Long) obj);
+        } else if (obj instanceof String[]) {
+            String[] values = (String[]) obj;
+            write(TAG_STRINGS);
+            WireFormat.writeVarInt(this, values.length);
+            for (String value : values) {
+                WireFormat.writeText(this, value);
+            }
+        } else if (obj instanceof long[]) {
+            long[] values = (long[]) obj;
+            write(TAG_LONGS);
+            WireFormat.writeVarInt(this, values.length);
+            for (long value : values) {
+                writeLong(value);
+            }
+        } else if (obj instanceof ChatClientCallback) {
+            write(TAG_CALLBACK);
+        } else {
+            int code = NioTypes.codeOf(obj.getClass());
+            if (code >= 0 && obj instanceof Externalizable) {
+                writeExternal(code, (Externalizable) obj);
+            } else if (code >= 0 && obj instanceof Enum) {
+                write(TAG_ENUM);
+                WireFormat.writeVarInt(this, code);
+                WireFormat.writeVarInt(this, ((Enum<?>) obj).ordinal());
+            } else if (obj instanceof Object[] && NioTypes.codeOf(obj.getClass().getComponentType()) >= 0) {
+                Object[] values = (Object[]) obj;
+                write(TAG_ARRAY);
+                WireFormat.writeVarInt(this, NioTypes.codeOf(obj.getClass().getComponentType()));
+                WireFormat.writeVarInt(this, values.length);
+                for (Object value : values) {
+                    writeObject(value);
+                }
+            } else if (obj instanceof Serializable) {
+                writeSerialized(obj);
+            } else {
+                throw new NotSerializableException(obj.getClass().getName());
+            }
+        }
+    }
+    
+    private void writeExternal(int code, Externalizable obj) throws IOException {
+        write(TAG_EXTERNAL);
+        WireFormat.writeVarInt(this, code);
+        // O tamanho deixa o leitor pular campos que uma versão mais nova acrescentar
+        ensure(4);
+        int lengthPos = count;
+        count += 4;
+        obj.writeExternal(this);
+        putInt(lengthPos, count - lengthPos - 4);
+    }
+    
+    private void writeSerialized(Object obj) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+        try (ObjectOutputStream oos = new ObjectOutputStream(bytes)) {
+            oos.writeObject(obj);
+        }
+        write(TAG_SERIAL);
+        WireFormat.writeVarInt(this, bytes.size());
+        write(bytes.toByteArray());
+    }
+    
+    // ========== PRIMITIVOS ==========
+    
+    @Override
+    public void write(int b) {
+        ensure(1);
+        buf[count++] = (byte) b;
+    }
+    
+    @Override
+    public void write(byte[] b) {
+        write(b, 0, b.length);
+    }
+    
+    @Override
+    public void write(byte[] b, int off, int len) {
+        ensure(len);
+        System.arraycopy(b, off, buf, count, len);
+        count += len;
+    }
+    
+    @Override
+    public void writeBoolean(boolean v) {
+        write(v ? 1 : 0);
+    }
+    
+    @Override
+    public void writeByte(int v) {
+        write(v);
+    }
+    
+    @Override
+    public void writeShort(int v) {
+        ensure(2);
+        buf[count++] = (byte) (v >>> 8);
+        buf[count++] = (byte) v;
+    }
+    
+    @Override
+    public void writeChar(int v) {
+        writeShort(v);
+    }
+    
+    @Override
+    public void writeInt(int v) {
+        ensure(4);
+        putInt(count, v);
+        count += 4;
+    }
+    
+    @Override
+    public void writeLong(long v) {
+        writeInt((int) (v >>> 32));
+        writeInt((int) v);
+    }
+    
+    @Override
+    public void writeFloat(float v) {
+        writeInt(Float.floatToIntBits(v));
+    }
+    
+    @Override
+    public void writeDouble(double v) {
+        writeLong(Double.doubleToLongBits(v));
+    }
+    
+    @Override
+    public void writeBytes(String s) {
+        ensure(s.length());
+        for (int i = 0; i < s.length(); i++) {
+            buf[count++] = (byte) s.charAt(i);
+        }
+    }
+    
+    @Override
+    public void writeChars(String s) {
+        for (int i = 0; i < s.length(); i++) {
+            writeChar(s.charAt(i));
+        }
+    }
+    
+    /**
+     * UTF-8 modificado, como DataOutputStream.writeUTF
+     */
+    @Override
+    public void writeUTF(String s) throws IOException {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        if (length > 0xFFFF) {
+            throw new UTFDataFormatException("string longa demais: " + length + " bytes");
+        }
+        writeShort(length);
+        ensure(length);
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            if (c >= 0x0001 && c <= 0x007F) {
+                buf[count++] = (byte) c;
+            } else if (c <= 0x07FF) {
+                buf[count++] = (byte) (0xC0 | (c >> 6));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            } else {
+                buf[count++] = (byte) (0xE0 | (c >> 12));
+                buf[count++] = (byte) (0x80 | ((c >> 6) & 0x3F));
+                buf[count++] = (byte) (0x80 | (c & 0x3F));
+            }
+        }
+    }
+    
+    @Override
+    public void flush() {
+    }
+    
+    @Override
+    public void close() {
+    }
+}
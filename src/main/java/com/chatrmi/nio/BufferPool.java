@@ -0,0 +1,66 @@
+package com.chatrmi.nio;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Reserva de ByteBuffers diretos de tamanho fixo
+ * Alocar buffer direto é caro e a memória só volta com o GC; a reserva guarda
+ * até maxPooled buffers devolvidos para os próximos quadros. Conexões ociosas
+ * não seguram buffer: só há buffer preso enquanto há quadro pela metade.
+ */
+final class BufferPool {
+    
+    private final int bufferSize;
+    private final int maxPooled;
+    private final ConcurrentLinkedQueue<ByteBuffer> pool = new ConcurrentLinkedQueue<>();
+    private final AtomicInteger pooled = new AtomicInteger();
+    private final LongAdder allocated = new LongAdder();
+    
+    BufferPool(int bufferSize, int maxPooled) {
+        this.bufferSize = bufferSize;
+        this.maxPooled = maxPooled;
+    }
+    
+    int getBufferSize() {
+        return bufferSize;
+    }
+    
+    /**
+     * @return Buffer limpo (posição 0, limite = capacidade)
+     */
+    ByteBuffer acquire() {
+        ByteBuffer buffer = pool.poll();
+        if (buffer == null) {
+            allocated.increment();
+            return ByteBuffer.allocateDirect(bufferSize);
+        }
+        pooled.decrementAndGet();
+        return buffer;
+    }
+    
+    /**
+     * Devolve um buffer obtido com {@link #acquire}; outros buffers são ignorados
+     */
+    void release(ByteBuffer buffer) {
+        if (buffer == null || !buffer.isDirect() || buffer.capacity() != bufferSize) {
+            return;
+        }
+        if (pooled.incrementAndGet() > maxPooled) {
+            pooled.decrementAndGet();
+            return;
+        }
+        buffer.clear();
+        pool.offer(buffer);
+    }
+    
+    long getAllocated() {
+        return allocated.sum();
+    }
+    
+    int getPooled() {
+        return pooled.get();
+    }
+}
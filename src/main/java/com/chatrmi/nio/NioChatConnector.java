@@ -0,0 +1,362 @@
+package com.chatrmi.nio;
+
+import com.chatrmi.interfaces.ChatClientCallback;
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.interfaces.WireFormat;
+import com.chatrmi.logging.Logger;
+import com.chatrmi.net.SocketSettings;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.OutputStream;
+import java.io.StreamCorruptedException;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.rmi.ConnectException;
+import java.rmi.ConnectIOException;
+import java.rmi.MarshalException;
+import java.rmi.RemoteException;
+import java.rmi.UnexpectedException;
+import java.rmi.UnmarshalException;
+import java.util.ArrayList;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Lado cliente do transporte NIO ({@link NioChatServer})
+ * Abre uma única conexão TCP e devolve em {@link #getService()} um ChatService
+ * que a usa no lugar do stub RMI. O callback passado em registerClient não é
+ * exportado: fica neste conector, e os eventos que o servidor manda pela mesma
+ * conexão são entregues a ele numa thread própria, na ordem de chegada. Assim
+ * o cliente funciona atrás de NAT/firewall sem cair no modo pull.
+ *
+ * Várias threads podem chamar o serviço ao mesmo tempo; cada chamada espera a
+ * própria resposta, identificada pelo id da chamada.
+ */
+public final class NioChatConnector implements Closeable {
+    
+    private static final Logger log = Logger.get(NioChatConnector.class);
+    private static final int MAX_FRAME_BYTES = 64 * 1024 * 1024;
+    private static final AtomicInteger connectorIds = new AtomicInteger(1);
+    
+    // Tipos sem código em NioTypes, que o servidor manda em serialização Java
+    // (respostas, eventos e exceções com suas causas e pilhas)
+    private static final ObjectInputFilter REPLY_FILTER = WireFormat.allowOnly(WireFormat.EVENT_CLASSES
+        + ";com.chatrmi.interfaces.ChatService$EventChunk;com.chatrmi.interfaces.ChatService$GroupPage"
+        + ";com.chatrmi.interfaces.ChatService$GroupSummary;com.chatrmi.interfaces.ChatService$ServerStats"
+        + ";com.chatrmi.interfaces.ChatService$HistogramStats;com.chatrmi.interfaces.ChatService$PresenceSnapshot"
+        + ";java.lang.*;java.rmi.*;java.io.IOException;java.io.UncheckedIOException"
+        + ";java.util.TreeMap;java.util.ArrayList;java.util.Collections$*");
+    
+    private final Socket socket;
+    private final DataInputStream in;
+    private final OutputStream out;
+    private final long callTimeoutMs;
+    private final String name;
+    private final ChatService service;
+    private final Map<Integer, CompletableFuture<Object>> pending = new ConcurrentHashMap<>();
+    private final AtomicInteger nextCallId = new AtomicInteger();
+    private final ThreadLocal<BinaryOutput> outputs = ThreadLocal.withInitial(BinaryOutput::new);
+    private final ExecutorService events;
+    private volatile ChatClientCallback callback;
+    private volatile boolean closed;
+    
+    private NioChatConnector(Socket socket, long callTimeoutMs) throws IOException {
+        this.socket = socket;
+        this.in = new DataInputStream(new BufferedInputStream(socket.getInputStream(), 64 * 1024));
+        this.out = socket.getOutputStream();
+        this.callTimeoutMs = callTimeoutMs;
+        this.name = "nio-" + connectorIds.getAndIncrement();
+        this.service = (ChatService) Proxy.newProxyInstance(ChatService.class.getClassLoader(),
+            new Class<?>[] {ChatService.class}, new ServiceHandler());
+        this.events = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, name + "-events");
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Conecta ao servidor NIO e confere a versão do protocolo
+     * @param host Endereço do servidor
+     * @param port Porta NIO do servidor (chatrmi.nio.port)
+     * @param settings Opções do socket; readTimeoutMs vira o limite de cada chamada
+     * @return Conector pronto para uso
+     * @throws IOException se não conectar ou se o servidor recusar a versão
+     */
+    public static NioChatConnector connect(String host, int port, SocketSettings settings) throws IOException {
+        Socket socket = new Socket();
+        try {
+            settings.apply(socket);
+            socket.connect(new InetSocketAddress(host, port), settings.connectTimeoutMs);
+            NioChatConnector connector = new NioChatConnector(socket, settings.readTimeoutMs);
+            socket.setSoTimeout(settings.connectTimeoutMs);
+            connector.handshake();
+            // Daqui em diante a leitora espera indefinidamente; o limite vale por chamada
+            socket.setSoTimeout(0);
+            connector.startReader();
+            return connector;
+        } catch (IOException e) {
+            socket.close();
+            throw e;
+        }
+    }
+    
+    /**
+     * @return Serviço cujas chamadas vão por esta conexão
+     */
+    public ChatService getService() {
+        return service;
+    }
+    
+    public boolean isOpen() {
+        return !closed;
+    }
+    
+    @Override
+    public void close() {
+        close(null);
+    }
+    
+    private void handshake() throws IOException {
+        BinaryOutput hello = outputs.get();
+        hello.beginFrame(NioProtocol.HELLO);
+        hello.writeInt(NioProtocol.MAGIC);
+        hello.writeByte(NioProtocol.VERSION);
+        hello.writeLong(NioProtocol.FINGERPRINT);
+        write(hello);
+        byte[] frame = readFrame();
+        BinaryInput reply = new BinaryInput(ByteBuffer.wrap(frame, 1, frame.length - 1));
+        if (frame[0] != NioProtocol.HELLO) {
+            throw new StreamCorruptedException("resposta inesperada ao HELLO: " + frame[0]);
+        }
+        if (!reply.readBoolean()) {
+            throw new IOException("Servidor recusou a conexão NIO: " + WireFormat.readString(reply));
+        }
+    }
+    
+    private void startReader() {
+        Thread reader = new Thread(this::readLoop, name + "-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+    
+    private void write(BinaryOutput frame) throws IOException {
+        int size = frame.endFrame();
+        synchronized (out) {
+            out.write(frame.array(), 0, size);
+            out.flush();
+        }
+        frame.trim();
+    }
+    
+    private byte[] readFrame() throws IOException {
+        int length = in.readInt();
+        if (length <= 0 || length > MAX_FRAME_BYTES) {
+            throw new StreamCorruptedException("quadro de tamanho inválido: " + length);
+        }
+        byte[] frame = new byte[length];
+        in.readFully(frame);
+        return frame;
+    }
+    
+    private void readLoop() {
+        IOException failure = null;
+        try {
+            while (!closed) {
+                byte[] frame = readFrame();
+                switch (frame[0]) {
+                    case NioProtocol.REPLY:
+                        replyReceived(frame);
+                        break;
+                    case NioProtocol.CALLBACK:
+                        callbackReceived(frame);
+                        break;
+                    default:
+                        throw new StreamCorruptedException("quadro inesperado: " + frame[0]);
+                }
+            }
+        } catch (IOException e) {
+            failure = e;
+        }
+        close(failure);
+    }
+    
+    private void replyReceived(byte[] frame) throws IOException {
+        BinaryInput input = new BinaryInput(ByteBuffer.wrap(frame, 1, frame.length - 1), REPLY_FILTER);
+        int callId = input.readInt();
+        CompletableFuture<Object> result = pending.remove(callId);
+        if (result == null) {
+            return; // chamada que já desistiu por tempo
+        }
+        try {
+            boolean ok = input.readByte() == NioProtocol.STATUS_OK;
+            Object value = input.readObject();
+            if (ok) {
+                result.complete(value);
+            } else {
+                result.completeExceptionally((Throwable) value);
+            }
+        } catch (IOException | ClassNotFoundException | ClassCastException e) {
+            result.completeExceptionally(new UnmarshalException("Erro ao decodificar a resposta", e));
+        }
+    }
+    
+    /**
+     * Decodifica na thread leitora (os trechos do dicionário de usuários precisam
+     * chegar em ordem) e entrega na thread de eventos, que pode chamar o serviço
+     */
+    private void callbackReceived(byte[] frame) throws IOException {
+        BinaryInput input = new BinaryInput(ByteBuffer.wrap(frame, 1, frame.length - 1), REPLY_FILTER);
+        int index = WireFormat.readVarInt(input);
+        if (index < 0 || index >= NioProtocol.CALLBACK_METHODS.length) {
+            throw new StreamCorruptedException("callback desconhecido: " + index);
+        }
+        Method method = NioProtocol.CALLBACK_METHODS[index];
+        Object[] args = new Object[method.getParameterCount()];
+        try {
+            for (int i = 0; i < args.length; i++) {
+                args[i] = input.readObject();
+            }
+        } catch (ClassNotFoundException e) {
+            log.warn("[NIO] evento {} descartado: {}", method.getName(), e.getMessage());
+            return;
+        }
+        try {
+            events.execute(() -> deliver(method, args));
+        } catch (RejectedExecutionException e) {
+            // conector já fechado
+        }
+    }
+    
+    private void deliver(Method method, Object[] args) {
+        ChatClientCallback target = callback;
+        if (target == null) {
+            return;
+        }
+        try {
+            method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            log.warn("[NIO] erro no callback {}: {}", method.getName(), e.getCause().getMessage(), e.getCause());
+        } catch (IllegalAccessException | IllegalArgumentException e) {
+            log.warn("[NIO] callback {} não pôde ser entregue: {}", method.getName(), e.getMessage());
+        }
+    }
+    
+    private void close(IOException failure) {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        try {
+            socket.close();
+        } catch (IOException e) {
+            // nada a fazer
+        }
+        events.shutdown();
+        ConnectException lost = failure != null
+            ? new ConnectException("Conexão NIO perdida: " + failure.getMessage(), failure)
+            : new ConnectException("Conexão NIO encerrada");
+        for (Integer callId : new ArrayList<>(pending.keySet())) {
+            CompletableFuture<Object> result = pending.remove(callId);
+            if (result != null) {
+                result.completeExceptionally(lost);
+            }
+        }
+        if (failure != null) {
+            log.warn("[NIO] conexão com o servidor perdida: {}", failure.getMessage());
+        }
+    }
+    
+    /**
+     * Implementação de ChatService: codifica a chamada, envia e espera a resposta
+     */
+    private final class ServiceHandler implements InvocationHandler {
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            int index = NioProtocol.serviceMethodIndex(method);
+            if (index < 0) {
+                return invokeObjectMethod(proxy, method, args);
+            }
+            if (closed) {
+                throw new ConnectException("Conexão NIO encerrada");
+            }
+            int callId = nextCallId.incrementAndGet();
+            CompletableFuture<Object> result = new CompletableFuture<>();
+            pending.put(callId, result);
+            BinaryOutput frame = outputs.get();
+            try {
+                frame.beginFrame(NioProtocol.CALL);
+                frame.writeInt(callId);
+                WireFormat.writeVarInt(frame, index);
+                if (args != null) {
+                    for (Object arg : args) {
+                        if (arg instanceof ChatClientCallback) {
+                            callback = (ChatClientCallback) arg;
+                        }
+                        frame.writeObject(arg);
+                    }
+                }
+            } catch (IOException e) {
+                pending.remove(callId);
+                frame.trim();
+                throw new MarshalException("Erro ao codificar " + method.getName(), e);
+            }
+            try {
+                write(frame);
+            } catch (IOException e) {
+                pending.remove(callId);
+                close(e);
+                throw new ConnectIOException("Erro ao enviar " + method.getName(), e);
+            }
+            return await(method, callId, result);
+        }
+        
+        private Object await(Method method, int callId, CompletableFuture<Object> result) throws Throwable {
+            try {
+                return callTimeoutMs > 0 ? result.get(callTimeoutMs, TimeUnit.MILLISECONDS) : result.get();
+            } catch (ExecutionException e) {
+                Throwable cause = e.getCause();
+                if (cause instanceof RemoteException || cause instanceof RuntimeException || cause instanceof Error) {
+                    throw cause;
+                }
+                throw new UnexpectedException("Exceção não declarada em " + method.getName(), (Exception) cause);
+            } catch (TimeoutException e) {
+                pending.remove(callId);
+                throw new RemoteException("Sem resposta para " + method.getName() + " em " + callTimeoutMs + " ms");
+            } catch (InterruptedException e) {
+                pending.remove(callId);
+                Thread.currentThread().interrupt();
+                throw new RemoteException("Chamada " + method.getName() + " interrompida", e);
+            }
+        }
+        
+        private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "NioChatService[" + socket.getRemoteSocketAddress() + "]";
+            }
+        }
+    }
+}
@@ -0,0 +1,595 @@
+package com.chatrmi.nio;
+
+import com.chatrmi.interfaces.BatchedClientCallback;
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.interfaces.WireFormat;
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Counter;
+import com.chatrmi.metrics.MetricsRegistry;
+import com.chatrmi.net.SocketSettings;
+
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.rmi.ConnectException;
+import java.rmi.MarshalException;
+import java.rmi.RemoteException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Transporte alternativo ao RMI: uma porta TCP, um Selector e o protocolo binário de {@link NioProtocol}
+ * Cada conexão leva as chamadas de um cliente a {@link ChatService} e, pelo
+ * mesmo socket, os eventos no sentido contrário: o servidor não abre conexão
+ * de volta e o cliente não precisa de porta de escuta. A thread do seletor só
+ * aceita, lê e escreve; as chamadas rodam num pool de trabalhadores, que
+ * podem ficar bloqueados (fetchSince faz long-poll) sem atrasar as demais
+ * conexões.
+ *
+ * O callback recebido em registerClient é trocado por um proxy da conexão que
+ * escreve um quadro CALLBACK e retorna sem esperar resposta. Se a saída da
+ * conexão passar de maxPendingBytes, ou se ela já tiver caído, o proxy lança
+ * RemoteException e o CallbackDispatcher trata o cliente como em qualquer
+ * falha de entrega.
+ */
+public class NioChatServer {
+    
+    private static final Logger log = Logger.get(NioChatServer.class);
+    
+    /**
+     * Parâmetros do servidor NIO
+     */
+    public static class Settings {
+        public boolean enabled = true;
+        public int port = 1100;
+        public int workerThreads = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+        public int bufferSize = 64 * 1024;             // buffers diretos da reserva
+        public int maxPooledBuffers = 256;
+        public int maxFrameBytes = 16 * 1024 * 1024;
+        public int maxPendingBytes = 4 * 1024 * 1024;  // saída ainda não escrita, por conexão
+        
+        /**
+         * Lê os parâmetros das propriedades de sistema chatrmi.nio.*
+         * @return Parâmetros configurados
+         */
+        public static Settings fromSystemProperties() {
+            Settings settings = new Settings();
+            settings.enabled = Boolean.parseBoolean(System.getProperty("chatrmi.nio.enabled", String.valueOf(settings.enabled)));
+            settings.port = Integer.getInteger("chatrmi.nio.port", settings.port);
+            settings.workerThreads = Integer.getInteger("chatrmi.nio.workers", settings.workerThreads);
+            settings.bufferSize = Integer.getInteger("chatrmi.nio.bufferSize", settings.bufferSize);
+            settings.maxPooledBuffers = Integer.getInteger("chatrmi.nio.pooledBuffers", settings.maxPooledBuffers);
+            settings.maxFrameBytes = Integer.getInteger("chatrmi.nio.maxFrameBytes", settings.maxFrameBytes);
+            settings.maxPendingBytes = Integer.getInteger("chatrmi.nio.maxPendingBytes", settings.maxPendingBytes);
+            return settings;
+        }
+    }
+    
+    private final Settings settings;
+    private final SocketSettings sockets;
+    private final MethodHandle[] handlers;
+    private final BufferPool buffers;
+    private final Set<Connection> connections = ConcurrentHashMap.newKeySet();
+    private final ThreadLocal<BinaryOutput> outputs = ThreadLocal.withInitial(BinaryOutput::new);
+    private final ExecutorService workers;
+    
+    private final Counter framesIn;
+    private final Counter framesOut;
+    private final Counter bytesIn;
+    private final Counter bytesOut;
+    private final Counter protocolErrors;
+    private final Counter overflows;
+    
+    private Selector selector;
+    private ServerSocketChannel serverChannel;
+    private Thread selectorThread;
+    private volatile boolean running;
+    
+    /**
+     * @param service Serviço chamado pelas conexões (o mesmo objeto exportado via RMI)
+     * @param settings Parâmetros do servidor
+     * @param sockets Opções aplicadas aos sockets aceitos
+     * @param metrics Registro onde as métricas nio.* são criadas
+     */
+    public NioChatServer(ChatService service, Settings settings, SocketSettings sockets, MetricsRegistry metrics) {
+        this.settings = settings;
+        this.sockets = sockets;
+        this.handlers = bind(service);
+        this.buffers = new BufferPool(settings.bufferSize, settings.maxPooledBuffers);
+        this.workers = Executors.newFixedThreadPool(settings.workerThreads, new NioThreadFactory("nio-worker-"));
+        this.framesIn = metrics.counter("nio.frames.in");
+        this.framesOut = metrics.counter("nio.frames.out");
+        this.bytesIn = metrics.counter("nio.bytes.in");
+        this.bytesOut = metrics.counter("nio.bytes.out");
+        this.protocolErrors = metrics.counter("nio.protocolErrors");
+        this.overflows = metrics.counter("nio.overflows");
+        metrics.gauge("nio.connections", connections::size);
+        metrics.gauge("nio.buffers.allocated", buffers::getAllocated);
+        metrics.gauge("nio.buffers.pooled", buffers::getPooled);
+    }
+    
+    /**
+     * Um MethodHandle por método, já ligado ao serviço: a chamada não passa por Method.invoke
+     */
+    private static MethodHandle[] bind(ChatService service) {
+        MethodHandle[] handles = new MethodHandle[NioProtocol.SERVICE_METHODS.length];
+        MethodType generic = MethodType.methodType(Object.class, Object[].class);
+        for (int i = 0; i < handles.length; i++) {
+            Method method = NioProtocol.SERVICE_METHODS[i];
+            try {
+                handles[i] = MethodHandles.publicLookup().unreflect(method).bindTo(service)
+                    .asSpreader(Object[].class, method.getParameterCount())
+                    .asType(generic);
+            } catch (IllegalAccessException e) {
+                throw new IllegalStateException("Método inacessível: " + method, e);
+            }
+        }
+        return handles;
+    }
+    
+    /**
+     * Abre a porta e inicia a thread do seletor
+     * @throws IOException se a porta não puder ser aberta
+     */
+    public synchronized void start() throws IOException {
+        selector = Selector.open();
+        serverChannel = ServerSocketChannel.open();
+        if (sockets.receiveBufferSize > 0) {
+            serverChannel.socket().setReceiveBufferSize(sockets.receiveBufferSize);
+        }
+        serverChannel.bind(new InetSocketAddress(settings.port), 1024);
+        serverChannel.configureBlocking(false);
+        serverChannel.register(selector, SelectionKey.OP_ACCEPT);
+        running = true;
+        selectorThread = new NioThreadFactory("nio-selector-").newThread(this::run);
+        selectorThread.start();
+    }
+    
+    public int getPort() {
+        return serverChannel != null ? serverChannel.socket().getLocalPort() : settings.port;
+    }
+    
+    public int getConnectionCount() {
+        return connections.size();
+    }
+    
+    /**
+     * Fecha a porta e todas as conexões
+     */
+    public synchronized void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        selector.wakeup();
+        try {
+            selectorThread.join(2000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        workers.shutdownNow();
+    }
+    
+    private void run() {
+        try {
+            while (running) {
+                selector.select();
+                Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+                while (it.hasNext()) {
+                    SelectionKey key = it.next();
+                    it.remove();
+                    if (!key.isValid()) {
+                        continue;
+                    }
+                    if (key.isAcceptable()) {
+                        accept();
+                        continue;
+                    }
+                    Connection connection = (Connection) key.attachment();
+                    try {
+                        if (key.isReadable()) {
+                            connection.read();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    } catch (IOException e) {
+                        connection.close(e.getMessage());
+                    }
+                }
+            }
+        } catch (IOException | ClosedSelectorException e) {
+            if (running) {
+                log.error("Seletor NIO interrompido: {}", e.getMessage(), e);
+            }
+        } finally {
+            for (Connection connection : new ArrayList<>(connections)) {
+                connection.close("servidor encerrado");
+            }
+            try {
+                serverChannel.close();
+                selector.close();
+            } catch (IOException e) {
+                log.warn("Erro ao fechar a porta NIO: {}", e.getMessage());
+            }
+        }
+    }
+    
+    private void accept() {
+        SocketChannel channel = null;
+        try {
+            channel = serverChannel.accept();
+            if (channel == null) {
+                return;
+            }
+            channel.configureBlocking(false);
+            sockets.apply(channel.socket());
+            SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+            Connection connection = new Connection(channel, key);
+            key.attach(connection);
+            connections.add(connection);
+            log.debug("[NIO] conexão de {}", connection.remote);
+        } catch (IOException e) {
+            log.warn("Falha ao aceitar conexão NIO: {}", e.getMessage());
+            if (channel != null) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                    // já estava fechando
+                }
+            }
+        }
+    }
+    
+    /**
+     * Executa uma chamada num trabalhador e responde pela conexão
+     */
+    private void call(Connection connection, byte[] frame) {
+        BinaryInput in = new BinaryInput(ByteBuffer.wrap(frame, 1, frame.length - 1));
+        int callId;
+        Object result = null;
+        Throwable error = null;
+        try {
+            callId = in.readInt();
+        } catch (IOException e) {
+            protocolErrors.increment();
+            connection.close("chamada sem identificador");
+            return;
+        }
+        try {
+            int index = WireFormat.readVarInt(in);
+            if (index < 0 || index >= handlers.length) {
+                throw new StreamCorruptedException("método desconhecido: " + index);
+            }
+            Object[] args = new Object[NioProtocol.SERVICE_METHODS[index].getParameterCount()];
+            for (int i = 0; i < args.length; i++) {
+                Object arg = in.readObject();
+                args[i] = arg == BinaryInput.CALLBACK ? connection.callback : arg;
+            }
+            result = (Object) handlers[index].invokeExact(args);
+        } catch (IOException | ClassNotFoundException e) {
+            protocolErrors.increment();
+            error = new MarshalException("Erro ao decodificar a chamada", e);
+        } catch (Throwable t) {
+            error = t;
+        }
+        connection.reply(callId, result, error);
+    }
+    
+    /**
+     * Uma conexão de cliente
+     * Leitura e buffer de entrada são da thread do seletor; a fila de saída é
+     * protegida pelo monitor da conexão e escrita por quem enfileira, até o
+     * socket encher, e depois pelo seletor (OP_WRITE).
+     */
+    private final class Connection implements InvocationHandler {
+        
+        final SocketChannel channel;
+        final SelectionKey key;
+        final String remote;
+        final BatchedClientCallback callback;
+        
+        private ByteBuffer inbound;      // quadro incompleto (só a thread do seletor)
+        private boolean greeted;         // só a thread do seletor
+        private final ArrayDeque<ByteBuffer> outbound = new ArrayDeque<>();
+        private int pendingBytes;
+        private boolean writeInterest;
+        private volatile boolean closed;
+        
+        Connection(SocketChannel channel, SelectionKey key) throws IOException {
+            this.channel = channel;
+            this.key = key;
+            this.remote = String.valueOf(channel.getRemoteAddress());
+            this.callback = (BatchedClientCallback) Proxy.newProxyInstance(BatchedClientCallback.class.getClassLoader(),
+                new Class<?>[] {BatchedClientCallback.class}, this);
+        }
+        
+        void read() throws IOException {
+            ByteBuffer buffer = inbound != null ? inbound : buffers.acquire();
+            inbound = buffer;
+            int n = channel.read(buffer);
+            if (n < 0) {
+                close("conexão encerrada pelo cliente");
+                return;
+            }
+            bytesIn.add(n);
+            buffer.flip();
+            while (buffer.remaining() >= NioProtocol.HEADER_BYTES && !closed) {
+                int length = buffer.getInt(buffer.position());
+                if (length <= 0 || length > settings.maxFrameBytes) {
+                    protocolErrors.increment();
+                    close("quadro de tamanho inválido: " + length);
+                    return;
+                }
+                if (buffer.remaining() < NioProtocol.HEADER_BYTES + length) {
+                    break;
+                }
+                buffer.position(buffer.position() + NioProtocol.HEADER_BYTES);
+                byte[] frame = new byte[length];
+                buffer.get(frame);
+                framesIn.increment();
+                received(frame);
+            }
+            if (closed) {
+                return;
+            }
+            if (!buffer.hasRemaining()) {
+                buffers.release(buffer);
+                inbound = null;
+                return;
+            }
+            int needed = buffer.remaining() >= NioProtocol.HEADER_BYTES
+                ? NioProtocol.HEADER_BYTES + buffer.getInt(buffer.position()) : 0;
+            if (needed > buffer.capacity()) {
+                // Quadro maior que os buffers da reserva: um buffer comum do tamanho dele
+                ByteBuffer larger = ByteBuffer.allocate(needed);
+                larger.put(buffer);
+                buffers.release(buffer);
+                inbound = larger;
+            } else {
+                buffer.compact();
+            }
+        }
+        
+        private void received(byte[] frame) throws IOException {
+            byte type = frame[0];
+            if (!greeted) {
+                hello(frame);
+            } else if (type == NioProtocol.CALL) {
+                try {
+                    workers.execute(() -> call(this, frame));
+                } catch (RejectedExecutionException e) {
+                    close("servidor encerrando");
+                }
+            } else {
+                protocolErrors.increment();
+                close("quadro inesperado: " + type);
+            }
+        }
+        
+        private void hello(byte[] frame) throws IOException {
+            BinaryInput in = new BinaryInput(ByteBuffer.wrap(frame, 1, frame.length - 1));
+            String refusal = null;
+            if (frame[0] != NioProtocol.HELLO || in.readInt() != NioProtocol.MAGIC) {
+                refusal = "não é um cliente do chat";
+            } else if (in.readUnsignedByte() != NioProtocol.VERSION || in.readLong() != NioProtocol.FINGERPRINT) {
+                refusal = "versão de protocolo incompatível";
+            }
+            BinaryOutput out = outputs.get();
+            out.beginFrame(NioProtocol.HELLO);
+            out.writeBoolean(refusal == null);
+            WireFormat.writeString(out, refusal);
+            send(out, false);
+            if (refusal != null) {
+                protocolErrors.increment();
+                close(refusal);
+            } else {
+                greeted = true;
+            }
+        }
+        
+        void reply(int callId, Object result, Throwable error) {
+            BinaryOutput out = outputs.get();
+            try {
+                out.beginFrame(NioProtocol.REPLY);
+                out.writeInt(callId);
+                if (error == null) {
+                    out.writeByte(NioProtocol.STATUS_OK);
+                    out.writeObject(result);
+                } else {
+                    out.writeByte(NioProtocol.STATUS_ERROR);
+                    out.writeObject(error);
+                }
+            } catch (IOException e) {
+                try {
+                    out.beginFrame(NioProtocol.REPLY);
+                    out.writeInt(callId);
+                    out.writeByte(NioProtocol.STATUS_ERROR);
+                    out.writeObject(new MarshalException("Erro ao codificar a resposta: " + e.getMessage()));
+                } catch (IOException unexpected) {
+                    close("falha ao codificar resposta: " + unexpected.getMessage());
+                    return;
+                }
+            }
+            send(out, false);
+        }
+        
+        /**
+         * Enfileira o quadro em buffers da reserva e escreve o que o socket aceitar
+         * @param limited true para recusar se a saída pendente passar de maxPendingBytes
+         * @return false se a conexão estiver fechada ou a saída cheia
+         */
+        boolean send(BinaryOutput out, boolean limited) {
+            int size = out.endFrame();
+            List<ByteBuffer> chunks = new ArrayList<>(1 + size / buffers.getBufferSize());
+            for (int offset = 0; offset < size; ) {
+                ByteBuffer chunk = buffers.acquire();
+                offset += out.copyTo(offset, chunk);
+                chunk.flip();
+                chunks.add(chunk);
+            }
+            out.trim();
+            synchronized (this) {
+                if (closed || limited && pendingBytes + size > settings.maxPendingBytes) {
+                    chunks.forEach(buffers::release);
+                    return false;
+                }
+                outbound.addAll(chunks);
+                pendingBytes += size;
+                framesOut.increment();
+                if (!writeInterest) {
+                    try {
+                        flushLocked();
+                    } catch (IOException e) {
+                        // fecha fora do monitor
+                    }
+                }
+                if (!closed && channel.isOpen()) {
+                    return true;
+                }
+            }
+            close("falha ao escrever");
+            return false;
+        }
+        
+        /**
+         * Chamado pelo seletor quando o socket volta a aceitar escrita
+         */
+        synchronized void flush() throws IOException {
+            flushLocked();
+        }
+        
+        private void flushLocked() throws IOException {
+            try {
+                while (!outbound.isEmpty()) {
+                    ByteBuffer buffer = outbound.peek();
+                    int n = channel.write(buffer);
+                    pendingBytes -= n;
+                    bytesOut.add(n);
+                    if (buffer.hasRemaining()) {
+                        if (!writeInterest) {
+                            writeInterest = true;
+                            key.interestOps(SelectionKey.OP_READ | SelectionKey.OP_WRITE);
+                            selector.wakeup();
+                        }
+                        return;
+                    }
+                    buffers.release(outbound.poll());
+                }
+                if (writeInterest) {
+                    writeInterest = false;
+                    key.interestOps(SelectionKey.OP_READ);
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+        }
+        
+        void close(String reason) {
+            synchronized (this) {
+                if (closed) {
+                    return;
+                }
+                closed = true;
+                outbound.forEach(buffers::release);
+                outbound.clear();
+                pendingBytes = 0;
+            }
+            // O buffer de entrada só é devolvido pela thread do seletor; os demais ficam para o GC
+            if (Thread.currentThread() == selectorThread && inbound != null) {
+                buffers.release(inbound);
+                inbound = null;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException e) {
+                // nada a fazer
+            }
+            connections.remove(this);
+            log.debug("[NIO] conexão de {} encerrada: {}", remote, reason);
+        }
+        
+        // ========== CALLBACK ==========
+        
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            int index = NioProtocol.callbackMethodIndex(method);
+            if (index < 0) {
+                return invokeObjectMethod(proxy, method, args);
+            }
+            if (closed) {
+                throw new ConnectException("Conexão NIO com " + remote + " encerrada");
+            }
+            BinaryOutput out = outputs.get();
+            try {
+                out.beginFrame(NioProtocol.CALLBACK);
+                WireFormat.writeVarInt(out, index);
+                for (Object arg : args) {
+                    out.writeObject(arg);
+                }
+            } catch (IOException e) {
+                out.trim();
+                throw new MarshalException("Erro ao codificar " + method.getName(), e);
+            }
+            if (!send(out, true)) {
+                if (closed) {
+                    throw new ConnectException("Conexão NIO com " + remote + " encerrada");
+                }
+                overflows.increment();
+                close("saída acima de " + settings.maxPendingBytes + " bytes");
+                throw new RemoteException("Cliente " + remote + " não está lendo os eventos (saída cheia)");
+            }
+            return null;
+        }
+        
+        private Object invokeObjectMethod(Object proxy, Method method, Object[] args) {
+            switch (method.getName()) {
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                default:
+                    return "NioCallback[" + remote + "]";
+            }
+        }
+    }
+    
+    private static class NioThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger(1);
+        
+        NioThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.chatrmi.nio;
+
+import com.chatrmi.interfaces.BatchedClientCallback;
+import com.chatrmi.interfaces.ChatService;
+
+import java.lang.reflect.Method;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Constantes e tabelas do protocolo binário do transporte NIO
+ * Cada quadro é [int tamanho][byte tipo][corpo], com o tamanho contando o
+ * tipo e o corpo. Os corpos:
+ * <ul>
+ *   <li>HELLO (cliente): int mágico, byte versão, long impressão digital;
+ *       (servidor): boolean aceito, string motivo</li>
+ *   <li>CALL (cliente): int id da chamada, varint índice em {@link #SERVICE_METHODS}, argumentos</li>
+ *   <li>REPLY (servidor): int id da chamada, byte OK + resultado ou ERROR + exceção</li>
+ *   <li>CALLBACK (servidor): varint índice em {@link #CALLBACK_METHODS}, argumentos; sem resposta</li>
+ * </ul>
+ * Os métodos são identificados pela posição nas tabelas, ordenadas por
+ * assinatura; a impressão digital do HELLO cobre as duas tabelas e os tipos
+ * de {@link NioTypes}, então cliente e servidor de versões diferentes
+ * recusam a conexão em vez de chamar o método errado.
+ */
+final class NioProtocol {
+    
+    static final int MAGIC = 0x43524e31; // "CRN1"
+    static final int VERSION = 1;
+    
+    static final byte HELLO = 1;
+    static final byte CALL = 2;
+    static final byte REPLY = 3;
+    static final byte CALLBACK = 4;
+    
+    static final byte STATUS_OK = 0;
+    static final byte STATUS_ERROR = 1;
+    
+    static final int HEADER_BYTES = 4;
+    
+    static final Method[] SERVICE_METHODS = methodTable(ChatService.class);
+    static final Method[] CALLBACK_METHODS = methodTable(BatchedClientCallback.class);
+    static final long FINGERPRINT = fingerprint();
+    
+    private static final Map<Method, Integer> serviceIndex = indexOf(SERVICE_METHODS);
+    private static final Map<Method, Integer> callbackIndex = indexOf(CALLBACK_METHODS);
+    
+    private NioProtocol() {
+    }
+    
+    /**
+     * @return Índice do método de ChatService, ou -1 se não for remoto (equals, toString...)
+     */
+    static int serviceMethodIndex(Method method) {
+        return serviceIndex.getOrDefault(method, -1);
+    }
+    
+    /**
+     * @return Índice do método de callback, ou -1 se não for remoto
+     */
+    static int callbackMethodIndex(Method method) {
+        return callbackIndex.getOrDefault(method, -1);
+    }
+    
+    private static Method[] methodTable(Class<?> type) {
+        Method[] methods = type.getMethods();
+        Arrays.sort(methods, Comparator.comparing(NioProtocol::signature));
+        return methods;
+    }
+    
+    private static Map<Method, Integer> indexOf(Method[] table) {
+        Map<Method, Integer> index = new HashMap<>();
+        for (int i = 0; i < table.length; i++) {
+            index.put(table[i], i);
+        }
+        return index;
+    }
+    
+    private static String signature(Method method) {
+        StringBuilder sb = new StringBuilder(method.getName()).append('(');
+        for (Class<?> type : method.getParameterTypes()) {
+            sb.append(type.getName()).append(';');
+        }
+        return sb.append(')').append(method.getReturnType().getName()).toString();
+    }
+    
+    // FNV-1a de 64 bits sobre as assinaturas e os nomes dos tipos registrados
+    private static long fingerprint() {
+        long hash = 0xcbf29ce484222325L;
+        StringBuilder sb = new StringBuilder();
+        for (Method method : SERVICE_METHODS) {
+            sb.append(signature(method)).append('\n');
+        }
+        for (Method method : CALLBACK_METHODS) {
+            sb.append(signature(method)).append('\n');
+        }
+        for (Class<?> type : NioTypes.registeredTypes()) {
+            sb.append(type.getName()).append('\n');
+        }
+        for (byte b : sb.toString().getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        return hash;
+    }
+}
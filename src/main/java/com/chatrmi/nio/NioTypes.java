@@ -0,0 +1,73 @@
+package com.chatrmi.nio;
+
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.interfaces.EventBatch;
+
+import java.io.Externalizable;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Tipos com código próprio no protocolo NIO
+ * Os Externalizable daqui viajam como [código][tamanho][writeExternal], sem
+ * descritor de classe; os enums, como [código][ordinal]. Qualquer outro
+ * Serializable cai na serialização padrão do Java. Novos tipos só entram no
+ * fim da lista: a posição é o código e entra na impressão digital do HELLO.
+ */
+final class NioTypes {
+    
+    private static final List<Class<?>> types = new ArrayList<>();
+    private static final List<Supplier<? extends Externalizable>> factories = new ArrayList<>();
+    private static final Map<Class<?>, Integer> codes = new HashMap<>();
+    
+    static {
+        register(EventBatch.class, EventBatch::new);
+        register(ChatService.FileInfo.class, ChatService.FileInfo::new);
+        register(ChatService.GroupInfo.class, ChatService.GroupInfo::new);
+        register(ChatEvent.MessageReceived.class, ChatEvent.MessageReceived::new);
+        register(ChatEvent.FileReceived.class, ChatEvent.FileReceived::new);
+        register(ChatEvent.PresenceChanged.class, ChatEvent.PresenceChanged::new);
+        register(ChatEvent.GroupInviteReceived.class, ChatEvent.GroupInviteReceived::new);
+        register(ChatEvent.JoinRequestReceived.class, ChatEvent.JoinRequestReceived::new);
+        register(ChatEvent.GroupMessageReceived.class, ChatEvent.GroupMessageReceived::new);
+        register(ChatEvent.GroupFileReceived.class, ChatEvent.GroupFileReceived::new);
+        register(ChatService.GroupSort.class, null);
+    }
+    
+    private NioTypes() {
+    }
+    
+    private static <T extends Externalizable> void register(Class<?> type, Supplier<T> factory) {
+        codes.put(type, types.size());
+        types.add(type);
+        factories.add(factory);
+    }
+    
+    static List<Class<?>> registeredTypes() {
+        return Collections.unmodifiableList(types);
+    }
+    
+    /**
+     * @return Código do tipo, ou -1 se não tiver codificação própria
+     */
+    static int codeOf(Class<?> type) {
+        return codes.getOrDefault(type, -1);
+    }
+    
+    static Class<?> typeOf(int code) {
+        return code >= 0 && code < types.size() ? types.get(code) : null;
+    }
+    
+    /**
+     * @return Instância vazia do Externalizable de código code, para readExternal
+     */
+    static Externalizable newInstance(int code) {
+        Supplier<? extends Externalizable> factory = code >= 0 && code < factories.size() ? factories.get(code) : null;
+        return factory != null ? factory.get() : null;
+    }
+}
@@ -1,10 +1,41 @@
 package com.chatrmi.observer;
 
+import java.util.Arrays;
+import java.util.List;
+
 /**
  * Classe abstrata para observadores de chat
  */
 public abstract class ChatObserver implements Observer {
     
+    /**
+     * Inscreve este observador no barramento, com um assinante síncrono por tipo de evento
+     * @param bus Barramento de eventos
+     * @return Assinaturas criadas
+     */
+    public List<EventBus.Subscription> subscribeTo(EventBus bus) {
+        return Arrays.asList(
+            bus.subscribe(MessageEvent.class, this::onMessageEvent),
+            bus.subscribe(UserEvent.class, this::onUserEvent),
+            bus.subscribe(FileEvent.class, this::onFileEvent));
+    }
+    
+    /**
+     * Inscreve este observador no barramento com entrega assíncrona
+     * Os três tipos de evento compartilham a capacidade e a política, mas
+     * cada um tem sua própria fila.
+     * @param bus Barramento de eventos
+     * @param queueCapacity Capacidade de cada fila
+     * @param policy Política aplicada quando uma fila está cheia
+     * @return Assinaturas criadas
+     */
+    public List<EventBus.Subscription> subscribeTo(EventBus bus, int queueCapacity, OverflowPolicy policy) {
+        return Arrays.asList(
+            bus.subscribeAsync(MessageEvent.class, this::onMessageEvent, queueCapacity, policy),
+            bus.subscribeAsync(UserEvent.class, this::onUserEvent, queueCapacity, policy),
+            bus.subscribeAsync(FileEvent.class, this::onFileEvent, queueCapacity, policy));
+    }
+    
     @Override
     public void update(Object data) {
         if (data instanceof MessageEvent) {
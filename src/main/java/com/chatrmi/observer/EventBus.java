@@ -0,0 +1,326 @@
+package com.chatrmi.observer;
+
+import com.chatrmi.logging.Logger;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Barramento de eventos tipado e seguro para uso concorrente
+ * Cada assinante escolhe um tipo de evento e recebe os eventos desse tipo e
+ * de seus subtipos. A publicação lê apenas um vetor imutável de assinantes por
+ * tipo concreto (refeito quando as assinaturas mudam), sem locks.
+ *
+ * Assinantes síncronos rodam na thread que publica. Assinantes assíncronos
+ * têm uma fila limitada própria, drenada no executor do barramento por uma
+ * thread de cada vez (a ordem dos eventos é preservada por assinante); com a
+ * fila cheia aplica-se a {@link OverflowPolicy} da assinatura. Assim um
+ * assinante lento não atrasa quem publica.
+ *
+ * Exceções lançadas por assinantes são registradas no log e não chegam a quem publica.
+ */
+public class EventBus {
+    
+    private static final Logger log = Logger.get(EventBus.class);
+    private static final int MAX_DELIVERIES_PER_RUN = 64;
+    private static final Subscriber[] NO_SUBSCRIBERS = new Subscriber[0];
+    
+    /**
+     * Assinatura de um tipo de evento
+     */
+    public interface Subscription {
+        
+        /**
+         * Cancela a assinatura; eventos ainda na fila são descartados
+         */
+        void unsubscribe();
+        
+        boolean isAsync();
+        
+        /**
+         * @return Eventos na fila (sempre 0 para assinaturas síncronas)
+         */
+        int getQueueDepth();
+        
+        /**
+         * @return Eventos descartados pela política de fila cheia
+         */
+        long getDroppedCount();
+    }
+    
+    private final Object lock = new Object();
+    private final List<Subscriber> subscribers = new ArrayList<>(); // ordem de assinatura; alterada sob lock
+    private final Map<Class<?>, Subscriber[]> resolved = new ConcurrentHashMap<>(); // tipo concreto -> assinantes
+    private final ExecutorService executor;
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private volatile boolean shutdown;
+    
+    /**
+     * Cria o barramento com chatrmi.events.threads threads para os assinantes assíncronos (padrão 2)
+     */
+    public EventBus() {
+        this(Integer.getInteger("chatrmi.events.threads", 2));
+    }
+    
+    /**
+     * @param threads Threads do executor dos assinantes assíncronos
+     */
+    public EventBus(int threads) {
+        AtomicInteger counter = new AtomicInteger(1);
+        this.executor = Executors.newFixedThreadPool(Math.max(1, threads), r -> {
+            Thread thread = new Thread(r, "event-bus-" + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        });
+    }
+    
+    /**
+     * Assina um tipo de evento com entrega síncrona (na thread que publica)
+     * @param type Tipo do evento (subtipos também são entregues)
+     * @param handler Assinante
+     * @return Assinatura
+     */
+    public <E> Subscription subscribe(Class<E> type, EventHandler<? super E> handler) {
+        return add(new Subscriber(type, handler, 0, null));
+    }
+    
+    /**
+     * Assina um tipo de evento com entrega assíncrona
+     * @param type Tipo do evento (subtipos também são entregues)
+     * @param handler Assinante
+     * @param queueCapacity Capacidade da fila do assinante
+     * @param policy Política aplicada quando a fila está cheia
+     * @return Assinatura
+     */
+    public <E> Subscription subscribeAsync(Class<E> type, EventHandler<? super E> handler,
+                                           int queueCapacity, OverflowPolicy policy) {
+        if (queueCapacity <= 0) {
+            throw new IllegalArgumentException("Capacidade da fila deve ser positiva: " + queueCapacity);
+        }
+        return add(new Subscriber(type, handler, queueCapacity, policy));
+    }
+    
+    /**
+     * Permite evitar a criação de eventos que ninguém vai receber
+     * @param type Tipo concreto do evento
+     * @return true se há algum assinante para o tipo
+     */
+    public boolean hasSubscribers(Class<?> type) {
+        return resolve(type).length > 0;
+    }
+    
+    /**
+     * Publica um evento para os assinantes do seu tipo e de seus supertipos
+     * @param event Evento
+     */
+    public void publish(Object event) {
+        for (Subscriber subscriber : resolve(event.getClass())) {
+            subscriber.deliver(event);
+        }
+    }
+    
+    public int getSubscriberCount() {
+        synchronized (lock) {
+            return subscribers.size();
+        }
+    }
+    
+    /**
+     * @return Eventos descartados em todas as assinaturas assíncronas
+     */
+    public long getDroppedCount() {
+        return droppedEvents.get();
+    }
+    
+    /**
+     * Encerra o executor, aguardando até timeoutMs pelas entregas assíncronas pendentes
+     */
+    public void shutdown(long timeoutMs) {
+        shutdown = true;
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(timeoutMs, TimeUnit.MILLISECONDS)) {
+                executor.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    private Subscription add(Subscriber subscriber) {
+        synchronized (lock) {
+            subscribers.add(subscriber);
+            resolved.clear();
+        }
+        return subscriber;
+    }
+    
+    private void remove(Subscriber subscriber) {
+        synchronized (lock) {
+            subscribers.remove(subscriber);
+            resolved.clear();
+        }
+    }
+    
+    private Subscriber[] resolve(Class<?> type) {
+        Subscriber[] cached = resolved.get(type);
+        if (cached != null) {
+            return cached;
+        }
+        // Calculado sob o lock das assinaturas, para nunca guardar um vetor desatualizado
+        synchronized (lock) {
+            List<Subscriber> matching = new ArrayList<>();
+            for (Subscriber subscriber : subscribers) {
+                if (subscriber.type.isAssignableFrom(type)) {
+                    matching.add(subscriber);
+                }
+            }
+            Subscriber[] array = matching.isEmpty() ? NO_SUBSCRIBERS : matching.toArray(NO_SUBSCRIBERS);
+            resolved.put(type, array);
+            return array;
+        }
+    }
+    
+    private final class Subscriber implements Subscription {
+        private final Class<?> type;
+        private final EventHandler<Object> handler;
+        private final BlockingQueue<Object> queue; // null para assinaturas síncronas
+        private final OverflowPolicy policy;
+        private final AtomicBoolean scheduled = new AtomicBoolean();
+        private final AtomicLong dropped = new AtomicLong();
+        private volatile boolean active = true;
+        
+        @SuppressWarnings("unchecked")
+        Subscriber(Class<?> type, EventHandler<?> handler, int queueCapacity, OverflowPolicy policy) {
+            this.type = type;
+            this.handler = (EventHandler<Object>) handler;
+            this.queue = queueCapacity > 0 ? new ArrayBlockingQueue<>(queueCapacity) : null;
+            this.policy = policy != null ? policy : OverflowPolicy.DROP_OLDEST;
+        }
+        
+        void deliver(Object event) {
+            if (!active) {
+                return;
+            }
+            if (queue == null) {
+                invoke(event);
+                return;
+            }
+            if (!queue.offer(event) && !enqueueFull(event)) {
+                return;
+            }
+            schedule();
+        }
+        
+        /**
+         * Aplica a política de fila cheia
+         * @return true se o evento foi enfileirado
+         */
+        private boolean enqueueFull(Object event) {
+            switch (policy) {
+                case DROP_NEWEST:
+                    drop();
+                    return false;
+                case BLOCK:
+                    try {
+                        // Em intervalos curtos, para liberar quem publica se a assinatura for cancelada
+                        while (active && !shutdown) {
+                            if (queue.offer(event, 100, TimeUnit.MILLISECONDS)) {
+                                return true;
+                            }
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                    drop();
+                    return false;
+                case DROP_OLDEST:
+                default:
+                    while (!queue.offer(event)) {
+                        if (queue.poll() != null) {
+                            drop();
+                        }
+                    }
+                    return true;
+            }
+        }
+        
+        private void drop() {
+            dropped.incrementAndGet();
+            droppedEvents.incrementAndGet();
+        }
+        
+        private void schedule() {
+            if (scheduled.compareAndSet(false, true)) {
+                try {
+                    executor.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    // Barramento encerrado: os eventos pendentes são descartados
+                    scheduled.set(false);
+                }
+            }
+        }
+        
+        private void drain() {
+            try {
+                // Limita as entregas por execução para não monopolizar uma thread do executor
+                for (int i = 0; i < MAX_DELIVERIES_PER_RUN && active; i++) {
+                    Object event = queue.poll();
+                    if (event == null) {
+                        break;
+                    }
+                    invoke(event);
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            if (active && !queue.isEmpty()) {
+                schedule();
+            }
+        }
+        
+        private void invoke(Object event) {
+            try {
+                handler.handle(event);
+            } catch (RuntimeException e) {
+                log.error("Erro no assinante de {} ao tratar {}", type.getSimpleName(), event.getClass().getSimpleName(), e);
+            }
+        }
+        
+        @Override
+        public void unsubscribe() {
+            active = false;
+            remove(this);
+            if (queue != null) {
+                queue.clear();
+            }
+        }
+        
+        @Override
+        public boolean isAsync() {
+            return queue != null;
+        }
+        
+        @Override
+        public int getQueueDepth() {
+            return queue != null ? queue.size() : 0;
+        }
+        
+        @Override
+        public long getDroppedCount() {
+            return dropped.get();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.chatrmi.observer;
+
+/**
+ * Assinante de um tipo de evento do {@link EventBus}
+ * @param <E> Tipo do evento
+ */
+@FunctionalInterface
+public interface EventHandler<E> {
+    
+    /**
+     * Método chamado para cada evento publicado do tipo assinado
+     * @param event Evento publicado
+     */
+    void handle(E event);
+}
@@ -0,0 +1,23 @@
+package com.chatrmi.observer;
+
+/**
+ * O que fazer quando a fila de um assinante assíncrono do {@link EventBus} está cheia
+ */
+public enum OverflowPolicy {
+    
+    /**
+     * Descarta o evento que está sendo publicado
+     */
+    DROP_NEWEST,
+    
+    /**
+     * Descarta o evento mais antigo da fila para abrir espaço ao novo
+     */
+    DROP_OLDEST,
+    
+    /**
+     * Bloqueia quem publica até haver espaço (nenhum evento é perdido, mas um
+     * assinante lento volta a atrasar a publicação)
+     */
+    BLOCK
+}
@@ -0,0 +1,47 @@
+package com.chatrmi.persistence;
+
+import com.chatrmi.logging.Logger;
+
+/**
+ * Quando os registros gravados em disco são forçados (fsync) para o meio físico
+ */
+public enum FsyncPolicy {
+    
+    /**
+     * Cada lote gravado é forçado antes de confirmar as escritas que ele contém.
+     * Nenhuma escrita confirmada é perdida em queda de energia.
+     */
+    ALWAYS,
+    
+    /**
+     * Força periodicamente (fsyncIntervalMs); uma queda pode perder o último intervalo
+     */
+    INTERVAL,
+    
+    /**
+     * Deixa a escrita física a cargo do sistema operacional (força apenas ao
+     * trocar de segmento e ao fechar)
+     */
+    NEVER;
+    
+    private static final Logger log = Logger.get(FsyncPolicy.class);
+    
+    /**
+     * Lê a política de uma propriedade de sistema
+     * @param property Nome da propriedade
+     * @param defaultPolicy Política usada se a propriedade estiver ausente ou inválida
+     * @return Política configurada
+     */
+    public static FsyncPolicy fromSystemProperty(String property, FsyncPolicy defaultPolicy) {
+        String value = System.getProperty(property);
+        if (value == null || value.trim().isEmpty()) {
+            return defaultPolicy;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Política de fsync desconhecida: {}. Usando {}", value, defaultPolicy);
+            return defaultPolicy;
+        }
+    }
+}
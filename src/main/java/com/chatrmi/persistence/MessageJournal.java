@@ -0,0 +1,380 @@
+package com.chatrmi.persistence;
+
+import com.chatrmi.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Journal durável das mensagens e arquivos do chat global e dos grupos
+ * Cada entrada recebe um número de sequência por canal (os mesmos nomes de
+ * canal usados em ChatService) e é gravada num {@link SegmentedLog}.
+ *
+ * A cada troca de segmento é gravado um checkpoint com a última sequência de
+ * cada canal; a abertura carrega o checkpoint e varre apenas os registros
+ * posteriores a ele, o que mantém a recuperação rápida mesmo com vários GB.
+ *
+ * Uma gravação que falha devolve a sua sequência ao canal, para a próxima
+ * entrada, a menos que uma entrada posterior do mesmo canal já tenha recebido
+ * a seguinte: aí a sequência fica sem entrada, como um buraco no canal.
+ */
+public class MessageJournal implements Closeable {
+    
+    private static final Logger log = Logger.get(MessageJournal.class);
+    private static final String LOG_PREFIX = "messages";
+    private static final String CHECKPOINT_FILE = "messages.ckpt";
+    private static final int CHECKPOINT_MAGIC = 0x43484B31; // "CHK1"
+    
+    /**
+     * Tipo de entrada do journal
+     */
+    public enum EntryType {
+        MESSAGE,
+        FILE
+    }
+    
+    /**
+     * Entrada lida do journal
+     */
+    public static final class Entry {
+        private final String channel;
+        private final long seq;
+        private final long timestamp;
+        private final EntryType type;
+        private final String username;
+        private final String content;
+        
+        Entry(String channel, long seq, long timestamp, EntryType type, String username, String content) {
+            this.channel = channel;
+            this.seq = seq;
+            this.timestamp = timestamp;
+            this.type = type;
+            this.username = username;
+            this.content = content;
+        }
+        
+        public String getChannel() { return channel; }
+        public long getSeq() { return seq; }
+        public long getTimestamp() { return timestamp; }
+        public EntryType getType() { return type; }
+        public String getUsername() { return username; }
+        
+        /**
+         * @return Texto da mensagem, ou nome do arquivo
+         */
+        public String getContent() { return content; }
+    }
+    
+    /**
+     * Entrada com sequência atribuída cuja gravação ainda não foi avisada
+     */
+    private static final class Pending {
+        static final int WRITING = 0;
+        static final int WRITTEN = 1;
+        static final int FAILED = 2;
+        
+        final long seq;
+        final LongConsumer onWritten;
+        int state = WRITING; // alterado com o lock do journal
+        
+        Pending(long seq, LongConsumer onWritten) {
+            this.seq = seq;
+            this.onWritten = onWritten;
+        }
+    }
+    
+    private final File dir;
+    private final SegmentedLog wal;
+    private final Object lock = new Object();
+    private final Map<String, Long> channelSeqs = new HashMap<>(); // canal -> última sequência
+    private final Map<String, Long> confirmedSeqs = new HashMap<>(); // canal -> última sequência gravada e avisada
+    private final Map<String, ArrayDeque<Pending>> pending = new HashMap<>(); // canal -> entradas ainda sendo gravadas, em ordem
+    private final long recoveryMillis;
+    
+    public MessageJournal(File dir) throws IOException {
+        this(dir, SegmentedLog.Settings.fromSystemProperties("chatrmi.journal"));
+    }
+    
+    /**
+     * Abre o journal, recuperando as sequências de cada canal
+     * @param dir Diretório do journal
+     * @param settings Configuração dos segmentos e da política de fsync
+     */
+    public MessageJournal(File dir, SegmentedLog.Settings settings) throws IOException {
+        long start = System.nanoTime();
+        this.dir = dir;
+        this.wal = new SegmentedLog(dir, LOG_PREFIX, settings, this::writeCheckpoint);
+        
+        long fromLsn = readCheckpoint();
+        wal.scan(fromLsn, (lsn, payload) -> {
+            payload.get(); // tipo
+            long seq = payload.getLong();
+            payload.getLong(); // instante
+            String channel = readString(payload);
+            channelSeqs.merge(channel, seq, Math::max);
+        });
+        confirmedSeqs.putAll(channelSeqs);
+        this.recoveryMillis = (System.nanoTime() - start) / 1_000_000;
+    }
+    
+    /**
+     * Grava uma entrada
+     * Retorna depois da gravação (e do fsync, se a política for ALWAYS).
+     * @param channel Canal da entrada
+     * @param type Tipo da entrada
+     * @param username Autor
+     * @param content Texto da mensagem ou nome do arquivo
+     * @return Sequência da entrada no canal
+     */
+    public long append(String channel, EntryType type, String username, String content) throws IOException {
+        return append(channel, 0, System.currentTimeMillis(), type, username, content);
+    }
+    
+    /**
+     * Grava uma entrada com sequência e instante definidos por quem chama
+     * Usado pelo servidor de reserva, que recebe as entradas já numeradas pelo
+     * primário; uma sequência que o canal já tem é ignorada.
+     * @param channel Canal da entrada
+     * @param seq Sequência da entrada no canal; 0 para a próxima
+     * @param timestamp Instante da entrada
+     * @param type Tipo da entrada
+     * @param username Autor
+     * @param content Texto da mensagem ou nome do arquivo
+     * @return Sequência da entrada no canal
+     */
+    public long append(String channel, long seq, long timestamp, EntryType type, String username, String content) throws IOException {
+        return append(channel, seq, timestamp, type, username, content, null);
+    }
+    
+    /**
+     * Grava uma entrada e avisa a sequência atribuída quando a gravação termina
+     * Quem recebe o aviso vê as entradas de cada canal na ordem das sequências,
+     * mesmo com gravações concorrentes (o primário repassa assim à reserva):
+     * o aviso de uma entrada espera o das anteriores do mesmo canal.
+     * @param onWritten Chamado com a sequência, com o lock do journal, depois
+     *                  da gravação; não é chamado se ela falhar. Pode ser null
+     * @see #append(String, long, long, EntryType, String, String)
+     */
+    public long append(String channel, long seq, long timestamp, EntryType type, String username, String content,
+                       LongConsumer onWritten) throws IOException {
+        CompletableFuture<Long> written;
+        Pending entry;
+        // Sequência e posição na fila de escrita são definidas juntas, para que
+        // a ordem no journal siga a ordem das sequências de cada canal
+        synchronized (lock) {
+            long last = channelSeqs.getOrDefault(channel, 0L);
+            if (seq == 0) {
+                seq = last + 1;
+            } else if (seq <= last) {
+                return seq;
+            }
+            written = wal.appendAsync(encode(type, seq, timestamp, channel, username, content));
+            channelSeqs.put(channel, seq);
+            entry = new Pending(seq, onWritten);
+            pending.computeIfAbsent(channel, c -> new ArrayDeque<>()).add(entry);
+        }
+        boolean ok = false;
+        try {
+            SegmentedLog.await(written);
+            ok = true;
+        } finally {
+            finish(channel, entry, ok);
+        }
+        return seq;
+    }
+    
+    /**
+     * Registra o fim da gravação de uma entrada e avisa as que já podem ser avisadas
+     * Se ela falhou e ainda é a última do canal, a sequência do canal volta
+     * para a última entrada gravada ou ainda em gravação.
+     */
+    private void finish(String channel, Pending entry, boolean ok) {
+        synchronized (lock) {
+            entry.state = ok ? Pending.WRITTEN : Pending.FAILED;
+            ArrayDeque<Pending> queue = pending.get(channel);
+            if (!ok && channelSeqs.get(channel) == entry.seq) {
+                long previous = confirmedSeqs.getOrDefault(channel, 0L);
+                for (Pending other : queue) {
+                    if (other != entry && other.state != Pending.FAILED) {
+                        previous = other.seq;
+                    }
+                }
+                channelSeqs.put(channel, previous);
+            }
+            while (!queue.isEmpty() && queue.peek().state != Pending.WRITING) {
+                Pending head = queue.poll();
+                if (head.state == Pending.WRITTEN) {
+                    confirmedSeqs.put(channel, head.seq);
+                    if (head.onWritten != null) {
+                        head.onWritten.accept(head.seq);
+                    }
+                }
+            }
+            if (queue.isEmpty()) {
+                pending.remove(channel);
+            }
+        }
+    }
+    
+    /**
+     * Lê todas as entradas gravadas, em ordem de gravação
+     * @param consumer Destino das entradas
+     */
+    public void forEach(Consumer<Entry> consumer) throws IOException {
+        wal.scan(0, (lsn, payload) -> consumer.accept(decode(payload)));
+    }
+    
+    /**
+     * @param channel Nome do canal
+     * @return Última sequência gravada no canal, ou 0
+     */
+    public long getLastSeq(String channel) {
+        synchronized (lock) {
+            return channelSeqs.getOrDefault(channel, 0L);
+        }
+    }
+    
+    /**
+     * @return Tempo gasto na recuperação ao abrir o journal
+     */
+    public long getRecoveryMillis() {
+        return recoveryMillis;
+    }
+    
+    public int getSegmentCount() {
+        return wal.getSegmentCount();
+    }
+    
+    @Override
+    public void close() throws IOException {
+        wal.close();
+        writeCheckpoint(wal.getCommittedLsn());
+    }
+    
+    private static byte[] encode(EntryType type, long seq, long timestamp, String channel, String username, String content) {
+        byte[] channelBytes = channel.getBytes(StandardCharsets.UTF_8);
+        byte[] userBytes = username.getBytes(StandardCharsets.UTF_8);
+        byte[] contentBytes = content.getBytes(StandardCharsets.UTF_8);
+        ByteBuffer buffer = ByteBuffer.allocate(1 + 8 + 8 + 3 * 4 + channelBytes.length + userBytes.length + contentBytes.length);
+        buffer.put((byte) type.ordinal());
+        buffer.putLong(seq);
+        buffer.putLong(timestamp);
+        buffer.putInt(channelBytes.length).put(channelBytes);
+        buffer.putInt(userBytes.length).put(userBytes);
+        buffer.putInt(contentBytes.length).put(contentBytes);
+        return buffer.array();
+    }
+    
+    private static Entry decode(ByteBuffer payload) {
+        EntryType type = EntryType.values()[payload.get()];
+        long seq = payload.getLong();
+        long timestamp = payload.getLong();
+        String channel = readString(payload);
+        String username = readString(payload);
+        String content = readString(payload);
+        return new Entry(channel, seq, timestamp, type, username, content);
+    }
+    
+    private static String readString(ByteBuffer payload) {
+        int length = payload.getInt();
+        byte[] bytes = new byte[length];
+        payload.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+    
+    /**
+     * Grava as sequências atuais como válidas para os registros anteriores a lsn
+     * (sequências ainda na fila de escrita também entram: no pior caso a
+     * recuperação pula sequências, mas nunca as repete)
+     */
+    private void writeCheckpoint(long lsn) {
+        Map<String, Long> seqs;
+        synchronized (lock) {
+            seqs = new HashMap<>(channelSeqs);
+        }
+        File target = new File(dir, CHECKPOINT_FILE);
+        File temp = new File(dir, CHECKPOINT_FILE + ".tmp");
+        try {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (DataOutputStream out = new DataOutputStream(bytes)) {
+                out.writeLong(lsn);
+                out.writeInt(seqs.size());
+                for (Map.Entry<String, Long> entry : seqs.entrySet()) {
+                    out.writeUTF(entry.getKey());
+                    out.writeLong(entry.getValue());
+                }
+            }
+            byte[] body = bytes.toByteArray();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            try (FileOutputStream file = new FileOutputStream(temp);
+                 DataOutputStream out = new DataOutputStream(new BufferedOutputStream(file))) {
+                out.writeInt(CHECKPOINT_MAGIC);
+                out.writeInt((int) crc.getValue());
+                out.write(body);
+                out.flush();
+                file.getFD().sync();
+            }
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            log.error("[JOURNAL] Falha ao gravar checkpoint: {}", e.getMessage());
+        }
+    }
+    
+    /**
+     * Carrega o checkpoint, se houver um válido
+     * @return LSN a partir do qual o journal precisa ser varrido
+     */
+    private long readCheckpoint() {
+        File file = new File(dir, CHECKPOINT_FILE);
+        if (!file.isFile()) {
+            return 0;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != CHECKPOINT_MAGIC) {
+                throw new IOException("formato desconhecido");
+            }
+            int expectedCrc = in.readInt();
+            byte[] body = in.readAllBytes();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != expectedCrc) {
+                throw new IOException("CRC inválido");
+            }
+            DataInputStream data = new DataInputStream(new ByteArrayInputStream(body));
+            long lsn = data.readLong();
+            if (lsn > wal.getCommittedLsn()) {
+                throw new IOException("checkpoint à frente do journal");
+            }
+            int count = data.readInt();
+            for (int i = 0; i < count; i++) {
+                channelSeqs.put(data.readUTF(), data.readLong());
+            }
+            return lsn;
+        } catch (IOException e) {
+            log.warn("[JOURNAL] Checkpoint ignorado ({}), varrendo o journal inteiro", e.getMessage());
+            channelSeqs.clear();
+            return 0;
+        }
+    }
+}
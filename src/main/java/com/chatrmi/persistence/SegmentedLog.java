@@ -0,0 +1,537 @@
+package com.chatrmi.persistence;
+
+import com.chatrmi.logging.Logger;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NavigableSet;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+
+/**
+ * Log somente-anexação dividido em segmentos
+ * Cada registro recebe um número sequencial global (LSN) e é gravado como
+ * [tamanho][crc32][dados]. Uma única thread escritora agrupa as escritas
+ * pendentes (group commit) em uma só chamada de escrita e, conforme a
+ * {@link FsyncPolicy}, um só fsync por lote.
+ *
+ * Os segmentos são nomeados pelo LSN do primeiro registro, de modo que a
+ * abertura só precisa varrer o último segmento (para descartar uma cauda
+ * incompleta deixada por uma queda), independentemente do tamanho total.
+ *
+ * Um lote que falha é removido do segmento (e os LSNs voltam atrás), para que
+ * nada recusado a quem chamou reapareça na recuperação. Se nem isso for
+ * possível, o log passa a recusar todas as escritas seguintes.
+ */
+public class SegmentedLog implements Closeable {
+    
+    private static final Logger log = Logger.get(SegmentedLog.class);
+    private static final int HEADER_BYTES = 8; // tamanho + crc32
+    private static final int MAX_RECORD_BYTES = 16 * 1024 * 1024;
+    private static final int READ_BUFFER_BYTES = 1024 * 1024;
+    
+    /**
+     * Recebe os registros lidos por scan()
+     */
+    public interface RecordHandler {
+        void onRecord(long lsn, ByteBuffer payload) throws IOException;
+    }
+    
+    /**
+     * Avisado (na thread escritora) quando um segmento é fechado e outro iniciado
+     */
+    public interface RollListener {
+        /**
+         * @param nextLsn LSN do primeiro registro do novo segmento
+         */
+        void onRoll(long nextLsn);
+    }
+    
+    /**
+     * Configuração do log
+     */
+    public static class Settings {
+        public long segmentBytes = 64L * 1024 * 1024;
+        public FsyncPolicy fsyncPolicy = FsyncPolicy.INTERVAL;
+        public long fsyncIntervalMs = 1000;
+        public int maxBatchRecords = 4096;
+        
+        /**
+         * Lê a configuração das propriedades &lt;prefixo&gt;.segmentBytes,
+         * &lt;prefixo&gt;.fsync e &lt;prefixo&gt;.fsyncIntervalMs
+         */
+        public static Settings fromSystemProperties(String prefix) {
+            Settings settings = new Settings();
+            settings.segmentBytes = Long.getLong(prefix + ".segmentBytes", settings.segmentBytes);
+            settings.fsyncPolicy = FsyncPolicy.fromSystemProperty(prefix + ".fsync", settings.fsyncPolicy);
+            settings.fsyncIntervalMs = Long.getLong(prefix + ".fsyncIntervalMs", settings.fsyncIntervalMs);
+            return settings;
+        }
+    }
+    
+    private final File dir;
+    private final String prefix;
+    private final Pattern segmentPattern;
+    private final Settings settings;
+    private final RollListener rollListener;
+    
+    private static final PendingAppend CLOSE = new PendingAppend(new byte[0]);
+    
+    private final BlockingQueue<PendingAppend> queue = new LinkedBlockingQueue<>();
+    private final NavigableSet<Long> segments = new ConcurrentSkipListSet<>(); // LSN inicial de cada segmento
+    private final Thread writer;
+    private volatile boolean closed;
+    private volatile IOException failure; // falha que não pôde ser desfeita; recusa as escritas seguintes
+    private volatile long committedLsn; // próximo LSN ainda não gravado
+    
+    // Estado da thread escritora
+    private FileChannel active;
+    private long activeSize;
+    private long nextLsn;
+    private ByteBuffer writeBuffer = ByteBuffer.allocateDirect(256 * 1024);
+    private boolean dirty;
+    private long lastSync = System.currentTimeMillis();
+    
+    /**
+     * Abre (ou cria) o log, recuperando o último segmento
+     * @param dir Diretório dos segmentos
+     * @param prefix Prefixo dos arquivos de segmento
+     * @param settings Configuração
+     * @param rollListener Avisado a cada troca de segmento, ou null
+     */
+    public SegmentedLog(File dir, String prefix, Settings settings, RollListener rollListener) throws IOException {
+        this.dir = dir;
+        this.prefix = prefix;
+        this.segmentPattern = Pattern.compile(Pattern.quote(prefix) + "-(\\d{20})\\.log");
+        this.settings = settings;
+        this.rollListener = rollListener;
+        
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Não foi possível criar o diretório " + dir);
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                Matcher matcher = segmentPattern.matcher(file.getName());
+                if (matcher.matches()) {
+                    segments.add(Long.parseLong(matcher.group(1)));
+                }
+            }
+        }
+        if (segments.isEmpty()) {
+            segments.add(0L);
+        }
+        recoverLastSegment();
+        
+        this.writer = new Thread(this::writeLoop, "log-writer-" + prefix);
+        this.writer.setDaemon(true);
+        this.writer.start();
+    }
+    
+    private void recoverLastSegment() throws IOException {
+        long firstLsn = segments.last();
+        File file = segmentFile(firstLsn);
+        active = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        long[] result = scanSegment(active, firstLsn, Long.MAX_VALUE, Long.MAX_VALUE, null, false);
+        long validBytes = result[0];
+        if (validBytes < active.size()) {
+            log.warn("Descartando {} bytes incompletos no fim de {}", active.size() - validBytes, file.getName());
+            active.truncate(validBytes);
+            active.force(true);
+        }
+        active.position(validBytes);
+        activeSize = validBytes;
+        nextLsn = firstLsn + result[1];
+        committedLsn = nextLsn;
+    }
+    
+    /**
+     * Anexa um registro sem esperar pela gravação
+     * @param payload Dados do registro
+     * @return Futuro concluído com o LSN quando o registro estiver gravado
+     *         (e forçado, se a política for ALWAYS)
+     */
+    public CompletableFuture<Long> appendAsync(byte[] payload) {
+        if (payload.length > MAX_RECORD_BYTES) {
+            throw new IllegalArgumentException("Registro maior que " + MAX_RECORD_BYTES + " bytes");
+        }
+        PendingAppend pending = new PendingAppend(payload);
+        if (closed) {
+            pending.future.completeExceptionally(new IOException("Log fechado"));
+            return pending.future;
+        }
+        if (failure != null) {
+            pending.future.completeExceptionally(new IOException("Log " + prefix + " desativado após falha de gravação", failure));
+            return pending.future;
+        }
+        queue.add(pending);
+        return pending.future;
+    }
+    
+    /**
+     * Anexa um registro e espera pela gravação
+     * @param payload Dados do registro
+     * @return LSN do registro
+     */
+    public long append(byte[] payload) throws IOException {
+        return await(appendAsync(payload));
+    }
+    
+    /**
+     * Espera por um futuro devolvido por appendAsync
+     * @return LSN do registro
+     */
+    public static long await(CompletableFuture<Long> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Espera pela gravação interrompida", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            throw cause instanceof IOException ? (IOException) cause : new IOException(cause);
+        }
+    }
+    
+    private void writeLoop() {
+        List<PendingAppend> batch = new ArrayList<>();
+        boolean stop = false;
+        while (!stop) {
+            PendingAppend first;
+            try {
+                first = queue.poll(pollTimeoutMs(), TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                continue;
+            }
+            if (first == null) {
+                syncIfDue();
+                continue;
+            }
+            batch.add(first);
+            queue.drainTo(batch, settings.maxBatchRecords - 1);
+            // O marcador de fechamento é o último item aceito na fila
+            stop = batch.remove(CLOSE);
+            if (!batch.isEmpty()) {
+                writeBatch(batch);
+            }
+            batch.clear();
+        }
+    }
+    
+    private long pollTimeoutMs() {
+        return settings.fsyncPolicy == FsyncPolicy.INTERVAL && dirty
+            ? Math.max(1, settings.fsyncIntervalMs - (System.currentTimeMillis() - lastSync))
+            : 1000;
+    }
+    
+    private void writeBatch(List<PendingAppend> batch) {
+        if (failure != null) {
+            for (PendingAppend pending : batch) {
+                pending.future.completeExceptionally(new IOException("Log " + prefix + " desativado após falha de gravação", failure));
+            }
+            return;
+        }
+        // Ponto para onde o lote é desfeito se falhar
+        long startSize = activeSize;
+        long startLsn = nextLsn;
+        int durable = 0; // registros do lote já forçados no segmento anterior a uma troca
+        try {
+            for (int i = 0; i < batch.size(); i++) {
+                PendingAppend pending = batch.get(i);
+                int recordBytes = HEADER_BYTES + pending.payload.length;
+                long batchBytes = writeBuffer.position();
+                if (activeSize + batchBytes > 0 && activeSize + batchBytes + recordBytes > settings.segmentBytes) {
+                    flushBuffer();
+                    sync();
+                    durable = i;
+                    roll();
+                    startSize = 0;
+                    startLsn = nextLsn;
+                }
+                if (writeBuffer.remaining() < recordBytes) {
+                    flushBuffer();
+                    if (writeBuffer.capacity() < recordBytes) {
+                        writeBuffer = ByteBuffer.allocateDirect(recordBytes);
+                    }
+                }
+                CRC32 crc = new CRC32();
+                crc.update(pending.payload);
+                writeBuffer.putInt(pending.payload.length);
+                writeBuffer.putInt((int) crc.getValue());
+                writeBuffer.put(pending.payload);
+                pending.lsn = nextLsn++;
+            }
+            flushBuffer();
+            if (settings.fsyncPolicy == FsyncPolicy.ALWAYS) {
+                sync();
+            } else {
+                syncIfDue();
+            }
+            committedLsn = nextLsn;
+            for (PendingAppend pending : batch) {
+                pending.future.complete(pending.lsn);
+            }
+        } catch (IOException e) {
+            log.error("Erro ao gravar em {}: {}", prefix, e.getMessage());
+            try {
+                discard(startSize, startLsn);
+                log.warn("Lote de {} registro(s) removido de {}; LSN de volta a {}", batch.size() - durable, prefix, startLsn);
+            } catch (IOException rollbackError) {
+                failure = e;
+                log.error("Não foi possível desfazer o lote em {} ({}); log desativado", prefix, rollbackError.getMessage());
+            }
+            for (int i = 0; i < batch.size(); i++) {
+                PendingAppend pending = batch.get(i);
+                if (i < durable) {
+                    pending.future.complete(pending.lsn);
+                } else {
+                    pending.future.completeExceptionally(e);
+                }
+            }
+        }
+    }
+    
+    /**
+     * Remove do segmento ativo o que foi escrito depois de um ponto
+     */
+    private void discard(long size, long lsn) throws IOException {
+        writeBuffer.clear();
+        active.truncate(size);
+        active.position(size);
+        active.force(false);
+        activeSize = size;
+        nextLsn = lsn;
+    }
+    
+    private void flushBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            activeSize += active.write(writeBuffer);
+        }
+        writeBuffer.clear();
+        dirty = true;
+    }
+    
+    private void syncIfDue() {
+        if (dirty && settings.fsyncPolicy == FsyncPolicy.INTERVAL
+                && System.currentTimeMillis() - lastSync >= settings.fsyncIntervalMs) {
+            try {
+                sync();
+            } catch (IOException e) {
+                log.error("Erro no fsync de {}: {}", prefix, e.getMessage());
+            }
+        }
+    }
+    
+    private void sync() throws IOException {
+        active.force(false);
+        dirty = false;
+        lastSync = System.currentTimeMillis();
+    }
+    
+    private void roll() throws IOException {
+        sync();
+        active.close();
+        committedLsn = nextLsn;
+        active = FileChannel.open(segmentFile(nextLsn).toPath(),
+            StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        activeSize = 0;
+        segments.add(nextLsn);
+        if (rollListener != null) {
+            rollListener.onRoll(nextLsn);
+        }
+    }
+    
+    /**
+     * Lê em ordem os registros gravados a partir de um LSN
+     * Registros anexados durante a leitura podem não ser incluídos.
+     * @param fromLsn Primeiro LSN desejado
+     * @param handler Destino dos registros
+     */
+    public void scan(long fromLsn, RecordHandler handler) throws IOException {
+        long endLsn = committedLsn;
+        Long start = segments.floor(fromLsn);
+        if (start == null) {
+            start = segments.first();
+        }
+        for (Long firstLsn : segments.tailSet(start, true)) {
+            if (firstLsn >= endLsn) {
+                break;
+            }
+            try (FileChannel channel = FileChannel.open(segmentFile(firstLsn).toPath(), StandardOpenOption.READ)) {
+                scanSegment(channel, firstLsn, fromLsn, endLsn, handler, true);
+            }
+        }
+    }
+    
+    /**
+     * Varre um segmento validando cada registro
+     * @return {bytes válidos, quantidade de registros válidos}
+     */
+    private long[] scanSegment(FileChannel channel, long firstLsn, long fromLsn, long endLsn,
+                               RecordHandler handler, boolean failOnCorruption) throws IOException {
+        SegmentReader reader = new SegmentReader(channel);
+        CRC32 crc = new CRC32();
+        long count = 0;
+        while (firstLsn + count < endLsn && reader.ensure(HEADER_BYTES)) {
+            ByteBuffer buffer = reader.buffer;
+            int length = buffer.getInt(buffer.position());
+            int expectedCrc = buffer.getInt(buffer.position() + 4);
+            boolean valid = length >= 0 && length <= MAX_RECORD_BYTES && reader.ensure(HEADER_BYTES + length);
+            ByteBuffer payload = null;
+            if (valid) {
+                buffer = reader.buffer;
+                payload = buffer.duplicate();
+                payload.position(buffer.position() + HEADER_BYTES).limit(buffer.position() + HEADER_BYTES + length);
+                crc.reset();
+                crc.update(payload.duplicate());
+                valid = (int) crc.getValue() == expectedCrc;
+            }
+            if (!valid) {
+                if (failOnCorruption) {
+                    throw new IOException("Registro inválido no LSN " + (firstLsn + count) + " de " + prefix);
+                }
+                break;
+            }
+            long lsn = firstLsn + count;
+            if (handler != null && lsn >= fromLsn) {
+                handler.onRecord(lsn, payload.slice());
+            }
+            buffer.position(buffer.position() + HEADER_BYTES + length);
+            count++;
+        }
+        return new long[] {reader.offset(), count};
+    }
+    
+    /**
+     * Leitura bufferizada de um segmento, acompanhando a posição no arquivo
+     */
+    private static final class SegmentReader {
+        private final FileChannel channel;
+        private ByteBuffer buffer = ByteBuffer.allocate(READ_BUFFER_BYTES);
+        private long bufferStart; // posição no arquivo do índice 0 do buffer
+        
+        SegmentReader(FileChannel channel) throws IOException {
+            this.channel = channel;
+            channel.position(0);
+            buffer.limit(0);
+        }
+        
+        /**
+         * Garante ao menos n bytes disponíveis a partir da posição atual
+         * @return false se o arquivo acabou antes
+         */
+        boolean ensure(int n) throws IOException {
+            if (buffer.remaining() >= n) {
+                return true;
+            }
+            bufferStart += buffer.position();
+            if (buffer.capacity() < n) {
+                ByteBuffer larger = ByteBuffer.allocate(n);
+                larger.put(buffer);
+                buffer = larger;
+            } else {
+                buffer.compact();
+            }
+            try {
+                while (buffer.position() < n) {
+                    if (channel.read(buffer) < 0) {
+                        return false;
+                    }
+                }
+                return true;
+            } finally {
+                buffer.flip();
+            }
+        }
+        
+        /**
+         * @return Posição no arquivo logo após o último registro consumido
+         */
+        long offset() {
+            return bufferStart + buffer.position();
+        }
+    }
+    
+    /**
+     * Apaga os segmentos cujos registros são todos anteriores a um LSN
+     * (usado após gravar um snapshot que os torna desnecessários)
+     * @param lsn Primeiro LSN que deve ser preservado
+     * @return Quantidade de segmentos apagados
+     */
+    public int deleteSegmentsBefore(long lsn) {
+        int deleted = 0;
+        for (Long firstLsn : segments) {
+            Long next = segments.higher(firstLsn);
+            if (next == null || next > lsn || next > committedLsn) {
+                break;
+            }
+            if (segmentFile(firstLsn).delete() || !segmentFile(firstLsn).exists()) {
+                segments.remove(firstLsn);
+                deleted++;
+            }
+        }
+        return deleted;
+    }
+    
+    /**
+     * @return LSN que o próximo registro gravado receberá (registros já confirmados são menores)
+     */
+    public long getCommittedLsn() {
+        return committedLsn;
+    }
+    
+    public int getSegmentCount() {
+        return segments.size();
+    }
+    
+    private File segmentFile(long firstLsn) {
+        return new File(dir, String.format("%s-%020d.log", prefix, firstLsn));
+    }
+    
+    /**
+     * Grava as escritas pendentes, força o segmento atual e fecha o log
+     */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        queue.add(CLOSE);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        PendingAppend pending;
+        while ((pending = queue.poll()) != null) {
+            pending.future.completeExceptionally(new IOException("Log fechado"));
+        }
+        active.force(true);
+        active.close();
+    }
+    
+    private static final class PendingAppend {
+        final byte[] payload;
+        final CompletableFuture<Long> future = new CompletableFuture<>();
+        long lsn;
+        
+        PendingAppend(byte[] payload) {
+            this.payload = payload;
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.chatrmi.persistence;
+
+import java.io.IOException;
+
+/**
+ * Alterações de estado registradas no WAL e no snapshot
+ * Implementada pelo próprio StateStore (que as grava) e pelo servidor
+ * (que as aplica durante a recuperação).
+ */
+public interface StateMutations {
+    void userRegistered(String username, String passwordHash) throws IOException;
+    void groupCreated(String groupId, String groupName, String owner) throws IOException;
+    void memberAdded(String groupId, String username) throws IOException;
+    void memberRemoved(String groupId, String username) throws IOException;
+    void groupDeleted(String groupId) throws IOException;
+    void inviteAdded(String username, String groupId) throws IOException;
+    void inviteRemoved(String username, String groupId) throws IOException;
+    void requestAdded(String groupId, String username) throws IOException;
+    void requestRemoved(String groupId, String username) throws IOException;
+    
+    /**
+     * Número a partir do qual novos IDs de grupo podem ser gerados
+     */
+    void nextGroupId(int nextId) throws IOException;
+}
@@ -0,0 +1,497 @@
+package com.chatrmi.persistence;
+
+import com.chatrmi.logging.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+/**
+ * Armazenamento persistente de usuários, grupos, convites e solicitações
+ * Cada alteração é gravada num write-ahead log (WAL) antes de ser confirmada
+ * ao cliente. Periodicamente um snapshot compacto do estado é gravado e os
+ * segmentos do WAL anteriores a ele são apagados. A recuperação carrega o
+ * snapshot mais recente e reaplica apenas a cauda do WAL.
+ *
+ * O snapshot é tirado com o servidor em funcionamento. O estado é lido com
+ * a trava de alterações do chamador fechada: nenhuma alteração está entre a
+ * aplicação em memória e a gravação no WAL (ou a reversão, se a gravação
+ * falhar), então o snapshot contém exatamente o que foi gravado até o seu
+ * LSN. As operações continuam idempotentes (definem estado em vez de
+ * acumulá-lo), o que permite reaplicar o WAL sobre qualquer snapshot.
+ */
+public class StateStore implements StateMutations, Closeable {
+    
+    private static final Logger log = Logger.get(StateStore.class);
+    private static final String LOG_PREFIX = "state";
+    private static final Pattern SNAPSHOT_PATTERN = Pattern.compile("state-(\\d{20})\\.snap");
+    private static final int SNAPSHOT_MAGIC = 0x534E4150; // "SNAP"
+    private static final int SNAPSHOTS_KEPT = 2;
+    
+    private static final byte USER_REGISTERED = 1;
+    private static final byte GROUP_CREATED = 2;
+    private static final byte MEMBER_ADDED = 3;
+    private static final byte MEMBER_REMOVED = 4;
+    private static final byte GROUP_DELETED = 5;
+    private static final byte INVITE_ADDED = 6;
+    private static final byte INVITE_REMOVED = 7;
+    private static final byte REQUEST_ADDED = 8;
+    private static final byte REQUEST_REMOVED = 9;
+    private static final byte NEXT_GROUP_ID = 10;
+    
+    /**
+     * Fonte do estado atual para gravação de snapshots
+     */
+    public interface SnapshotSource {
+        /**
+         * Descreve o estado atual como uma sequência de alterações
+         */
+        void writeTo(StateMutations out) throws IOException;
+    }
+    
+    /**
+     * Resultado de uma recuperação
+     */
+    public static final class RecoveryStats {
+        private final long snapshotRecords;
+        private final long walRecords;
+        private final long millis;
+        
+        RecoveryStats(long snapshotRecords, long walRecords, long millis) {
+            this.snapshotRecords = snapshotRecords;
+            this.walRecords = walRecords;
+            this.millis = millis;
+        }
+        
+        public long getSnapshotRecords() { return snapshotRecords; }
+        public long getWalRecords() { return walRecords; }
+        public long getMillis() { return millis; }
+    }
+    
+    private final File dir;
+    private final SegmentedLog wal;
+    private final long snapshotEvery;
+    private final AtomicLong appendCount = new AtomicLong();
+    private final AtomicLong appendNanos = new AtomicLong();
+    private volatile long snapshotLsn;
+    
+    public StateStore(File dir) throws IOException {
+        this(dir, SegmentedLog.Settings.fromSystemProperties("chatrmi.state"),
+            Long.getLong("chatrmi.state.snapshotEvery", 100_000));
+    }
+    
+    /**
+     * @param dir Diretório do WAL e dos snapshots
+     * @param settings Configuração do WAL
+     * @param snapshotEvery Quantidade de registros no WAL que torna um novo snapshot devido
+     */
+    public StateStore(File dir, SegmentedLog.Settings settings, long snapshotEvery) throws IOException {
+        this.dir = dir;
+        this.wal = new SegmentedLog(dir, LOG_PREFIX, settings, null);
+        this.snapshotEvery = Math.max(1, snapshotEvery);
+    }
+    
+    /**
+     * Reconstrói o estado: carrega o snapshot mais recente e reaplica o WAL
+     * @param target Destino das alterações
+     * @return Estatísticas da recuperação
+     */
+    public RecoveryStats recover(StateMutations target) throws IOException {
+        long start = System.nanoTime();
+        long snapshotRecords = 0;
+        snapshotLsn = 0;
+        // O mais recente que estiver íntegro; o anterior é mantido justamente para este caso
+        for (File snapshot : listSnapshots()) {
+            if (verifySnapshot(snapshot)) {
+                long[] result = readSnapshot(snapshot, target);
+                snapshotLsn = result[0];
+                snapshotRecords = result[1];
+                break;
+            }
+            log.warn("[ESTADO] Snapshot corrompido ignorado: {}", snapshot.getName());
+        }
+        long[] walRecords = {0};
+        long fromLsn = snapshotLsn;
+        wal.scan(fromLsn, (lsn, payload) -> {
+            if (walRecords[0] == 0 && lsn != fromLsn) {
+                throw new IOException("WAL sem os registros " + fromLsn + " a " + (lsn - 1) + " (segmentos apagados sem snapshot válido)");
+            }
+            apply(payload, target);
+            walRecords[0]++;
+        });
+        return new RecoveryStats(snapshotRecords, walRecords[0], (System.nanoTime() - start) / 1_000_000);
+    }
+    
+    /**
+     * @return true se o WAL cresceu o bastante desde o último snapshot
+     */
+    public boolean isSnapshotDue() {
+        return wal.getCommittedLsn() - snapshotLsn >= snapshotEvery;
+    }
+    
+    /**
+     * Grava um snapshot do estado atual
+     * Os dois snapshots mais recentes são mantidos, e o WAL é descartado
+     * apenas até o mais antigo deles: se o último estiver danificado, a
+     * recuperação ainda pode partir do anterior.
+     * @param gate Trava exclusiva das alterações; fechada só enquanto o estado é lido para a memória
+     * @param source Estado atual
+     */
+    public synchronized void snapshot(Lock gate, SnapshotSource source) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        long lsn;
+        gate.lock();
+        try {
+            // Sem alterações em andamento: o estado é exatamente o que foi gravado até este LSN
+            lsn = wal.getCommittedLsn();
+            source.writeTo(recordWriter(records::add));
+        } finally {
+            gate.unlock();
+        }
+        File target = snapshotFile(lsn);
+        File temp = new File(dir, target.getName() + ".tmp");
+        try (FileOutputStream file = new FileOutputStream(temp)) {
+            CheckedOutputStream checked = new CheckedOutputStream(new BufferedOutputStream(file, 1 << 16), new CRC32());
+            DataOutputStream out = new DataOutputStream(checked);
+            out.writeInt(SNAPSHOT_MAGIC);
+            out.writeLong(lsn);
+            // Registros [tamanho][dados]
+            for (byte[] record : records) {
+                out.writeInt(record.length);
+                out.write(record);
+            }
+            out.writeInt(-1); // fim dos registros
+            out.flush();
+            long crc = checked.getChecksum().getValue();
+            out.writeInt((int) crc);
+            out.flush();
+            file.getFD().sync();
+        }
+        Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        snapshotLsn = lsn;
+        
+        List<File> snapshots = listSnapshots();
+        for (int i = SNAPSHOTS_KEPT; i < snapshots.size(); i++) {
+            snapshots.get(i).delete();
+        }
+        if (snapshots.size() >= SNAPSHOTS_KEPT) {
+            wal.deleteSegmentsBefore(lsnOf(snapshots.get(SNAPSHOTS_KEPT - 1)));
+        }
+    }
+    
+    /**
+     * @return Quantidade de alterações gravadas no WAL desde a abertura
+     */
+    public long getAppendCount() {
+        return appendCount.get();
+    }
+    
+    /**
+     * @return Tempo médio de gravação de uma alteração no WAL, em microssegundos
+     */
+    public double getAverageAppendMicros() {
+        long count = appendCount.get();
+        return count == 0 ? 0 : appendNanos.get() / 1000.0 / count;
+    }
+    
+    @Override
+    public void close() throws IOException {
+        wal.close();
+    }
+    
+    // ========== GRAVAÇÃO NO WAL ==========
+    
+    @Override
+    public void userRegistered(String username, String passwordHash) throws IOException {
+        log(USER_REGISTERED, username, passwordHash);
+    }
+    
+    @Override
+    public void groupCreated(String groupId, String groupName, String owner) throws IOException {
+        log(GROUP_CREATED, groupId, groupName, owner);
+    }
+    
+    @Override
+    public void memberAdded(String groupId, String username) throws IOException {
+        log(MEMBER_ADDED, groupId, username);
+    }
+    
+    @Override
+    public void memberRemoved(String groupId, String username) throws IOException {
+        log(MEMBER_REMOVED, groupId, username);
+    }
+    
+    @Override
+    public void groupDeleted(String groupId) throws IOException {
+        log(GROUP_DELETED, groupId);
+    }
+    
+    @Override
+    public void inviteAdded(String username, String groupId) throws IOException {
+        log(INVITE_ADDED, username, groupId);
+    }
+    
+    @Override
+    public void inviteRemoved(String username, String groupId) throws IOException {
+        log(INVITE_REMOVED, username, groupId);
+    }
+    
+    @Override
+    public void requestAdded(String groupId, String username) throws IOException {
+        log(REQUEST_ADDED, groupId, username);
+    }
+    
+    @Override
+    public void requestRemoved(String groupId, String username) throws IOException {
+        log(REQUEST_REMOVED, groupId, username);
+    }
+    
+    @Override
+    public void nextGroupId(int nextId) throws IOException {
+        log(NEXT_GROUP_ID, Integer.toString(nextId));
+    }
+    
+    private void log(byte type, String... fields) throws IOException {
+        long start = System.nanoTime();
+        wal.append(encode(type, fields));
+        appendNanos.addAndGet(System.nanoTime() - start);
+        appendCount.incrementAndGet();
+    }
+    
+    // ========== CODIFICAÇÃO ==========
+    
+    private static byte[] encode(byte type, String... fields) {
+        byte[][] bytes = new byte[fields.length][];
+        int size = 1;
+        for (int i = 0; i < fields.length; i++) {
+            bytes[i] = fields[i].getBytes(StandardCharsets.UTF_8);
+            size += 4 + bytes[i].length;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(size);
+        buffer.put(type);
+        for (byte[] field : bytes) {
+            buffer.putInt(field.length).put(field);
+        }
+        return buffer.array();
+    }
+    
+    private static String field(ByteBuffer payload) {
+        int length = payload.getInt();
+        String value = new String(payload.array(), payload.arrayOffset() + payload.position(), length, StandardCharsets.UTF_8);
+        payload.position(payload.position() + length);
+        return value;
+    }
+    
+    private static void apply(ByteBuffer payload, StateMutations target) throws IOException {
+        ByteBuffer record = payload.hasArray() ? payload : copy(payload);
+        byte type = record.get();
+        switch (type) {
+            case USER_REGISTERED: target.userRegistered(field(record), field(record)); break;
+            case GROUP_CREATED: target.groupCreated(field(record), field(record), field(record)); break;
+            case MEMBER_ADDED: target.memberAdded(field(record), field(record)); break;
+            case MEMBER_REMOVED: target.memberRemoved(field(record), field(record)); break;
+            case GROUP_DELETED: target.groupDeleted(field(record)); break;
+            case INVITE_ADDED: target.inviteAdded(field(record), field(record)); break;
+            case INVITE_REMOVED: target.inviteRemoved(field(record), field(record)); break;
+            case REQUEST_ADDED: target.requestAdded(field(record), field(record)); break;
+            case REQUEST_REMOVED: target.requestRemoved(field(record), field(record)); break;
+            case NEXT_GROUP_ID: target.nextGroupId(Integer.parseInt(field(record))); break;
+            default: throw new IOException("Tipo de registro desconhecido: " + type);
+        }
+    }
+    
+    private static ByteBuffer copy(ByteBuffer payload) {
+        ByteBuffer copy = ByteBuffer.allocate(payload.remaining());
+        copy.put(payload.duplicate()).flip();
+        return copy;
+    }
+    
+    // ========== SNAPSHOTS ==========
+    
+    /**
+     * Destino dos registros codificados por {@link #recordWriter}
+     */
+    public interface RecordSink {
+        void write(byte[] record) throws IOException;
+    }
+    
+    /**
+     * Codifica as alterações no formato dos registros do WAL, sem gravá-las
+     * Usado pela replicação, que envia ao servidor de reserva os mesmos registros.
+     * @param sink Destino de cada registro
+     */
+    public static StateMutations recordWriter(RecordSink sink) {
+        return new RecordWriter(sink);
+    }
+    
+    /**
+     * Aplica um registro produzido por {@link #recordWriter}
+     * @param record Registro
+     * @param target Destino da alteração
+     */
+    public static void applyRecord(ByteBuffer record, StateMutations target) throws IOException {
+        apply(record, target);
+    }
+    
+    /**
+     * Codifica as alterações e as entrega a um {@link RecordSink}
+     */
+    private static final class RecordWriter implements StateMutations {
+        private final RecordSink sink;
+        
+        RecordWriter(RecordSink sink) {
+            this.sink = sink;
+        }
+        
+        private void write(byte type, String... fields) throws IOException {
+            sink.write(encode(type, fields));
+        }
+        
+        @Override
+        public void userRegistered(String username, String passwordHash) throws IOException {
+            write(USER_REGISTERED, username, passwordHash);
+        }
+        
+        @Override
+        public void groupCreated(String groupId, String groupName, String owner) throws IOException {
+            write(GROUP_CREATED, groupId, groupName, owner);
+        }
+        
+        @Override
+        public void memberAdded(String groupId, String username) throws IOException {
+            write(MEMBER_ADDED, groupId, username);
+        }
+        
+        @Override
+        public void memberRemoved(String groupId, String username) throws IOException {
+            write(MEMBER_REMOVED, groupId, username);
+        }
+        
+        @Override
+        public void groupDeleted(String groupId) throws IOException {
+            write(GROUP_DELETED, groupId);
+        }
+        
+        @Override
+        public void inviteAdded(String username, String groupId) throws IOException {
+            write(INVITE_ADDED, username, groupId);
+        }
+        
+        @Override
+        public void inviteRemoved(String username, String groupId) throws IOException {
+            write(INVITE_REMOVED, username, groupId);
+        }
+        
+        @Override
+        public void requestAdded(String groupId, String username) throws IOException {
+            write(REQUEST_ADDED, groupId, username);
+        }
+        
+        @Override
+        public void requestRemoved(String groupId, String username) throws IOException {
+            write(REQUEST_REMOVED, groupId, username);
+        }
+        
+        @Override
+        public void nextGroupId(int nextId) throws IOException {
+            write(NEXT_GROUP_ID, Integer.toString(nextId));
+        }
+    }
+    
+    /**
+     * @return Snapshots existentes, do mais recente para o mais antigo
+     */
+    private List<File> listSnapshots() {
+        File[] files = dir.listFiles((d, name) -> SNAPSHOT_PATTERN.matcher(name).matches());
+        List<File> result = files == null ? new ArrayList<>() : new ArrayList<>(Arrays.asList(files));
+        result.sort(Comparator.comparingLong(StateStore::lsnOf).reversed());
+        return result;
+    }
+    
+    private static long lsnOf(File file) {
+        Matcher matcher = SNAPSHOT_PATTERN.matcher(file.getName());
+        return matcher.matches() ? Long.parseLong(matcher.group(1)) : -1;
+    }
+    
+    /**
+     * Confere o CRC do snapshot antes de aplicá-lo, para nunca aplicar metade de um arquivo danificado
+     */
+    private static boolean verifySnapshot(File file) {
+        long length = file.length();
+        if (length < 4 + 8 + 4 + 4) {
+            return false;
+        }
+        try (InputStream in = new FileInputStream(file)) {
+            CheckedInputStream checked = new CheckedInputStream(new BufferedInputStream(in, 1 << 16), new CRC32());
+            byte[] buffer = new byte[1 << 16];
+            long remaining = length - 4;
+            while (remaining > 0) {
+                int read = checked.read(buffer, 0, (int) Math.min(buffer.length, remaining));
+                if (read < 0) {
+                    return false;
+                }
+                remaining -= read;
+            }
+            int actual = (int) checked.getChecksum().getValue();
+            return new DataInputStream(checked).readInt() == actual;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+    
+    /**
+     * @return {LSN do snapshot, quantidade de registros}
+     */
+    private static long[] readSnapshot(File file, StateMutations target) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+            if (in.readInt() != SNAPSHOT_MAGIC) {
+                throw new IOException("Formato de snapshot desconhecido: " + file.getName());
+            }
+            long lsn = in.readLong();
+            long count = 0;
+            byte[] record = new byte[256];
+            while (true) {
+                int length = in.readInt();
+                if (length < 0) {
+                    break;
+                }
+                if (record.length < length) {
+                    record = new byte[Math.max(length, record.length * 2)];
+                }
+                in.readFully(record, 0, length);
+                apply(ByteBuffer.wrap(record, 0, length).slice(), target);
+                count++;
+            }
+            return new long[] {lsn, count};
+        } catch (EOFException e) {
+            throw new IOException("Snapshot incompleto: " + file.getName(), e);
+        }
+    }
+    
+    private File snapshotFile(long lsn) {
+        return new File(dir, String.format("state-%020d.snap", lsn));
+    }
+}
@@ -0,0 +1,236 @@
+package com.chatrmi.replication;
+
+import com.chatrmi.interfaces.WireFormat;
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Counter;
+import com.chatrmi.metrics.Histogram;
+import com.chatrmi.metrics.MetricsRegistry;
+import com.chatrmi.server.ChatServiceImpl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputFilter;
+import java.io.ObjectInputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+
+/**
+ * Lado reserva da replicação
+ * Conecta na porta de replicação do primário, recebe a cópia completa e
+ * aplica as alterações seguintes na ordem de chegada. Se a ligação cair, tenta
+ * reconectar; se o primário ficar failoverTimeoutMs sem dar sinal (registro
+ * ou heartbeat), assume: o servidor é promovido e o callback de takeover
+ * registra o ChatService para os clientes.
+ *
+ * Só assume depois de ter recebido uma cópia completa; antes disso continua
+ * tentando conectar indefinidamente.
+ *
+ * Métricas: replication.applied, replication.lag.micros (do envio no primário
+ * à aplicação aqui, pelos relógios das duas máquinas), replication.standby e
+ * replication.failover.millis (da última notícia do primário até o ChatService
+ * desta máquina estar registrado).
+ */
+public class BackupReplicator {
+    
+    private static final Logger log = Logger.get(BackupReplicator.class);
+    private static final long STATUS_LOG_NANOS = 30_000_000_000L;
+    private static final ObjectInputFilter RECORD_FILTER = WireFormat.allowOnly(WireFormat.EVENT_CLASSES);
+    
+    private final ChatServiceImpl service;
+    private final ReplicationSettings settings;
+    private final Runnable onTakeover;
+    private final String host;
+    private final int port;
+    private final Counter applied;
+    private final Histogram lagMicros;
+    private final Histogram failoverMillis;
+    
+    private volatile boolean running;
+    private volatile boolean standby = true;
+    private volatile Socket socket;
+    private Thread thread;
+    private boolean synced;
+    private long appliedIndex;
+    private long appliedMicros;
+    private long lastContactNanos;
+    private long lastStatusNanos;
+    private int failures;  // tentativas seguidas sem ligação; só a primeira vai para o log
+    
+    /**
+     * @param service Servidor que recebe as alterações
+     * @param settings Parâmetros (primary, failoverTimeoutMs e reconnectMs)
+     * @param metrics Registro onde as métricas replication.* são criadas
+     * @param onTakeover Chamado uma vez, depois da promoção, para registrar o serviço
+     */
+    public BackupReplicator(ChatServiceImpl service, ReplicationSettings settings, MetricsRegistry metrics,
+                            Runnable onTakeover) {
+        this.service = service;
+        this.settings = settings;
+        this.onTakeover = onTakeover;
+        String address = settings.primary.trim();
+        int colon = address.lastIndexOf(':');
+        this.host = colon >= 0 ? address.substring(0, colon) : address;
+        this.port = colon >= 0 ? Integer.parseInt(address.substring(colon + 1)) : settings.port;
+        this.applied = metrics.counter("replication.applied");
+        this.lagMicros = metrics.histogram("replication.lag.micros");
+        this.failoverMillis = metrics.histogram("replication.failover.millis");
+        metrics.gauge("replication.standby", () -> standby ? 1 : 0);
+    }
+    
+    public void start() {
+        running = true;
+        thread = new Thread(this::run, "replication-backup");
+        thread.setDaemon(true);
+        thread.start();
+        log.info("[REPLICAÇÃO] Reserva acompanhando o primário em {}:{}", host, port);
+    }
+    
+    public void stop() {
+        running = false;
+        closeSocket();
+        if (thread != null) {
+            thread.interrupt();
+        }
+    }
+    
+    public boolean isStandby() {
+        return standby;
+    }
+    
+    private void run() {
+        lastContactNanos = System.nanoTime();
+        lastStatusNanos = lastContactNanos;
+        while (running) {
+            try {
+                follow();
+            } catch (IOException e) {
+                if (running && failures++ == 0) {
+                    log.warn("[REPLICAÇÃO] Ligação com o primário caiu: {}", e.toString());
+                } else {
+                    log.debug("[REPLICAÇÃO] Primário ainda inacessível: {}", e.toString());
+                }
+            } finally {
+                closeSocket();
+            }
+            if (!running) {
+                return;
+            }
+            if (synced && System.nanoTime() - lastContactNanos >= settings.failoverTimeoutMs * 1_000_000L) {
+                takeOver();
+                return;
+            }
+            try {
+                Thread.sleep(settings.reconnectMs);
+            } catch (InterruptedException e) {
+                return;
+            }
+        }
+    }
+    
+    /**
+     * Uma ligação com o primário, até ela cair
+     */
+    private void follow() throws IOException {
+        Socket s = new Socket();
+        socket = s;
+        long deadline = settings.failoverTimeoutMs * 1_000_000L - (System.nanoTime() - lastContactNanos);
+        int connectTimeout = synced ? (int) Math.max(1, Math.min(settings.failoverTimeoutMs, deadline / 1_000_000L))
+            : settings.failoverTimeoutMs;
+        s.connect(new InetSocketAddress(host, port), connectTimeout);
+        s.setTcpNoDelay(true);
+        s.setSoTimeout(settings.failoverTimeoutMs);
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(s.getOutputStream()));
+        ReplicationProtocol.writeHello(out);
+        BufferedInputStream buffered = new BufferedInputStream(s.getInputStream(), 64 * 1024);
+        ObjectInputStream in = new ObjectInputStream(buffered);
+        in.setObjectInputFilter(RECORD_FILTER);
+        lastContactNanos = System.nanoTime();
+        failures = 0;
+        
+        while (running) {
+            ReplicationRecord record = ReplicationRecord.readFrom(in);
+            lastContactNanos = System.nanoTime();
+            switch (record.type) {
+                case ReplicationProtocol.SYNC_BEGIN:
+                    synced = false;
+                    appliedIndex = 0;
+                    service.beginReplicaSync();
+                    break;
+                case ReplicationProtocol.SYNC_END:
+                    service.endReplicaSync();
+                    synced = true;
+                    log.info("[REPLICAÇÃO] Cópia completa do primário recebida; reserva em dia");
+                    break;
+                case ReplicationProtocol.STATE:
+                    service.applyReplicatedState(ByteBuffer.wrap(record.state));
+                    break;
+                case ReplicationProtocol.JOURNAL:
+                    service.applyReplicatedJournal(record.channel, record.seq, record.timestamp, record.entryType,
+                        record.username, record.content);
+                    break;
+                case ReplicationProtocol.EVENT:
+                    service.applyReplicatedEvent(record.channel, record.seq, record.event);
+                    break;
+                default:
+                    break;
+            }
+            if (record.index > 0) {
+                appliedIndex = record.index;
+                appliedMicros = record.micros;
+                applied.increment();
+                lagMicros.record(Math.max(0, ReplicationProtocol.nowMicros() - record.micros));
+            }
+            // Confirma quando o lote recebido acabou e a cada heartbeat
+            if (synced && (record.type == ReplicationProtocol.HEARTBEAT || buffered.available() == 0 && in.available() == 0)) {
+                out.writeLong(appliedIndex);
+                out.writeLong(appliedMicros);
+                out.flush();
+            }
+            logStatus();
+        }
+    }
+    
+    private void logStatus() {
+        long now = System.nanoTime();
+        if (now - lastStatusNanos < STATUS_LOG_NANOS) {
+            return;
+        }
+        lastStatusNanos = now;
+        log.info("[REPLICAÇÃO] Reserva: {} alterações aplicadas, atraso p99 {} µs",
+            applied.getCount(), lagMicros.getP99());
+    }
+    
+    private void takeOver() {
+        long silentMillis = (System.nanoTime() - lastContactNanos) / 1_000_000L;
+        log.warn("[REPLICAÇÃO] Primário sem resposta há {} ms; assumindo", silentMillis);
+        long start = System.nanoTime();
+        service.promoteToPrimary();
+        standby = false;
+        try {
+            onTakeover.run();
+        } catch (RuntimeException e) {
+            log.error("[REPLICAÇÃO] Falha ao assumir como primário", e);
+            return;
+        }
+        long activationMillis = (System.nanoTime() - start) / 1_000_000L;
+        long total = (System.nanoTime() - lastContactNanos) / 1_000_000L;
+        failoverMillis.record(total);
+        log.warn("[REPLICAÇÃO] Failover concluído: detecção {} ms + ativação {} ms = {} ms (última alteração aplicada: {})",
+            silentMillis, activationMillis, total, appliedIndex);
+    }
+    
+    private void closeSocket() {
+        Socket s = socket;
+        socket = null;
+        if (s != null) {
+            try {
+                s.close();
+            } catch (IOException e) {
+                // Já fechado
+            }
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package com.chatrmi.replication;
+
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Counter;
+import com.chatrmi.metrics.Histogram;
+import com.chatrmi.metrics.MetricsRegistry;
+import com.chatrmi.persistence.MessageJournal;
+import com.chatrmi.persistence.StateMutations;
+import com.chatrmi.persistence.StateStore;
+import com.chatrmi.server.ChatServiceImpl;
+import com.chatrmi.server.ReplicationSink;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lado primário da replicação
+ * Aceita um servidor de reserva por vez na porta de replicação. Ao conectar,
+ * a reserva recebe uma cópia completa (estado e histórico recente dos canais)
+ * e, depois dela, cada alteração na ordem em que foi feita aqui. As chamadas
+ * dos clientes só enfileiram: uma thread por ligação escreve em lotes, e o
+ * envio é assíncrono (o cliente não espera a reserva). O que foi confirmado
+ * aos clientes e ainda não chegou à reserva se perde se o primário cair; a
+ * distância é medida pelas confirmações da reserva.
+ *
+ * Com a fila cheia (reserva lenta ou parada) a ligação é derrubada em vez de
+ * descartar alterações: a reserva reconecta e recebe uma nova cópia.
+ *
+ * Métricas: replication.sent, replication.resyncs, replication.overflows,
+ * replication.ack.micros (do enfileiramento aqui à confirmação da reserva),
+ * replication.backup.connected, replication.lag.records e replication.queue.
+ */
+public class PrimaryReplicator {
+    
+    private static final Logger log = Logger.get(PrimaryReplicator.class);
+    private static final int MAX_BATCH = 512;
+    private static final int RESET_EVERY = 4096; // registros entre resets do ObjectOutputStream
+    
+    private final ChatServiceImpl service;
+    private final ReplicationSettings settings;
+    private final ReplicationSink live = new RecordEncoder() {
+        @Override
+        void accept(ReplicationRecord record) {
+            Session current = session;
+            if (current != null) {
+                current.offer(record);
+            }
+        }
+    };
+    private final Counter sent;
+    private final Counter resyncs;
+    private final Counter overflows;
+    private final Histogram ackMicros;
+    
+    private volatile Session session;
+    private volatile boolean running;
+    private ServerSocket serverSocket;
+    
+    /**
+     * @param service Servidor cujas alterações são replicadas
+     * @param settings Parâmetros (usa port, heartbeatMs, failoverTimeoutMs e queueCapacity)
+     * @param metrics Registro onde as métricas replication.* são criadas
+     */
+    public PrimaryReplicator(ChatServiceImpl service, ReplicationSettings settings, MetricsRegistry metrics) {
+        this.service = service;
+        this.settings = settings;
+        this.sent = metrics.counter("replication.sent");
+        this.resyncs = metrics.counter("replication.resyncs");
+        this.overflows = metrics.counter("replication.overflows");
+        this.ackMicros = metrics.histogram("replication.ack.micros");
+        metrics.gauge("replication.backup.connected", () -> session != null ? 1 : 0);
+        metrics.gauge("replication.lag.records", () -> {
+            Session current = session;
+            return current != null ? current.getLagRecords() : 0;
+        });
+        metrics.gauge("replication.queue", () -> {
+            Session current = session;
+            return current != null ? current.getQueueSize() : 0;
+        });
+    }
+    
+    /**
+     * Abre a porta de replicação
+     */
+    public void start() throws IOException {
+        serverSocket = new ServerSocket();
+        serverSocket.setReuseAddress(true);
+        serverSocket.bind(new InetSocketAddress(settings.port));
+        running = true;
+        Thread acceptor = new Thread(this::acceptLoop, "replication-accept");
+        acceptor.setDaemon(true);
+        acceptor.start();
+        log.info("[REPLICAÇÃO] Primário aguardando a reserva na porta {}", settings.port);
+    }
+    
+    public void stop() {
+        running = false;
+        try {
+            if (serverSocket != null) {
+                serverSocket.close();
+            }
+        } catch (IOException e) {
+            // Já fechado
+        }
+        Session current = session;
+        if (current != null) {
+            current.close();
+        }
+    }
+    
+    private void acceptLoop() {
+        while (running) {
+            try {
+                Socket socket = serverSocket.accept();
+                Thread thread = new Thread(new Session(socket), "replication-out-" + socket.getRemoteSocketAddress());
+                thread.setDaemon(true);
+                thread.start();
+            } catch (IOException e) {
+                if (running) {
+                    log.warn("[REPLICAÇÃO] Erro ao aceitar a reserva: {}", e.getMessage());
+                }
+            }
+        }
+    }
+    
+    /**
+     * Torna a sessão a atual (derrubando a anterior) e liga o envio de alterações
+     */
+    private synchronized void activate(Session next) {
+        Session previous = session;
+        session = next;
+        service.setReplicationSink(live);
+        if (previous != null) {
+            log.warn("[REPLICAÇÃO] Nova reserva conectada; a anterior foi desconectada");
+            previous.close();
+        }
+    }
+    
+    private synchronized void deactivate(Session ended) {
+        if (session == ended) {
+            session = null;
+            service.setReplicationSink(null);
+        }
+    }
+    
+    /**
+     * Ligação com uma reserva: cópia completa, depois a fila de alterações
+     */
+    private final class Session implements Runnable {
+        private final Socket socket;
+        private final ArrayDeque<ReplicationRecord> queue = new ArrayDeque<>();
+        private long lastIndex;         // protegido por this
+        private volatile long ackedIndex;
+        private volatile boolean open = true;
+        
+        Session(Socket socket) {
+            this.socket = socket;
+        }
+        
+        /**
+         * Chamado com o lock do canal ou do journal que numerou o registro
+         */
+        void offer(ReplicationRecord record) {
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                if (queue.size() < settings.queueCapacity) {
+                    record.index = ++lastIndex;
+                    record.micros = ReplicationProtocol.nowMicros();
+                    queue.addLast(record);
+                    notifyAll();
+                    return;
+                }
+            }
+            // Fora do lock da sessão: close() passa pelo lock do replicador, que activate() segura
+            overflows.increment();
+            log.warn("[REPLICAÇÃO] Fila da reserva cheia ({} alterações); desconectando para uma nova cópia",
+                settings.queueCapacity);
+            close();
+        }
+        
+        synchronized long getLagRecords() {
+            return lastIndex - ackedIndex;
+        }
+        
+        synchronized int getQueueSize() {
+            return queue.size();
+        }
+        
+        @Override
+        public void run() {
+            String peer = String.valueOf(socket.getRemoteSocketAddress());
+            try {
+                socket.setTcpNoDelay(true);
+                // A reserva confirma pelo menos a cada heartbeat; silêncio maior é uma reserva parada
+                socket.setSoTimeout(Math.max(settings.failoverTimeoutMs, 4 * settings.heartbeatMs));
+                DataInputStream in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+                ReplicationProtocol.readHello(in);
+                ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(socket.getOutputStream(), 64 * 1024));
+                
+                // Ligado antes da cópia: o que mudar durante ela também vai para a fila
+                activate(this);
+                resyncs.increment();
+                long start = System.nanoTime();
+                long copied = copyState(out);
+                log.info("[REPLICAÇÃO] Reserva {} conectada; cópia completa ({} registros) enviada em {} ms",
+                    peer, copied, (System.nanoTime() - start) / 1_000_000);
+                
+                Thread acks = new Thread(() -> readAcks(in), "replication-ack-" + peer);
+                acks.setDaemon(true);
+                acks.start();
+                pump(out);
+            } catch (IOException e) {
+                if (open && running) {
+                    log.warn("[REPLICAÇÃO] Ligação com a reserva {} caiu: {}", peer, e.getMessage());
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } finally {
+                close();
+            }
+        }
+        
+        private long copyState(ObjectOutputStream out) throws IOException {
+            long[] count = {0};
+            IOException[] failure = {null};
+            RecordEncoder copy = new RecordEncoder() {
+                @Override
+                void accept(ReplicationRecord record) {
+                    if (failure[0] != null) {
+                        return;
+                    }
+                    try {
+                        record.micros = ReplicationProtocol.nowMicros();
+                        record.writeTo(out);
+                        if (++count[0] % RESET_EVERY == 0) {
+                            out.reset();
+                        }
+                    } catch (IOException e) {
+                        failure[0] = e;
+                    }
+                }
+            };
+            ReplicationRecord.control(ReplicationProtocol.SYNC_BEGIN).writeTo(out);
+            service.writeReplicaSnapshot(copy);
+            if (failure[0] != null) {
+                throw failure[0];
+            }
+            ReplicationRecord.control(ReplicationProtocol.SYNC_END).writeTo(out);
+            out.flush();
+            out.reset();
+            return count[0];
+        }
+        
+        private void pump(ObjectOutputStream out) throws IOException, InterruptedException {
+            List<ReplicationRecord> batch = new ArrayList<>(MAX_BATCH);
+            int sinceReset = 0;
+            while (open) {
+                synchronized (this) {
+                    if (queue.isEmpty() && open) {
+                        wait(settings.heartbeatMs);
+                    }
+                    while (!queue.isEmpty() && batch.size() < MAX_BATCH) {
+                        batch.add(queue.pollFirst());
+                    }
+                }
+                if (!open) {
+                    break;
+                }
+                if (batch.isEmpty()) {
+                    ReplicationRecord heartbeat = ReplicationRecord.control(ReplicationProtocol.HEARTBEAT);
+                    heartbeat.micros = ReplicationProtocol.nowMicros();
+                    heartbeat.writeTo(out);
+                } else {
+                    for (ReplicationRecord record : batch) {
+                        record.writeTo(out);
+                    }
+                    sent.add(batch.size());
+                    sinceReset += batch.size();
+                    batch.clear();
+                }
+                out.flush();
+                if (sinceReset >= RESET_EVERY) {
+                    // Solta as referências que o stream guarda dos objetos já escritos
+                    out.reset();
+                    sinceReset = 0;
+                }
+            }
+        }
+        
+        private void readAcks(DataInputStream in) {
+            try {
+                while (open) {
+                    long index = in.readLong();
+                    long micros = in.readLong();
+                    if (index > ackedIndex) {
+                        ackedIndex = index;
+                        ackMicros.record(Math.max(0, ReplicationProtocol.nowMicros() - micros));
+                    }
+                }
+            } catch (IOException e) {
+                if (open && running) {
+                    log.warn("[REPLICAÇÃO] Reserva parou de confirmar: {}", e.getMessage());
+                }
+                close();
+            }
+        }
+        
+        void close() {
+            synchronized (this) {
+                if (!open) {
+                    return;
+                }
+                open = false;
+                queue.clear();
+                notifyAll();
+            }
+            try {
+                socket.close();
+            } catch (IOException e) {
+                // Já fechado
+            }
+            deactivate(this);
+        }
+    }
+    
+    /**
+     * Converte as alterações do servidor em registros de replicação
+     */
+    private abstract static class RecordEncoder implements ReplicationSink {
+        private final StateMutations state = StateStore.recordWriter(record -> accept(ReplicationRecord.state(record)));
+        
+        abstract void accept(ReplicationRecord record);
+        
+        @Override
+        public void journalAppended(String channel, long seq, long timestamp, MessageJournal.EntryType type,
+                                    String username, String content) {
+            accept(ReplicationRecord.journal(channel, seq, timestamp, type, username, content));
+        }
+        
+        @Override
+        public void eventAppended(String channel, long seq, ChatEvent event) {
+            accept(ReplicationRecord.event(channel, seq, event));
+        }
+        
+        @Override
+        public void userRegistered(String username, String passwordHash) throws IOException {
+            state.userRegistered(username, passwordHash);
+        }
+        
+        @Override
+        public void groupCreated(String groupId, String groupName, String owner) throws IOException {
+            state.groupCreated(groupId, groupName, owner);
+        }
+        
+        @Override
+        public void memberAdded(String groupId, String username) throws IOException {
+            state.memberAdded(groupId, username);
+        }
+        
+        @Override
+        public void memberRemoved(String groupId, String username) throws IOException {
+            state.memberRemoved(groupId, username);
+        }
+        
+        @Override
+        public void groupDeleted(String groupId) throws IOException {
+            state.groupDeleted(groupId);
+        }
+        
+        @Override
+        public void inviteAdded(String username, String groupId) throws IOException {
+            state.inviteAdded(username, groupId);
+        }
+        
+        @Override
+        public void inviteRemoved(String username, String groupId) throws IOException {
+            state.inviteRemoved(username, groupId);
+        }
+        
+        @Override
+        public void requestAdded(String groupId, String username) throws IOException {
+            state.requestAdded(groupId, username);
+        }
+        
+        @Override
+        public void requestRemoved(String groupId, String username) throws IOException {
+            state.requestRemoved(groupId, username);
+        }
+        
+        @Override
+        public void nextGroupId(int nextId) throws IOException {
+            state.nextGroupId(nextId);
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package com.chatrmi.replication;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.StreamCorruptedException;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+
+/**
+ * Formato da ligação de replicação
+ * A reserva conecta e manda o HELLO (int mágico, int versão). O primário
+ * responde com um ObjectOutputStream em que cada registro é
+ * [byte tipo][long índice][long instante em µs][corpo]:
+ * <ul>
+ *   <li>SYNC_BEGIN / SYNC_END: delimitam a cópia completa que abre a ligação</li>
+ *   <li>STATE: int tamanho + registro no formato do WAL (StateStore)</li>
+ *   <li>JOURNAL: UTF canal, long sequência, long instante, byte tipo, UTF autor, String conteúdo</li>
+ *   <li>EVENT: UTF canal, long sequência, ChatEvent</li>
+ *   <li>HEARTBEAT: sem corpo</li>
+ * </ul>
+ * Os registros da cópia têm índice 0; os seguintes, índices crescentes. A
+ * reserva confirma pelo mesmo socket com [long índice][long instante] do
+ * último registro aplicado.
+ */
+final class ReplicationProtocol {
+    
+    static final int MAGIC = 0x43525031; // "CRP1"
+    static final int VERSION = 1;
+    
+    static final byte SYNC_BEGIN = 1;
+    static final byte SYNC_END = 2;
+    static final byte STATE = 3;
+    static final byte JOURNAL = 4;
+    static final byte EVENT = 5;
+    static final byte HEARTBEAT = 6;
+    
+    private ReplicationProtocol() {
+    }
+    
+    static void writeHello(DataOutputStream out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.flush();
+    }
+    
+    static void readHello(DataInputStream in) throws IOException {
+        int magic = in.readInt();
+        int version = in.readInt();
+        if (magic != MAGIC || version != VERSION) {
+            throw new StreamCorruptedException("HELLO de replicação inválido (versão " + version + ")");
+        }
+    }
+    
+    static long nowMicros() {
+        return ChronoUnit.MICROS.between(Instant.EPOCH, Instant.now());
+    }
+}
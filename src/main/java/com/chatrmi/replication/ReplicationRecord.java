@@ -0,0 +1,126 @@
+package com.chatrmi.replication;
+
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.persistence.MessageJournal;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.StreamCorruptedException;
+
+/**
+ * Um registro da ligação de replicação (formato em {@link ReplicationProtocol})
+ */
+final class ReplicationRecord {
+    
+    private static final MessageJournal.EntryType[] ENTRY_TYPES = MessageJournal.EntryType.values();
+    
+    final byte type;
+    long index;
+    long micros;
+    byte[] state;
+    String channel;
+    long seq;
+    long timestamp;
+    MessageJournal.EntryType entryType;
+    String username;
+    String content;
+    ChatEvent event;
+    
+    private ReplicationRecord(byte type) {
+        this.type = type;
+    }
+    
+    static ReplicationRecord control(byte type) {
+        return new ReplicationRecord(type);
+    }
+    
+    static ReplicationRecord state(byte[] record) {
+        ReplicationRecord r = new ReplicationRecord(ReplicationProtocol.STATE);
+        r.state = record;
+        return r;
+    }
+    
+    static ReplicationRecord journal(String channel, long seq, long timestamp, MessageJournal.EntryType type,
+                                     String username, String content) {
+        ReplicationRecord r = new ReplicationRecord(ReplicationProtocol.JOURNAL);
+        r.channel = channel;
+        r.seq = seq;
+        r.timestamp = timestamp;
+        r.entryType = type;
+        r.username = username;
+        r.content = content;
+        return r;
+    }
+    
+    static ReplicationRecord event(String channel, long seq, ChatEvent event) {
+        ReplicationRecord r = new ReplicationRecord(ReplicationProtocol.EVENT);
+        r.channel = channel;
+        r.seq = seq;
+        r.event = event;
+        return r;
+    }
+    
+    void writeTo(ObjectOutputStream out) throws IOException {
+        out.writeByte(type);
+        out.writeLong(index);
+        out.writeLong(micros);
+        switch (type) {
+            case ReplicationProtocol.STATE:
+                out.writeInt(state.length);
+                out.write(state);
+                break;
+            case ReplicationProtocol.JOURNAL:
+                out.writeUTF(channel);
+                out.writeLong(seq);
+                out.writeLong(timestamp);
+                out.writeByte(entryType.ordinal());
+                out.writeUTF(username);
+                out.writeObject(content);
+                break;
+            case ReplicationProtocol.EVENT:
+                out.writeUTF(channel);
+                out.writeLong(seq);
+                out.writeObject(event);
+                break;
+            default:
+                break;
+        }
+    }
+    
+    static ReplicationRecord readFrom(ObjectInputStream in) throws IOException {
+        ReplicationRecord r = new ReplicationRecord(in.readByte());
+        r.index = in.readLong();
+        r.micros = in.readLong();
+        try {
+            switch (r.type) {
+                case ReplicationProtocol.STATE:
+                    r.state = new byte[in.readInt()];
+                    in.readFully(r.state);
+                    break;
+                case ReplicationProtocol.JOURNAL:
+                    r.channel = in.readUTF();
+                    r.seq = in.readLong();
+                    r.timestamp = in.readLong();
+                    r.entryType = ENTRY_TYPES[in.readUnsignedByte()];
+                    r.username = in.readUTF();
+                    r.content = (String) in.readObject();
+                    break;
+                case ReplicationProtocol.EVENT:
+                    r.channel = in.readUTF();
+                    r.seq = in.readLong();
+                    r.event = (ChatEvent) in.readObject();
+                    break;
+                case ReplicationProtocol.SYNC_BEGIN:
+                case ReplicationProtocol.SYNC_END:
+                case ReplicationProtocol.HEARTBEAT:
+                    break;
+                default:
+                    throw new StreamCorruptedException("Tipo de registro de replicação desconhecido: " + r.type);
+            }
+        } catch (ClassNotFoundException | ClassCastException | ArrayIndexOutOfBoundsException e) {
+            throw new StreamCorruptedException("Registro de replicação inválido: " + e);
+        }
+        return r;
+    }
+}
@@ -0,0 +1,55 @@
+package com.chatrmi.replication;
+
+import java.util.Locale;
+
+/**
+ * Parâmetros da replicação primário/reserva
+ * O primário abre a porta de replicação e envia cada alteração de estado,
+ * gravação do journal e evento do histórico ao servidor de reserva que
+ * estiver conectado nela. A reserva aplica tudo em ordem e, quando o primário
+ * fica em silêncio por failoverTimeoutMs, registra o próprio ChatService e
+ * passa a atender os clientes (e a aceitar uma reserva na sua porta).
+ */
+public class ReplicationSettings {
+    
+    /**
+     * Papel deste servidor
+     */
+    public enum Role {
+        NONE,
+        PRIMARY,
+        BACKUP
+    }
+    
+    public Role role = Role.NONE;
+    public int port = 7100;                   // porta onde este servidor, como primário, aceita a reserva
+    public String primary;                    // reserva: host:porta de replicação do primário
+    public int heartbeatMs = 200;             // primário sem alterações manda heartbeat neste intervalo
+    public int failoverTimeoutMs = 2000;      // silêncio do primário que faz a reserva assumir
+    public int reconnectMs = 100;
+    public int queueCapacity = 100_000;       // alterações pendentes; cheia, a reserva é desconectada e recopia tudo
+    
+    /**
+     * Lê os parâmetros das propriedades de sistema chatrmi.replication.*
+     * @return Parâmetros configurados
+     */
+    public static ReplicationSettings fromSystemProperties() {
+        ReplicationSettings settings = new ReplicationSettings();
+        String role = System.getProperty("chatrmi.replication.role", settings.role.name());
+        settings.role = Role.valueOf(role.trim().toUpperCase(Locale.ROOT));
+        settings.port = Integer.getInteger("chatrmi.replication.port", settings.port);
+        settings.primary = System.getProperty("chatrmi.replication.primary", settings.primary);
+        settings.heartbeatMs = Integer.getInteger("chatrmi.replication.heartbeatMs", settings.heartbeatMs);
+        settings.failoverTimeoutMs = Integer.getInteger("chatrmi.replication.failoverTimeoutMs", settings.failoverTimeoutMs);
+        settings.reconnectMs = Integer.getInteger("chatrmi.replication.reconnectMs", settings.reconnectMs);
+        settings.queueCapacity = Integer.getInteger("chatrmi.replication.queueCapacity", settings.queueCapacity);
+        if (settings.role == Role.BACKUP && (settings.primary == null || settings.primary.isBlank())) {
+            throw new IllegalArgumentException("chatrmi.replication.primary é obrigatório no servidor de reserva");
+        }
+        return settings;
+    }
+    
+    public boolean isEnabled() {
+        return role != Role.NONE;
+    }
+}
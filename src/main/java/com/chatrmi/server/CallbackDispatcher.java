@@ -0,0 +1,582 @@
+package com.chatrmi.server;
+
+import com.chatrmi.interfaces.BatchedClientCallback;
+import com.chatrmi.interfaces.ChatClientCallback;
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.interfaces.EventBatch;
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Counter;
+import com.chatrmi.metrics.Histogram;
+import com.chatrmi.metrics.MetricsRegistry;
+import com.chatrmi.model.UserDictionary;
+
+import java.rmi.RemoteException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Motor de entrega assíncrona de callbacks aos clientes
+ * Cada cliente possui uma fila de saída limitada, drenada por um pool de threads
+ * compartilhado. Apenas uma thread drena a fila de um cliente por vez, o que
+ * preserva a ordem das entregas por cliente enquanto clientes diferentes
+ * recebem em paralelo.
+ *
+ * Para clientes que implementam {@link BatchedClientCallback} os eventos
+ * pendentes são agrupados e entregues em uma única chamada quando o lote
+ * atinge o tamanho máximo ou quando o tempo de espera (linger) expira.
+ * Com um {@link UserDictionary} os lotes são compactos: cada um leva os IDs
+ * de usuário que o cliente ainda não recebeu e os eventos citam usuários por ID.
+ *
+ * A profundidade da fila e a latência dos callbacks de cada cliente são
+ * monitoradas; clientes que ultrapassam os limites recebem a
+ * {@link SlowConsumerPolicy} configurada.
+ */
+public class CallbackDispatcher {
+    
+    private static final Logger log = Logger.get(CallbackDispatcher.class);
+    private static final int MAX_DELIVERIES_PER_RUN = 64;
+    private static final long POLICY_LOG_INTERVAL_MS = 1000;
+    
+    /**
+     * Notificado quando uma entrega falha e o cliente deve ser descartado
+     */
+    public interface FailureListener {
+        void onDeliveryFailed(String username, ChatClientCallback callback, String description, RemoteException e);
+    }
+    
+    /**
+     * Notificado quando um cliente lento é desconectado pela política DISCONNECT
+     */
+    public interface EvictionListener {
+        void onSlowConsumerEvicted(String username, ChatClientCallback callback, String reason);
+    }
+    
+    /**
+     * Parâmetros do motor de entrega
+     */
+    public static class Settings {
+        public int threads = Math.max(8, Runtime.getRuntime().availableProcessors() * 4);
+        public int queueCapacity = 1024;
+        public int maxBatchSize = 64;
+        public long lingerMs = 5;
+        public SlowConsumerPolicy slowConsumerPolicy = SlowConsumerPolicy.DROP_OLDEST;
+        public int slowQueueDepth = 512;
+        public long slowLatencyMs = 2000;
+        public boolean compactUserIds = true;  // lotes com IDs de usuário, se houver dicionário
+        
+        /**
+         * Lê os parâmetros das propriedades de sistema chatrmi.delivery.* e chatrmi.slowConsumer.*
+         * @return Parâmetros configurados
+         */
+        public static Settings fromSystemProperties() {
+            Settings settings = new Settings();
+            settings.threads = Integer.getInteger("chatrmi.delivery.threads", settings.threads);
+            settings.queueCapacity = Integer.getInteger("chatrmi.delivery.queueCapacity", settings.queueCapacity);
+            settings.maxBatchSize = Integer.getInteger("chatrmi.delivery.batchSize", settings.maxBatchSize);
+            settings.lingerMs = Long.getLong("chatrmi.delivery.lingerMs", settings.lingerMs);
+            settings.slowConsumerPolicy = SlowConsumerPolicy.fromSystemProperty(settings.slowConsumerPolicy);
+            settings.slowQueueDepth = Integer.getInteger("chatrmi.slowConsumer.queueDepth", settings.slowQueueDepth);
+            settings.slowLatencyMs = Long.getLong("chatrmi.slowConsumer.latencyMs", settings.slowLatencyMs);
+            settings.compactUserIds = Boolean.parseBoolean(System.getProperty("chatrmi.delivery.userIds", String.valueOf(settings.compactUserIds)));
+            return settings;
+        }
+    }
+    
+    private final Map<String, ClientQueue> queues;
+    private final ExecutorService executor;
+    private final ScheduledExecutorService scheduler;
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private final long lingerMs;
+    private final SlowConsumerPolicy slowConsumerPolicy;
+    private final int slowQueueDepth;
+    private final long slowLatencyNanos;
+    private final FailureListener failureListener;
+    private final EvictionListener evictionListener;
+    private final UserDictionary userIds; // null = lotes com nomes por extenso
+    
+    private final AtomicLong droppedEvents = new AtomicLong();
+    private final AtomicLong collapsedEvents = new AtomicLong();
+    private final AtomicLong evictedClients = new AtomicLong();
+    private final Histogram callbackLatency; // microssegundos por chamada de callback
+    private final Histogram batchSizes;
+    private final Counter deliveryFailures;
+    private final Counter dictionaryUsersSent;
+    
+    public CallbackDispatcher(FailureListener failureListener, EvictionListener evictionListener) {
+        this(Settings.fromSystemProperties(), failureListener, evictionListener);
+    }
+    
+    public CallbackDispatcher(Settings settings, FailureListener failureListener, EvictionListener evictionListener) {
+        this(settings, new MetricsRegistry(), failureListener, evictionListener);
+    }
+    
+    /**
+     * @param metrics Registro onde são publicadas as métricas de entrega (delivery.*)
+     */
+    public CallbackDispatcher(Settings settings, MetricsRegistry metrics,
+                              FailureListener failureListener, EvictionListener evictionListener) {
+        this(settings, metrics, null, failureListener, evictionListener);
+    }
+    
+    /**
+     * @param userIds Dicionário de usuários para os lotes compactos, ou null
+     */
+    public CallbackDispatcher(Settings settings, MetricsRegistry metrics, UserDictionary userIds,
+                              FailureListener failureListener, EvictionListener evictionListener) {
+        this.queues = new ConcurrentHashMap<>();
+        this.executor = Executors.newFixedThreadPool(settings.threads, new DeliveryThreadFactory("chat-delivery-"));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DeliveryThreadFactory("chat-delivery-timer-"));
+        this.queueCapacity = settings.queueCapacity;
+        this.maxBatchSize = Math.max(1, settings.maxBatchSize);
+        this.lingerMs = Math.max(0, settings.lingerMs);
+        this.slowConsumerPolicy = settings.slowConsumerPolicy;
+        this.slowQueueDepth = Math.max(1, Math.min(settings.slowQueueDepth, settings.queueCapacity));
+        this.slowLatencyNanos = TimeUnit.MILLISECONDS.toNanos(settings.slowLatencyMs);
+        this.failureListener = failureListener;
+        this.evictionListener = evictionListener;
+        this.userIds = settings.compactUserIds ? userIds : null;
+        this.callbackLatency = metrics.histogram("delivery.callback.micros");
+        this.batchSizes = metrics.histogram("delivery.batch.size");
+        this.deliveryFailures = metrics.counter("delivery.failures");
+        this.dictionaryUsersSent = metrics.counter("delivery.dictionaryUsers");
+        metrics.gauge("delivery.clients", queues::size);
+        metrics.gauge("delivery.droppedEvents", droppedEvents::get);
+        metrics.gauge("delivery.collapsedEvents", collapsedEvents::get);
+        metrics.gauge("delivery.evictedClients", evictedClients::get);
+    }
+    
+    /**
+     * Registra (ou substitui) a fila de saída de um cliente
+     * @param username Nome do usuário
+     * @param callback Callback do cliente
+     */
+    public void register(String username, ChatClientCallback callback) {
+        ClientQueue previous = queues.put(username, new ClientQueue(username, callback));
+        if (previous != null) {
+            previous.close();
+        }
+    }
+    
+    /**
+     * Remove a fila de saída de um cliente, descartando entregas pendentes
+     * @param username Nome do usuário
+     */
+    public void unregister(String username) {
+        ClientQueue queue = queues.remove(username);
+        if (queue != null) {
+            queue.close();
+        }
+    }
+    
+    /**
+     * Enfileira um evento para um cliente
+     * @param username Nome do usuário destinatário
+     * @param event Evento a ser entregue
+     * @return true se o evento foi enfileirado
+     */
+    public boolean enqueue(String username, ChatEvent event) {
+        ClientQueue queue = queues.get(username);
+        if (queue == null) {
+            return false;
+        }
+        return queue.offer(event);
+    }
+    
+    /**
+     * Enfileira o mesmo evento para todos os clientes registrados
+     * @param event Evento a ser entregue
+     */
+    public void broadcast(ChatEvent event) {
+        queues.values().forEach(queue -> queue.offer(event));
+    }
+    
+    /**
+     * Retorna o número de entregas pendentes para um cliente
+     * @param username Nome do usuário
+     * @return Tamanho da fila de saída, ou 0 se o cliente não está registrado
+     */
+    public int getQueueDepth(String username) {
+        ClientQueue queue = queues.get(username);
+        return queue != null ? queue.events.size() : 0;
+    }
+    
+    /**
+     * Retorna a latência média (EWMA) dos callbacks de um cliente
+     * @param username Nome do usuário
+     * @return Latência média em milissegundos, ou 0 se o cliente não está registrado
+     */
+    public double getCallbackLatencyMillis(String username) {
+        ClientQueue queue = queues.get(username);
+        return queue != null ? queue.avgLatencyNanos / 1_000_000.0 : 0;
+    }
+    
+    /**
+     * @return Total de eventos descartados por filas cheias ou pela política DROP_OLDEST
+     */
+    public long getDroppedEvents() {
+        return droppedEvents.get();
+    }
+    
+    /**
+     * @return Total de atualizações de presença colapsadas pela política COLLAPSE_PRESENCE
+     */
+    public long getCollapsedEvents() {
+        return collapsedEvents.get();
+    }
+    
+    /**
+     * @return Total de clientes desconectados pela política DISCONNECT
+     */
+    public long getEvictedClients() {
+        return evictedClients.get();
+    }
+    
+    public SlowConsumerPolicy getSlowConsumerPolicy() {
+        return slowConsumerPolicy;
+    }
+    
+    /**
+     * Encerra o pool de entrega aguardando as entregas em andamento
+     */
+    public void shutdown() {
+        scheduler.shutdownNow();
+        executor.shutdown();
+        try {
+            executor.awaitTermination(5, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
+    /**
+     * Fila de saída de um cliente
+     */
+    private class ClientQueue {
+        private final String username;
+        private final ChatClientCallback callback;
+        private final boolean batching;
+        private final LinkedBlockingQueue<ChatEvent> events;
+        private final AtomicBoolean scheduled;
+        private volatile ScheduledFuture<?> pendingFlush;
+        private volatile boolean closed;
+        private volatile long avgLatencyNanos;
+        private volatile long inFlightSince;
+        private int knownUsers; // IDs de usuário já entregues ao cliente (só a thread que drena usa)
+        private long lastPolicyLog;
+        private int suppressedPolicyLogs;
+        
+        ClientQueue(String username, ChatClientCallback callback) {
+            this.username = username;
+            this.callback = callback;
+            this.batching = callback instanceof BatchedClientCallback;
+            this.events = new LinkedBlockingQueue<>(queueCapacity);
+            this.scheduled = new AtomicBoolean(false);
+        }
+        
+        boolean offer(ChatEvent event) {
+            if (closed) {
+                return false;
+            }
+            String slowReason = slowReason();
+            if (slowReason != null) {
+                event = applyPolicy(event, slowReason);
+                if (event == null) {
+                    return false;
+                }
+            }
+            while (!events.offer(event)) {
+                // Fila cheia mesmo após a política: abre espaço descartando o evento mais antigo
+                if (slowConsumerPolicy == SlowConsumerPolicy.DISCONNECT) {
+                    evict("fila de saída cheia (" + queueCapacity + " eventos)");
+                    return false;
+                }
+                if (events.poll() != null) {
+                    droppedEvents.incrementAndGet();
+                    logDecision("DROP_OLDEST", "fila de saída cheia", 1);
+                }
+                if (closed) {
+                    return false;
+                }
+            }
+            schedule();
+            return true;
+        }
+        
+        /**
+         * Verifica se o cliente está lento
+         * @return Motivo da lentidão, ou null se o cliente está em dia
+         */
+        private String slowReason() {
+            int depth = events.size();
+            if (depth >= slowQueueDepth) {
+                return "fila de saída com " + depth + " eventos";
+            }
+            long since = inFlightSince;
+            if (since != 0 && System.nanoTime() - since > slowLatencyNanos) {
+                return "callback em andamento há " + TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - since) + " ms";
+            }
+            if (avgLatencyNanos > slowLatencyNanos) {
+                return "latência média de " + TimeUnit.NANOSECONDS.toMillis(avgLatencyNanos) + " ms";
+            }
+            return null;
+        }
+        
+        /**
+         * Aplica a política de cliente lento antes de enfileirar um evento
+         * @return Evento a ser enfileirado (possivelmente combinado), ou null para descartá-lo
+         */
+        private ChatEvent applyPolicy(ChatEvent event, String reason) {
+            switch (slowConsumerPolicy) {
+                case DISCONNECT:
+                    evict(reason);
+                    return null;
+                case COLLAPSE_PRESENCE:
+                    ChatEvent collapsed = collapsePresence(event, reason);
+                    dropOldest(reason);
+                    return collapsed;
+                case DROP_OLDEST:
+                default:
+                    dropOldest(reason);
+                    return event;
+            }
+        }
+        
+        /**
+         * Combina as variações de presença pendentes em uma só
+         * Se o novo evento também é de presença ele absorve as pendentes; caso
+         * contrário a variação combinada volta ao fim da fila antes dele. Se
+         * alguma variação já tiver sido entregue nesse meio tempo, o cliente
+         * detecta a lacuna de versão e pede a lista completa.
+         * @return Evento a ser enfileirado
+         */
+        private ChatEvent collapsePresence(ChatEvent event, String reason) {
+            List<ChatEvent.PresenceChanged> pending = new ArrayList<>();
+            for (ChatEvent queued : events) {
+                if (queued instanceof ChatEvent.PresenceChanged) {
+                    pending.add((ChatEvent.PresenceChanged) queued);
+                }
+            }
+            boolean incomingIsPresence = event instanceof ChatEvent.PresenceChanged;
+            if (incomingIsPresence) {
+                pending.add((ChatEvent.PresenceChanged) event);
+            }
+            if (pending.size() < 2) {
+                return event;
+            }
+            ChatEvent.PresenceChanged merged = pending.get(0);
+            for (int i = 1; i < pending.size(); i++) {
+                ChatEvent.PresenceChanged next = pending.get(i);
+                ChatEvent.PresenceChanged combined = merged.merge(next);
+                merged = combined != null ? combined : next;
+            }
+            for (ChatEvent.PresenceChanged queued : pending) {
+                if (queued != event) {
+                    events.remove(queued);
+                }
+            }
+            int collapsed = pending.size() - 1;
+            collapsedEvents.addAndGet(collapsed);
+            logDecision("COLLAPSE_PRESENCE", reason, collapsed);
+            if (incomingIsPresence) {
+                return merged;
+            }
+            events.offer(merged);
+            return event;
+        }
+        
+        private void dropOldest(String reason) {
+            int dropped = 0;
+            while (events.size() >= slowQueueDepth && events.poll() != null) {
+                dropped++;
+            }
+            if (dropped > 0) {
+                droppedEvents.addAndGet(dropped);
+                logDecision("DROP_OLDEST", reason, dropped);
+            }
+        }
+        
+        private void evict(String reason) {
+            if (closed) {
+                return;
+            }
+            close();
+            if (!queues.remove(username, this)) {
+                return;
+            }
+            evictedClients.incrementAndGet();
+            log.warn("[CLIENTE LENTO] {}: DISCONNECT ({}) - total de desconexões: {}", username, reason, evictedClients.get());
+            if (evictionListener != null) {
+                // Fora da thread que enfileirou, para não reentrar no broadcast em andamento
+                scheduler.execute(() -> evictionListener.onSlowConsumerEvicted(username, callback, reason));
+            }
+        }
+        
+        /**
+         * Registra uma decisão de política, limitado a uma linha por segundo por cliente
+         */
+        private synchronized void logDecision(String decision, String reason, int affected) {
+            long now = System.currentTimeMillis();
+            if (now - lastPolicyLog < POLICY_LOG_INTERVAL_MS) {
+                suppressedPolicyLogs++;
+                return;
+            }
+            String suppressed = suppressedPolicyLogs > 0 ? " (+" + suppressedPolicyLogs + " decisões omitidas)" : "";
+            log.warn("[CLIENTE LENTO] {}: {} de {} evento(s) ({}){} - descartados: {}, colapsados: {}",
+                username, decision, affected, reason, suppressed, droppedEvents.get(), collapsedEvents.get());
+            lastPolicyLog = now;
+            suppressedPolicyLogs = 0;
+        }
+        
+        private void recordLatency(long nanos) {
+            callbackLatency.record(nanos / 1000);
+            long avg = avgLatencyNanos;
+            avgLatencyNanos = avg == 0 ? nanos : avg + (nanos - avg) / 8;
+        }
+        
+        private void schedule() {
+            if (closed) {
+                return;
+            }
+            boolean lingering = batching && lingerMs > 0 && events.size() < maxBatchSize;
+            if (scheduled.compareAndSet(false, true)) {
+                if (lingering) {
+                    pendingFlush = scheduler.schedule(() -> executor.execute(this::drain), lingerMs, TimeUnit.MILLISECONDS);
+                } else {
+                    executor.execute(this::drain);
+                }
+            } else if (!lingering) {
+                // Lote completo: antecipa a entrega que estava aguardando o linger
+                ScheduledFuture<?> flush = pendingFlush;
+                if (flush != null && flush.cancel(false)) {
+                    executor.execute(this::drain);
+                }
+            }
+        }
+        
+        private void drain() {
+            pendingFlush = null;
+            try {
+                if (batching) {
+                    drainBatch();
+                } else {
+                    drainOneByOne();
+                }
+            } finally {
+                scheduled.set(false);
+            }
+            if (!events.isEmpty()) {
+                schedule();
+            }
+        }
+        
+        private void drainBatch() {
+            List<ChatEvent> batch = new ArrayList<>(Math.min(maxBatchSize, events.size()));
+            events.drainTo(batch, maxBatchSize);
+            if (batch.isEmpty() || closed) {
+                return;
+            }
+            batchSizes.record(batch.size());
+            long start = System.nanoTime();
+            inFlightSince = start;
+            try {
+                EventBatch eventBatch = newBatch(batch);
+                ((BatchedClientCallback) callback).onEvents(eventBatch);
+                if (eventBatch.getNewUserCount() > 0) {
+                    // Só depois da entrega: se falhar, a fila é fechada e um novo registro recomeça do 0
+                    knownUsers += eventBatch.getNewUserCount();
+                    dictionaryUsersSent.add(eventBatch.getNewUserCount());
+                }
+            } catch (RemoteException e) {
+                fail("lote de " + batch.size() + " eventos", e);
+            } catch (RuntimeException e) {
+                log.error("Erro inesperado ao entregar lote para {}", username, e);
+            } finally {
+                inFlightSince = 0;
+                recordLatency(System.nanoTime() - start);
+            }
+        }
+        
+        private EventBatch newBatch(List<ChatEvent> batch) {
+            if (userIds == null) {
+                return new EventBatch(batch);
+            }
+            // Todo usuário citado pelos eventos já tinha ID quando eles foram criados
+            int end = userIds.size();
+            String[] newUsers = userIds.namesBetween(knownUsers, end);
+            return new EventBatch(batch, userIds.getEpoch(), knownUsers, newUsers, username -> {
+                int id = userIds.idOf(username);
+                return id < end ? id : -1;
+            });
+        }
+        
+        private void drainOneByOne() {
+            // Limita as entregas por execução para não monopolizar uma thread do pool
+            for (int i = 0; i < MAX_DELIVERIES_PER_RUN && !closed; i++) {
+                ChatEvent event = events.poll();
+                if (event == null) {
+                    break;
+                }
+                long start = System.nanoTime();
+                inFlightSince = start;
+                try {
+                    event.dispatchTo(callback);
+                } catch (RemoteException e) {
+                    fail(event.getDescription(), e);
+                    return;
+                } catch (RuntimeException e) {
+                    log.error("Erro inesperado ao entregar {} para {}", event.getDescription(), username, e);
+                } finally {
+                    inFlightSince = 0;
+                    recordLatency(System.nanoTime() - start);
+                }
+            }
+        }
+        
+        private void fail(String description, RemoteException e) {
+            deliveryFailures.increment();
+            close();
+            queues.remove(username, this);
+            if (failureListener != null) {
+                failureListener.onDeliveryFailed(username, callback, description, e);
+            }
+        }
+        
+        void close() {
+            closed = true;
+            events.clear();
+            ScheduledFuture<?> flush = pendingFlush;
+            if (flush != null) {
+                flush.cancel(false);
+            }
+        }
+    }
+    
+    private static class DeliveryThreadFactory implements ThreadFactory {
+        private final String prefix;
+        private final AtomicInteger counter = new AtomicInteger(1);
+        
+        DeliveryThreadFactory(String prefix) {
+            this.prefix = prefix;
+        }
+        
+        @Override
+        public Thread newThread(Runnable r) {
+            Thread thread = new Thread(r, prefix + counter.getAndIncrement());
+            thread.setDaemon(true);
+            return thread;
+        }
+    }
+}
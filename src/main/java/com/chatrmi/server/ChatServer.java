@@ -1,9 +1,23 @@
 package com.chatrmi.server;
 
+import com.chatrmi.cluster.ClusterNode;
+import com.chatrmi.cluster.ShardPeer;
+import com.chatrmi.cluster.ShardRouter;
 import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.logging.LogManager;
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.TimedProxy;
+import com.chatrmi.net.SocketSettings;
+import com.chatrmi.net.TunedClientSocketFactory;
+import com.chatrmi.net.TunedServerSocketFactory;
+import com.chatrmi.nio.NioChatServer;
+import com.chatrmi.replication.BackupReplicator;
+import com.chatrmi.replication.PrimaryReplicator;
+import com.chatrmi.replication.ReplicationSettings;
 import com.chatrmi.udp.UDPFileServer;
 import com.chatrmi.udp.UDPFileDownloadServer;
 
+import java.lang.management.ManagementFactory;
 import java.net.BindException;
 import java.rmi.registry.LocateRegistry;
 import java.rmi.registry.Registry;
@@ -15,22 +29,24 @@ import java.rmi.server.UnicastRemoteObject;
  */
 public class ChatServer {
     
-    private static final int RMI_REGISTRY_PORT = 1099;
-    private static final int RMI_SERVER_PORT = 1098;
-    private static final int UDP_FILE_PORT = 9876;
-    private static final int UDP_DOWNLOAD_PORT = 9877;
+    private static final Logger log = Logger.get(ChatServer.class);
+    // Configuráveis para rodar vários nós do cluster na mesma máquina
+    private static final int RMI_REGISTRY_PORT = Integer.getInteger("chatrmi.registry.port", 1099);
+    private static final int RMI_SERVER_PORT = Integer.getInteger("chatrmi.server.port", 1098);
+    private static final int UDP_FILE_PORT = Integer.getInteger("chatrmi.udp.port", 9876);
+    private static final int UDP_DOWNLOAD_PORT = Integer.getInteger("chatrmi.udp.downloadPort", 9877);
     
-    private static ChatService exportObject(ChatServiceImpl chatService, int preferredPort) throws Exception {
+    private static ChatService exportObject(ChatService chatService, int preferredPort, SocketSettings sockets) throws Exception {
         try {
-            return (ChatService) UnicastRemoteObject.exportObject(chatService, preferredPort);
+            return export(chatService, preferredPort, sockets);
         } catch (ExportException e) {
             if (e.getCause() instanceof BindException) {
-                System.out.println("Porta " + preferredPort + " está em uso. Tentando portas alternativas...");
+                log.warn("Porta {} está em uso. Tentando portas alternativas...", preferredPort);
                 
                 for (int port = preferredPort + 1; port <= preferredPort + 7; port++) {
                     try {
-                        ChatService stub = (ChatService) UnicastRemoteObject.exportObject(chatService, port);
-                        System.out.println("[OK] Objeto RMI exportado na porta alternativa: " + port);
+                        ChatService stub = export(chatService, port, sockets);
+                        log.info("[OK] Objeto RMI exportado na porta alternativa: {}", port);
                         return stub;
                     } catch (ExportException ex) {
                         if (!(ex.getCause() instanceof BindException)) {
@@ -46,6 +62,28 @@ public class ChatServer {
         }
     }
     
+    private static ChatService export(ChatService chatService, int port, SocketSettings sockets) throws Exception {
+        return (ChatService) UnicastRemoteObject.exportObject(chatService, port,
+            new TunedClientSocketFactory(sockets), new TunedServerSocketFactory(sockets));
+    }
+    
+    /**
+     * Registra o ChatService e abre a porta NIO: a partir daqui os clientes chegam
+     */
+    private static void publish(Registry registry, ChatService stub, ChatService timed, NioChatServer.Settings nioSettings,
+                                SocketSettings sockets, ChatServiceImpl chatService) throws Exception {
+        registry.rebind("ChatService", stub);
+        log.info("Servidor RMI iniciado e registrado como 'ChatService'");
+        
+        // Transporte NIO: as mesmas operações (e o mesmo proxy medido) numa única porta
+        if (nioSettings.enabled) {
+            NioChatServer nioServer = new NioChatServer(timed, nioSettings, sockets, chatService.getMetrics());
+            nioServer.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(nioServer::stop, "nio-shutdown"));
+            log.info("Servidor NIO iniciado na porta {} ({} trabalhadores)", nioServer.getPort(), nioSettings.workerThreads);
+        }
+    }
+    
     private static String getLocalIP() {
         try {
             // Tentar obter IP da interface de rede principal (não loopback)
@@ -113,55 +151,133 @@ public class ChatServer {
             
             // Mostrar informações de rede
             printNetworkInfo(serverHost);
+            NioChatServer.Settings nioSettings = NioChatServer.Settings.fromSystemProperties();
+            ClusterNode.Settings clusterSettings = ClusterNode.Settings.fromSystemProperties();
+            ReplicationSettings replicationSettings = ReplicationSettings.fromSystemProperties();
+            if (clusterSettings.isEnabled() && replicationSettings.isEnabled()) {
+                // Cada nó do cluster tem só a sua parte dos grupos; a reserva de um nó não cobre o cluster
+                log.warn("Replicação primário/reserva não é suportada junto com o cluster; replicação desativada");
+                replicationSettings.role = ReplicationSettings.Role.NONE;
+            }
             
             System.out.println("IMPORTANTE: Para conectar de outro PC, use este IP: " + serverHost);
             System.out.println("Certifique-se de que o firewall permite conexões nas portas:");
-            System.out.println("  - 1099 (RMI Registry)");
-            System.out.println("  - 1098 (RMI Server)");
-            System.out.println("  - 9876 (UDP File Server)");
-            System.out.println("  - 9877 (UDP Download Server)");
+            System.out.println("  - " + RMI_REGISTRY_PORT + " (RMI Registry)");
+            System.out.println("  - " + RMI_SERVER_PORT + " (RMI Server)");
+            System.out.println("  - " + nioSettings.port + " (NIO, se ativo)");
+            System.out.println("  - " + UDP_FILE_PORT + " (UDP File Server)");
+            System.out.println("  - " + UDP_DOWNLOAD_PORT + " (UDP Download Server)");
+            if (clusterSettings.isEnabled()) {
+                System.out.println("  - " + clusterSettings.port + " (Cluster)");
+            }
+            if (replicationSettings.isEnabled()) {
+                System.out.println("  - " + replicationSettings.port + " (Replicação, " + replicationSettings.role + ")");
+            }
             System.out.println();
             
             ChatServiceImpl chatService = new ChatServiceImpl();
-            ChatService stub = exportObject(chatService, RMI_SERVER_PORT);
+            // Cluster: chat global, arquivos e presença repassados aos outros nós; grupos distribuídos entre eles
+            ClusterNode clusterNode = null;
+            ShardRouter shardRouter = null;
+            if (clusterSettings.isEnabled()) {
+                clusterSettings.registryAddress = serverHost + ":" + RMI_REGISTRY_PORT;
+                clusterNode = new ClusterNode(chatService, clusterSettings, chatService.getMetrics());
+                chatService.getGroupDirectory().setGroupIdSuffix("@" + clusterNode.getNodeId());
+                shardRouter = new ShardRouter(chatService, clusterNode.getNodeId(),
+                    ShardRouter.Settings.fromSystemProperties(), chatService.getMetrics());
+                clusterNode.setMembershipListener(shardRouter::membersChanged);
+            }
+            ClusterNode cluster = clusterNode;
+            ShardRouter shards = shardRouter;
+            // Replicação: o primário (ou a reserva, depois de assumir) envia as alterações na porta de replicação
+            PrimaryReplicator primaryReplicator = replicationSettings.isEnabled()
+                ? new PrimaryReplicator(chatService, replicationSettings, chatService.getMetrics()) : null;
+            BackupReplicator[] backupReplicator = {null};
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                // Nesta ordem: os grupos vão para os outros nós antes de o estado ser fechado
+                if (shards != null) {
+                    shards.leave();
+                }
+                if (cluster != null) {
+                    cluster.stop();
+                }
+                if (backupReplicator[0] != null) {
+                    backupReplicator[0].stop();
+                }
+                if (primaryReplicator != null) {
+                    primaryReplicator.stop();
+                }
+                chatService.shutdown();
+                LogManager.shutdown();
+            }, "chat-shutdown"));
+            chatService.getMetrics().registerMBeans(ManagementFactory.getPlatformMBeanServer());
+            // Exporta o proxy medido: cada método remoto alimenta rpc.<método>.micros
+            ChatService front = shardRouter != null ? shardRouter.facade() : chatService;
+            ChatService timed = TimedProxy.wrap(ChatService.class, front, chatService.getMetrics(), "rpc");
+            SocketSettings sockets = SocketSettings.fromSystemProperties();
+            log.info("Sockets RMI: {}", sockets);
+            ChatService stub = exportObject(timed, RMI_SERVER_PORT, sockets);
             
             Registry registry;
             try {
                 registry = LocateRegistry.createRegistry(RMI_REGISTRY_PORT);
-                System.out.println("RMI Registry criado na porta " + RMI_REGISTRY_PORT);
+                log.info("RMI Registry criado na porta {}", RMI_REGISTRY_PORT);
             } catch (Exception e) {
                 registry = LocateRegistry.getRegistry(RMI_REGISTRY_PORT);
-                System.out.println("RMI Registry encontrado na porta " + RMI_REGISTRY_PORT);
+                log.info("RMI Registry encontrado na porta {}", RMI_REGISTRY_PORT);
             }
             
-            registry.rebind("ChatService", stub);
-            System.out.println("Servidor RMI iniciado e registrado como 'ChatService'");
+            if (replicationSettings.role == ReplicationSettings.Role.BACKUP) {
+                // Reserva: acompanha o primário e só se registra para os clientes quando ele para de responder
+                Registry backupRegistry = registry;
+                backupReplicator[0] = new BackupReplicator(chatService, replicationSettings, chatService.getMetrics(), () -> {
+                    try {
+                        publish(backupRegistry, stub, timed, nioSettings, sockets, chatService);
+                        primaryReplicator.start();
+                    } catch (Exception e) {
+                        throw new IllegalStateException("Não foi possível assumir como primário: " + e.getMessage(), e);
+                    }
+                });
+                backupReplicator[0].start();
+                log.info("Servidor de reserva: ChatService será registrado se o primário {} parar", replicationSettings.primary);
+            } else {
+                publish(registry, stub, timed, nioSettings, sockets, chatService);
+                if (primaryReplicator != null) {
+                    primaryReplicator.start();
+                }
+            }
+            
+            if (clusterNode != null) {
+                ShardPeer shardStub = (ShardPeer) UnicastRemoteObject.exportObject(shardRouter, 0,
+                    new TunedClientSocketFactory(sockets), new TunedServerSocketFactory(sockets));
+                registry.rebind(ShardRouter.BINDING, shardStub);
+                clusterNode.start();
+                chatService.setRelay(clusterNode);
+            }
             
             UDPFileServer udpFileServer = new UDPFileServer(UDP_FILE_PORT, chatService);
             Thread udpThread = new Thread(() -> {
                 try {
                     udpFileServer.start();
                 } catch (Exception e) {
-                    System.err.println("Erro no servidor UDP: " + e.getMessage());
-                    e.printStackTrace();
+                    log.error("Erro no servidor UDP: {}", e.getMessage(), e);
                 }
             });
             udpThread.setDaemon(true);
             udpThread.start();
-            System.out.println("Servidor UDP iniciado na porta " + UDP_FILE_PORT);
+            log.info("Servidor UDP iniciado na porta {}", UDP_FILE_PORT);
             
-            UDPFileDownloadServer downloadServer = new UDPFileDownloadServer(UDP_DOWNLOAD_PORT);
+            UDPFileDownloadServer downloadServer = new UDPFileDownloadServer(UDP_DOWNLOAD_PORT, chatService.getMetrics());
             Thread downloadThread = new Thread(() -> {
                 try {
                     downloadServer.start();
                 } catch (Exception e) {
-                    System.err.println("Erro no servidor UDP de download: " + e.getMessage());
-                    e.printStackTrace();
+                    log.error("Erro no servidor UDP de download: {}", e.getMessage(), e);
                 }
             });
             downloadThread.setDaemon(true);
             downloadThread.start();
-            System.out.println("Servidor UDP de download iniciado na porta " + UDP_DOWNLOAD_PORT);
+            log.info("Servidor UDP de download iniciado na porta {}", UDP_DOWNLOAD_PORT);
             
             System.out.println("\n=== SERVIDOR PRONTO ===");
             System.out.println("Pressione Ctrl+C para encerrar\n");
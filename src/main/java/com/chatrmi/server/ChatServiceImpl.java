@@ -2,15 +2,37 @@ package com.chatrmi.server;
 
 import com.chatrmi.model.Group;
 import com.chatrmi.model.GroupRequest;
+import com.chatrmi.model.UserDictionary;
 import com.chatrmi.interfaces.ChatClientCallback;
+import com.chatrmi.interfaces.ChatEvent;
 import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.logging.LogManager;
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Histogram;
+import com.chatrmi.metrics.MetricsRegistry;
+import com.chatrmi.net.SocketStats;
 import com.chatrmi.observer.ChatObserver;
-import com.chatrmi.observer.Subject;
+import com.chatrmi.observer.EventBus;
+import com.chatrmi.observer.Observer;
+import com.chatrmi.observer.OverflowPolicy;
+import com.chatrmi.persistence.MessageJournal;
+import com.chatrmi.persistence.StateMutations;
+import com.chatrmi.persistence.StateStore;
 
 import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
 import java.rmi.RemoteException;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 /**
  * Implementação do serviço de chat usando RMI
@@ -18,65 +40,558 @@ import java.util.concurrent.ConcurrentHashMap;
  */
 public class ChatServiceImpl implements ChatService {
     
+    private static final Logger log = Logger.get(ChatServiceImpl.class);
+    private static final String[] NO_USERS = new String[0];
+    private static final ChatEvent[] NO_EVENTS = new ChatEvent[0];
+    // Servidor fora de cluster
+    private static final GlobalEventRelay NO_RELAY = new GlobalEventRelay() {
+        @Override
+        public void messageSent(String username, String message) {
+        }
+        
+        @Override
+        public void fileShared(String username, String filename) {
+        }
+        
+        @Override
+        public void presenceChanged(String username, boolean online) {
+        }
+        
+        @Override
+        public void eventPublished(ChatEvent event) {
+        }
+        
+        @Override
+        public void eventForUsers(String[] usernames, ChatEvent event) {
+        }
+    };
+    public static final long MAX_PULL_WAIT_MS = Long.getLong("chatrmi.pull.maxWaitMs", 30000);
+    private static final long PULL_IDLE_TIMEOUT_MS = Long.getLong("chatrmi.pull.idleTimeoutMs", 90000);
+    
     private Map<String, ChatClientCallback> clients;
+    private final Object presenceLock = new Object(); // mantém clients, remoteUsers e presence coerentes
+    private final Set<String> remoteUsers = ConcurrentHashMap.newKeySet(); // conectados em outros nós do cluster
+    private volatile GlobalEventRelay relay = NO_RELAY;
+    private volatile ReplicationSink replica; // servidor de reserva conectado; null se nenhum
+    private PresenceAggregator presence;
+    private CallbackDispatcher dispatcher;
+    private EventLog eventLog; // eventos recentes por canal, para clientes em modo pull
+    private Map<String, Long> pullClients; // username -> instante da última busca
+    private ScheduledExecutorService pullReaper;
+    private MessageJournal journal; // null se desativado (chatrmi.journal.enabled=false)
+    private StateStore state; // usuários e grupos persistidos; null se desativado (chatrmi.state.enabled=false)
+    private ExecutorService snapshotExecutor;
+    private final AtomicBoolean snapshotScheduled = new AtomicBoolean();
+    private final ReadWriteLock stateGate = new ReentrantReadWriteLock(); // leitura: alteração em andamento; escrita: cópia do estado
+    private final Lock changing = stateGate.readLock();
+    private EventBus eventBus; // eventos internos para observadores (auditoria, moderação, etc.)
     private ChatSubject subject;
-    private Map<String, Group> groups; // groupId -> Group
-    private Map<String, Set<String>> userGroups; // username -> Set<groupId>
-    private Map<String, Set<String>> pendingInvites; // username -> Set<groupId>
-    private Map<String, String> users; // username -> password (armazenamento em memória)
-    private int groupIdCounter;
+    private GroupDirectory directory; // grupos e índice usuário -> grupos
+    private UserIdMap<Set<String>> pendingInvites; // ID do usuário -> Set<groupId>
+    private Map<String, String> users; // username -> hash da senha (PasswordHasher)
+    private final UserDictionary userIds = new UserDictionary(); // username <-> ID (índices e lotes compactos)
+    private final MetricsRegistry metrics = new MetricsRegistry();
+    private final Histogram globalFanout = metrics.histogram("fanout.global.micros");
+    private final Histogram groupFanout = metrics.histogram("fanout.group.micros");
+    private final Histogram groupFanoutSize = metrics.histogram("fanout.group.recipients");
     
     public ChatServiceImpl() throws RemoteException {
         this.clients = new ConcurrentHashMap<>();
-        this.subject = new ChatSubject();
-        this.groups = new ConcurrentHashMap<>();
-        this.userGroups = new ConcurrentHashMap<>();
-        this.pendingInvites = new ConcurrentHashMap<>();
+        this.dispatcher = new CallbackDispatcher(CallbackDispatcher.Settings.fromSystemProperties(), metrics,
+            userIds, this::handleDeliveryFailure, this::handleSlowConsumer);
+        this.eventLog = new EventLog();
+        this.pullClients = new ConcurrentHashMap<>();
+        this.presence = new PresenceAggregator(this::publishPresence);
+        this.eventBus = new EventBus();
+        this.subject = new ChatSubject(eventBus);
+        this.directory = new GroupDirectory(userIds);
+        this.pendingInvites = new UserIdMap<>(userIds);
         this.users = new ConcurrentHashMap<>();
-        this.groupIdCounter = 1;
+        this.state = openStateStore();
+        this.snapshotExecutor = Executors.newSingleThreadExecutor(r -> {
+            Thread thread = new Thread(r, "state-snapshot");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.journal = openJournal();
+        
+        this.pullReaper = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "chat-pull-reaper");
+            thread.setDaemon(true);
+            return thread;
+        });
+        long period = Math.max(1000, PULL_IDLE_TIMEOUT_MS / 4);
+        pullReaper.scheduleWithFixedDelay(this::expireIdlePullClients, period, period, TimeUnit.MILLISECONDS);
+        registerGauges();
+    }
+    
+    private void registerGauges() {
+        metrics.gauge("clients.online", clients::size);
+        metrics.gauge("clients.pull", pullClients::size);
+        metrics.gauge("clients.remote", remoteUsers::size);
+        metrics.gauge("users.registered", users::size);
+        metrics.gauge("users.dictionary", userIds::size);
+        metrics.gauge("groups.count", directory::size);
+        metrics.gauge("pull.channels", eventLog::getChannelCount);
+        metrics.gauge("presence.rawUpdates", presence::getRawUpdates);
+        metrics.gauge("presence.emittedUpdates", presence::getEmittedUpdates);
+        metrics.gauge("log.droppedEvents", LogManager::getDroppedCount);
+        metrics.gauge("observers.droppedEvents", eventBus::getDroppedCount);
+        SocketStats.registerGauges(metrics);
+        if (state != null) {
+            metrics.gauge("state.walRecords", state::getAppendCount);
+            metrics.gauge("state.avgAppendMicros", () -> Math.round(state.getAverageAppendMicros()));
+        }
+        if (journal != null) {
+            metrics.gauge("journal.segments", journal::getSegmentCount);
+        }
+    }
+    
+    private static MessageJournal openJournal() throws RemoteException {
+        if (!Boolean.parseBoolean(System.getProperty("chatrmi.journal.enabled", "true"))) {
+            return null;
+        }
+        File dir = new File(System.getProperty("chatrmi.journal.dir", "journal"));
+        try {
+            MessageJournal journal = new MessageJournal(dir);
+            log.info("Journal de mensagens aberto em {} ({} segmento(s), recuperado em {} ms)",
+                dir.getAbsolutePath(), journal.getSegmentCount(), journal.getRecoveryMillis());
+            return journal;
+        } catch (IOException e) {
+            throw new RemoteException("Não foi possível abrir o journal de mensagens em " + dir, e);
+        }
+    }
+    
+    /**
+     * Abre o armazenamento de estado e recupera usuários, grupos, convites e solicitações
+     */
+    private StateStore openStateStore() throws RemoteException {
+        if (!Boolean.parseBoolean(System.getProperty("chatrmi.state.enabled", "true"))) {
+            return null;
+        }
+        File dir = new File(System.getProperty("chatrmi.state.dir", "data"));
+        StateStore store = null;
+        try {
+            store = new StateStore(dir);
+            StateStore.RecoveryStats stats = store.recover(new StateLoader());
+            directory.rebuildCountIndex();
+            log.info("Estado recuperado de {}: {} usuário(s), {} grupo(s) em {} ms ({} registro(s) do snapshot, {} do WAL)",
+                dir.getAbsolutePath(), users.size(), directory.size(), stats.getMillis(),
+                stats.getSnapshotRecords(), stats.getWalRecords());
+            return store;
+        } catch (IOException e) {
+            if (store != null) {
+                try {
+                    store.close();
+                } catch (IOException ignored) {
+                    // A falha original é mais relevante
+                }
+            }
+            throw new RemoteException("Não foi possível recuperar o estado em " + dir, e);
+        }
+    }
+    
+    /**
+     * Alteração de estado a gravar no WAL
+     */
+    private interface StateChange {
+        void writeTo(StateMutations wal) throws IOException;
+    }
+    
+    /**
+     * Grava no WAL uma alteração já aplicada em memória
+     * Chamado com o lock do grupo alterado, para que a ordem no WAL siga a ordem
+     * em memória, e com {@link #changing} fechada desde a aplicação em memória
+     * até a gravação ou a reversão: o snapshot nunca vê uma alteração que ainda
+     * pode ser desfeita.
+     * @throws RemoteException se a gravação falhar; quem chama desfaz a alteração
+     */
+    private void persist(StateChange change) throws RemoteException {
+        if (state != null) {
+            try {
+                change.writeTo(state);
+            } catch (IOException e) {
+                log.error("Falha ao gravar alteração de estado: {}", e.getMessage());
+                throw new RemoteException("Falha ao gravar alteração no servidor", e);
+            }
+            scheduleSnapshotIfDue();
+        }
+        ReplicationSink sink = replica;
+        if (sink != null) {
+            try {
+                change.writeTo(sink);
+            } catch (IOException e) {
+                // A réplica só enfileira; uma falha dela não desfaz a alteração
+                log.error("Falha ao enfileirar alteração para a reserva: {}", e.getMessage());
+            }
+        }
+    }
+    
+    private void scheduleSnapshotIfDue() {
+        if (state.isSnapshotDue() && snapshotScheduled.compareAndSet(false, true)) {
+            snapshotExecutor.execute(this::writeSnapshot);
+        }
+    }
+    
+    private void writeSnapshot() {
+        try {
+            long start = System.nanoTime();
+            state.snapshot(stateGate.writeLock(), this::writeState);
+            log.info("[ESTADO] Snapshot gravado em {} ms", (System.nanoTime() - start) / 1_000_000);
+        } catch (IOException e) {
+            log.error("Falha ao gravar snapshot do estado: {}", e.getMessage());
+        } finally {
+            snapshotScheduled.set(false);
+        }
+    }
+    
+    /**
+     * Descreve o estado atual para o snapshot
+     * Chamado com a trava de escrita de {@link #stateGate}: nenhuma alteração
+     * está em andamento, então tudo o que está em memória já foi gravado.
+     */
+    private void writeState(StateMutations out) throws IOException {
+        for (Map.Entry<String, String> user : users.entrySet()) {
+            out.userRegistered(user.getKey(), user.getValue());
+        }
+        for (Group group : directory.getAll()) {
+            String groupId = group.getGroupId();
+            out.groupCreated(groupId, group.getGroupName(), group.getOwner());
+            for (String member : group.getMembers()) {
+                if (!group.isOwner(member)) {
+                    out.memberAdded(groupId, member);
+                }
+            }
+            for (GroupRequest request : group.getPendingRequests()) {
+                out.requestAdded(groupId, request.getUsername());
+            }
+        }
+        for (int id = 0, count = userIds.size(); id < count; id++) {
+            Set<String> invites = pendingInvites.get(id);
+            if (invites != null) {
+                for (String groupId : invites) {
+                    out.inviteAdded(userIds.nameOf(id), groupId);
+                }
+            }
+        }
+        out.nextGroupId(directory.getNextGroupId());
+    }
+    
+    /**
+     * Aplica ao servidor as alterações lidas do snapshot e do WAL
+     * Alterações que se referem a grupos já excluídos são ignoradas.
+     */
+    private class StateLoader implements StateMutations {
+        @Override
+        public void userRegistered(String username, String passwordHash) {
+            users.put(username, passwordHash);
+            userIds.intern(username);
+        }
+        
+        @Override
+        public void groupCreated(String groupId, String groupName, String owner) {
+            directory.restore(groupId, groupName, owner);
+        }
+        
+        @Override
+        public void memberAdded(String groupId, String username) {
+            Group group = directory.get(groupId);
+            if (group != null) {
+                directory.restoreMember(group, username);
+            }
+        }
+        
+        @Override
+        public void memberRemoved(String groupId, String username) {
+            Group group = directory.get(groupId);
+            if (group != null) {
+                directory.removeMember(group, username);
+            }
+        }
+        
+        @Override
+        public void groupDeleted(String groupId) {
+            directory.delete(groupId);
+            eventLog.remove(ChatService.Channels.group(groupId));
+        }
+        
+        @Override
+        public void inviteAdded(String username, String groupId) {
+            pendingInvites.computeIfAbsent(username, ConcurrentHashMap::newKeySet).add(groupId);
+        }
+        
+        @Override
+        public void inviteRemoved(String username, String groupId) {
+            Set<String> userInvites = pendingInvites.get(username);
+            if (userInvites != null) {
+                userInvites.remove(groupId);
+            }
+        }
+        
+        @Override
+        public void requestAdded(String groupId, String username) {
+            Group group = directory.get(groupId);
+            if (group != null) {
+                group.addRequestIfAbsent(new GroupRequest(username, groupId, group.getGroupName()));
+            }
+        }
+        
+        @Override
+        public void requestRemoved(String groupId, String username) {
+            Group group = directory.get(groupId);
+            if (group != null) {
+                group.removeRequest(username);
+            }
+        }
+        
+        @Override
+        public void nextGroupId(int nextId) {
+            directory.advanceGroupIdCounter(nextId);
+        }
+    }
+    
+    /**
+     * Grava uma mensagem ou arquivo no journal antes de entregá-lo
+     * @throws RemoteException se a gravação falhar
+     */
+    private void journal(String channel, MessageJournal.EntryType type, String username, String content) throws RemoteException {
+        if (journal == null) {
+            return;
+        }
+        long timestamp = System.currentTimeMillis();
+        ReplicationSink sink = replica;
+        try {
+            // Repassada à reserva com o lock do journal: a ordem das sequências de cada canal se mantém
+            journal.append(channel, 0, timestamp, type, username, content, sink == null ? null
+                : seq -> sink.journalAppended(channel, seq, timestamp, type, username, content));
+        } catch (IOException e) {
+            log.error("Falha ao gravar no journal ({}): {}", channel, e.getMessage());
+            throw new RemoteException("Falha ao gravar mensagem no servidor", e);
+        }
     }
     
     @Override
     public void sendMessage(String username, String message) throws RemoteException {
-        System.out.println("[" + username + "]: " + message);
+        journal(ChatService.GLOBAL_CHANNEL, MessageJournal.EntryType.MESSAGE, username, message);
+        log.info("[{}]: {}", username, message);
         
-        ChatObserver.MessageEvent event = new ChatObserver.MessageEvent(username, message);
-        subject.notifyObservers(event);
+        if (subject.hasObservers(ChatObserver.MessageEvent.class)) {
+            subject.notifyObservers(new ChatObserver.MessageEvent(username, message));
+        }
         broadcastMessage(username, message);
+        relay.messageSent(username, message);
     }
     
     @Override
-    public void registerClient(String username, ChatClientCallback callback) throws RemoteException {
-        clients.put(username, callback);
-        System.out.println("\n[CLIENTE REGISTRADO] " + username);
-        System.out.println("   Total de clientes conectados: " + clients.size());
-        
-        // Testar se o callback funciona
+    public boolean registerClient(String username, ChatClientCallback callback) throws RemoteException {
+        // Testar se o callback funciona com uma variação vazia antes de registrá-lo;
+        // a lista completa é obtida pelo próprio cliente via getPresenceSnapshot()
+        boolean callbackWorks;
         try {
-            callback.onUsersUpdated(getOnlineUsers());
-            System.out.println("   Callback testado com sucesso!");
+            long version = presence.getVersion();
+            callback.onPresenceChanged(version, version, NO_USERS, NO_USERS);
+            callbackWorks = true;
         } catch (RemoteException e) {
-            System.err.println("   [AVISO] Falha ao testar callback: " + e.getMessage());
-            System.err.println("   O cliente pode não conseguir receber mensagens!");
-            System.err.println("   Verifique se o firewall do cliente permite conexões TCP de entrada");
+            log.warn("Falha ao testar callback de {}: {}. Verifique se o firewall do cliente permite conexões TCP de entrada;"
+                + " o cliente passará a buscar seus eventos em modo pull", username, e.getMessage());
+            callbackWorks = false;
+        }
+        
+        synchronized (presenceLock) {
+            boolean joined = clients.put(username, callback) == null;
+            if (callbackWorks) {
+                pullClients.remove(username);
+                dispatcher.register(username, callback);
+            } else {
+                dispatcher.unregister(username);
+                pullClients.put(username, System.currentTimeMillis());
+            }
+            if (joined) {
+                presence.userJoined(username);
+                relay.presenceChanged(username, true);
+            }
         }
+        log.info("[CLIENTE REGISTRADO] {}{} - total de clientes conectados: {}",
+            username, callbackWorks ? "" : " (modo pull)", clients.size());
         
-        String[] users = getOnlineUsers();
-        ChatObserver.UserEvent event = new ChatObserver.UserEvent(users);
-        subject.notifyObservers(event);
-        broadcastUsersUpdate();
+        // A lista completa só é montada se houver quem a observe
+        if (subject.hasObservers(ChatObserver.UserEvent.class)) {
+            subject.notifyObservers(new ChatObserver.UserEvent(getOnlineUsers()));
+        }
+        return callbackWorks;
     }
     
     @Override
     public void unregisterClient(String username) throws RemoteException {
-        clients.remove(username);
-        System.out.println("Cliente desconectado: " + username);
-        broadcastUsersUpdate();
+        removeClient(username, null);
+        log.info("Cliente desconectado: {}", username);
+    }
+    
+    @Override
+    public ChatService.PresenceSnapshot getPresenceSnapshot() throws RemoteException {
+        return presence.getSnapshot();
+    }
+    
+    /**
+     * Remove um cliente e publica sua saída aos demais
+     * @param username Nome do usuário
+     * @param callback Callback esperado, ou null para remover qualquer callback registrado
+     * @return true se o cliente estava registrado
+     */
+    private boolean removeClient(String username, ChatClientCallback callback) {
+        synchronized (presenceLock) {
+            boolean removed = callback == null ? clients.remove(username) != null : clients.remove(username, callback);
+            if (!removed) {
+                return false;
+            }
+            dispatcher.unregister(username);
+            if (pullClients.remove(username) != null) {
+                eventLog.remove(ChatService.Channels.user(username));
+            }
+            // Conectado também em outro nó: continua online para os demais
+            if (!remoteUsers.contains(username)) {
+                presence.userLeft(username);
+            }
+            relay.presenceChanged(username, false);
+            return true;
+        }
+    }
+    
+    @Override
+    public ChatService.EventChunk fetchSince(String username, String channel, long seq, long maxWaitMs) throws RemoteException {
+        acceptFetch(username);
+        return fetchChannel(username, channel, seq, maxWaitMs);
+    }
+    
+    /**
+     * Confere que o usuário está conectado a este nó e anota a busca, se ele estiver em modo pull
+     * @param username Nome do usuário que está buscando
+     * @throws RemoteException se o usuário não estiver registrado aqui
+     */
+    public void acceptFetch(String username) throws RemoteException {
+        if (!clients.containsKey(username)) {
+            throw new RemoteException("Cliente não registrado: " + username);
+        }
+        pullClients.computeIfPresent(username, (k, lastFetch) -> System.currentTimeMillis());
+    }
+    
+    /**
+     * fetchSince sem exigir que o usuário esteja conectado a este nó
+     * O nó do cliente já o aceitou ({@link #acceptFetch}); o dono de um grupo
+     * atende por aqui os membros conectados em outros nós do cluster.
+     * @throws RemoteException se o canal não for acessível ao usuário
+     */
+    public ChatService.EventChunk fetchChannel(String username, String channel, long seq, long maxWaitMs) throws RemoteException {
+        checkChannelAccess(username, channel);
+        try {
+            return eventLog.fetchSince(channel, seq, Math.max(0, Math.min(maxWaitMs, MAX_PULL_WAIT_MS)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Busca de eventos interrompida");
+        }
+    }
+    
+    @Override
+    public ChatService.EventChunk[] pollChannels(String username, String[] channels, long[] seqs, long maxWaitMs) throws RemoteException {
+        acceptFetch(username);
+        return readChannels(username, channels, seqs, maxWaitMs);
+    }
+    
+    /**
+     * pollChannels sem exigir que o usuário esteja conectado a este nó (ver {@link #fetchChannel})
+     * Um grupo que não está aqui volta sem eventos e na mesma posição, em vez
+     * de sem acesso: pode estar mudando de nó.
+     * @throws RemoteException se um canal for inválido
+     */
+    public ChatService.EventChunk[] readChannels(String username, String[] channels, long[] seqs, long maxWaitMs) throws RemoteException {
+        if (channels.length != seqs.length) {
+            throw new RemoteException("Quantidades diferentes de canais e sequências");
+        }
+        ChatService.EventChunk[] result = new ChatService.EventChunk[channels.length];
+        int[] readable = new int[channels.length];
+        int count = 0;
+        String groupPrefix = ChatService.Channels.group("");
+        for (int i = 0; i < channels.length; i++) {
+            String channel = channels[i];
+            if (channel != null && channel.startsWith(groupPrefix)) {
+                Group group = directory.get(channel.substring(groupPrefix.length()));
+                if (group == null) {
+                    result[i] = new ChatService.EventChunk(NO_EVENTS, seqs[i], false);
+                    continue;
+                }
+                if (!group.isMember(username)) {
+                    continue;
+                }
+            } else {
+                checkChannelAccess(username, channel);
+            }
+            readable[count++] = i;
+        }
+        
+        String[] names = new String[count];
+        long[] afterSeqs = new long[count];
+        for (int j = 0; j < count; j++) {
+            names[j] = channels[readable[j]];
+            afterSeqs[j] = seqs[readable[j]];
+        }
+        try {
+            ChatService.EventChunk[] chunks = eventLog.fetchSince(names, afterSeqs, Math.max(0, Math.min(maxWaitMs, MAX_PULL_WAIT_MS)));
+            for (int j = 0; j < count; j++) {
+                result[readable[j]] = chunks[j];
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RemoteException("Busca de eventos interrompida");
+        }
+        return result;
+    }
+    
+    /**
+     * Acompanha canais daqui enquanto uma busca também depende de outros nós (ver {@link EventLog#watch})
+     * @param channels Nomes dos canais
+     * @return Waiter a fechar depois da espera
+     */
+    public EventLog.Waiter watchChannels(String[] channels) {
+        return eventLog.watch(channels);
+    }
+    
+    private void checkChannelAccess(String username, String channel) throws RemoteException {
+        if (ChatService.GLOBAL_CHANNEL.equals(channel) || ChatService.PRESENCE_CHANNEL.equals(channel)
+                || ChatService.Channels.user(username).equals(channel)) {
+            return;
+        }
+        String groupPrefix = ChatService.Channels.group("");
+        if (channel != null && channel.startsWith(groupPrefix)) {
+            Group group = directory.get(channel.substring(groupPrefix.length()));
+            if (group != null && group.isMember(username)) {
+                return;
+            }
+            throw new RemoteException("Grupo não encontrado ou usuário não é membro");
+        }
+        throw new RemoteException("Canal inválido: " + channel);
+    }
+    
+    /**
+     * Desconecta clientes em modo pull que pararam de buscar eventos
+     */
+    private void expireIdlePullClients() {
+        long now = System.currentTimeMillis();
+        pullClients.forEach((username, lastFetch) -> {
+            ChatClientCallback callback = clients.get(username);
+            if (now - lastFetch > PULL_IDLE_TIMEOUT_MS && callback != null && pullClients.remove(username, lastFetch)) {
+                // Sem entrada em pullClients, removeClient não descarta o canal do usuário
+                eventLog.remove(ChatService.Channels.user(username));
+                if (removeClient(username, callback)) {
+                    log.warn("[MODO PULL] Cliente inativo desconectado: {}", username);
+                }
+            }
+        });
     }
     
     @Override
     public String[] getOnlineUsers() throws RemoteException {
-        Set<String> userSet = clients.keySet();
+        Set<String> userSet = new LinkedHashSet<>(clients.keySet());
+        userSet.addAll(remoteUsers);
         return userSet.toArray(new String[0]);
     }
     
@@ -109,70 +624,529 @@ public class ChatServiceImpl implements ChatService {
     }
     
     private void broadcastMessage(String username, String message) {
-        clients.forEach((user, callback) -> {
-            try {
-                callback.onMessageReceived(username, message);
-            } catch (RemoteException e) {
-                System.err.println("\n[ERRO] Falha ao enviar mensagem para " + user);
-                System.err.println("       Causa: " + e.getMessage());
-                if (e.getMessage() != null && (e.getMessage().contains("Connection") || e.getMessage().contains("refused"))) {
-                    System.err.println("       Possivel causa: Firewall bloqueando callbacks ou cliente desconectado");
-                    System.err.println("       O cliente precisa permitir conexões TCP de entrada para receber mensagens");
+        publishGlobal(new ChatEvent.MessageReceived(username, message));
+    }
+    
+    /**
+     * Entrega um evento a todos: callbacks e canal global do modo pull
+     */
+    private void publishGlobal(ChatEvent event) {
+        long start = System.nanoTime();
+        appendToHistory(ChatService.GLOBAL_CHANNEL, event);
+        dispatcher.broadcast(event);
+        globalFanout.recordMicrosSince(start);
+    }
+    
+    /**
+     * Acrescenta ao histórico do chat global ou de um grupo um evento que vai ser entregue
+     * Antes da entrega: a posição recebida viaja com o evento no lote, e o
+     * cliente a usa para retomar deste ponto se trocar de servidor.
+     */
+    private void appendToHistory(String channel, ChatEvent event) {
+        ReplicationSink sink = replica;
+        // Repassado à reserva com o lock do canal: os eventos chegam lá na ordem das sequências
+        long seq = eventLog.append(channel, event, sink == null ? null : sink::eventAppended);
+        event.setPosition(channel, seq);
+    }
+    
+    private void publishPresence(ChatEvent.PresenceChanged event) {
+        long start = System.nanoTime();
+        dispatcher.broadcast(event);
+        eventLog.append(ChatService.PRESENCE_CHANNEL, event);
+        globalFanout.recordMicrosSince(start);
+    }
+    
+    /**
+     * Entrega um evento aos membros de um grupo: callbacks e canal do grupo
+     */
+    private void publishToGroup(Group group, ChatEvent event) {
+        long start = System.nanoTime();
+        appendToHistory(ChatService.Channels.group(group.getGroupId()), event);
+        List<String> members = group.getMembers();
+        List<String> remote = null;
+        for (String member : members) {
+            if (!dispatcher.enqueue(member, event) && isRemoteOnly(member)) {
+                if (remote == null) {
+                    remote = new ArrayList<>();
                 }
-                System.err.println("       Removendo cliente da lista...\n");
-                clients.remove(user);
+                remote.add(member);
             }
-        });
+        }
+        // Membros conectados em outros nós: um repasse por nó, não por membro
+        if (remote != null) {
+            relay.eventForUsers(remote.toArray(NO_USERS), event);
+        }
+        groupFanout.recordMicrosSince(start);
+        groupFanoutSize.record(members.size());
+    }
+    
+    /**
+     * Entrega um evento a um usuário, pelo callback ou pelo seu canal do modo pull
+     */
+    private void sendToUser(String username, ChatEvent event) {
+        if (pullClients.containsKey(username)) {
+            eventLog.append(ChatService.Channels.user(username), event);
+        } else if (!dispatcher.enqueue(username, event) && isRemoteOnly(username)) {
+            relay.eventForUsers(new String[] {username}, event);
+        }
+    }
+    
+    /**
+     * @return true se o usuário está conectado em outro nó do cluster e não neste
+     */
+    private boolean isRemoteOnly(String username) {
+        return !remoteUsers.isEmpty() && remoteUsers.contains(username) && !clients.containsKey(username);
+    }
+    
+    /**
+     * Chamado pelo dispatcher quando um callback falha: descarta o cliente
+     */
+    private void handleDeliveryFailure(String user, ChatClientCallback callback, String description, RemoteException e) {
+        String hint = "";
+        if (e.getMessage() != null && (e.getMessage().contains("Connection") || e.getMessage().contains("refused"))) {
+            hint = ". Possível causa: firewall bloqueando callbacks ou cliente desconectado"
+                + " (o cliente precisa permitir conexões TCP de entrada para receber mensagens)";
+        }
+        log.error("Falha ao enviar {} para {}: {}{}. Removendo cliente da lista", description, user, e.getMessage(), hint);
+        removeClient(user, callback);
+    }
+    
+    /**
+     * Chamado pelo dispatcher quando a política DISCONNECT desconecta um cliente lento
+     */
+    private void handleSlowConsumer(String user, ChatClientCallback callback, String reason) {
+        if (removeClient(user, callback)) {
+            log.warn("[CLIENTE LENTO] Cliente desconectado: {} ({})", user, reason);
+        }
     }
     
-    private void broadcastUsersUpdate() {
-        String[] users = clients.keySet().toArray(new String[0]);
-        clients.forEach((user, callback) -> {
+    /**
+     * Encerra as entregas pendentes, grava um snapshot final e fecha o journal
+     */
+    public void shutdown() {
+        presence.shutdown();
+        dispatcher.shutdown();
+        eventBus.shutdown(5000);
+        pullReaper.shutdownNow();
+        snapshotExecutor.shutdown();
+        if (state != null) {
             try {
-                callback.onUsersUpdated(users);
-            } catch (RemoteException e) {
-                System.err.println("\n[ERRO] Falha ao atualizar lista de usuários para " + user);
-                System.err.println("       Causa: " + e.getMessage());
-                if (e.getMessage() != null && (e.getMessage().contains("Connection") || e.getMessage().contains("refused"))) {
-                    System.err.println("       Possivel causa: Firewall bloqueando callbacks ou cliente desconectado");
-                }
-                System.err.println("       Removendo cliente da lista...\n");
-                clients.remove(user);
+                snapshotExecutor.awaitTermination(30, TimeUnit.SECONDS);
+                state.snapshot(stateGate.writeLock(), this::writeState);
+                state.close();
+            } catch (IOException e) {
+                log.error("Falha ao fechar o armazenamento de estado: {}", e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
             }
-        });
+        }
+        if (journal != null) {
+            try {
+                journal.close();
+            } catch (IOException e) {
+                log.error("Falha ao fechar o journal: {}", e.getMessage());
+            }
+        }
+    }
+    
+    public MessageJournal getJournal() {
+        return journal;
+    }
+    
+    public StateStore getStateStore() {
+        return state;
+    }
+    
+    public MetricsRegistry getMetrics() {
+        return metrics;
+    }
+    
+    @Override
+    public ChatService.ServerStats getStats() throws RemoteException {
+        return metrics.getStats();
+    }
+    
+    public CallbackDispatcher getDispatcher() {
+        return dispatcher;
+    }
+    
+    public PresenceAggregator getPresenceAggregator() {
+        return presence;
     }
     
     public void notifyFileReceived(String username, String filename) {
-        ChatObserver.FileEvent event = new ChatObserver.FileEvent(username, filename);
-        subject.notifyObservers(event);
+        try {
+            journal(ChatService.GLOBAL_CHANNEL, MessageJournal.EntryType.FILE, username, filename);
+        } catch (RemoteException e) {
+            // O arquivo já foi recebido por UDP: a notificação segue mesmo sem o registro
+        }
         
-        clients.forEach((user, callback) -> {
-            try {
-                if (!user.equals(username)) {
-                    callback.onFileReceived(username, filename);
-                }
-            } catch (RemoteException e) {
-                System.err.println("Erro ao notificar arquivo para " + user + ": " + e.getMessage());
-                clients.remove(user);
+        if (subject.hasObservers(ChatObserver.FileEvent.class)) {
+            subject.notifyObservers(new ChatObserver.FileEvent(username, filename));
+        }
+        
+        publishFile(username, filename);
+        relay.fileShared(username, filename);
+    }
+    
+    /**
+     * Entrega o aviso de arquivo a todos os clientes locais, menos a quem enviou
+     */
+    private void publishFile(String username, String filename) {
+        long start = System.nanoTime();
+        ChatEvent.FileReceived fileEvent = new ChatEvent.FileReceived(username, filename);
+        // Clientes em modo pull ignoram os próprios arquivos ao ler o canal global
+        appendToHistory(ChatService.GLOBAL_CHANNEL, fileEvent);
+        clients.keySet().forEach(user -> {
+            if (!user.equals(username)) {
+                dispatcher.enqueue(user, fileEvent);
             }
         });
+        globalFanout.recordMicrosSince(start);
+    }
+    
+    // ========== REPLICAÇÃO ==========
+    
+    /**
+     * Passa a enviar as alterações a um servidor de reserva
+     * @param sink Destino das alterações, ou null para parar
+     */
+    public void setReplicationSink(ReplicationSink sink) {
+        this.replica = sink;
+    }
+    
+    /**
+     * Descreve o estado e o histórico recente dos canais a uma reserva que acabou de conectar
+     * Chamado depois de {@link #setReplicationSink}: alterações concorrentes
+     * também vão para a fila da reserva e são aplicadas depois desta cópia,
+     * como o WAL depois de um snapshot. O estado é copiado para a memória sem
+     * alterações em andamento, como no snapshot, e só depois enviado. As
+     * mensagens do journal anteriores à conexão não são copiadas.
+     */
+    public void writeReplicaSnapshot(ReplicationSink out) throws IOException {
+        List<byte[]> records = new ArrayList<>();
+        stateGate.writeLock().lock();
+        try {
+            writeState(StateStore.recordWriter(records::add));
+        } finally {
+            stateGate.writeLock().unlock();
+        }
+        for (byte[] record : records) {
+            StateStore.applyRecord(ByteBuffer.wrap(record), out);
+        }
+        eventLog.forEachRetained(ChatServiceImpl::isReplicatedChannel, out::eventAppended);
+    }
+    
+    private static boolean isReplicatedChannel(String channel) {
+        return ChatService.GLOBAL_CHANNEL.equals(channel) || channel.startsWith(ChatService.Channels.group(""));
+    }
+    
+    /**
+     * Reserva: descarta usuários, grupos, convites e histórico antes de receber a cópia do primário
+     * Nada aqui está sendo servido a clientes enquanto o servidor é reserva.
+     */
+    public void beginReplicaSync() {
+        users.clear();
+        for (Group group : new ArrayList<>(directory.getAll())) {
+            directory.delete(group.getGroupId());
+        }
+        for (int id = 0, count = userIds.size(); id < count; id++) {
+            Set<String> invites = pendingInvites.get(id);
+            if (invites != null) {
+                invites.clear();
+            }
+        }
+        eventLog.removeAll(ChatServiceImpl::isReplicatedChannel);
+    }
+    
+    /**
+     * Reserva: cópia completa recebida; grava um snapshot, que substitui o estado anterior em disco
+     */
+    public void endReplicaSync() throws IOException {
+        directory.rebuildCountIndex();
+        if (state != null) {
+            state.snapshot(stateGate.writeLock(), this::writeState);
+        }
+    }
+    
+    /**
+     * Reserva: aplica em memória e grava no WAL local um registro de estado do primário
+     * @param record Registro no formato de {@link StateStore#recordWriter}
+     */
+    public void applyReplicatedState(ByteBuffer record) throws IOException {
+        StateStore.applyRecord(record.duplicate(), new StateLoader());
+        if (state != null) {
+            StateStore.applyRecord(record, state);
+            scheduleSnapshotIfDue();
+        }
+    }
+    
+    /**
+     * Reserva: grava no journal local uma entrada com a sequência que ela recebeu no primário
+     */
+    public void applyReplicatedJournal(String channel, long seq, long timestamp, MessageJournal.EntryType type,
+                                       String username, String content) throws IOException {
+        if (journal != null) {
+            journal.append(channel, seq, timestamp, type, username, content);
+        }
+    }
+    
+    /**
+     * Reserva: acrescenta ao histórico do canal um evento com a sequência que ele recebeu no primário
+     */
+    public void applyReplicatedEvent(String channel, long seq, ChatEvent event) {
+        eventLog.appendAt(channel, seq, event);
+    }
+    
+    /**
+     * Reserva que assume o lugar do primário: deixa os índices prontos para atender clientes
+     */
+    public void promoteToPrimary() {
+        directory.rebuildCountIndex();
+        log.info("[REPLICAÇÃO] Servidor promovido a primário: {} usuário(s), {} grupo(s)", users.size(), directory.size());
+    }
+    
+    // ========== CLUSTER ==========
+    
+    /**
+     * Define quem recebe os eventos globais originados neste nó (o cluster)
+     * @param relay Destino dos eventos, ou null para nenhum
+     */
+    public void setRelay(GlobalEventRelay relay) {
+        this.relay = relay != null ? relay : NO_RELAY;
+    }
+    
+    /**
+     * Entrega aos clientes locais uma mensagem global enviada em outro nó
+     * Não vai para o journal: o nó de origem já a gravou.
+     */
+    public void deliverRemoteMessage(String username, String message) {
+        if (subject.hasObservers(ChatObserver.MessageEvent.class)) {
+            subject.notifyObservers(new ChatObserver.MessageEvent(username, message));
+        }
+        broadcastMessage(username, message);
+    }
+    
+    /**
+     * Entrega aos clientes locais o aviso de um arquivo recebido por outro nó
+     */
+    public void deliverRemoteFile(String username, String filename) {
+        if (subject.hasObservers(ChatObserver.FileEvent.class)) {
+            subject.notifyObservers(new ChatObserver.FileEvent(username, filename));
+        }
+        publishFile(username, filename);
+    }
+    
+    /**
+     * Usuário conectou em outro nó (chamado uma vez, mesmo que esteja em vários)
+     */
+    public void remoteUserJoined(String username) {
+        synchronized (presenceLock) {
+            if (remoteUsers.add(username) && !clients.containsKey(username)) {
+                presence.userJoined(username);
+            }
+        }
+    }
+    
+    /**
+     * Usuário não está mais conectado em nenhum outro nó
+     */
+    public void remoteUserLeft(String username) {
+        synchronized (presenceLock) {
+            if (remoteUsers.remove(username) && !clients.containsKey(username)) {
+                presence.userLeft(username);
+            }
+        }
+    }
+    
+    /**
+     * @return Usuários conectados diretamente a este nó
+     */
+    public String[] getLocalUsers() {
+        return clients.keySet().toArray(new String[0]);
+    }
+    
+    /**
+     * Entrega um evento publicado para todos em outro nó (ex.: grupo criado lá)
+     */
+    public void deliverRemoteEvent(ChatEvent event) {
+        publishGlobal(event);
+    }
+    
+    /**
+     * Entrega um evento de outro nó aos destinatários conectados aqui; os demais são ignorados
+     */
+    public void deliverRemoteEvent(String[] usernames, ChatEvent event) {
+        for (String username : usernames) {
+            if (!clients.containsKey(username)) {
+                continue;
+            }
+            if (pullClients.containsKey(username) && isGroupHistory(event)) {
+                // Em modo pull, o histórico do grupo é buscado no dono (ShardRouter), não no canal
+                // do usuário; o aviso só acorda a busca dele, que então volta ao dono
+                eventLog.wake(ChatService.Channels.user(username));
+            } else {
+                sendToUser(username, event);
+            }
+        }
+    }
+    
+    /**
+     * @return true para os eventos que {@link #publishToGroup} guarda no canal do grupo
+     */
+    private static boolean isGroupHistory(ChatEvent event) {
+        return event instanceof ChatEvent.GroupMessageReceived || event instanceof ChatEvent.GroupFileReceived
+            || event instanceof ChatEvent.GroupUpdated;
+    }
+    
+    /**
+     * Usuários com convite pendente para o grupo (levados junto quando o grupo muda de nó)
+     */
+    public String[] getInvitedUsers(String groupId) {
+        List<String> invited = new ArrayList<>();
+        pendingInvites.forEach((username, groupIds) -> {
+            if (groupIds.contains(groupId)) {
+                invited.add(username);
+            }
+        });
+        return invited.toArray(NO_USERS);
+    }
+    
+    /**
+     * Recebe um grupo transferido de outro nó: membros, solicitações e convites
+     * Idempotente: reimportar um grupo já presente só completa o que faltar
+     * (o nó de origem repete a transferência quando não recebe a resposta).
+     * Se a gravação falhar, desfaz o que esta chamada acrescentou; o grupo só
+     * é excluído se foi criado por ela.
+     * @param copy Cópia desserializada do grupo
+     * @param invited Usuários com convite pendente para o grupo
+     */
+    public void importGroup(Group copy, String[] invited) throws RemoteException {
+        String groupId = copy.getGroupId();
+        Group existing = directory.get(groupId);
+        changing.lock();
+        try {
+            Group group = directory.restore(groupId, copy.getGroupName(), copy.getOwner());
+            boolean created = group != existing;
+            List<String> addedInvites = new ArrayList<>();
+            synchronized (group) {
+                try {
+                    if (created) {
+                        persist(wal -> wal.groupCreated(groupId, copy.getGroupName(), copy.getOwner()));
+                    }
+                    for (String member : copy.getMembers()) {
+                        if (directory.addMember(group, member)) {
+                            persist(wal -> wal.memberAdded(groupId, member));
+                        }
+                    }
+                    for (GroupRequest request : copy.getPendingRequests()) {
+                        if (group.addRequestIfAbsent(request)) {
+                            persist(wal -> wal.requestAdded(groupId, request.getUsername()));
+                        }
+                    }
+                    for (String username : invited) {
+                        if (pendingInvites.computeIfAbsent(username, ConcurrentHashMap::newKeySet).add(groupId)) {
+                            addedInvites.add(username);
+                            persist(wal -> wal.inviteAdded(username, groupId));
+                        }
+                    }
+                } catch (RemoteException e) {
+                    // O nó de origem continua com o grupo e tenta de novo
+                    rollbackImport(groupId, created, addedInvites);
+                    throw e;
+                }
+            }
+        } finally {
+            changing.unlock();
+        }
+        log.info("Grupo recebido de outro nó: {} (ID: {}, {} membro(s))", copy.getGroupName(), groupId, copy.getMemberCount());
+    }
+    
+    /**
+     * Desfaz um importGroup que falhou, com o lock do grupo
+     * Grava as remoções correspondentes para que a recuperação não traga de
+     * volta o que já foi gravado; se a gravação falhar de novo, fica só o log.
+     */
+    private void rollbackImport(String groupId, boolean created, List<String> addedInvites) {
+        for (String username : addedInvites) {
+            Set<String> userInvites = pendingInvites.get(username);
+            if (userInvites != null) {
+                userInvites.remove(groupId);
+            }
+        }
+        if (created) {
+            directory.delete(groupId);
+        }
+        log.warn("Importação do grupo {} desfeita ({}{} convite(s))", groupId,
+            created ? "grupo excluído, " : "", addedInvites.size());
+        try {
+            for (String username : addedInvites) {
+                persist(wal -> wal.inviteRemoved(username, groupId));
+            }
+            if (created) {
+                persist(wal -> wal.groupDeleted(groupId));
+            }
+        } catch (RemoteException e) {
+            log.error("Falha ao gravar a reversão da importação do grupo {}: {}", groupId, e.getMessage());
+        }
+    }
+    
+    /**
+     * Retira um grupo já transferido a outro nó
+     * Os membros não são avisados: continuam no grupo, que agora está em outro nó.
+     * @param invited Usuários com convite pendente, levados junto com o grupo
+     */
+    public void dropGroup(String groupId, String[] invited) throws RemoteException {
+        Group group = directory.get(groupId);
+        if (group == null) {
+            return;
+        }
+        changing.lock();
+        try {
+            synchronized (group) {
+                if (directory.delete(groupId) == null) {
+                    return;
+                }
+                persist(wal -> wal.groupDeleted(groupId));
+                for (String username : invited) {
+                    Set<String> userInvites = pendingInvites.get(username);
+                    if (userInvites != null && userInvites.remove(groupId)) {
+                        persist(wal -> wal.inviteRemoved(username, groupId));
+                    }
+                }
+            }
+        } finally {
+            changing.unlock();
+        }
+        eventLog.remove(ChatService.Channels.group(groupId));
     }
     
     public ChatSubject getSubject() {
         return subject;
     }
     
+    public GroupDirectory getGroupDirectory() {
+        return directory;
+    }
+    
     @Override
     public String createGroup(String groupName, String ownerUsername) throws RemoteException {
-        String groupId = "GROUP_" + groupIdCounter++;
-        
-        Group group = new Group(groupId, groupName, ownerUsername);
-        groups.put(groupId, group);
-        userGroups.computeIfAbsent(ownerUsername, k -> ConcurrentHashMap.newKeySet()).add(groupId);
+        // Só entra no diretório depois de gravado: ninguém o vê antes disso
+        Group group = directory.create(groupName, ownerUsername);
+        String groupId = group.getGroupId();
+        changing.lock();
+        try {
+            synchronized (group) {
+                persist(wal -> wal.groupCreated(groupId, groupName, ownerUsername));
+                directory.register(group);
+            }
+        } finally {
+            changing.unlock();
+        }
         
-        System.out.println("Grupo criado: " + groupName + " (ID: " + groupId + ", dono: " + ownerUsername + ")");
+        log.info("Grupo criado: {} (ID: {}, dono: {})", groupName, groupId, ownerUsername);
         
-        ChatService.GroupInfo groupInfo = convertToGroupInfo(group);
+        ChatService.GroupInfo groupInfo = group.getInfo();
         broadcastGroupCreated(groupInfo);
         
         return groupId;
@@ -180,182 +1154,204 @@ public class ChatServiceImpl implements ChatService {
     
     @Override
     public ChatService.GroupInfo[] getAvailableGroups() throws RemoteException {
-        return groups.values().stream()
-            .map(this::convertToGroupInfo)
+        return directory.getAll().stream()
+            .map(Group::getInfo)
             .toArray(ChatService.GroupInfo[]::new);
     }
     
+    @Override
+    public ChatService.GroupPage getGroupsPage(String namePrefix, ChatService.GroupSort sort, int offset, int limit) throws RemoteException {
+        int start = Math.max(0, offset);
+        int size = Math.max(1, Math.min(limit, ChatService.MAX_PAGE_SIZE));
+        
+        // Busca um grupo a mais para saber se existe uma próxima página
+        List<Group> found = directory.find(namePrefix, sort, start, size + 1);
+        boolean hasMore = found.size() > size;
+        ChatService.GroupSummary[] summaries = found.stream()
+            .limit(size)
+            .map(Group::getSummary)
+            .toArray(ChatService.GroupSummary[]::new);
+        return new ChatService.GroupPage(summaries, start, hasMore);
+    }
+    
     @Override
     public ChatService.GroupInfo[] getUserGroups(String username) throws RemoteException {
-        return groups.values().stream()
-            .filter(g -> g.isMember(username))
-            .map(this::convertToGroupInfo)
+        return directory.getGroupsOf(username).stream()
+            .map(Group::getInfo)
             .toArray(ChatService.GroupInfo[]::new);
     }
     
     @Override
     public void inviteToGroup(String groupId, String inviterUsername, String invitedUsername) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null || !group.isOwner(inviterUsername)) {
             throw new RemoteException("Grupo não encontrado ou usuário não é dono");
         }
         
-        if (group.isMember(invitedUsername)) {
-            throw new RemoteException("Usuário já é membro do grupo");
-        }
-        
-        pendingInvites.computeIfAbsent(invitedUsername, k -> ConcurrentHashMap.newKeySet()).add(groupId);
-        System.out.println("Convite enviado: " + invitedUsername + " -> " + group.getGroupName());
-        
-        ChatClientCallback callback = clients.get(invitedUsername);
-        if (callback != null) {
-            try {
-                callback.onGroupInviteReceived(groupId, group.getGroupName(), inviterUsername);
-            } catch (RemoteException e) {
-                System.err.println("Erro ao notificar convite: " + e.getMessage());
+        changing.lock();
+        try {
+            synchronized (group) {
+                if (group.isMember(invitedUsername)) {
+                    throw new RemoteException("Usuário já é membro do grupo");
+                }
+                
+                Set<String> userInvites = pendingInvites.computeIfAbsent(invitedUsername, ConcurrentHashMap::newKeySet);
+                if (userInvites.add(groupId)) {
+                    try {
+                        persist(wal -> wal.inviteAdded(invitedUsername, groupId));
+                    } catch (RemoteException e) {
+                        userInvites.remove(groupId);
+                        throw e;
+                    }
+                }
             }
+        } finally {
+            changing.unlock();
         }
+        log.info("Convite enviado: {} -> {}", invitedUsername, group.getGroupName());
+        
+        sendToUser(invitedUsername, new ChatEvent.GroupInviteReceived(groupId, group.getGroupName(), inviterUsername));
     }
     
     @Override
     public void requestJoinGroup(String groupId, String username) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null) {
             throw new RemoteException("Grupo não encontrado");
         }
         
-        if (group.isMember(username)) {
-            throw new RemoteException("Usuário já é membro do grupo");
-        }
-        
-        GroupRequest existingRequest = group.getRequest(username);
-        if (existingRequest != null) {
-            throw new RemoteException("Solicitação já existe");
+        changing.lock();
+        try {
+            synchronized (group) {
+                if (group.isMember(username)) {
+                    throw new RemoteException("Usuário já é membro do grupo");
+                }
+                
+                GroupRequest request = new GroupRequest(username, groupId, group.getGroupName());
+                if (!group.addRequestIfAbsent(request)) {
+                    throw new RemoteException("Solicitação já existe");
+                }
+                try {
+                    persist(wal -> wal.requestAdded(groupId, username));
+                } catch (RemoteException e) {
+                    group.removeRequest(username);
+                    throw e;
+                }
+            }
+        } finally {
+            changing.unlock();
         }
         
-        GroupRequest request = new GroupRequest(username, groupId, group.getGroupName());
-        group.addRequest(request);
+        log.info("Solicitação de entrada: {} -> {}", username, group.getGroupName());
         
-        System.out.println("Solicitação de entrada: " + username + " -> " + group.getGroupName());
-        
-        String owner = group.getOwner();
-        ChatClientCallback callback = clients.get(owner);
-        if (callback != null) {
-            try {
-                callback.onJoinRequestReceived(groupId, group.getGroupName(), username);
-            } catch (RemoteException e) {
-                System.err.println("Erro ao notificar solicitação: " + e.getMessage());
-            }
-        }
+        sendToUser(group.getOwner(), new ChatEvent.JoinRequestReceived(groupId, group.getGroupName(), username));
     }
     
     @Override
     public void processJoinRequest(String groupId, String ownerUsername, String requestingUsername, boolean approved) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null || !group.isOwner(ownerUsername)) {
             throw new RemoteException("Grupo não encontrado ou usuário não é dono");
         }
         
-        GroupRequest request = group.getRequest(requestingUsername);
-        if (request == null) {
-            throw new RemoteException("Não há solicitação pendente deste usuário");
-        }
-        
-        group.removeRequest(requestingUsername);
-        
-        if (approved) {
-            group.addMember(requestingUsername);
-            userGroups.computeIfAbsent(requestingUsername, k -> ConcurrentHashMap.newKeySet()).add(groupId);
-            
-            System.out.println("Solicitação aprovada: " + requestingUsername + " entrou em " + group.getGroupName());
-            
-            ChatClientCallback userCallback = clients.get(requestingUsername);
-            if (userCallback != null) {
+        long joinSeq = -1;
+        changing.lock();
+        try {
+            synchronized (group) {
+                GroupRequest request = group.removeRequest(requestingUsername);
+                if (request == null) {
+                    throw new RemoteException("Não há solicitação pendente deste usuário");
+                }
                 try {
-                    userCallback.onGroupJoinRequestProcessed(groupId, group.getGroupName(), true);
-                    userCallback.onAddedToGroup(groupId, group.getGroupName());
+                    persist(wal -> wal.requestRemoved(groupId, requestingUsername));
                 } catch (RemoteException e) {
-                    System.err.println("Erro ao notificar aprovação: " + e.getMessage());
+                    group.addRequest(request);
+                    throw e;
+                }
+                if (approved) {
+                    // Antes de entrar: o que for publicado a partir daqui chega ao novo membro no modo pull
+                    joinSeq = eventLog.getLastSeq(ChatService.Channels.group(groupId));
+                    addMember(group, requestingUsername);
                 }
             }
+        } finally {
+            changing.unlock();
+        }
+        
+        if (approved) {
+            log.info("Solicitação aprovada: {} entrou em {}", requestingUsername, group.getGroupName());
             
-            ChatService.GroupInfo groupInfo = convertToGroupInfo(group);
+            sendToUser(requestingUsername, new ChatEvent.GroupJoinRequestProcessed(groupId, group.getGroupName(), true));
+            sendToUser(requestingUsername, new ChatEvent.AddedToGroup(groupId, group.getGroupName(), joinSeq));
+            
+            ChatService.GroupInfo groupInfo = group.getInfo();
             broadcastGroupUpdate(groupId, groupInfo);
         } else {
-            System.out.println("Solicitação reprovada: " + requestingUsername + " não entrou em " + group.getGroupName());
+            log.info("Solicitação reprovada: {} não entrou em {}", requestingUsername, group.getGroupName());
             
-            ChatClientCallback userCallback = clients.get(requestingUsername);
-            if (userCallback != null) {
-                try {
-                    userCallback.onGroupJoinRequestProcessed(groupId, group.getGroupName(), false);
-                } catch (RemoteException e) {
-                    System.err.println("Erro ao notificar reprovação: " + e.getMessage());
-                }
-            }
+            sendToUser(requestingUsername, new ChatEvent.GroupJoinRequestProcessed(groupId, group.getGroupName(), false));
         }
     }
     
     @Override
     public void processInvite(String groupId, String username, boolean accepted) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null) {
             throw new RemoteException("Grupo não encontrado");
         }
         
-        Set<String> userInvites = pendingInvites.get(username);
-        if (userInvites == null || !userInvites.contains(groupId)) {
-            throw new RemoteException("Não há convite pendente para este grupo");
-        }
-        
-        userInvites.remove(groupId);
-        
-        if (accepted) {
-            group.addMember(username);
-            userGroups.computeIfAbsent(username, k -> ConcurrentHashMap.newKeySet()).add(groupId);
-            
-            System.out.println("Convite aceito: " + username + " entrou em " + group.getGroupName());
-            
-            ChatClientCallback userCallback = clients.get(username);
-            if (userCallback != null) {
+        long joinSeq = -1;
+        changing.lock();
+        try {
+            synchronized (group) {
+                Set<String> userInvites = pendingInvites.get(username);
+                if (userInvites == null || !userInvites.remove(groupId)) {
+                    throw new RemoteException("Não há convite pendente para este grupo");
+                }
                 try {
-                    userCallback.onAddedToGroup(groupId, group.getGroupName());
+                    persist(wal -> wal.inviteRemoved(username, groupId));
                 } catch (RemoteException e) {
-                    System.err.println("Erro ao notificar entrada no grupo: " + e.getMessage());
+                    userInvites.add(groupId);
+                    throw e;
+                }
+                if (accepted) {
+                    joinSeq = eventLog.getLastSeq(ChatService.Channels.group(groupId));
+                    addMember(group, username);
                 }
             }
+        } finally {
+            changing.unlock();
+        }
+        
+        if (accepted) {
+            log.info("Convite aceito: {} entrou em {}", username, group.getGroupName());
             
-            ChatService.GroupInfo groupInfo = convertToGroupInfo(group);
+            sendToUser(username, new ChatEvent.AddedToGroup(groupId, group.getGroupName(), joinSeq));
+            
+            ChatService.GroupInfo groupInfo = group.getInfo();
             broadcastGroupUpdate(groupId, groupInfo);
         } else {
-            System.out.println("Convite rejeitado: " + username + " não entrou em " + group.getGroupName());
+            log.info("Convite rejeitado: {} não entrou em {}", username, group.getGroupName());
         }
     }
     
     @Override
     public void sendGroupMessage(String groupId, String username, String message) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null || !group.isMember(username)) {
             throw new RemoteException("Grupo não encontrado ou usuário não é membro");
         }
         
-        System.out.println("[GRUPO:" + group.getGroupName() + "] [" + username + "]: " + message);
+        journal(ChatService.Channels.group(groupId), MessageJournal.EntryType.MESSAGE, username, message);
+        log.info("[GRUPO:{}] [{}]: {}", group.getGroupName(), username, message);
         
-        group.getMembers().forEach(member -> {
-            ChatClientCallback callback = clients.get(member);
-            if (callback != null) {
-                try {
-                    callback.onGroupMessageReceived(groupId, group.getGroupName(), username, message);
-                } catch (RemoteException e) {
-                    System.err.println("Erro ao enviar mensagem de grupo para " + member + ": " + e.getMessage());
-                    clients.remove(member);
-                }
-            }
-        });
+        ChatEvent event = new ChatEvent.GroupMessageReceived(groupId, group.getGroupName(), username, message);
+        publishToGroup(group, event);
     }
     
     @Override
     public String[] getPendingRequests(String groupId, String ownerUsername) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null || !group.isOwner(ownerUsername)) {
             return new String[0];
         }
@@ -373,15 +1369,15 @@ public class ChatServiceImpl implements ChatService {
         }
         
         return userInvites.stream()
-            .map(groups::get)
+            .map(directory::get)
             .filter(Objects::nonNull)
-            .map(this::convertToGroupInfo)
+            .map(Group::getInfo)
             .toArray(ChatService.GroupInfo[]::new);
     }
     
     @Override
     public void leaveGroup(String groupId, String username) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null || !group.isMember(username)) {
             throw new RemoteException("Grupo não encontrado ou usuário não é membro");
         }
@@ -390,17 +1386,16 @@ public class ChatServiceImpl implements ChatService {
             throw new RemoteException("Dono do grupo não pode sair. Delete o grupo se necessário.");
         }
         
-        group.removeMember(username);
-        userGroups.getOrDefault(username, Collections.emptySet()).remove(groupId);
-        System.out.println("Usuário " + username + " saiu do grupo " + group.getGroupName());
+        removeMember(group, username, "Grupo não encontrado ou usuário não é membro");
+        log.info("Usuário {} saiu do grupo {}", username, group.getGroupName());
         
-        ChatService.GroupInfo groupInfo = convertToGroupInfo(group);
+        ChatService.GroupInfo groupInfo = group.getInfo();
         broadcastGroupUpdate(groupId, groupInfo);
     }
     
     @Override
     public void removeFromGroup(String groupId, String ownerUsername, String memberUsername) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null) {
             throw new RemoteException("Grupo não encontrado");
         }
@@ -417,87 +1412,128 @@ public class ChatServiceImpl implements ChatService {
             throw new RemoteException("O dono não pode remover a si mesmo");
         }
         
-        group.removeMember(memberUsername);
-        userGroups.getOrDefault(memberUsername, Collections.emptySet()).remove(groupId);
-        System.out.println("Usuário " + memberUsername + " foi removido do grupo " + group.getGroupName() + " por " + ownerUsername);
+        removeMember(group, memberUsername, "Usuário não é membro do grupo");
+        log.info("Usuário {} foi removido do grupo {} por {}", memberUsername, group.getGroupName(), ownerUsername);
         
         // Notificar o usuário removido
-        ChatClientCallback removedUserCallback = clients.get(memberUsername);
-        if (removedUserCallback != null) {
-            try {
-                removedUserCallback.onRemovedFromGroup(groupId, group.getGroupName());
-            } catch (RemoteException e) {
-                System.err.println("Erro ao notificar usuário removido: " + e.getMessage());
-            }
-        }
+        sendToUser(memberUsername, new ChatEvent.RemovedFromGroup(groupId, group.getGroupName()));
         
         // Atualizar os outros membros
-        ChatService.GroupInfo groupInfo = convertToGroupInfo(group);
+        ChatService.GroupInfo groupInfo = group.getInfo();
         broadcastGroupUpdate(groupId, groupInfo);
     }
     
+    @Override
+    public void deleteGroup(String groupId, String ownerUsername) throws RemoteException {
+        Group group = directory.get(groupId);
+        if (group == null) {
+            throw new RemoteException("Grupo não encontrado");
+        }
+        
+        if (!group.isOwner(ownerUsername)) {
+            throw new RemoteException("Apenas o dono do grupo pode excluí-lo");
+        }
+        
+        changing.lock();
+        try {
+            synchronized (group) {
+                if (directory.delete(groupId) == null) {
+                    throw new RemoteException("Grupo não encontrado");
+                }
+                // Sem desfazer em caso de falha: o grupo já saiu dos índices e dos canais
+                persist(wal -> wal.groupDeleted(groupId));
+                // Convites pendentes saem junto, como em dropGroup
+                for (String username : getInvitedUsers(groupId)) {
+                    Set<String> userInvites = pendingInvites.get(username);
+                    if (userInvites != null && userInvites.remove(groupId)) {
+                        persist(wal -> wal.inviteRemoved(username, groupId));
+                    }
+                }
+            }
+        } finally {
+            changing.unlock();
+        }
+        log.info("Grupo excluído: {} (ID: {}, dono: {})", group.getGroupName(), groupId, ownerUsername);
+        
+        ChatEvent event = new ChatEvent.RemovedFromGroup(groupId, group.getGroupName());
+        group.getMembers().stream()
+            .filter(member -> !member.equals(ownerUsername))
+            .forEach(member -> sendToUser(member, event));
+        eventLog.remove(ChatService.Channels.group(groupId));
+    }
+    
     @Override
     public void notifyGroupFile(String groupId, String username, String filename) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null || !group.isMember(username)) {
             throw new RemoteException("Grupo não encontrado ou usuário não é membro");
         }
         
-        System.out.println("[GRUPO:" + group.getGroupName() + "] [" + username + "] enviou arquivo: " + filename);
+        journal(ChatService.Channels.group(groupId), MessageJournal.EntryType.FILE, username, filename);
+        log.info("[GRUPO:{}] [{}] enviou arquivo: {}", group.getGroupName(), username, filename);
         
-        group.getMembers().forEach(member -> {
-            ChatClientCallback callback = clients.get(member);
-            if (callback != null) {
-                try {
-                    callback.onGroupFileReceived(groupId, group.getGroupName(), username, filename);
-                } catch (RemoteException e) {
-                    System.err.println("Erro ao notificar arquivo de grupo para " + member + ": " + e.getMessage());
-                    clients.remove(member);
-                }
-            }
-        });
+        ChatEvent event = new ChatEvent.GroupFileReceived(groupId, group.getGroupName(), username, filename);
+        publishToGroup(group, event);
     }
     
     @Override
     public ChatService.GroupInfo getGroupInfo(String groupId) throws RemoteException {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null) {
             throw new RemoteException("Grupo não encontrado");
         }
-        return convertToGroupInfo(group);
+        return group.getInfo();
     }
     
-    private ChatService.GroupInfo convertToGroupInfo(Group group) {
-        String[] members = group.getMembers().toArray(new String[0]);
-        return new ChatService.GroupInfo(group.getGroupId(), group.getGroupName(), group.getOwner(), members);
+    /**
+     * Adiciona um membro e grava a alteração (com {@link #changing} e o lock do grupo)
+     */
+    private void addMember(Group group, String username) throws RemoteException {
+        if (!directory.addMember(group, username)) {
+            throw new RemoteException("Grupo não encontrado ou usuário já é membro");
+        }
+        try {
+            persist(wal -> wal.memberAdded(group.getGroupId(), username));
+        } catch (RemoteException e) {
+            directory.removeMember(group, username);
+            throw e;
+        }
     }
     
-    private void broadcastGroupCreated(ChatService.GroupInfo groupInfo) {
-        clients.forEach((user, callback) -> {
-            try {
-                callback.onGroupCreated(groupInfo);
-            } catch (RemoteException e) {
-                System.err.println("Erro ao notificar criação de grupo para " + user + ": " + e.getMessage());
-                clients.remove(user);
+    /**
+     * Remove um membro e grava a alteração
+     * @param notMemberMessage Mensagem de erro se o usuário não for membro
+     */
+    private void removeMember(Group group, String username, String notMemberMessage) throws RemoteException {
+        changing.lock();
+        try {
+            synchronized (group) {
+                if (!directory.removeMember(group, username)) {
+                    throw new RemoteException(notMemberMessage);
+                }
+                try {
+                    persist(wal -> wal.memberRemoved(group.getGroupId(), username));
+                } catch (RemoteException e) {
+                    directory.addMember(group, username);
+                    throw e;
+                }
             }
-        });
+        } finally {
+            changing.unlock();
+        }
+    }
+    
+    private void broadcastGroupCreated(ChatService.GroupInfo groupInfo) {
+        ChatEvent event = new ChatEvent.GroupCreated(groupInfo);
+        publishGlobal(event);
+        relay.eventPublished(event);
     }
     
     private void broadcastGroupUpdate(String groupId, ChatService.GroupInfo groupInfo) {
-        Group group = groups.get(groupId);
+        Group group = directory.get(groupId);
         if (group == null) return;
         
-        group.getMembers().forEach(member -> {
-            ChatClientCallback callback = clients.get(member);
-            if (callback != null) {
-                try {
-                    callback.onGroupUpdated(group.getGroupName(), groupInfo);
-                } catch (RemoteException e) {
-                    System.err.println("Erro ao atualizar grupo para " + member + ": " + e.getMessage());
-                    clients.remove(member);
-                }
-            }
-        });
+        publishToGroup(group, new ChatEvent.GroupUpdated(group.getGroupName(), groupInfo));
     }
     
     @Override
@@ -514,13 +1550,30 @@ public class ChatServiceImpl implements ChatService {
         
         // Verificar se o usuário já existe
         if (users.containsKey(username)) {
-            System.out.println("Tentativa de cadastro com usuário já existente: " + username);
+            log.info("Tentativa de cadastro com usuário já existente: {}", username);
             return false;
         }
         
-        // Cadastrar novo usuário
-        users.put(username, password);
-        System.out.println("Novo usuário cadastrado: " + username);
+        // Cadastrar novo usuário (o hash é calculado fora de qualquer lock)
+        String passwordHash = PasswordHasher.hash(password);
+        changing.lock();
+        try {
+            if (users.putIfAbsent(username, passwordHash) != null) {
+                log.info("Tentativa de cadastro com usuário já existente: {}", username);
+                return false;
+            }
+            userIds.intern(username);
+            String newUser = username;
+            try {
+                persist(wal -> wal.userRegistered(newUser, passwordHash));
+            } catch (RemoteException e) {
+                users.remove(username, passwordHash);
+                throw e;
+            }
+        } finally {
+            changing.unlock();
+        }
+        log.info("Novo usuário cadastrado: {}", username);
         return true;
     }
     
@@ -539,20 +1592,93 @@ public class ChatServiceImpl implements ChatService {
         // Verificar se o usuário existe e a senha está correta
         String storedPassword = users.get(username);
         if (storedPassword == null) {
-            System.out.println("Tentativa de login com usuário inexistente: " + username);
+            log.info("Tentativa de login com usuário inexistente: {}", username);
             return false;
         }
         
-        if (!storedPassword.equals(password)) {
-            System.out.println("Tentativa de login com senha incorreta para: " + username);
+        if (!PasswordHasher.verify(password, storedPassword)) {
+            log.warn("Tentativa de login com senha incorreta para: {}", username);
             return false;
         }
         
-        System.out.println("Login bem-sucedido: " + username);
+        log.info("Login bem-sucedido: {}", username);
         return true;
     }
     
-    public static class ChatSubject extends Subject {
+    /**
+     * Observadores do servidor, sobre o {@link EventBus}
+     * Observadores síncronos rodam na thread da chamada remota; os que podem
+     * ser lentos (auditoria, moderação, persistência) devem usar attachAsync,
+     * que entrega os eventos numa fila própria fora dessa thread.
+     */
+    public static class ChatSubject {
+        private final EventBus bus;
+        private final Map<Observer, List<EventBus.Subscription>> observers = new ConcurrentHashMap<>();
+        
+        public ChatSubject(EventBus bus) {
+            this.bus = bus;
+        }
+        
+        /**
+         * Adiciona um observador com entrega síncrona
+         * @param observer Observador a ser adicionado
+         */
+        public void attach(Observer observer) {
+            observers.computeIfAbsent(observer, o -> o instanceof ChatObserver
+                ? ((ChatObserver) o).subscribeTo(bus)
+                : Collections.singletonList(bus.subscribe(Object.class, o::update)));
+        }
+        
+        /**
+         * Adiciona um observador com entrega assíncrona
+         * @param observer Observador a ser adicionado
+         * @param queueCapacity Capacidade da fila de cada tipo de evento
+         * @param policy Política aplicada quando a fila está cheia
+         */
+        public void attachAsync(Observer observer, int queueCapacity, OverflowPolicy policy) {
+            observers.computeIfAbsent(observer, o -> o instanceof ChatObserver
+                ? ((ChatObserver) o).subscribeTo(bus, queueCapacity, policy)
+                : Collections.singletonList(bus.subscribeAsync(Object.class, o::update, queueCapacity, policy)));
+        }
+        
+        /**
+         * Remove um observador
+         * @param observer Observador a ser removido
+         */
+        public void detach(Observer observer) {
+            List<EventBus.Subscription> subscriptions = observers.remove(observer);
+            if (subscriptions != null) {
+                subscriptions.forEach(EventBus.Subscription::unsubscribe);
+            }
+        }
+        
+        /**
+         * Publica um evento para os observadores
+         * @param data Evento
+         */
+        public void notifyObservers(Object data) {
+            bus.publish(data);
+        }
+        
+        /**
+         * @param eventType Tipo concreto do evento
+         * @return true se algum observador recebe eventos desse tipo
+         */
+        public boolean hasObservers(Class<?> eventType) {
+            return bus.hasSubscribers(eventType);
+        }
+        
+        /**
+         * Retorna o número de observadores
+         * @return Número de observadores
+         */
+        public int getObserverCount() {
+            return observers.size();
+        }
+        
+        public EventBus getBus() {
+            return bus;
+        }
     }
 }
 
@@ -0,0 +1,374 @@
+package com.chatrmi.server;
+
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.interfaces.ChatService;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Predicate;
+
+/**
+ * Histórico recente de eventos por canal para clientes em modo pull
+ * Cada canal (chat global, presença, cada grupo, cada usuário em modo pull)
+ * guarda os últimos eventos num buffer circular com números de sequência
+ * crescentes. Clientes que não recebem callbacks buscam os eventos com
+ * fetchSince, aguardando (long-poll) quando ainda não há nada novo. Uma busca
+ * em vários canais espera em todos ao mesmo tempo por um {@link Waiter}.
+ */
+public class EventLog {
+    
+    private static final ChatEvent[] NO_EVENTS = new ChatEvent[0];
+    private static final int INITIAL_CAPACITY = 16;
+    
+    private final Map<String, ChannelBuffer> channels = new ConcurrentHashMap<>();
+    private final int capacity;
+    private final int maxBatch;
+    
+    public EventLog() {
+        this(Integer.getInteger("chatrmi.pull.bufferSize", 1024), 256);
+    }
+    
+    /**
+     * @param capacity Quantidade máxima de eventos guardados por canal
+     * @param maxBatch Quantidade máxima de eventos devolvidos por busca
+     */
+    public EventLog(int capacity, int maxBatch) {
+        this.capacity = Math.max(INITIAL_CAPACITY, capacity);
+        this.maxBatch = Math.max(1, maxBatch);
+    }
+    
+    /**
+     * Acrescenta um evento ao canal, acordando as buscas que aguardam por ele
+     * @param channel Nome do canal
+     * @param event Evento
+     * @return Número de sequência atribuído ao evento
+     */
+    public long append(String channel, ChatEvent event) {
+        return append(channel, event, null);
+    }
+    
+    /**
+     * Acrescenta um evento e o repassa a quem acompanha o canal ainda com a sequência reservada
+     * Com o lock do canal, os eventos chegam ao destino na ordem das sequências.
+     * @param channel Nome do canal
+     * @param event Evento
+     * @param onAppended Chamado com a sequência atribuída, antes de outro evento entrar no canal; pode ser null
+     * @return Número de sequência atribuído ao evento
+     */
+    public long append(String channel, ChatEvent event, EventVisitor onAppended) {
+        return channels.computeIfAbsent(channel, k -> new ChannelBuffer()).append(channel, event, onAppended);
+    }
+    
+    /**
+     * Acrescenta um evento com a sequência que ele recebeu em outro servidor (réplica)
+     * Sequências já presentes são ignoradas; um salto descarta o que o canal
+     * guardava, e as buscas anteriores ao salto passam a indicar lacuna.
+     * @param channel Nome do canal
+     * @param seq Sequência do evento no servidor de origem
+     * @param event Evento
+     */
+    public void appendAt(String channel, long seq, ChatEvent event) {
+        channels.computeIfAbsent(channel, k -> new ChannelBuffer()).appendAt(seq, event);
+    }
+    
+    /**
+     * Percorre os eventos guardados nos canais aceitos pelo filtro, em ordem de sequência
+     * @param filter Canais a percorrer
+     * @param visitor Destino de cada evento
+     */
+    public void forEachRetained(Predicate<String> filter, EventVisitor visitor) {
+        for (Map.Entry<String, ChannelBuffer> entry : channels.entrySet()) {
+            if (filter.test(entry.getKey())) {
+                entry.getValue().forEachRetained(entry.getKey(), visitor);
+            }
+        }
+    }
+    
+    /**
+     * Destino de {@link #forEachRetained} e do repasse em {@link #append(String, ChatEvent, EventVisitor)}
+     */
+    public interface EventVisitor {
+        void visit(String channel, long seq, ChatEvent event);
+    }
+    
+    /**
+     * Busca os eventos do canal posteriores a uma sequência
+     * @param channel Nome do canal
+     * @param afterSeq Última sequência já recebida; negativa para começar a partir de agora
+     * @param maxWaitMs Tempo máximo de espera se não houver eventos novos
+     * @return Eventos encontrados (possivelmente nenhum)
+     * @throws InterruptedException se a espera for interrompida
+     */
+    public ChatService.EventChunk fetchSince(String channel, long afterSeq, long maxWaitMs) throws InterruptedException {
+        return channels.computeIfAbsent(channel, k -> new ChannelBuffer()).read(afterSeq, maxWaitMs);
+    }
+    
+    /**
+     * Busca os eventos de vários canais, aguardando até algum deles ter eventos novos
+     * @param channels Nomes dos canais
+     * @param afterSeqs Última sequência já recebida em cada canal (mesma posição de channels)
+     * @param maxWaitMs Tempo máximo de espera se nenhum canal tiver eventos novos
+     * @return Eventos de cada canal, na ordem de channels
+     * @throws InterruptedException se a espera for interrompida
+     */
+    public ChatService.EventChunk[] fetchSince(String[] channels, long[] afterSeqs, long maxWaitMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        while (true) {
+            long remaining = deadline - System.currentTimeMillis();
+            // Registrado antes da leitura: um evento que chegar depois dela acorda a espera
+            try (Waiter waiter = remaining > 0 ? watch(channels) : null) {
+                ChatService.EventChunk[] chunks = new ChatService.EventChunk[channels.length];
+                for (int i = 0; i < channels.length; i++) {
+                    chunks[i] = fetchSince(channels[i], afterSeqs[i], 0);
+                }
+                if (waiter == null || hasNews(afterSeqs, chunks)) {
+                    return chunks;
+                }
+                waiter.await(remaining);
+            }
+        }
+    }
+    
+    /**
+     * @param afterSeqs Sequências pedidas em cada canal
+     * @param chunks Resultado da busca; posições null são ignoradas
+     * @return true se algum canal tem eventos, lacuna ou posição nova a informar
+     */
+    public static boolean hasNews(long[] afterSeqs, ChatService.EventChunk[] chunks) {
+        for (int i = 0; i < chunks.length; i++) {
+            ChatService.EventChunk chunk = chunks[i];
+            if (chunk != null && (chunk.getEvents().length > 0 || chunk.hasGap()
+                    || (afterSeqs[i] < 0 && chunk.getLastSeq() >= 0))) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+    /**
+     * Passa a acompanhar os canais: o waiter é acordado pelo próximo evento em qualquer um
+     * @param channels Nomes dos canais
+     * @return Waiter a fechar depois da espera
+     */
+    public Waiter watch(String[] channels) {
+        Waiter waiter = new Waiter();
+        for (String channel : channels) {
+            ChannelBuffer buffer = this.channels.computeIfAbsent(channel, k -> new ChannelBuffer());
+            buffer.addWaiter(waiter);
+            waiter.buffers.add(buffer);
+        }
+        return waiter;
+    }
+    
+    /**
+     * Acorda quem aguarda no canal sem acrescentar evento
+     * Usado quando um evento que o cliente busca em outro nó chega por repasse.
+     * @param channel Nome do canal
+     */
+    public void wake(String channel) {
+        ChannelBuffer buffer = channels.get(channel);
+        if (buffer != null) {
+            buffer.wake();
+        }
+    }
+    
+    /**
+     * Espera por eventos em vários canais ao mesmo tempo
+     * Acordado por qualquer evento (ou {@link #wake}) nos canais acompanhados
+     * depois de criado; fechar o retira dos canais.
+     */
+    public static final class Waiter implements AutoCloseable {
+        private final List<ChannelBuffer> buffers = new ArrayList<>();
+        private boolean signalled;
+        
+        private synchronized void signal() {
+            signalled = true;
+            notifyAll();
+        }
+        
+        /**
+         * Aguarda um evento nos canais acompanhados
+         * @param maxWaitMs Tempo máximo de espera
+         * @return true se foi acordado por um evento
+         * @throws InterruptedException se a espera for interrompida
+         */
+        public synchronized boolean await(long maxWaitMs) throws InterruptedException {
+            long deadline = System.currentTimeMillis() + maxWaitMs;
+            while (!signalled) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            return signalled;
+        }
+        
+        @Override
+        public void close() {
+            for (ChannelBuffer buffer : buffers) {
+                buffer.removeWaiter(this);
+            }
+        }
+    }
+    
+    /**
+     * @param channel Nome do canal
+     * @return Sequência do último evento do canal; 0 se ainda não houve nenhum
+     */
+    public long getLastSeq(String channel) {
+        ChannelBuffer buffer = channels.get(channel);
+        return buffer != null ? buffer.lastSeq() : 0;
+    }
+    
+    /**
+     * Descarta um canal (ex.: grupo excluído), liberando quem aguarda nele
+     * @param channel Nome do canal
+     */
+    public void remove(String channel) {
+        ChannelBuffer buffer = channels.remove(channel);
+        if (buffer != null) {
+            buffer.close();
+        }
+    }
+    
+    /**
+     * Descarta todos os canais aceitos pelo filtro
+     * @param filter Canais a descartar
+     */
+    public void removeAll(Predicate<String> filter) {
+        for (String channel : channels.keySet()) {
+            if (filter.test(channel)) {
+                remove(channel);
+            }
+        }
+    }
+    
+    /**
+     * @return Quantidade de canais com buffer alocado
+     */
+    public int getChannelCount() {
+        return channels.size();
+    }
+    
+    /**
+     * Buffer circular de um canal. Cresce sob demanda até a capacidade, para
+     * que canais pouco usados (a maioria dos grupos) ocupem pouca memória.
+     */
+    private final class ChannelBuffer {
+        private ChatEvent[] ring = new ChatEvent[INITIAL_CAPACITY];
+        private long head; // sequência do último evento; 0 = canal vazio
+        private long floor; // sequências até aqui não estão guardadas (réplica que começou no meio)
+        private boolean closed;
+        private List<Waiter> waiters; // buscas em vários canais; null enquanto não houver nenhuma
+        
+        synchronized long append(String channel, ChatEvent event, EventVisitor onAppended) {
+            if (head >= ring.length && ring.length < capacity) {
+                grow();
+            }
+            head++;
+            ring[(int) (head % ring.length)] = event;
+            wake();
+            if (onAppended != null) {
+                onAppended.visit(channel, head, event);
+            }
+            return head;
+        }
+        
+        synchronized void appendAt(long seq, ChatEvent event) {
+            if (seq <= head) {
+                return;
+            }
+            if (seq > head + 1) {
+                Arrays.fill(ring, null);
+                floor = seq - 1;
+                head = seq - 1;
+            }
+            append(null, event, null);
+        }
+        
+        synchronized void forEachRetained(String channel, EventVisitor visitor) {
+            for (long seq = oldest(); seq <= head; seq++) {
+                visitor.visit(channel, seq, ring[(int) (seq % ring.length)]);
+            }
+        }
+        
+        synchronized long lastSeq() {
+            return head;
+        }
+        
+        private long oldest() {
+            return Math.max(floor + 1, Math.max(1, head - ring.length + 1));
+        }
+        
+        private void grow() {
+            ChatEvent[] larger = new ChatEvent[Math.min(capacity, ring.length * 2)];
+            long oldest = oldest();
+            for (long seq = oldest; seq <= head; seq++) {
+                larger[(int) (seq % larger.length)] = ring[(int) (seq % ring.length)];
+            }
+            ring = larger;
+        }
+        
+        synchronized ChatService.EventChunk read(long afterSeq, long maxWaitMs) throws InterruptedException {
+            if (afterSeq < 0) {
+                return new ChatService.EventChunk(NO_EVENTS, head, false);
+            }
+            if (afterSeq > head) {
+                // Sequência de outra execução do servidor: recomeça do ponto atual
+                return new ChatService.EventChunk(NO_EVENTS, head, true);
+            }
+            long deadline = System.currentTimeMillis() + maxWaitMs;
+            while (head == afterSeq && !closed) {
+                long remaining = deadline - System.currentTimeMillis();
+                if (remaining <= 0) {
+                    break;
+                }
+                wait(remaining);
+            }
+            if (head == afterSeq) {
+                return new ChatService.EventChunk(NO_EVENTS, head, false);
+            }
+            
+            long from = Math.max(afterSeq + 1, oldest());
+            int count = (int) Math.min(head - from + 1, maxBatch);
+            ChatEvent[] events = new ChatEvent[count];
+            for (int i = 0; i < count; i++) {
+                events[i] = ring[(int) ((from + i) % ring.length)];
+            }
+            return new ChatService.EventChunk(events, from + count - 1, from > afterSeq + 1);
+        }
+        
+        synchronized void close() {
+            closed = true;
+            wake();
+        }
+        
+        synchronized void wake() {
+            notifyAll();
+            if (waiters != null) {
+                waiters.forEach(Waiter::signal);
+            }
+        }
+        
+        synchronized void addWaiter(Waiter waiter) {
+            if (closed) {
+                waiter.signal(); // canal descartado: a próxima rodada usa o buffer novo
+                return;
+            }
+            if (waiters == null) {
+                waiters = new ArrayList<>(2);
+            }
+            waiters.add(waiter);
+        }
+        
+        synchronized void removeWaiter(Waiter waiter) {
+            if (waiters != null) {
+                waiters.remove(waiter);
+            }
+        }
+    }
+}
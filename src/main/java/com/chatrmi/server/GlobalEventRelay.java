@@ -0,0 +1,34 @@
+package com.chatrmi.server;
+
+import com.chatrmi.interfaces.ChatEvent;
+
+/**
+ * Destino dos eventos globais originados neste servidor
+ * Usado pelo cluster para repassar a outros nós o chat global, os arquivos e
+ * a presença dos clientes conectados aqui, e os eventos de grupo destinados a
+ * usuários conectados em outros nós. Os métodos são chamados nas
+ * threads das chamadas remotas (às vezes com o lock de presença) e não devem
+ * bloquear: só enfileiram.
+ */
+public interface GlobalEventRelay {
+    
+    void messageSent(String username, String message);
+    
+    void fileShared(String username, String filename);
+    
+    /**
+     * @param online true quando o usuário conecta neste nó, false quando sai
+     */
+    void presenceChanged(String username, boolean online);
+    
+    /**
+     * Evento para todos os clientes do cluster (ex.: grupo criado)
+     */
+    void eventPublished(ChatEvent event);
+    
+    /**
+     * Evento para usuários que não estão conectados neste nó, mas em outro
+     * @param usernames Destinatários (todos remotos)
+     */
+    void eventForUsers(String[] usernames, ChatEvent event);
+}
@@ -0,0 +1,385 @@
+package com.chatrmi.server;
+
+import com.chatrmi.interfaces.ChatService;
+import com.chatrmi.model.Group;
+import com.chatrmi.model.UserDictionary;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.NavigableSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ConcurrentSkipListSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Diretório de grupos do servidor
+ * Mantém os grupos e o índice reverso usuário -> grupos, endereçado pelo ID do
+ * {@link UserDictionary} compartilhado com os grupos. Toda alteração de
+ * membros passa por aqui e atualiza o {@link Group} e o índice sob o lock do
+ * grupo, de modo que o índice é a fonte das consultas por usuário.
+ *
+ * Para a listagem paginada são mantidos dois índices ordenados: por nome
+ * (permite busca por prefixo com subMap) e por quantidade de membros.
+ */
+public class GroupDirectory {
+    
+    private static final String GROUP_ID_PREFIX = "GROUP_";
+    
+    private final Map<String, Group> groups; // groupId -> Group
+    private final UserDictionary users;
+    private final UserIdMap<Set<String>> userGroups; // ID do usuário -> Set<groupId>
+    private final AtomicInteger groupIdCounter;
+    private volatile String groupIdSuffix = ""; // em cluster, "@<nó>": IDs únicos entre os nós
+    private final NavigableMap<String, Group> byName; // nome normalizado + groupId -> Group
+    private final NavigableSet<CountKey> byMemberCount;
+    private final Map<String, CountKey> countKeys; // groupId -> chave atual em byMemberCount
+    
+    public GroupDirectory(UserDictionary users) {
+        this.users = users;
+        this.groups = new ConcurrentHashMap<>();
+        this.userGroups = new UserIdMap<>(users);
+        this.groupIdCounter = new AtomicInteger(1);
+        this.byName = new ConcurrentSkipListMap<>();
+        this.byMemberCount = new ConcurrentSkipListSet<>(CountKey.ORDER);
+        this.countKeys = new ConcurrentHashMap<>();
+    }
+    
+    /**
+     * Cria um grupo tendo o dono como primeiro membro, ainda fora do diretório
+     * O ID já fica reservado; o grupo só aparece nas consultas depois de
+     * {@link #register(Group)}, que quem cria chama após gravar a criação.
+     * @param groupName Nome do grupo
+     * @param ownerUsername Nome do dono
+     * @return Grupo criado
+     */
+    public Group create(String groupName, String ownerUsername) {
+        String groupId = GROUP_ID_PREFIX + groupIdCounter.getAndIncrement() + groupIdSuffix;
+        return new Group(groupId, groupName, ownerUsername, users);
+    }
+    
+    /**
+     * Recria um grupo existente (recuperação do estado persistido)
+     * O contador de IDs avança além do ID restaurado, para que nunca seja reutilizado.
+     * @return Grupo recriado, ou o já existente com o mesmo ID
+     */
+    public Group restore(String groupId, String groupName, String ownerUsername) {
+        Group existing = groups.get(groupId);
+        if (existing != null) {
+            return existing;
+        }
+        if (groupId.startsWith(GROUP_ID_PREFIX)) {
+            // Só os dígitos: o sufixo do nó (se houver) não conta
+            int end = GROUP_ID_PREFIX.length();
+            while (end < groupId.length() && Character.isDigit(groupId.charAt(end))) {
+                end++;
+            }
+            try {
+                advanceGroupIdCounter(Integer.parseInt(groupId.substring(GROUP_ID_PREFIX.length(), end)) + 1);
+            } catch (NumberFormatException e) {
+                // ID fora do padrão: não interfere no contador
+            }
+        }
+        Group group = new Group(groupId, groupName, ownerUsername, users);
+        register(group);
+        return group;
+    }
+    
+    /**
+     * Define o sufixo dos próximos IDs gerados (o nó do cluster que criou o grupo)
+     */
+    public void setGroupIdSuffix(String suffix) {
+        this.groupIdSuffix = suffix != null ? suffix : "";
+    }
+    
+    /**
+     * @return Número que o próximo grupo criado receberá no ID
+     */
+    public int getNextGroupId() {
+        return groupIdCounter.get();
+    }
+    
+    /**
+     * Garante que os próximos IDs gerados sejam ao menos nextId
+     */
+    public void advanceGroupIdCounter(int nextId) {
+        groupIdCounter.accumulateAndGet(nextId, Math::max);
+    }
+    
+    /**
+     * Põe no diretório e nos índices um grupo obtido de {@link #create}
+     */
+    public void register(Group group) {
+        synchronized (group) {
+            groups.put(group.getGroupId(), group);
+            byName.put(nameKey(group), group);
+            updateCount(group);
+            index(group.getOwner(), group.getGroupId());
+        }
+    }
+    
+    public Group get(String groupId) {
+        return groups.get(groupId);
+    }
+    
+    public Collection<Group> getAll() {
+        return groups.values();
+    }
+    
+    public int size() {
+        return groups.size();
+    }
+    
+    /**
+     * Adiciona um membro ao grupo e ao índice
+     * @return true se o usuário entrou no grupo
+     */
+    public boolean addMember(Group group, String username) {
+        synchronized (group) {
+            if (groups.get(group.getGroupId()) != group || !group.addMember(username)) {
+                return false;
+            }
+            index(username, group.getGroupId());
+            updateCount(group);
+            return true;
+        }
+    }
+    
+    /**
+     * Adiciona um membro durante a recuperação do estado
+     * Não reposiciona o grupo no índice por quantidade de membros (o custo
+     * dominante da recuperação); chame {@link #rebuildCountIndex()} ao final.
+     * @return true se o usuário entrou no grupo
+     */
+    public boolean restoreMember(Group group, String username) {
+        synchronized (group) {
+            if (groups.get(group.getGroupId()) != group || !group.addMember(username)) {
+                return false;
+            }
+            index(username, group.getGroupId());
+            return true;
+        }
+    }
+    
+    /**
+     * Reposiciona todos os grupos no índice por quantidade de membros
+     */
+    public void rebuildCountIndex() {
+        for (Group group : groups.values()) {
+            synchronized (group) {
+                updateCount(group);
+            }
+        }
+    }
+    
+    /**
+     * Remove um membro do grupo e do índice
+     * @return true se o usuário era membro
+     */
+    public boolean removeMember(Group group, String username) {
+        synchronized (group) {
+            if (!group.removeMember(username)) {
+                return false;
+            }
+            unindex(username, group.getGroupId());
+            updateCount(group);
+            return true;
+        }
+    }
+    
+    /**
+     * Exclui um grupo, removendo-o do índice de todos os membros
+     * @param groupId ID do grupo
+     * @return Grupo excluído, ou null se não existia
+     */
+    public Group delete(String groupId) {
+        Group group = groups.get(groupId);
+        if (group == null) {
+            return null;
+        }
+        synchronized (group) {
+            if (!groups.remove(groupId, group)) {
+                return null;
+            }
+            byName.remove(nameKey(group));
+            CountKey countKey = countKeys.remove(groupId);
+            if (countKey != null) {
+                byMemberCount.remove(countKey);
+            }
+            for (String member : group.getMembers()) {
+                unindex(member, groupId);
+            }
+            return group;
+        }
+    }
+    
+    /**
+     * Retorna os grupos de um usuário a partir do índice reverso
+     * @param username Nome do usuário
+     * @return Grupos dos quais o usuário é membro
+     */
+    public List<Group> getGroupsOf(String username) {
+        Set<String> groupIds = userGroups.get(username);
+        if (groupIds == null || groupIds.isEmpty()) {
+            return Collections.emptyList();
+        }
+        List<Group> result = new ArrayList<>(groupIds.size());
+        for (String groupId : groupIds) {
+            Group group = groups.get(groupId);
+            if (group != null) {
+                result.add(group);
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Retorna os IDs dos grupos de um usuário
+     * @param username Nome do usuário
+     * @return Conjunto somente leitura de IDs
+     */
+    public Set<String> getGroupIdsOf(String username) {
+        Set<String> groupIds = userGroups.get(username);
+        return groupIds != null ? Collections.unmodifiableSet(groupIds) : Collections.emptySet();
+    }
+    
+    /**
+     * Busca grupos para uma página do diretório
+     * A ordenação por nome com prefixo percorre apenas o intervalo do prefixo;
+     * a ordenação por membros filtra o índice por quantidade.
+     * @param namePrefix Prefixo do nome (sem diferenciar maiúsculas), ou null/vazio para todos
+     * @param sort Ordenação
+     * @param offset Quantidade de grupos a pular
+     * @param limit Quantidade máxima de grupos retornados
+     * @return Grupos encontrados, na ordem pedida
+     */
+    public List<Group> find(String namePrefix, ChatService.GroupSort sort, int offset, int limit) {
+        String prefix = namePrefix == null ? "" : normalize(namePrefix.trim());
+        List<Group> result = new ArrayList<>(Math.min(limit, 64));
+        int skipped = 0;
+        if (sort == ChatService.GroupSort.MEMBER_COUNT) {
+            for (CountKey key : byMemberCount) {
+                if (!key.nameKey.startsWith(prefix)) {
+                    continue;
+                }
+                Group group = groups.get(key.groupId);
+                if (group == null) {
+                    continue;
+                }
+                if (skipped++ < offset) {
+                    continue;
+                }
+                result.add(group);
+                if (result.size() >= limit) {
+                    break;
+                }
+            }
+        } else {
+            Collection<Group> range = prefix.isEmpty()
+                ? byName.values()
+                : byName.subMap(prefix, true, prefix + Character.MAX_VALUE, false).values();
+            for (Group group : range) {
+                if (skipped++ < offset) {
+                    continue;
+                }
+                result.add(group);
+                if (result.size() >= limit) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+    
+    /**
+     * Verifica se o índice reverso e os membros dos grupos concordam
+     * Deve ser chamado sem alterações concorrentes (testes, diagnóstico).
+     * @return Lista de inconsistências encontradas; vazia se o diretório está consistente
+     */
+    public List<String> checkConsistency() {
+        List<String> problems = new ArrayList<>();
+        for (Group group : groups.values()) {
+            for (String member : group.getMembers()) {
+                Set<String> groupIds = userGroups.get(member);
+                if (groupIds == null || !groupIds.contains(group.getGroupId())) {
+                    problems.add(member + " é membro de " + group.getGroupId() + " mas não está no índice");
+                }
+            }
+        }
+        userGroups.forEach((username, groupIds) -> {
+            for (String groupId : groupIds) {
+                Group group = groups.get(groupId);
+                if (group == null) {
+                    problems.add(username + " indexado em grupo inexistente " + groupId);
+                } else if (!group.isMember(username)) {
+                    problems.add(username + " indexado em " + groupId + " sem ser membro");
+                }
+            }
+        });
+        if (byName.size() != groups.size() || byMemberCount.size() != groups.size()) {
+            problems.add("índices ordenados com " + byName.size() + "/" + byMemberCount.size()
+                + " entradas para " + groups.size() + " grupos");
+        }
+        return problems;
+    }
+    
+    /**
+     * Reposiciona o grupo no índice por quantidade de membros (com o lock do grupo)
+     */
+    private void updateCount(Group group) {
+        CountKey key = new CountKey(group.getMemberCount(), nameKey(group), group.getGroupId());
+        CountKey previous = countKeys.put(group.getGroupId(), key);
+        if (previous != null) {
+            byMemberCount.remove(previous);
+        }
+        byMemberCount.add(key);
+    }
+    
+    private static String nameKey(Group group) {
+        // O groupId desempata grupos com o mesmo nome
+        return normalize(group.getGroupName()) + '\u0000' + group.getGroupId();
+    }
+    
+    private static String normalize(String name) {
+        return name.toLowerCase(Locale.ROOT);
+    }
+    
+    private void index(String username, String groupId) {
+        userGroups.computeIfAbsent(username, ConcurrentHashMap::newKeySet).add(groupId);
+    }
+    
+    private void unindex(String username, String groupId) {
+        // O conjunto vazio continua no índice: removê-lo poderia perder uma
+        // inclusão concorrente vinda de outro grupo (outro lock)
+        Set<String> groupIds = userGroups.get(username);
+        if (groupIds != null) {
+            groupIds.remove(groupId);
+        }
+    }
+    
+    /**
+     * Entrada do índice por quantidade de membros
+     */
+    private static final class CountKey {
+        static final Comparator<CountKey> ORDER = Comparator
+            .comparingInt((CountKey k) -> -k.memberCount)
+            .thenComparing(k -> k.nameKey);
+        
+        final int memberCount;
+        final String nameKey;
+        final String groupId;
+        
+        CountKey(int memberCount, String nameKey, String groupId) {
+            this.memberCount = memberCount;
+            this.nameKey = nameKey;
+            this.groupId = groupId;
+        }
+    }
+}
@@ -0,0 +1,182 @@
+package com.chatrmi.server;
+
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.interfaces.ChatService;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Agregador de presença
+ * Acumula entradas e saídas de usuários durante uma janela configurável e
+ * publica uma única variação consolidada por janela, evitando uma rodada de
+ * notificações a todos os clientes para cada login/logout em massa.
+ *
+ * A lista publicada (e sua versão) só muda no fechamento de cada janela, de
+ * modo que getSnapshot() é sempre coerente com as variações já enviadas.
+ */
+public class PresenceAggregator {
+    
+    private static final String[] NO_USERS = new String[0];
+    
+    private final Object lock = new Object();
+    private final Consumer<ChatEvent.PresenceChanged> publisher;
+    private final long windowMs;
+    private final ScheduledExecutorService scheduler;
+    
+    private final Set<String> online;     // estado atual
+    private final Set<String> published;  // estado na versão publicada
+    private final Set<String> touched;    // usuários alterados na janela aberta
+    private long version;
+    private boolean flushScheduled;
+    
+    private final AtomicLong rawUpdates = new AtomicLong();
+    private final AtomicLong emittedUpdates = new AtomicLong();
+    
+    public PresenceAggregator(Consumer<ChatEvent.PresenceChanged> publisher) {
+        this(publisher, Long.getLong("chatrmi.presence.windowMs", 100));
+    }
+    
+    /**
+     * @param publisher Destino das variações consolidadas (chamado com o lock do agregador)
+     * @param windowMs Duração da janela de agregação; 0 publica cada alteração imediatamente
+     */
+    public PresenceAggregator(Consumer<ChatEvent.PresenceChanged> publisher, long windowMs) {
+        this.publisher = publisher;
+        this.windowMs = Math.max(0, windowMs);
+        this.online = new HashSet<>();
+        this.published = new LinkedHashSet<>();
+        this.touched = new LinkedHashSet<>();
+        this.scheduler = this.windowMs > 0
+            ? Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "chat-presence");
+                thread.setDaemon(true);
+                return thread;
+            })
+            : null;
+    }
+    
+    /**
+     * Registra a entrada de um usuário
+     * @param username Nome do usuário
+     */
+    public void userJoined(String username) {
+        record(username, true);
+    }
+    
+    /**
+     * Registra a saída de um usuário
+     * @param username Nome do usuário
+     */
+    public void userLeft(String username) {
+        record(username, false);
+    }
+    
+    private void record(String username, boolean joined) {
+        rawUpdates.incrementAndGet();
+        synchronized (lock) {
+            if (joined) {
+                online.add(username);
+            } else {
+                online.remove(username);
+            }
+            touched.add(username);
+            if (scheduler == null) {
+                flushLocked();
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                scheduler.schedule(this::flush, windowMs, TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+    
+    /**
+     * Fecha a janela atual publicando a variação líquida acumulada
+     */
+    public void flush() {
+        synchronized (lock) {
+            flushScheduled = false;
+            flushLocked();
+        }
+    }
+    
+    private void flushLocked() {
+        List<String> joined = new ArrayList<>();
+        List<String> left = new ArrayList<>();
+        for (String user : touched) {
+            boolean isOnline = online.contains(user);
+            boolean wasOnline = published.contains(user);
+            if (isOnline && !wasOnline) {
+                joined.add(user);
+                published.add(user);
+            } else if (!isOnline && wasOnline) {
+                left.add(user);
+                published.remove(user);
+            }
+        }
+        touched.clear();
+        if (joined.isEmpty() && left.isEmpty()) {
+            // Entradas e saídas se anularam na janela
+            return;
+        }
+        long fromVersion = version++;
+        emittedUpdates.incrementAndGet();
+        publisher.accept(new ChatEvent.PresenceChanged(fromVersion, version,
+            joined.toArray(NO_USERS), left.toArray(NO_USERS)));
+    }
+    
+    /**
+     * Retorna a lista publicada e sua versão
+     * @return Lista de usuários coerente com a última variação enviada
+     */
+    public ChatService.PresenceSnapshot getSnapshot() {
+        synchronized (lock) {
+            return new ChatService.PresenceSnapshot(version, published.toArray(NO_USERS));
+        }
+    }
+    
+    /**
+     * @return Versão de presença publicada
+     */
+    public long getVersion() {
+        synchronized (lock) {
+            return version;
+        }
+    }
+    
+    /**
+     * @return Total de entradas/saídas recebidas
+     */
+    public long getRawUpdates() {
+        return rawUpdates.get();
+    }
+    
+    /**
+     * @return Total de variações consolidadas publicadas
+     */
+    public long getEmittedUpdates() {
+        return emittedUpdates.get();
+    }
+    
+    public long getWindowMs() {
+        return windowMs;
+    }
+    
+    /**
+     * Publica a janela pendente e encerra o agendador
+     */
+    public void shutdown() {
+        flush();
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,25 @@
+package com.chatrmi.server;
+
+import com.chatrmi.interfaces.ChatEvent;
+import com.chatrmi.persistence.MessageJournal;
+import com.chatrmi.persistence.StateMutations;
+
+/**
+ * Destino das alterações que o servidor primário envia ao de reserva
+ * As alterações de estado chegam pelos métodos de {@link StateMutations}, na
+ * mesma ordem em que vão para o WAL (com o lock do grupo alterado); as
+ * gravações do journal e os eventos do histórico de cada canal vêm com a
+ * sequência que receberam aqui, ainda com o lock que a atribuiu, para que a
+ * reserva as receba na ordem e as reproduza iguais. Os métodos são chamados
+ * nas threads das chamadas remotas e não devem bloquear: só enfileiram.
+ */
+public interface ReplicationSink extends StateMutations {
+    
+    void journalAppended(String channel, long seq, long timestamp, MessageJournal.EntryType type,
+                         String username, String content);
+    
+    /**
+     * Evento acrescentado ao histórico do chat global ou de um grupo
+     */
+    void eventAppended(String channel, long seq, ChatEvent event);
+}
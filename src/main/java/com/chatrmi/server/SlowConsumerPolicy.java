@@ -0,0 +1,46 @@
+package com.chatrmi.server;
+
+import com.chatrmi.logging.Logger;
+
+/**
+ * Política aplicada a um cliente cuja fila de saída ou latência de callback
+ * ultrapassa os limites configurados
+ */
+public enum SlowConsumerPolicy {
+    
+    /**
+     * Descarta os eventos mais antigos da fila para abrir espaço aos novos
+     */
+    DROP_OLDEST,
+    
+    /**
+     * Mantém apenas a atualização de presença mais recente pendente na fila;
+     * se ainda faltar espaço, descarta os eventos mais antigos
+     */
+    COLLAPSE_PRESENCE,
+    
+    /**
+     * Desconecta o cliente (equivalente a unregisterClient)
+     */
+    DISCONNECT;
+    
+    private static final Logger log = Logger.get(SlowConsumerPolicy.class);
+    
+    /**
+     * Lê a política da propriedade de sistema chatrmi.slowConsumer.policy
+     * @param defaultPolicy Política usada se a propriedade estiver ausente ou inválida
+     * @return Política configurada
+     */
+    public static SlowConsumerPolicy fromSystemProperty(SlowConsumerPolicy defaultPolicy) {
+        String value = System.getProperty("chatrmi.slowConsumer.policy");
+        if (value == null || value.trim().isEmpty()) {
+            return defaultPolicy;
+        }
+        try {
+            return valueOf(value.trim().toUpperCase());
+        } catch (IllegalArgumentException e) {
+            log.warn("Política de cliente lento desconhecida: {}. Usando {}", value, defaultPolicy);
+            return defaultPolicy;
+        }
+    }
+}
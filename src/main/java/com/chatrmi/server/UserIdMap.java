@@ -0,0 +1,103 @@
+package com.chatrmi.server;
+
+import com.chatrmi.model.UserDictionary;
+
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+import java.util.function.Supplier;
+
+/**
+ * Índice por usuário endereçado pelo ID do {@link UserDictionary}
+ * Os IDs são densos, então o índice é um array em blocos: sem hash de String
+ * nem nó por entrada. Um valor, depois de criado, não é removido; quem usa
+ * guarda coleções concorrentes e as esvazia.
+ * @param <V> Tipo do valor associado a cada usuário
+ */
+final class UserIdMap<V> {
+    
+    private static final int CHUNK_BITS = 10;
+    private static final int CHUNK_SIZE = 1 << CHUNK_BITS;
+    
+    private final UserDictionary users;
+    private volatile AtomicReferenceArray<V>[] chunks;
+    
+    UserIdMap(UserDictionary users) {
+        this.users = users;
+        this.chunks = newChunks(0);
+    }
+    
+    /**
+     * @return Valor do usuário, ou null se não houver
+     */
+    V get(String username) {
+        int id = users.idOf(username);
+        return id < 0 ? null : get(id);
+    }
+    
+    /**
+     * @return Valor do usuário com o ID dado, ou null se não houver
+     */
+    V get(int id) {
+        AtomicReferenceArray<V>[] current = chunks;
+        int chunk = id >>> CHUNK_BITS;
+        return chunk < current.length ? current[chunk].get(id & (CHUNK_SIZE - 1)) : null;
+    }
+    
+    /**
+     * Retorna o valor do usuário, criando-o se ainda não houver
+     * O usuário entra no dicionário se ainda não estiver.
+     */
+    V computeIfAbsent(String username, Supplier<V> factory) {
+        int id = users.intern(username);
+        AtomicReferenceArray<V> chunk = chunkFor(id);
+        int index = id & (CHUNK_SIZE - 1);
+        V value = chunk.get(index);
+        if (value != null) {
+            return value;
+        }
+        V created = factory.get();
+        return chunk.compareAndSet(index, null, created) ? created : chunk.get(index);
+    }
+    
+    /**
+     * Percorre os valores existentes em ordem de ID
+     */
+    void forEach(BiConsumer<String, V> action) {
+        AtomicReferenceArray<V>[] current = chunks;
+        for (int c = 0; c < current.length; c++) {
+            for (int i = 0; i < CHUNK_SIZE; i++) {
+                V value = current[c].get(i);
+                if (value != null) {
+                    action.accept(users.nameOf((c << CHUNK_BITS) | i), value);
+                }
+            }
+        }
+    }
+    
+    private AtomicReferenceArray<V> chunkFor(int id) {
+        int chunk = id >>> CHUNK_BITS;
+        AtomicReferenceArray<V>[] current = chunks;
+        if (chunk < current.length) {
+            return current[chunk];
+        }
+        synchronized (this) {
+            current = chunks;
+            if (chunk >= current.length) {
+                AtomicReferenceArray<V>[] grown = newChunks(chunk + 1);
+                System.arraycopy(current, 0, grown, 0, current.length);
+                for (int c = current.length; c < grown.length; c++) {
+                    grown[c] = new AtomicReferenceArray<>(CHUNK_SIZE);
+                }
+                chunks = grown;
+                current = grown;
+            }
+            return current[chunk];
+        }
+    }
+    
+    // Array genérico não pode ser criado diretamente; os elementos são sempre do tipo V
+    @SuppressWarnings({"unchecked", "rawtypes"})
+    private static <V> AtomicReferenceArray<V>[] newChunks(int length) {
+        return new AtomicReferenceArray[length];
+    }
+}
@@ -1,5 +1,10 @@
 package com.chatrmi.udp;
 
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Counter;
+import com.chatrmi.metrics.Histogram;
+import com.chatrmi.metrics.MetricsRegistry;
+
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
@@ -15,28 +20,49 @@ import java.nio.charset.StandardCharsets;
  */
 public class UDPFileDownloadServer {
     
+    private static final Logger log = Logger.get(UDPFileDownloadServer.class);
+    
     private int port;
     private DatagramSocket socket;
     private boolean running;
     private String uploadDir;
+    private final Counter packetsIn;
+    private final Counter bytesIn;
+    private final Counter packetsOut;
+    private final Counter bytesOut;
+    private final Counter filesSent;
+    private final Histogram transferMillis;
     
     public UDPFileDownloadServer(int port) {
+        this(port, new MetricsRegistry());
+    }
+    
+    /**
+     * @param metrics Registro onde são publicadas as métricas udp.download.*
+     */
+    public UDPFileDownloadServer(int port, MetricsRegistry metrics) {
         this.port = port;
         this.running = false;
         this.uploadDir = "uploads";
+        this.packetsIn = metrics.counter("udp.download.packetsIn");
+        this.bytesIn = metrics.counter("udp.download.bytesIn");
+        this.packetsOut = metrics.counter("udp.download.packetsOut");
+        this.bytesOut = metrics.counter("udp.download.bytesOut");
+        this.filesSent = metrics.counter("udp.download.files");
+        this.transferMillis = metrics.histogram("udp.download.millis");
     }
     
     public void start() throws SocketException {
         socket = new DatagramSocket(port);
         running = true;
-        System.out.println("Servidor UDP de download aguardando solicitações na porta " + port + "...");
+        log.info("Servidor UDP de download aguardando solicitações na porta {}...", port);
         
         while (running) {
             try {
                 handleDownloadRequest();
             } catch (IOException e) {
                 if (running) {
-                    System.err.println("Erro ao processar solicitação de download: " + e.getMessage());
+                    log.error("Erro ao processar solicitação de download: {}", e.getMessage());
                 }
             }
         }
@@ -46,6 +72,8 @@ public class UDPFileDownloadServer {
         byte[] requestBuffer = new byte[2048];
         DatagramPacket requestPacket = new DatagramPacket(requestBuffer, requestBuffer.length);
         socket.receive(requestPacket);
+        packetsIn.increment();
+        bytesIn.add(requestPacket.getLength());
         
         InetAddress clientAddress = requestPacket.getAddress();
         int clientPort = requestPacket.getPort();
@@ -58,12 +86,13 @@ public class UDPFileDownloadServer {
             DatagramPacket errorPacket = new DatagramPacket(
                 errorMsg, errorMsg.length, clientAddress, clientPort
             );
-            socket.send(errorPacket);
+            send(errorPacket);
             return;
         }
         
+        long start = System.nanoTime();
         long fileSize = file.length();
-        System.out.println("Enviando arquivo: " + filename + " (" + fileSize + " bytes) para " + clientAddress);
+        log.info("Enviando arquivo: {} ({} bytes) para {}", filename, fileSize, clientAddress);
         
         byte[] filenameBytes = filename.getBytes(StandardCharsets.UTF_8);
         ByteBuffer headerBuffer = ByteBuffer.allocate(2048);
@@ -78,7 +107,7 @@ public class UDPFileDownloadServer {
         DatagramPacket headerPacket = new DatagramPacket(
             header, header.length, clientAddress, clientPort
         );
-        socket.send(headerPacket);
+        send(headerPacket);
         
         try (FileInputStream fis = new FileInputStream(file)) {
             byte[] buffer = new byte[8192];
@@ -91,7 +120,7 @@ public class UDPFileDownloadServer {
                 DatagramPacket packet = new DatagramPacket(
                     buffer, bytesRead, clientAddress, clientPort
                 );
-                socket.send(packet);
+                send(packet);
                 
                 sent += bytesRead;
                 
@@ -104,7 +133,15 @@ public class UDPFileDownloadServer {
             }
         }
         
-        System.out.println("Arquivo enviado com sucesso: " + filename);
+        filesSent.increment();
+        transferMillis.record((System.nanoTime() - start) / 1_000_000);
+        log.info("Arquivo enviado com sucesso: {}", filename);
+    }
+    
+    private void send(DatagramPacket packet) throws IOException {
+        socket.send(packet);
+        packetsOut.increment();
+        bytesOut.add(packet.getLength());
     }
     
     public void stop() {
@@ -1,5 +1,9 @@
 package com.chatrmi.udp;
 
+import com.chatrmi.logging.Logger;
+import com.chatrmi.metrics.Counter;
+import com.chatrmi.metrics.Histogram;
+import com.chatrmi.metrics.MetricsRegistry;
 import com.chatrmi.server.ChatServiceImpl;
 
 import java.io.File;
@@ -16,11 +20,17 @@ import java.nio.charset.StandardCharsets;
  */
 public class UDPFileServer {
     
+    private static final Logger log = Logger.get(UDPFileServer.class);
+    
     private int port;
     private ChatServiceImpl chatService;
     private DatagramSocket socket;
     private boolean running;
     private String uploadDir;
+    private final Counter packetsIn;
+    private final Counter bytesIn;
+    private final Counter filesReceived;
+    private final Histogram transferMillis;
     
     public UDPFileServer(int port, ChatServiceImpl chatService) {
         this.port = port;
@@ -28,6 +38,12 @@ public class UDPFileServer {
         this.running = false;
         this.uploadDir = "uploads";
         
+        MetricsRegistry metrics = chatService != null ? chatService.getMetrics() : new MetricsRegistry();
+        this.packetsIn = metrics.counter("udp.upload.packetsIn");
+        this.bytesIn = metrics.counter("udp.upload.bytesIn");
+        this.filesReceived = metrics.counter("udp.upload.files");
+        this.transferMillis = metrics.histogram("udp.upload.millis");
+        
         File dir = new File(uploadDir);
         if (!dir.exists()) {
             dir.mkdirs();
@@ -37,14 +53,14 @@ public class UDPFileServer {
     public void start() throws SocketException {
         socket = new DatagramSocket(port);
         running = true;
-        System.out.println("Servidor UDP aguardando arquivos na porta " + port + "...");
+        log.info("Servidor UDP aguardando arquivos na porta {}...", port);
         
         while (running) {
             try {
                 receiveFile();
             } catch (IOException e) {
                 if (running) {
-                    System.err.println("Erro ao receber arquivo: " + e.getMessage());
+                    log.error("Erro ao receber arquivo: {}", e.getMessage());
                 }
             }
         }
@@ -56,10 +72,12 @@ public class UDPFileServer {
         socket.receive(headerPacket);
         
         int receivedLength = headerPacket.getLength();
+        packetsIn.increment();
+        bytesIn.add(receivedLength);
         
         // Validar tamanho mínimo do pacote (pelo menos 4 bytes para o primeiro int)
         if (receivedLength < 4) {
-            System.err.println("Pacote UDP inválido: muito pequeno (" + receivedLength + " bytes)");
+            log.warn("Pacote UDP inválido: muito pequeno ({} bytes)", receivedLength);
             return;
         }
         
@@ -68,7 +86,7 @@ public class UDPFileServer {
         // Ler e validar username
         int usernameLength = buffer.getInt();
         if (usernameLength <= 0 || usernameLength > 256 || buffer.remaining() < usernameLength) {
-            System.err.println("Pacote UDP inválido: usernameLength inválido (" + usernameLength + ")");
+            log.warn("Pacote UDP inválido: usernameLength inválido ({})", usernameLength);
             return;
         }
         byte[] usernameBytes = new byte[usernameLength];
@@ -77,13 +95,13 @@ public class UDPFileServer {
         
         // Validar se ainda há dados para ler filenameLength
         if (buffer.remaining() < 4) {
-            System.err.println("Pacote UDP inválido: dados insuficientes para filenameLength");
+            log.warn("Pacote UDP inválido: dados insuficientes para filenameLength");
             return;
         }
         
         int filenameLength = buffer.getInt();
         if (filenameLength <= 0 || filenameLength > 512 || buffer.remaining() < filenameLength) {
-            System.err.println("Pacote UDP inválido: filenameLength inválido (" + filenameLength + ")");
+            log.warn("Pacote UDP inválido: filenameLength inválido ({})", filenameLength);
             return;
         }
         byte[] filenameBytes = new byte[filenameLength];
@@ -92,18 +110,19 @@ public class UDPFileServer {
         
         // Validar se ainda há dados para ler fileSize
         if (buffer.remaining() < 8) {
-            System.err.println("Pacote UDP inválido: dados insuficientes para fileSize");
+            log.warn("Pacote UDP inválido: dados insuficientes para fileSize");
             return;
         }
         
         long fileSize = buffer.getLong();
         if (fileSize < 0 || fileSize > 100_000_000) { // Limite de 100MB
-            System.err.println("Pacote UDP inválido: fileSize inválido (" + fileSize + ")");
+            log.warn("Pacote UDP inválido: fileSize inválido ({})", fileSize);
             return;
         }
         
-        System.out.println("Recebendo arquivo: " + filename + " (" + fileSize + " bytes) de " + username);
+        log.info("Recebendo arquivo: {} ({} bytes) de {}", filename, fileSize, username);
         
+        long start = System.nanoTime();
         File file = new File(uploadDir, filename);
         try (FileOutputStream fos = new FileOutputStream(file)) {
             long received = 0;
@@ -114,6 +133,8 @@ public class UDPFileServer {
                 socket.receive(packet);
                 
                 int packetSize = packet.getLength();
+                packetsIn.increment();
+                bytesIn.add(packetSize);
                 if (packetSize == 0) {
                     continue; // Ignorar pacotes vazios
                 }
@@ -127,7 +148,9 @@ public class UDPFileServer {
             }
         }
         
-        System.out.println("Arquivo recebido com sucesso: " + filename);
+        filesReceived.increment();
+        transferMillis.record((System.nanoTime() - start) / 1_000_000);
+        log.info("Arquivo recebido com sucesso: {}", filename);
         
         if (chatService != null) {
             chatService.notifyFileReceived(username, filename);